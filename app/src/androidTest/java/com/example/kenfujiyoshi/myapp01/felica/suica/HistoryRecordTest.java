@@ -0,0 +1,79 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * 使用履歴のデコーダ(HistoryRecord)のテストを提供します
+ */
+public class HistoryRecordTest extends TestCase {
+    /** 2014/09/22 駅の入出場、残高1000円、連番0x000123 */
+    private static final byte[] TRAIN = {
+            0x16, 0x01, 0x00, 0x02, 0x1d, 0x36, (byte) 0xe3, 0x31
+            , (byte) 0xe3, 0x37, (byte) 0xe8, 0x03, 0x00, 0x01, 0x23, 0x00 };
+    /** 2014/09/23 12:34 物販、残高50000円 */
+    private static final byte[] SALES = {
+            (byte) 0xc7, 0x46, 0x00, 0x00, 0x1d, 0x37, 0x64, 0x40
+            , 0x00, 0x00, 0x50, (byte) 0xc3, 0x00, 0x01, 0x24, 0x00 };
+
+    public void testDecodeTrain() {
+        HistoryRecord r = new HistoryRecord().wrap(TRAIN);
+        assertEquals(0x16, r.getConsoleType());
+        assertEquals(0x01, r.getProcessType());
+        assertEquals(2014, r.getYear());
+        assertEquals(9, r.getMonth());
+        assertEquals(22, r.getDay());
+        assertEquals(20140922, r.getDate());
+        assertEquals(1000, r.getBalance());
+        assertEquals(0x000123, r.getSequenceNumber());
+        assertEquals(0, r.getRegionCode());
+        assertEquals(StationIndex.stationKey(0, 0xe3, 0x31), r.getEntranceStationKey());
+        assertEquals(StationIndex.stationKey(0, 0xe3, 0x37), r.getExitStationKey());
+        assertFalse(r.isByBus());
+        assertFalse(r.isProductSales());
+        assertFalse(r.isCharge());
+    }
+
+    public void testDecodeProductSales() {
+        HistoryRecord r = new HistoryRecord().wrap(SALES);
+        assertTrue(r.isProductSales());
+        assertEquals(20140923, r.getDate());
+        assertEquals(12, r.getHour());
+        assertEquals(34, r.getMinute());
+        assertEquals(50000, r.getBalance());
+    }
+
+    public void testCursorOverBuffer() {
+        //ReadResponseのように先頭にヘッダがあるバッファ
+        byte[] buffer = new byte[3 + HistoryRecord.RECORD_SIZE * 2];
+        System.arraycopy(TRAIN, 0, buffer, 3, HistoryRecord.RECORD_SIZE);
+        System.arraycopy(SALES, 0, buffer, 3 + HistoryRecord.RECORD_SIZE, HistoryRecord.RECORD_SIZE);
+
+        HistoryRecord r = new HistoryRecord().wrap(buffer, 3, 2);
+        assertEquals(2, r.getCount());
+        assertEquals(-1, r.getPosition());
+        assertTrue(r.moveToNext());
+        assertEquals(0x000123, r.getSequenceNumber());
+        assertTrue(r.moveToNext());
+        assertEquals(0x000124, r.getSequenceNumber());
+        assertFalse(r.moveToNext());
+        assertEquals(2, r.getPosition());
+
+        assertTrue(r.moveToPosition(0));
+        byte[] copy = new byte[HistoryRecord.RECORD_SIZE];
+        r.copyTo(copy, 0);
+        assertTrue(Arrays.equals(TRAIN, copy));
+        assertFalse(r.moveToPosition(-5));
+        assertEquals(-1, r.getPosition());
+    }
+
+    public void testWrapOutOfRangeThrows() {
+        try {
+            new HistoryRecord().wrap(new byte[HistoryRecord.RECORD_SIZE * 2], 1, 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //OK
+        }
+    }
+}
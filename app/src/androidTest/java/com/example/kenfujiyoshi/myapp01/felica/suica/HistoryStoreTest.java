@@ -0,0 +1,192 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
+
+/**
+ * 使用履歴の蓄積(HistoryStore)のテストを提供します
+ * <pre>
+ * データベースはメモリ上に作成し、履歴を追加してから期間、駅、バス停留所で絞り込んだ結果を検査します
+ * </pre>
+ */
+public class HistoryStoreTest extends TestCase {
+    private static final IDm IDM = new IDm(0x0102030405060708L);
+    private static final IDm OTHER = new IDm(0x0102030405060709L);
+
+    private static final int TOKYO = StationIndex.stationKey(0, 0x25, 0x01);
+    private static final int SHINJUKU = StationIndex.stationKey(0, 0x25, 0x31);
+    private static final int UENO = StationIndex.stationKey(0, 0x25, 0x0b);
+    private static final int BUS_STOP = StationIndex.busStopKey(0x1234, 0x0056);
+
+    private HistoryStore store;
+
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        store = new HistoryStore(null, null);
+    }
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#tearDown()
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        store.close();
+        super.tearDown();
+    }
+
+    public void testCreateIndexes() {
+        List<String> indexes = getIndexes();
+        assertTrue(indexes.contains("History_Date"));
+        assertTrue(indexes.contains("History_Entrance"));
+        assertTrue(indexes.contains("History_Exit"));
+        assertTrue(indexes.contains("History_BusStop"));
+    }
+
+    public void testAppendIgnoresDuplicates() {
+        assertEquals(2, store.append(IDM, Arrays.asList(train(1, 2014, 3, 1, TOKYO, SHINJUKU)
+                , train(2, 2014, 3, 2, SHINJUKU, TOKYO))));
+        assertEquals(1, store.append(IDM, Arrays.asList(train(2, 2014, 3, 2, SHINJUKU, TOKYO)
+                , train(3, 2014, 3, 3, TOKYO, UENO))));
+        assertSequences(store.queryAll(IDM), 3, 2, 1);
+        assertEquals(3, store.getLastSequenceNumber(IDM));
+        assertEquals(HistorySync.NO_SEQUENCE, store.getLastSequenceNumber(OTHER));
+    }
+
+    public void testQueryByMonth() {
+        appendRides();
+        assertSequences(store.queryByMonth(IDM, 2014, 3), 4, 3, 2);
+        assertSequences(store.queryByMonth(IDM, 2014, 5));
+        assertSequences(store.queryByMonth(OTHER, 2014, 3), 10);
+    }
+
+    public void testQueryRangeIncludesBothEnds() {
+        appendRides();
+        assertSequences(store.query(IDM, 20140301, 20140315), 3, 2);
+        assertSequences(store.query(IDM, 20140228, 20140401), 5, 4, 3, 2, 1);
+    }
+
+    public void testQueryByStation() {
+        appendRides();
+        //入場または出場のどちらかが一致する履歴
+        assertSequences(store.queryByStation(IDM, SHINJUKU), 4, 2, 1);
+        assertSequences(store.queryByStation(IDM, UENO), 3);
+        assertSequences(store.queryByStation(OTHER, SHINJUKU));
+    }
+
+    public void testQueryByBusStop() {
+        appendRides();
+        assertSequences(store.queryByBusStop(IDM, BUS_STOP), 5);
+        //バスの履歴は駅の検索には含まれない
+        assertSequences(store.queryByStation(IDM, BUS_STOP));
+    }
+
+    public void testQueriesUseIndexes() {
+        appendRides();
+        String idm = String.valueOf(IDM.longValue());
+        String station = String.valueOf(SHINJUKU);
+        assertUsesIndex("SELECT Raw FROM History WHERE IDm = ? AND Date BETWEEN ? AND ? ORDER BY Date DESC, Seq DESC"
+                , new String[]{ idm, "20140301", "20140331" }, "History_Date");
+        assertUsesIndex("SELECT Raw, Date, Seq FROM History WHERE IDm = ? AND EntranceStation = ?"
+                + " UNION SELECT Raw, Date, Seq FROM History WHERE IDm = ? AND ExitStation = ?"
+                , new String[]{ idm, station, idm, station }, "History_Entrance", "History_Exit");
+        assertUsesIndex("SELECT Raw FROM History WHERE IDm = ? AND BusStop = ?"
+                , new String[]{ idm, String.valueOf(BUS_STOP) }, "History_BusStop");
+    }
+
+    /**
+     * 2014年2月～4月の乗車とバスの履歴を追加します (別のカードの履歴も1件追加します)
+     */
+    private void appendRides() {
+        store.append(IDM, Arrays.asList(
+                train(1, 2014, 2, 28, TOKYO, SHINJUKU)
+                , train(2, 2014, 3, 1, SHINJUKU, TOKYO)
+                , train(3, 2014, 3, 15, TOKYO, UENO)
+                , train(4, 2014, 3, 31, SHINJUKU, TOKYO)
+                , bus(5, 2014, 4, 1, BUS_STOP)));
+        store.append(OTHER, Arrays.asList(train(10, 2014, 3, 10, UENO, TOKYO)));
+    }
+
+    private static Suica.History train(int seq, int year, int month, int day, int entrance, int exit) {
+        byte[] b = record(0x16, seq, year, month, day);
+        b[6] = (byte) (entrance >> 8);
+        b[7] = (byte) entrance;
+        b[8] = (byte) (exit >> 8);
+        b[9] = (byte) exit;
+        b[15] = (byte) (entrance >> 16);
+        return new Suica.History(b, null);
+    }
+
+    private static Suica.History bus(int seq, int year, int month, int day, int busStop) {
+        byte[] b = record(0x05, seq, year, month, day);
+        b[6] = (byte) (busStop >> 24);
+        b[7] = (byte) (busStop >> 16);
+        b[8] = (byte) (busStop >> 8);
+        b[9] = (byte) busStop;
+        return new Suica.History(b, null);
+    }
+
+    private static byte[] record(int consoleType, int seq, int year, int month, int day) {
+        byte[] b = new byte[HistoryRecord.RECORD_SIZE];
+        b[0] = (byte) consoleType;
+        b[1] = 0x01;
+        int date = (year - 2000) << 9 | month << 5 | day;
+        b[4] = (byte) (date >> 8);
+        b[5] = (byte) date;
+        b[10] = (byte) 0xe8;
+        b[11] = 0x03;
+        b[12] = (byte) (seq >> 16);
+        b[13] = (byte) (seq >> 8);
+        b[14] = (byte) seq;
+        return b;
+    }
+
+    private static void assertSequences(List<Suica.History> histories, int... expected) {
+        int[] actual = new int[histories.size()];
+        for ( int i = 0; i < actual.length; i++ ) {
+            actual[i] = histories.get(i).getSequenceNumber();
+        }
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    private void assertUsesIndex(String sql, String[] args, String... indexes) {
+        Cursor c = store.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        StringBuilder plan = new StringBuilder();
+        try {
+            while ( c.moveToNext() ) {
+                plan.append(c.getString(c.getColumnCount() - 1)).append('\n');
+            }
+        } finally {
+            c.close();
+        }
+        for ( String index : indexes ) {
+            assertTrue(plan.toString(), plan.indexOf(index) >= 0);
+        }
+        //全件の走査は行わない
+        assertTrue(plan.toString(), plan.indexOf("SCAN") < 0);
+    }
+
+    private List<String> getIndexes() {
+        SQLiteDatabase db = store.getReadableDatabase();
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = 'History'", null);
+        try {
+            List<String> names = new ArrayList<String>();
+            while ( c.moveToNext() ) {
+                names.add(c.getString(0));
+            }
+            return names;
+        } finally {
+            c.close();
+        }
+    }
+}
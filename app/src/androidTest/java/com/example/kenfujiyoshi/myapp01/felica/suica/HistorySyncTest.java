@@ -0,0 +1,139 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaException;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaTag;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
+import nfclib.com.example.kenfujiyoshi.myapp01.simulator.SimulatedFeliCaCard;
+
+/**
+ * 使用履歴の差分読み込み(HistorySync)のテストを提供します
+ * <pre>
+ * 履歴は模擬カード(SimulatedFeliCaCard)に置き、読み込んだ件数とコマンドの回数(フレーム数)を検査します。
+ * NFCのタグを使わずに実行します (Contextにはnullを渡します)
+ * </pre>
+ */
+public class HistorySyncTest extends TestCase {
+    private static final byte[] IDM = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08};
+    private static final byte[] PMM = {0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07};
+    private static final int NEWEST = 0x100;
+
+    private SimulatedFeliCaCard card;
+    private FeliCaTag tag;
+
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        card = new SimulatedFeliCaCard(IDM, PMM, FeliCaLib.SYSTEMCODE_SUICA);
+        card.addService(FeliCaLib.SERVICE_SUICA_HISTORY, HistorySync.MAX_HISTORY_BLOCKS);
+        setHistories(NEWEST);
+        tag = new FeliCaTag(card);
+        tag.setServiceEnumerationCache(null);
+        tag.polling(FeliCaLib.SYSTEMCODE_SUICA);
+        card.resetStatistics();
+    }
+
+    public void testIsKnown() {
+        assertTrue(HistorySync.isKnown(5, 5));
+        assertTrue(HistorySync.isKnown(4, 5));
+        assertFalse(HistorySync.isKnown(6, 5));
+    }
+
+    public void testIsKnownWrapsAround() {
+        //連番が0xffffffから0に戻った後の履歴は新しい
+        assertFalse(HistorySync.isKnown(0x000001, 0xfffffe));
+        assertTrue(HistorySync.isKnown(0xfffffe, 0x000001));
+        //半周より離れた連番は新しい側に判定する
+        assertTrue(HistorySync.isKnown(0x000000, 0x7fffff));
+        assertFalse(HistorySync.isKnown(0x000000, 0x800000));
+    }
+
+    public void testFullReadDoublesWindow() throws Exception {
+        List<Suica.History> delta = sync(HistorySync.NO_SEQUENCE);
+        assertEquals(HistorySync.MAX_HISTORY_BLOCKS, delta.size());
+        assertSequences(delta, NEWEST);
+        //4 + 8 + 8(残り)
+        assertEquals(3, card.getFrameCount());
+    }
+
+    public void testNoNewHistoryReadsOnce() throws Exception {
+        assertTrue(sync(NEWEST).isEmpty());
+        assertEquals(1, card.getFrameCount());
+    }
+
+    public void testDeltaInFirstWindow() throws Exception {
+        List<Suica.History> delta = sync(NEWEST - 2);
+        assertEquals(2, delta.size());
+        assertSequences(delta, NEWEST);
+        assertEquals(1, card.getFrameCount());
+    }
+
+    public void testDeltaInSecondWindow() throws Exception {
+        List<Suica.History> delta = sync(NEWEST - 6);
+        assertEquals(6, delta.size());
+        assertSequences(delta, NEWEST);
+        assertEquals(2, card.getFrameCount());
+    }
+
+    public void testWindowLimitedByMaxReadBlocks() throws Exception {
+        card.setMaxReadBlocks(2);
+        tag.setMaxReadBlocks(2);
+        List<Suica.History> delta = sync(HistorySync.NO_SEQUENCE);
+        assertEquals(HistorySync.MAX_HISTORY_BLOCKS, delta.size());
+        assertEquals(HistorySync.MAX_HISTORY_BLOCKS / 2, card.getFrameCount());
+    }
+
+    public void testSequenceWrapOnCard() throws Exception {
+        //最新が0x000002、4件前が0xfffffe
+        setHistories(0x000002);
+        List<Suica.History> delta = sync(0xfffffe);
+        assertEquals(4, delta.size());
+        assertEquals(0x000002, delta.get(0).getSequenceNumber());
+        assertEquals(0xffffff, delta.get(3).getSequenceNumber());
+    }
+
+    public void testRequiresPolling() throws Exception {
+        FeliCaTag notPolled = new FeliCaTag(card);
+        try {
+            new HistorySync(null).sync(notPolled, HistorySync.NO_SEQUENCE);
+            fail();
+        } catch (FeliCaException e) {
+            //OK
+        }
+    }
+
+    private List<Suica.History> sync(int last) throws FeliCaException {
+        return new HistorySync(null).sync(tag, last);
+    }
+
+    /**
+     * 新しい方から連番が1ずつ減る履歴をカードに置きます
+     * @param newest 最新の履歴の連番をセット
+     */
+    private void setHistories(int newest) {
+        for ( int i = 0; i < HistorySync.MAX_HISTORY_BLOCKS; i++ ) {
+            int seq = (newest - i) & 0xffffff;
+            byte[] b = new byte[16];
+            b[0] = 0x16;        //改札機
+            b[1] = 0x01;        //運賃支払
+            b[4] = 0x1d;        //2014/09/22
+            b[5] = 0x36;
+            b[12] = (byte) (seq >> 16);
+            b[13] = (byte) (seq >> 8);
+            b[14] = (byte) seq;
+            card.setBlock(FeliCaLib.SERVICE_SUICA_HISTORY, i, b);
+        }
+    }
+
+    private static void assertSequences(List<Suica.History> histories, int newest) {
+        for ( int i = 0; i < histories.size(); i++ ) {
+            assertEquals(newest - i, histories.get(i).getSequenceNumber());
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.util.IntObjectMap;
+
+/**
+ * メモリマップで読み込む駅コード表(StationTable)のテストを提供します
+ * <pre>
+ * 駅コード表はapp/build.gradleのgenerateStationTableと同じStationTableWriterに、
+ * StationCode.dbの行を_idの順に追加して作成します。
+ * testMatchesStationDaoは同じ行を入れたSQLiteのデータベースに対するStationDaoの結果と
+ * 比較し、それぞれの検索時間をログに出力します (android.databaseを使用するため端末で実行します)。
+ * testBatchMatchesStationDaoはStationDaoのまとめた問い合わせが1件ずつの結果と一致し、
+ * 列の索引で絞り込めることを確認します。
+ * </pre>
+ */
+public class StationTableTest extends TestCase {
+    static final String TAG = StationTableTest.class.getSimpleName();
+
+    /** StationCode (_idの順) : 地区コード, 線区コード, 駅順コード, 会社名, 路線名, 駅名 */
+    private static final Object[][] STATIONS = {
+            {0x00, 0x01, 0x01, "JR東日本", "東海道本線", "東京"},
+            {0x00, 0x01, 0x02, "JR東日本", "東海道本線", "有楽町"},
+            {0x00, 0x01, 0x01, "重複", "重複", "重複"},
+            {0x00, 0x25, 0x0a, "JR東日本", "山手線", "渋谷"},
+            {0x01, 0xe3, 0x01, "東京地下鉄", "銀座線", "浅草"},
+            {0x03, 0xff, 0xff, "", "", "末尾"},
+    };
+    /** IruCaStationCode (_idの順) : 線区コード, 停留所コード, 会社名, 路線名, 停留所名 */
+    private static final Object[][] BUS_STOPS = {
+            {0x0001, 0x0010, "琴電バス", "", "高松駅"},
+            {0x0001, 0x0010, "重複", "", "重複"},
+            {0x8001, 0x0002, "琴電バス", "", "瓦町"},
+            {0xffff, 0xffff, "琴電バス", "", "終点"},
+    };
+
+    public void testLookupMatchesFirstRow() throws Exception {
+        StationTable table = new StationTable(ByteBuffer.wrap(build(STATIONS, BUS_STOPS)));
+        assertEquals(5, table.getStationCount());
+        assertEquals(3, table.getBusStopCount());
+        Map<Integer, String[]> stations = firstRows(STATIONS, true);
+        for ( Object[] row : STATIONS ) {
+            String[] expected = stations.get(stationKey(row));
+            assertTrue(Arrays.equals(expected, table.getStation(
+                    (Integer) row[0], (Integer) row[1], (Integer) row[2])));
+        }
+        assertEquals("東京", table.getStation(0x00, 0x01, 0x01)[2]);
+        Map<Integer, String[]> busStops = firstRows(BUS_STOPS, false);
+        for ( Object[] row : BUS_STOPS ) {
+            String[] expected = busStops.get(busStopKey(row));
+            assertTrue(Arrays.equals(expected, table.getBusStop((Integer) row[0], (Integer) row[1])));
+        }
+        assertEquals("高松駅", table.getBusStop(0x0001, 0x0010)[1]);
+    }
+
+    public void testWriterKeepsFirstRow() throws Exception {
+        StationTableWriter writer = new StationTableWriter();
+        assertTrue(writer.addStation(0x00, 0x01, 0x01, "JR東日本", "東海道本線", "東京"));
+        assertFalse(writer.addStation(0x00, 0x01, 0x01, "重複", "重複", "重複"));
+        assertTrue(writer.addBusStop(0x0001, 0x0010, null, "高松駅"));
+        assertEquals(1, writer.getStationCount());
+        assertEquals(1, writer.getBusStopCount());
+        StationTable table = new StationTable(ByteBuffer.wrap(writer.toByteArray()));
+        assertEquals("東京", table.getStation(0x00, 0x01, 0x01)[2]);
+        //nullの名称は空文字列
+        assertEquals("", table.getBusStop(0x0001, 0x0010)[0]);
+        assertEquals(StationTable.MAGIC, StationTableWriter.MAGIC);
+    }
+
+    public void testMissingKeys() throws Exception {
+        StationTable table = new StationTable(ByteBuffer.wrap(build(STATIONS, BUS_STOPS)));
+        assertNull(table.getStation(0x00, 0x01, 0x03));
+        assertNull(table.getStation(0x7f, 0x00, 0x00));
+        assertNull(table.getBusStop(0x0002, 0x0010));
+        StationTable empty = new StationTable(ByteBuffer.wrap(build(new Object[0][], new Object[0][])));
+        assertNull(empty.getStation(0x00, 0x01, 0x01));
+        assertNull(empty.getBusStop(0x0001, 0x0010));
+    }
+
+    public void testMappedFile() throws Exception {
+        File file = File.createTempFile("stations", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(build(STATIONS, BUS_STOPS));
+            } finally {
+                out.close();
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            StationTable table;
+            try {
+                FileChannel channel = raf.getChannel();
+                table = new StationTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } finally {
+                raf.close();
+            }
+            //マップはファイルを閉じた後も有効
+            assertEquals("浅草", table.getStation(0x01, 0xe3, 0x01)[2]);
+            assertEquals("瓦町", table.getBusStop(0x8001, 0x0002)[1]);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testIndexFromTable() throws Exception {
+        StationTable table = new StationTable(ByteBuffer.wrap(build(STATIONS, BUS_STOPS)));
+        StationIndex index = StationIndex.load(table);
+        assertEquals(table.getStationCount(), index.getStationCount());
+        assertEquals(table.getBusStopCount(), index.getBusStopCount());
+        assertTrue(Arrays.equals(table.getStation(0x00, 0x25, 0x0a), index.getStation(0x00, 0x25, 0x0a)));
+        assertTrue(Arrays.equals(table.getBusStop(0xffff, 0xffff), index.getBusStop(0xffff, 0xffff)));
+    }
+
+    public void testRejectsInvalidTable() throws Exception {
+        byte[] bytes = build(STATIONS, BUS_STOPS);
+        bytes[0] = 'X';
+        try {
+            new StationTable(ByteBuffer.wrap(bytes));
+            fail("invalid magic must be rejected");
+        } catch (IOException e) {
+            // 期待どおり
+        }
+        bytes = build(STATIONS, BUS_STOPS);
+        try {
+            new StationTable(ByteBuffer.wrap(Arrays.copyOf(bytes, 20)));
+            fail("truncated table must be rejected");
+        } catch (IOException e) {
+            // 期待どおり
+        }
+    }
+
+    public void testMatchesStationDao() throws Exception {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            createDataBase(db);
+            StationDao dao = new StationDao(db);
+            StationTable table = new StationTable(ByteBuffer.wrap(build(STATIONS, BUS_STOPS)));
+            //存在する全てのキーと、存在しないキーで比較する
+            int[][] stationCodes = new int[STATIONS.length + 2][];
+            for ( int i = 0; i < STATIONS.length; i++ ) {
+                stationCodes[i] = new int[]{(Integer) STATIONS[i][0], (Integer) STATIONS[i][1], (Integer) STATIONS[i][2]};
+            }
+            stationCodes[STATIONS.length] = new int[]{0x00, 0x01, 0x03};
+            stationCodes[STATIONS.length + 1] = new int[]{0x7f, 0x7f, 0x7f};
+            for ( int[] c : stationCodes ) {
+                assertTrue(Arrays.equals(dao.getStation(c[0], c[1], c[2]), table.getStation(c[0], c[1], c[2])));
+            }
+            for ( Object[] row : BUS_STOPS ) {
+                int line = (Integer) row[0];
+                int stop = (Integer) row[1];
+                assertTrue(Arrays.equals(dao.getBusStop(line, stop), table.getBusStop(line, stop)));
+            }
+            assertNull(dao.getBusStop(0x0002, 0x0010));
+            assertNull(table.getBusStop(0x0002, 0x0010));
+
+            long daoNanos = time(dao, null, stationCodes);
+            long tableNanos = time(null, table, stationCodes);
+            Log.i(TAG, "station lookups x1000 : StationDao " + daoNanos / 1000000 + "ms, StationTable "
+                    + tableNanos / 1000000 + "ms");
+            dao.close();
+        } finally {
+            db.close();
+        }
+    }
+
+    public void testBatchMatchesStationDao() throws Exception {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            createDataBase(db);
+            StationDao dao = new StationDao(db);
+            //有楽町と浅草の列毎の値の組み合わせには東京(0x00, 0x01, 0x01)も含まれるが、要求していないので戻らない
+            int[] stationKeys = {
+                    StationIndex.stationKey(0x00, 0x01, 0x02),
+                    StationIndex.stationKey(0x01, 0xe3, 0x01),
+                    StationIndex.stationKey(0x03, 0xff, 0xff),
+                    StationIndex.stationKey(0x00, 0x25, 0x01)};
+            IntObjectMap<String[]> stations = dao.resolveStations(stationKeys);
+            assertEquals(3, stations.size());
+            assertEquals("有楽町", stations.get(stationKeys[0])[2]);
+            assertEquals("浅草", stations.get(stationKeys[1])[2]);
+            assertEquals("末尾", stations.get(stationKeys[2])[2]);
+            assertNull(stations.get(StationIndex.stationKey(0x00, 0x01, 0x01)));
+            //全てのキーで1件ずつの問い合わせと一致する (重複した行は_idが小さい方)
+            int[] allKeys = new int[STATIONS.length];
+            for ( int i = 0; i < STATIONS.length; i++ ) {
+                allKeys[i] = stationKey(STATIONS[i]);
+            }
+            stations = dao.resolveStations(allKeys);
+            for ( Object[] row : STATIONS ) {
+                assertTrue(Arrays.equals(dao.getStation((Integer) row[0], (Integer) row[1], (Integer) row[2])
+                        , stations.get(stationKey(row))));
+            }
+            //組み合わせに含まれる高松駅(0x0001, 0x0010)と瓦町(0x8001, 0x0002)は要求していない
+            IntObjectMap<String[]> busStops = dao.resolveBusStops(new int[]{
+                    StationIndex.busStopKey(0x0001, 0x0002), StationIndex.busStopKey(0x8001, 0x0010)});
+            assertEquals(0, busStops.size());
+            allKeys = new int[BUS_STOPS.length];
+            for ( int i = 0; i < BUS_STOPS.length; i++ ) {
+                allKeys[i] = busStopKey(BUS_STOPS[i]);
+            }
+            busStops = dao.resolveBusStops(allKeys);
+            assertEquals(3, busStops.size());
+            for ( Object[] row : BUS_STOPS ) {
+                assertTrue(Arrays.equals(dao.getBusStop((Integer) row[0], (Integer) row[1])
+                        , busStops.get(busStopKey(row))));
+            }
+            dao.close();
+
+            //列の条件式は索引で絞り込める
+            db.execSQL("CREATE INDEX StationCode_Key ON StationCode (AreaCode, LineCode, StationCode)");
+            db.execSQL("CREATE INDEX StationCode.IruCaStationCode_Key ON IruCaStationCode (LineCode, StationCode)");
+            Arrays.sort(stationKeys);
+            assertUsesIndex(db, "SELECT * FROM StationCode WHERE "
+                    + StationDao.stationSelection(stationKeys), "StationCode_Key");
+            Arrays.sort(allKeys);
+            assertUsesIndex(db, "SELECT * FROM StationCode.IruCaStationCode WHERE "
+                    + StationDao.busStopSelection(allKeys), "IruCaStationCode_Key");
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void assertUsesIndex(SQLiteDatabase db, String sql, String index) {
+        Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        StringBuilder plan = new StringBuilder();
+        try {
+            while ( c.moveToNext() ) {
+                plan.append(c.getString(c.getColumnCount() - 1)).append('\n');
+            }
+        } finally {
+            c.close();
+        }
+        assertTrue(plan.toString(), plan.indexOf(index) >= 0);
+        //全件の走査は行わない
+        assertTrue(plan.toString(), plan.indexOf("SCAN") < 0);
+    }
+
+    /**
+     * 駅コードの検索を1000回繰り返した時間を計測します
+     */
+    private static long time(StationDao dao, StationTable table, int[][] codes) {
+        long start = System.nanoTime();
+        for ( int n = 0; n < 1000; n++ ) {
+            for ( int[] c : codes ) {
+                if ( dao != null ) {
+                    dao.getStation(c[0], c[1], c[2]);
+                } else {
+                    table.getStation(c[0], c[1], c[2]);
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * StationCode.dbと同じ構成のテーブルを作成して行を挿入します
+     */
+    private static void createDataBase(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE StationCode (_id INTEGER PRIMARY KEY, AreaCode INTEGER, LineCode INTEGER"
+                + ", StationCode INTEGER, CompanyName TEXT, LineName TEXT, StationName TEXT)");
+        //停留所のテーブルは"StationCode.IruCaStationCode"で参照されるため、StationCodeという名前で接続したDBに作る
+        db.execSQL("ATTACH DATABASE ':memory:' AS StationCode");
+        db.execSQL("CREATE TABLE StationCode.IruCaStationCode (_id INTEGER PRIMARY KEY, LineCode INTEGER"
+                + ", StationCode INTEGER, CompanyName TEXT, LineName TEXT, StationName TEXT)");
+        for ( int i = 0; i < STATIONS.length; i++ ) {
+            Object[] row = STATIONS[i];
+            db.execSQL("INSERT INTO StationCode VALUES (?, ?, ?, ?, ?, ?, ?)"
+                    , new Object[]{i + 1, row[0], row[1], row[2], row[3], row[4], row[5]});
+        }
+        for ( int i = 0; i < BUS_STOPS.length; i++ ) {
+            Object[] row = BUS_STOPS[i];
+            db.execSQL("INSERT INTO StationCode.IruCaStationCode VALUES (?, ?, ?, ?, ?, ?)"
+                    , new Object[]{i + 1, row[0], row[1], row[2], row[3], row[4]});
+        }
+    }
+
+    /**
+     * generateStationTableと同じ手順で駅コード表を作成します
+     */
+    static byte[] build(Object[][] stationRows, Object[][] busStopRows) throws IOException {
+        StationTableWriter writer = new StationTableWriter();
+        for ( Object[] row : stationRows ) {
+            writer.addStation((Integer) row[0], (Integer) row[1], (Integer) row[2]
+                    , (String) row[3], (String) row[4], (String) row[5]);
+        }
+        for ( Object[] row : busStopRows ) {
+            writer.addBusStop((Integer) row[0], (Integer) row[1], (String) row[2], (String) row[4]);
+        }
+        return writer.toByteArray();
+    }
+
+    private static Map<Integer, String[]> firstRows(Object[][] rows, boolean station) {
+        Map<Integer, String[]> result = new HashMap<Integer, String[]>();
+        for ( Object[] row : rows ) {
+            int key = station ? stationKey(row) : busStopKey(row);
+            if ( !result.containsKey(key) ) {
+                result.put(key, station
+                        ? new String[]{(String) row[3], (String) row[4], (String) row[5]}
+                        : new String[]{(String) row[2], (String) row[4]});
+            }
+        }
+        return result;
+    }
+
+    private static int stationKey(Object[] row) {
+        return StationIndex.stationKey((Integer) row[0], (Integer) row[1], (Integer) row[2]);
+    }
+
+    private static int busStopKey(Object[] row) {
+        return StationIndex.busStopKey((Integer) row[0], (Integer) row[1]);
+    }
+}
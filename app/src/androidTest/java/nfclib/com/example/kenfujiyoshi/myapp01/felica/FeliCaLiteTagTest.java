@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.felica;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.WriteResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.simulator.SimulatedFeliCaLiteCard;
+
+/**
+ * FeliCaLiteTagのスクラッチパッドへの書き込みを模擬カードに対して実行するテストを提供します
+ */
+public class FeliCaLiteTagTest extends TestCase {
+    private static final byte[] IDM = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08};
+    private static final byte[] PMM = new byte[8];
+
+    private SimulatedFeliCaLiteCard card;
+
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        card = new SimulatedFeliCaLiteCard(IDM, PMM);
+    }
+
+    public void testDefaultWritesOneBlockPerCommand() throws Exception {
+        FeliCaLiteTag tag = newTag();
+        assertEquals(1, tag.getMaxWriteBlocks());
+        card.resetStatistics();
+        byte[] payload = sequence(FeliCaLiteTag.SCRATCH_PAD_BLOCKS * FeliCaLiteTag.BLOCK_SIZE);
+        WriteResponse[] result = tag.writeBlocks(0, payload);
+        // MCブロックの読み込み1回 + 1ブロックずつの書き込み (拒否されるコマンドは無い)
+        assertEquals(1 + FeliCaLiteTag.SCRATCH_PAD_BLOCKS, card.getFrameCount());
+        for ( int i = 0; i < result.length; i++ ) {
+            assertEquals(0, result[i].getStatusFlag1());
+            assertTrue(Arrays.equals(Arrays.copyOfRange(payload, i * 16, (i + 1) * 16), card.getBlock(i)));
+        }
+    }
+
+    public void testBlockCountErrorLowersOnlyThisInstance() throws Exception {
+        FeliCaLiteTag first = newTag();
+        first.setMaxWriteBlocks(FeliCaLiteTag.MAX_WRITE_BLOCKS);
+        card.resetStatistics();
+        first.writeBlocks(0, sequence(FeliCaLiteTag.SCRATCH_PAD_BLOCKS * FeliCaLiteTag.BLOCK_SIZE));
+        // MCブロック + 拒否された13ブロックのコマンド + 1ブロックずつ14回
+        assertEquals(1 + 1 + FeliCaLiteTag.SCRATCH_PAD_BLOCKS, card.getFrameCount());
+        assertEquals(1, first.getMaxWriteBlocks());
+
+        //他のインスタンスは既定値のまま
+        FeliCaLiteTag second = newTag();
+        assertEquals(FeliCaLiteTag.DEFAULT_MAX_WRITE_BLOCKS, second.getMaxWriteBlocks());
+    }
+
+    public void testReadOnlyBlockIsSkipped() throws Exception {
+        byte[] mc = card.getBlock(SimulatedFeliCaLiteCard.BLOCK_MC);
+        mc[0] = (byte) 0xfb; // S_PAD2を読み込み専用にする
+        card.setBlock(SimulatedFeliCaLiteCard.BLOCK_MC, mc);
+        FeliCaLiteTag tag = newTag();
+        WriteResponse[] result = tag.writeBlocks(0, sequence(4 * FeliCaLiteTag.BLOCK_SIZE));
+        assertNotNull(result[1]);
+        assertNull(result[2]);
+        assertNotNull(result[3]);
+        assertEquals(0, card.getBlock(2)[0]);
+    }
+
+    public void testMaxWriteBlocksRange() throws Exception {
+        try {
+            newTag().setMaxWriteBlocks(FeliCaLiteTag.MAX_WRITE_BLOCKS + 1);
+            fail("more than 13 blocks can't fit in one command");
+        } catch (IllegalArgumentException e) {
+            // 期待どおり
+        }
+    }
+
+    private FeliCaLiteTag newTag() throws Exception {
+        FeliCaLiteTag tag = new FeliCaLiteTag(card);
+        tag.polling();
+        return tag;
+    }
+
+    private static byte[] sequence(int length) {
+        byte[] b = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            b[i] = (byte) (i + 1);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.felica;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.ReadResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.Block;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.ServiceCode;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.SystemCode;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.ServiceEnumerationCache;
+import nfclib.com.example.kenfujiyoshi.myapp01.simulator.SimulatedFeliCaCard;
+
+/**
+ * FeliCaTagを模擬カード(SimulatedFeliCaCard)に対して実行するテストを提供します
+ * <pre>
+ * NFCのタグ(android.nfc.Tag)を使わず、模擬カードをTransceiverとして実行します
+ * </pre>
+ */
+public class FeliCaTagTest extends TestCase {
+    private static final byte[] IDM = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08};
+    private static final byte[] PMM = {0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07};
+    private static final int HISTORY_BLOCKS = 20;
+
+    private SimulatedFeliCaCard card;
+    private FeliCaTag tag;
+
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        card = new SimulatedFeliCaCard(IDM, PMM
+                , FeliCaLib.SYSTEMCODE_SUICA, FeliCaLib.SYSTEMCODE_COMMON);
+        card.addService(FeliCaLib.SERVICE_SUICA_HISTORY, HISTORY_BLOCKS);
+        card.addService(FeliCaLib.SERVICE_SUICA_INOUT, 3);
+        for ( int i = 0; i < HISTORY_BLOCKS; i++ ) {
+            card.setBlock(FeliCaLib.SERVICE_SUICA_HISTORY, i, block(i));
+        }
+        for ( int i = 0; i < 3; i++ ) {
+            card.setBlock(FeliCaLib.SERVICE_SUICA_INOUT, i, block(0x40 + i));
+        }
+        tag = new FeliCaTag(card);
+        tag.setServiceEnumerationCache(null);
+        tag.polling(FeliCaLib.SYSTEMCODE_SUICA);
+    }
+
+    public void testPolling() throws Exception {
+        assertTrue(Arrays.equals(IDM, tag.getIDm().getBytes()));
+        assertTrue(Arrays.equals(PMM, tag.getPMm().getBytes()));
+    }
+
+    public void testSystemCodeList() throws Exception {
+        SystemCode[] codes = tag.getSystemCodeList();
+        assertEquals(2, codes.length);
+        assertTrue(Arrays.equals(new byte[]{0x00, 0x03}, codes[0].getBytes()));
+        assertTrue(Arrays.equals(new byte[]{(byte) 0xfe, 0x00}, codes[1].getBytes()));
+    }
+
+    public void testServiceCodeList() throws Exception {
+        ServiceCode[] codes = tag.getServiceCodeList();
+        assertEquals(2, codes.length);
+        assertTrue(Arrays.equals(new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY).getBytes()
+                , codes[0].getBytes()));
+    }
+
+    public void testReadWithoutEncryption() throws Exception {
+        ReadResponse r = tag.readWithoutEncryption(
+                new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY), (byte) 3);
+        assertEquals(0, r.getStatusFlag1());
+        assertTrue(Arrays.equals(block(3), r.getBlockData()));
+    }
+
+    public void testReadBlocksSplitsByMaxReadBlocks() throws Exception {
+        card.setMaxReadBlocks(4);
+        tag.setMaxReadBlocks(4);
+        card.resetStatistics();
+        Block[] blocks = tag.readBlocks(new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY), 0, HISTORY_BLOCKS);
+        assertEquals(HISTORY_BLOCKS, blocks.length);
+        assertEquals(HISTORY_BLOCKS / 4, card.getFrameCount());
+        for ( int i = 0; i < HISTORY_BLOCKS; i++ ) {
+            assertEquals(i, blocks[i].getBytes()[0]);
+        }
+    }
+
+    public void testReadBlocksLearnsCardLimit() throws Exception {
+        card.setMaxReadBlocks(4);
+        tag.setMaxReadBlocks(15);
+        Block[] blocks = tag.readBlocks(new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY), 0, HISTORY_BLOCKS);
+        assertEquals(HISTORY_BLOCKS, blocks.length);
+        assertTrue(tag.getMaxReadBlocks() <= 4);
+        assertEquals(HISTORY_BLOCKS - 1, blocks[HISTORY_BLOCKS - 1].getBytes()[0]);
+    }
+
+    public void testReadPlanCombinesServices() throws Exception {
+        FeliCaReadPlan plan = new FeliCaReadPlan();
+        plan.addRange(FeliCaLib.SERVICE_SUICA_HISTORY, 0, HISTORY_BLOCKS);
+        plan.addRange(FeliCaLib.SERVICE_SUICA_INOUT, 0, 3);
+        Map<Integer, Block[]> result = tag.readBlocks(plan);
+        assertEquals(HISTORY_BLOCKS, result.get(FeliCaLib.SERVICE_SUICA_HISTORY).length);
+        Block[] inout = result.get(FeliCaLib.SERVICE_SUICA_INOUT);
+        assertEquals(3, inout.length);
+        assertEquals(0x42, inout[2].getBytes()[0]);
+    }
+
+    public void testServiceCodesCachedByIDm() throws Exception {
+        ServiceEnumerationCache cache = new ServiceEnumerationCache(4);
+        tag.setServiceEnumerationCache(cache);
+        tag.getServiceCodeList();
+
+        card.resetStatistics();
+        assertEquals(2, tag.getServiceCodeList().length);
+        assertEquals(0, card.getFrameCount());
+
+        //同じ型の別のカードは既定では改めて検索する (Search Service Code 3回)
+        FeliCaTag other = newSameModelTag(card2(true), cache);
+        assertEquals(2, other.getServiceCodeList().length);
+        assertEquals(3, card2.getFrameCount());
+    }
+
+    public void testModelReuseVerifiedByRequestService() throws Exception {
+        ServiceEnumerationCache cache = new ServiceEnumerationCache(4);
+        cache.setModelReuse(true);
+        tag.setServiceEnumerationCache(cache);
+        tag.getServiceCodeList();
+
+        //Request System Code 1回 + Request Service 1回
+        FeliCaTag other = newSameModelTag(card2(true), cache);
+        assertEquals(2, other.getServiceCodeList().length);
+        assertEquals(2, card2.getFrameCount());
+        assertNotNull(cache.getServiceCodes(other.getIDm()));
+    }
+
+    public void testModelReuseFallsBackToSearch() throws Exception {
+        ServiceEnumerationCache cache = new ServiceEnumerationCache(4);
+        cache.setModelReuse(true);
+        tag.setServiceEnumerationCache(cache);
+        tag.getServiceCodeList();
+
+        //同じ型でも入出場履歴のサービスが無いカード
+        FeliCaTag other = newSameModelTag(card2(false), cache);
+        ServiceCode[] codes = other.getServiceCodeList();
+        assertEquals(1, codes.length);
+        assertTrue(Arrays.equals(new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY).getBytes()
+                , codes[0].getBytes()));
+        //Request System Code + Request Service + Search Service Code 2回
+        assertEquals(4, card2.getFrameCount());
+    }
+
+    public void testDefaultCacheIsShared() throws Exception {
+        FeliCaTag other = new FeliCaTag(card);
+        assertSame(ServiceEnumerationCache.getInstance(), other.getServiceEnumerationCache());
+        other.setServiceEnumerationCache(null);
+        assertNull(other.getServiceEnumerationCache());
+    }
+
+    public void testTagLostReturnsNull() throws Exception {
+        card.setPresent(false);
+        assertNull(tag.readWithoutEncryption(new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY), (byte) 0));
+    }
+
+    private SimulatedFeliCaCard card2;
+
+    /**
+     * IDmだけが異なる同じ型のカードを作成します
+     * @param inout 入出場履歴のサービスを持たせる場合はtrueをセット
+     */
+    private SimulatedFeliCaCard card2(boolean inout) {
+        byte[] idm = IDM.clone();
+        idm[7] = 0x09;
+        card2 = new SimulatedFeliCaCard(idm, PMM
+                , FeliCaLib.SYSTEMCODE_SUICA, FeliCaLib.SYSTEMCODE_COMMON);
+        card2.addService(FeliCaLib.SERVICE_SUICA_HISTORY, HISTORY_BLOCKS);
+        if ( inout ) {
+            card2.addService(FeliCaLib.SERVICE_SUICA_INOUT, 3);
+        }
+        return card2;
+    }
+
+    private static FeliCaTag newSameModelTag(SimulatedFeliCaCard c, ServiceEnumerationCache cache)
+            throws FeliCaException {
+        FeliCaTag t = new FeliCaTag(c);
+        t.setServiceEnumerationCache(cache);
+        t.polling(FeliCaLib.SYSTEMCODE_SUICA);
+        c.resetStatistics();
+        return t;
+    }
+
+    private static byte[] block(int first) {
+        byte[] b = new byte[16];
+        b[0] = (byte) first;
+        return b;
+    }
+}
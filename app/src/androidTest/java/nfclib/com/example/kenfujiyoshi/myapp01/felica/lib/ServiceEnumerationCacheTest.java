@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.felica.lib;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.PMm;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.ServiceCode;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.SystemCode;
+
+/**
+ * システムコード、サービスコードの一覧のキャッシュ(ServiceEnumerationCache)のテストを提供します
+ */
+public class ServiceEnumerationCacheTest extends TestCase {
+    private static final IDm IDM_A = new IDm(0x0101010101010101L);
+    private static final IDm IDM_B = new IDm(0x0102020202020202L);
+    private static final PMm PMM = new PMm(0x0120220427674effL);
+    private static final SystemCode[] SYSTEM_CODES = { new SystemCode(new byte[]{0x00, 0x03}) };
+    private static final ServiceCode[] SERVICES = {
+            new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY), new ServiceCode(FeliCaLib.SERVICE_SUICA_INOUT) };
+
+    private ServiceEnumerationCache cache;
+    private int updates;
+
+    /* (non-Javadoc)
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = new ServiceEnumerationCache(ServiceEnumerationCache.DEFAULT_MAX_ENTRIES);
+        cache.setOnUpdateListener(new ServiceEnumerationCache.OnUpdateListener() {
+            @Override
+            public void onUpdate(ServiceEnumerationCache c) {
+                updates++;
+            }
+        });
+    }
+
+    public void testKeyedByIDmByDefault() {
+        assertFalse(cache.isModelReuse());
+        cache.putServiceCodes(IDM_A, PMM, SYSTEM_CODES, SERVICES);
+        assertSameCodes(SERVICES, cache.getServiceCodes(IDM_A));
+        assertNull(cache.getServiceCodes(IDM_B));
+        assertNull(cache.getServiceCodes(IDM_B, PMM, SYSTEM_CODES));
+    }
+
+    public void testModelReuse() {
+        cache.setModelReuse(true);
+        cache.putServiceCodes(IDM_A, PMM, SYSTEM_CODES, SERVICES);
+        assertSameCodes(SERVICES, cache.getServiceCodes(IDM_B, PMM, SYSTEM_CODES));
+        //確かめるまではこのカードの一覧としては保持しない
+        assertNull(cache.getServiceCodes(IDM_B));
+    }
+
+    public void testNotifiesOnUpdate() {
+        cache.putSystemCodes(IDM_A, SYSTEM_CODES);
+        cache.putServiceCodes(IDM_A, null, null, SERVICES);
+        cache.invalidate(IDM_A);
+        assertEquals(3, updates);
+        assertNull(cache.getServiceCodes(IDM_A));
+    }
+
+    public void testRemoveOnlyOwnListener() {
+        ServiceEnumerationCache.OnUpdateListener other = new ServiceEnumerationCache.OnUpdateListener() {
+            @Override
+            public void onUpdate(ServiceEnumerationCache c) {
+                updates += 100;
+            }
+        };
+        ServiceEnumerationCache.OnUpdateListener first = new ServiceEnumerationCache.OnUpdateListener() {
+            @Override
+            public void onUpdate(ServiceEnumerationCache c) {
+                fail();
+            }
+        };
+        cache.setOnUpdateListener(first);
+        cache.setOnUpdateListener(other);
+        //後からセットされたリスナーは解除しない
+        assertFalse(cache.removeOnUpdateListener(first));
+        cache.invalidate(IDM_A);
+        assertEquals(100, updates);
+        assertTrue(cache.removeOnUpdateListener(other));
+        cache.invalidate(IDM_A);
+        assertEquals(100, updates);
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        ServiceEnumerationCache small = new ServiceEnumerationCache(1);
+        small.putServiceCodes(IDM_A, null, null, SERVICES);
+        small.putServiceCodes(IDM_B, null, null, SERVICES);
+        assertNull(small.getServiceCodes(IDM_A));
+        assertSameCodes(SERVICES, small.getServiceCodes(IDM_B));
+        assertEquals(1, small.size());
+    }
+
+    public void testSaveAndLoad() throws Exception {
+        cache.setModelReuse(true);
+        cache.putSystemCodes(IDM_A, SYSTEM_CODES);
+        cache.putServiceCodes(IDM_A, PMM, SYSTEM_CODES, SERVICES);
+
+        ServiceEnumerationCache loaded = load(save(cache));
+        loaded.setModelReuse(true);
+        assertEquals(cache.size(), loaded.size());
+        assertSameCodes(SERVICES, loaded.getServiceCodes(IDM_A));
+        assertSameCodes(SERVICES, loaded.getServiceCodes(IDM_B, PMM, SYSTEM_CODES));
+        assertEquals(1, loaded.getSystemCodes(IDM_A).length);
+    }
+
+    public void testLoadDoesNotOverwriteNewerEntries() throws Exception {
+        cache.putServiceCodes(IDM_A, null, null, SERVICES);
+        byte[] saved = save(cache);
+
+        //保存した後に発行し直されたカード
+        ServiceCode[] reissued = { new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY) };
+        ServiceEnumerationCache current = new ServiceEnumerationCache(ServiceEnumerationCache.DEFAULT_MAX_ENTRIES);
+        current.putServiceCodes(IDM_A, null, null, reissued);
+        current.load(new ByteArrayInputStream(saved));
+        assertSameCodes(reissued, current.getServiceCodes(IDM_A));
+    }
+
+    public void testLoadDoesNotNotify() throws Exception {
+        cache.putServiceCodes(IDM_A, null, null, SERVICES);
+        byte[] saved = save(cache);
+        cache.clear();
+        updates = 0;
+        cache.load(new ByteArrayInputStream(saved));
+        assertEquals(0, updates);
+        assertSameCodes(SERVICES, cache.getServiceCodes(IDM_A));
+    }
+
+    private static byte[] save(ServiceEnumerationCache c) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        c.save(out);
+        return out.toByteArray();
+    }
+
+    private static ServiceEnumerationCache load(byte[] saved) throws Exception {
+        ServiceEnumerationCache c = new ServiceEnumerationCache(ServiceEnumerationCache.DEFAULT_MAX_ENTRIES);
+        c.load(new ByteArrayInputStream(saved));
+        return c;
+    }
+
+    private static void assertSameCodes(ServiceCode[] expected, ServiceCode[] actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+        for ( int i = 0; i < expected.length; i++ ) {
+            assertTrue(Arrays.equals(expected[i].getBytes(), actual[i].getBytes()));
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.iso15693;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadMultipleBlocksResponse.BlockData;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.SystemInformationResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.ErrorCode;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.UID;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.SystemInformationCache;
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver;
+import nfclib.com.example.kenfujiyoshi.myapp01.simulator.SimulatedISO15693Card;
+
+/**
+ * ISO15693Tagを模擬カード(SimulatedISO15693Card)に対して実行するテストを提供します
+ * <pre>
+ * NFCのタグ(android.nfc.Tag)を使わず、模擬カードをTransceiverとして実行します
+ * </pre>
+ */
+public class ISO15693TagTest extends TestCase {
+    private static final byte[] UID_BYTES = {(byte) 0xe0, 0x04, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06};
+
+    public void testSystemInformation() throws Exception {
+        SimulatedISO15693Card card = new SimulatedISO15693Card(UID_BYTES, 28, 4);
+        ISO15693Tag tag = newTag(card);
+        SystemInformationResponse sysInfo = tag.getSystemInformation();
+        assertFalse(sysInfo.hasError());
+        assertEquals(28, sysInfo.getMemoryInfo().getBlockCount());
+        assertEquals(4, sysInfo.getMemoryInfo().getBlockSize());
+    }
+
+    public void testReadAllBlocksChunkSizing() throws Exception {
+        SimulatedISO15693Card card = new SimulatedISO15693Card(UID_BYTES, 256, 8);
+        for ( int i = 0; i < 256; i++ ) {
+            card.setBlock(i, block(8, i));
+        }
+        ISO15693Tag tag = newTag(card);
+        tag.getSystemInformation();
+        card.resetStatistics();
+
+        final List<Integer> chunks = new ArrayList<Integer>();
+        BlockData[] blocks = tag.readAllBlocks(new ISO15693Tag.OnBlocksReadListener() {
+            @Override
+            public void onBlocksRead(int firstBlockNumber, BlockData[] blocks) {
+                chunks.add(blocks.length);
+            }
+        });
+        // 応答 = フラグ1バイト + ブロック毎に(セキュリティステータス1バイト + 8バイト) <= 253
+        int perChunk = (SimulatedISO15693Card.MAX_TRANSCEIVE_LENGTH - 1) / (8 + 1);
+        assertEquals(28, perChunk);
+        assertEquals(256, blocks.length);
+        assertEquals((256 + perChunk - 1) / perChunk, card.getFrameCount());
+        assertEquals(card.getFrameCount(), chunks.size());
+        for ( int i = 0; i < chunks.size() - 1; i++ ) {
+            assertEquals(perChunk, chunks.get(i).intValue());
+        }
+        assertEquals(256 % perChunk, chunks.get(chunks.size() - 1).intValue());
+        for ( int i = 0; i < 256; i++ ) {
+            assertEquals(i, blocks[i].getData()[0] & 0xff);
+        }
+        assertEquals(256 * 8, ISO15693Tag.toMemoryImage(blocks).length);
+    }
+
+    public void testReadBlocksRange() throws Exception {
+        SimulatedISO15693Card card = new SimulatedISO15693Card(UID_BYTES, 64, 4);
+        for ( int i = 0; i < 64; i++ ) {
+            card.setBlock(i, block(4, i));
+        }
+        ISO15693Tag tag = newTag(card);
+        BlockData[] blocks = tag.readBlocks(10, 5, null);
+        assertEquals(5, blocks.length);
+        assertEquals(14, blocks[4].getData()[0]);
+        try {
+            tag.readBlocks(250, 10, null);
+            fail("range over 256 blocks must throw");
+        } catch (ISO15693Exception e) {
+            // 期待どおり
+        }
+    }
+
+    public void testReadBlocksHalvesOnFrameSizeError() throws Exception {
+        SimulatedISO15693Card card = new SimulatedISO15693Card(UID_BYTES, 64, 4);
+        for ( int i = 0; i < 64; i++ ) {
+            card.setBlock(i, block(4, i));
+        }
+        card.setMaxReadBlocks(16);
+        ISO15693Tag tag = newTag(card);
+        tag.getSystemInformation();
+        card.resetStatistics();
+        BlockData[] blocks = tag.readBlocks(0, 64, null);
+        // 50ブロック、25ブロックが拒否され、以降は12ブロック毎に読み込む
+        assertEquals(2 + (64 + 11) / 12, card.getFrameCount());
+        assertEquals(64, blocks.length);
+        for ( int i = 0; i < 64; i++ ) {
+            assertEquals(i, blocks[i].getData()[0]);
+        }
+    }
+
+    public void testReadBlocksReportsBlockErrorImmediately() throws Exception {
+        SimulatedISO15693Card card = new SimulatedISO15693Card(UID_BYTES, 28, 4);
+        ISO15693Tag tag = newTag(card);
+        tag.getSystemInformation();
+        card.resetStatistics();
+        try {
+            tag.readBlocks(20, 16, null);
+            fail("block not available must throw");
+        } catch (ISO15693Exception e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(ErrorCode.BLOCK_NOT_AVAILABLE + ":"));
+        }
+        // ブロック数を減らして再試行しない
+        assertEquals(1, card.getFrameCount());
+    }
+
+    public void testWriteMultipleBlocks() throws Exception {
+        SimulatedISO15693Card card = new SimulatedISO15693Card(UID_BYTES, 28, 4);
+        ISO15693Tag tag = newTag(card);
+        tag.getSystemInformation();
+        card.resetStatistics();
+        tag.writeMultipleBlocks((byte) 0, (byte) 28, sequence(28 * 4));
+        assertEquals(1, card.getFrameCount());
+        assertEquals(27 * 4 + 3, card.getBlock(27)[3]);
+    }
+
+    public void testWriteFallsBackToSingleBlock() throws Exception {
+        SimulatedISO15693Card card = new SimulatedISO15693Card(UID_BYTES, 28, 4);
+        card.setWriteMultipleBlocksSupported(false);
+        ISO15693Tag tag = newTag(card);
+        tag.getSystemInformation();
+        card.resetStatistics();
+        tag.writeMultipleBlocks((byte) 0, (byte) 28, sequence(28 * 4));
+        // 拒否された1回 + シングルブロック28回
+        assertEquals(1 + 28, card.getFrameCount());
+        card.resetStatistics();
+        tag.writeMultipleBlocks((byte) 0, (byte) 28, sequence(28 * 4));
+        assertEquals(28, card.getFrameCount());
+        assertEquals(27 * 4 + 3, card.getBlock(27)[3]);
+    }
+
+    public void testDefaultCacheIsShared() throws Exception {
+        ISO15693Tag tag = new ISO15693Tag(new SimulatedISO15693Card(UID_BYTES, 28, 4), new UID(UID_BYTES), (byte) 0);
+        assertSame(SystemInformationCache.getInstance(), tag.getSystemInformationCache());
+        tag.setSystemInformationCache(null);
+        assertNull(tag.getSystemInformationCache());
+    }
+
+    public void testNoServiceThrowsWithoutResources() throws Exception {
+        ISO15693Tag tag = new ISO15693Tag((Transceiver) null, new UID(UID_BYTES), (byte) 0);
+        try {
+            tag.inventory();
+            fail("tag without service must throw");
+        } catch (ISO15693Exception e) {
+            assertNotNull(e.getMessage());
+        }
+    }
+
+    private static ISO15693Tag newTag(SimulatedISO15693Card card) {
+        ISO15693Tag tag = new ISO15693Tag(card, new UID(card.getUID()), (byte) 0);
+        tag.setSystemInformationCache(null);
+        return tag;
+    }
+
+    private static byte[] block(int blockSize, int first) {
+        byte[] b = new byte[blockSize];
+        b[0] = (byte) first;
+        return b;
+    }
+
+    private static byte[] sequence(int length) {
+        byte[] b = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            b[i] = (byte) i;
+        }
+        return b;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.UID;
+
+/**
+ * ISO15693LibのUIDのテストを提供します
+ */
+public class ISO15693LibTest extends TestCase {
+    private static final byte[] BYTES = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, (byte) 0xe0};
+
+    public void testBytesRoundTrip() {
+        UID uid = new UID(BYTES);
+        assertTrue(Arrays.equals(BYTES, uid.getBytes()));
+        assertEquals(0x01020304050607e0L, uid.longValue());
+        assertEquals("01020304050607E0", uid.toId());
+    }
+
+    public void testEquals() {
+        UID uid = new UID(BYTES);
+        UID same = new UID(uid.longValue());
+        assertEquals(uid, same);
+        assertEquals(uid.hashCode(), same.hashCode());
+        assertFalse(uid.equals(new UID(0L)));
+    }
+
+    public void testShortArrayIsZeroPadded() {
+        UID uid = new UID(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07});
+        assertTrue(Arrays.equals(new byte[]{0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x00}
+                , uid.getBytes()));
+        assertEquals(0L, new UID(new byte[0]).longValue());
+    }
+
+    public void testLongArrayUsesFirstEightBytes() {
+        byte[] b = Arrays.copyOf(BYTES, 10);
+        b[8] = 0x55;
+        assertEquals(new UID(BYTES), new UID(b));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.simulator;
+
+/**
+ * 模擬カードの通信遅延モデルを提供します
+ *
+ * <pre>
+ * 1フレームあたりの固定遅延 (応答待ち・フレーム同期等) と、送受信1バイトあたりの遅延
+ * (RF通信速度) の和を1回のtransceiveの遅延とします。
+ *
+ *   delay = frameDelay + byteDelay * (コマンド長 + レスポンス長)
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public class LatencyModel {
+    /** 遅延無し */
+    public static final LatencyModel NONE = new LatencyModel(0, 0);
+    /** FeliCa 212kbps 相当 (1バイト約38μs、フレーム毎に約2ms) の目安 */
+    public static final LatencyModel FELICA_212K = new LatencyModel(2000000L, 38000L);
+    /** ISO15693 26.48kbps 相当 (1バイト約302μs、フレーム毎に約1.5ms) の目安 */
+    public static final LatencyModel ISO15693_26K = new LatencyModel(1500000L, 302000L);
+
+    private final long frameDelayNanos;
+    private final long byteDelayNanos;
+
+    /**
+     * コンストラクタ
+     * @param frameDelayNanos 1フレームあたりの固定遅延(ナノ秒)をセット
+     * @param byteDelayNanos 送受信1バイトあたりの遅延(ナノ秒)をセット
+     */
+    public LatencyModel(long frameDelayNanos, long byteDelayNanos) {
+        if ( frameDelayNanos < 0 || byteDelayNanos < 0 ) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        this.frameDelayNanos = frameDelayNanos;
+        this.byteDelayNanos = byteDelayNanos;
+    }
+    /**
+     * 1回のtransceiveにかかる遅延を計算します
+     *
+     * @param commandLength 送信したコマンドのバイト数をセット
+     * @param responseLength 受信したレスポンスのバイト数をセット
+     * @return long 遅延(ナノ秒)が戻ります
+     */
+    public long getDelayNanos(int commandLength, int responseLength) {
+        return this.frameDelayNanos + this.byteDelayNanos * (commandLength + responseLength);
+    }
+    /**
+     * 1フレームあたりの固定遅延を取得します
+     * @return long 固定遅延(ナノ秒)が戻ります
+     */
+    public long getFrameDelayNanos() {
+        return this.frameDelayNanos;
+    }
+    /**
+     * 1バイトあたりの遅延を取得します
+     * @return long 1バイトあたりの遅延(ナノ秒)が戻ります
+     */
+    public long getByteDelayNanos() {
+        return this.byteDelayNanos;
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "LatencyModel [frame=" + this.frameDelayNanos + "ns, byte=" + this.byteDelayNanos + "ns]";
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.simulator;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.NfcException;
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver;
+
+/**
+ * メモリ上で動作する模擬カードの基底クラスを提供します
+ *
+ * <pre>
+ * android.nfc.Tagを使わずにプロトコル処理を実行するためのTransceiver実装です。
+ * サブクラスはprocessでコマンドフレームを解釈して応答フレームを返します。
+ *
+ * 各transceiveの遅延はLatencyModelで計算され、統計値(フレーム数、送受信バイト数、
+ * 累積遅延)として記録されます。setRealTime(true)とすると計算した遅延の分だけ実際に
+ * スレッドを停止するため、実時間でのスループットを測定できます。
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public abstract class SimulatedCard implements Transceiver {
+    private final int maxTransceiveLength;
+    private LatencyModel latencyModel = LatencyModel.NONE;
+    private boolean realTime;
+    private boolean present = true;
+
+    private long frameCount;
+    private long bytesSent;
+    private long bytesReceived;
+    private long simulatedNanos;
+
+    /**
+     * コンストラクタ
+     * @param maxTransceiveLength 一度に送信可能な最大バイト数をセット
+     */
+    protected SimulatedCard(int maxTransceiveLength) {
+        this.maxTransceiveLength = maxTransceiveLength;
+    }
+    /**
+     * コマンドフレームを解釈して応答フレームを生成します
+     *
+     * @param command 受信したコマンドフレームがセットされます
+     * @return byte[] 応答フレームを戻します (応答しない場合はnull)
+     */
+    protected abstract byte[] process(byte[] command);
+
+    /* (non-Javadoc)
+     * @see nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver#transceive(byte[])
+     */
+    @Override
+    public synchronized byte[] transceive(byte[] data) throws NfcException {
+        if ( !this.present ) return null; //Tag Lost
+        if ( data == null || data.length == 0 ) {
+            throw new NfcException("command frame is empty");
+        }
+        if ( data.length > this.maxTransceiveLength ) {
+            throw new NfcException("command frame too long : " + data.length
+                    + " (max " + this.maxTransceiveLength + ")");
+        }
+        byte[] response = this.process(data);
+        long delay = this.latencyModel.getDelayNanos(data.length
+                , response != null ? response.length : 0);
+        this.frameCount++;
+        this.bytesSent += data.length;
+        this.bytesReceived += (response != null ? response.length : 0);
+        this.simulatedNanos += delay;
+        if ( this.realTime && delay > 0 ) {
+            try {
+                Thread.sleep(delay / 1000000L, (int) (delay % 1000000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NfcException(e);
+            }
+        }
+        if ( response == null ) {
+            //実機では応答が無い場合タイムアウトでIOExceptionとなる
+            throw new NfcException("Transceive failed (no response)");
+        }
+        return response;
+    }
+    /* (non-Javadoc)
+     * @see nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver#getMaxTransceiveLength()
+     */
+    @Override
+    public int getMaxTransceiveLength() {
+        return this.maxTransceiveLength;
+    }
+    /**
+     * 遅延モデルをセットします
+     * @param latencyModel 遅延モデルをセット (nullの場合は遅延無し)
+     */
+    public synchronized void setLatencyModel(LatencyModel latencyModel) {
+        this.latencyModel = (latencyModel != null ? latencyModel : LatencyModel.NONE);
+    }
+    /**
+     * 遅延モデルを取得します
+     * @return LatencyModel 遅延モデルが戻ります
+     */
+    public synchronized LatencyModel getLatencyModel() {
+        return this.latencyModel;
+    }
+    /**
+     * 計算した遅延の分だけ実際に待機するか否かをセットします
+     * @param realTime 待機する場合はtrueをセット
+     */
+    public synchronized void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+    /**
+     * カードが通信範囲内にあるか否かをセットします
+     * <pre>
+     *  falseをセットすると以降のtransceiveはnull(Tag Lost)を戻します
+     * </pre>
+     * @param present 通信範囲内にある場合はtrueをセット
+     */
+    public synchronized void setPresent(boolean present) {
+        this.present = present;
+    }
+    /**
+     * 統計値をリセットします
+     */
+    public synchronized void resetStatistics() {
+        this.frameCount = 0;
+        this.bytesSent = 0;
+        this.bytesReceived = 0;
+        this.simulatedNanos = 0;
+    }
+    /**
+     * 送受信したフレーム数を取得します
+     * @return long フレーム数が戻ります
+     */
+    public synchronized long getFrameCount() {
+        return this.frameCount;
+    }
+    /**
+     * 送信(リーダ→カード)したバイト数を取得します
+     * @return long バイト数が戻ります
+     */
+    public synchronized long getBytesSent() {
+        return this.bytesSent;
+    }
+    /**
+     * 受信(カード→リーダ)したバイト数を取得します
+     * @return long バイト数が戻ります
+     */
+    public synchronized long getBytesReceived() {
+        return this.bytesReceived;
+    }
+    /**
+     * 遅延モデルで計算した累積遅延を取得します
+     * @return long 累積遅延(ナノ秒)が戻ります
+     */
+    public synchronized long getSimulatedNanos() {
+        return this.simulatedNanos;
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(this.getClass().getSimpleName()).append(" \n");
+        sb.append(" フレーム数: ").append(this.frameCount).append("\n");
+        sb.append(" 送信バイト数: ").append(this.bytesSent).append("\n");
+        sb.append(" 受信バイト数: ").append(this.bytesReceived).append("\n");
+        sb.append(" 累積遅延(ns): ").append(this.simulatedNanos).append("\n");
+        return sb.toString();
+    }
+}
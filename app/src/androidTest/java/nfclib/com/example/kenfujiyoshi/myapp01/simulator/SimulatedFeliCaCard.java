@@ -0,0 +1,456 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_POLLING;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_READ_WO_ENCRYPTION;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_REQUEST_RESPONSE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_REQUEST_SERVICE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_REQUEST_SYSTEMCODE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_SEARCH_SERVICECODE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_WRITE_WO_ENCRYPTION;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.RESPONSE_POLLING;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.RESPONSE_READ_WO_ENCRYPTION;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.RESPONSE_REQUEST_RESPONSE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.RESPONSE_REQUEST_SERVICE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.RESPONSE_REQUEST_SYSTEMCODE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.RESPONSE_SEARCH_SERVICECODE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.RESPONSE_WRITE_WO_ENCRYPTION;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG1_ERROR;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG1_NORMAL;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_ACCESS_DENIED;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_BLOCK_COUNT;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_BLOCK_NUMBER;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_LENGTH;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_SERVICE_CODE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_SERVICE_COUNT;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_SERVICE_ORDER;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_NORMAL;
+
+/**
+ * FeliCa Standard(NFC-F)の模擬カードを提供します
+ *
+ * <pre>
+ * FeliCaLib.commandMapのうち、認証を必要としない以下のコマンドを処理します。
+ *   Polling / Request Service / Request Response / Read Without Encryption /
+ *   Write Without Encryption / Search Service Code / Request System Code
+ * 認証系コマンド (Authentication1/2, Read, Write) には応答しません。
+ *
+ * サービスコードは FeliCaLib.SERVICE_SUICA_HISTORY 等と同じく、フレーム上のバイト順
+ * (little endian) を下位バイトとした int 値で指定します。
+ * 全てのシステムコードは同じサービス群を共有します。
+ *
+ *   SimulatedFeliCaCard card = new SimulatedFeliCaCard(idm, pmm, SYSTEMCODE_SUICA);
+ *   card.addService(SERVICE_SUICA_HISTORY, 20);
+ *   FeliCaTag tag = new FeliCaTag(card);
+ *   tag.polling(SYSTEMCODE_SUICA);
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public class SimulatedFeliCaCard extends SimulatedCard {
+    /** FeliCaフレームの最大長 (長さバイトが1バイトのため) */
+    public static final int MAX_TRANSCEIVE_LENGTH = 255;
+    /** 1ブロックのバイト数 */
+    public static final int BLOCK_SIZE = 16;
+    /** 一度に指定できる最大サービス数 */
+    public static final int MAX_SERVICES = 16;
+
+    protected final byte[] idm;
+    protected final byte[] pmm;
+    protected final int[] systemCodes;
+    protected final Map<Integer, byte[][]> services = new LinkedHashMap<Integer, byte[][]>();
+    protected int maxReadBlocks = 15;
+    protected int maxWriteBlocks = 13;
+
+    /**
+     * コンストラクタ
+     *
+     * @param idm カードのIDm(8バイト)をセット
+     * @param pmm カードのPMm(8バイト)をセット
+     * @param systemCodes カードが持つシステムコードをセット
+     */
+    public SimulatedFeliCaCard(byte[] idm, byte[] pmm, int... systemCodes) {
+        super(MAX_TRANSCEIVE_LENGTH);
+        if ( idm == null || idm.length != 8 || pmm == null || pmm.length != 8 ) {
+            throw new IllegalArgumentException("IDm and PMm must be 8 bytes");
+        }
+        this.idm = idm.clone();
+        this.pmm = pmm.clone();
+        this.systemCodes = systemCodes.clone();
+    }
+    /**
+     * サービスを追加します
+     *
+     * @param serviceCode サービスコードをセット
+     * @param numberOfBlocks サービスが持つブロック数をセット
+     */
+    public synchronized void addService(int serviceCode, int numberOfBlocks) {
+        byte[][] blocks = new byte[numberOfBlocks][];
+        for ( int i = 0; i < numberOfBlocks; i++ ) {
+            blocks[i] = new byte[BLOCK_SIZE];
+        }
+        this.services.put(serviceCode & 0xffff, blocks);
+    }
+    /**
+     * ブロックのデータをセットします
+     *
+     * @param serviceCode サービスコードをセット
+     * @param blockNumber ブロック番号をセット
+     * @param data データ(16バイト)をセット
+     */
+    public synchronized void setBlock(int serviceCode, int blockNumber, byte[] data) {
+        byte[][] blocks = this.services.get(serviceCode & 0xffff);
+        if ( blocks == null ) {
+            throw new IllegalArgumentException("service not found : " + Integer.toHexString(serviceCode));
+        }
+        System.arraycopy(data, 0, blocks[blockNumber], 0, Math.min(data.length, BLOCK_SIZE));
+    }
+    /**
+     * ブロックのデータを取得します
+     *
+     * @param serviceCode サービスコードをセット
+     * @param blockNumber ブロック番号をセット
+     * @return byte[] データ(16バイト)の複製が戻ります
+     */
+    public synchronized byte[] getBlock(int serviceCode, int blockNumber) {
+        byte[][] blocks = this.services.get(serviceCode & 0xffff);
+        if ( blocks == null ) {
+            throw new IllegalArgumentException("service not found : " + Integer.toHexString(serviceCode));
+        }
+        return blocks[blockNumber].clone();
+    }
+    /**
+     * Read Without Encryptionで同時に読み込める最大ブロック数をセットします
+     * @param maxReadBlocks 最大ブロック数をセット
+     */
+    public synchronized void setMaxReadBlocks(int maxReadBlocks) {
+        this.maxReadBlocks = maxReadBlocks;
+    }
+    /**
+     * Write Without Encryptionで同時に書き込める最大ブロック数をセットします
+     * @param maxWriteBlocks 最大ブロック数をセット
+     */
+    public synchronized void setMaxWriteBlocks(int maxWriteBlocks) {
+        this.maxWriteBlocks = maxWriteBlocks;
+    }
+    /**
+     * IDmを取得します
+     * @return byte[] IDmの複製が戻ります
+     */
+    public byte[] getIDm() {
+        return this.idm.clone();
+    }
+
+    /* (non-Javadoc)
+     * @see nfclib.com.example.kenfujiyoshi.myapp01.simulator.SimulatedCard#process(byte[])
+     */
+    @Override
+    protected synchronized byte[] process(byte[] command) {
+        if ( command.length < 2 || (command[0] & 0xff) != command.length ) {
+            return null; // フレーム長不一致
+        }
+        if ( command[1] == COMMAND_POLLING ) {
+            return this.polling(command);
+        }
+        //以降のコマンドはIDmで宛先を指定する
+        if ( command.length < 10 || !this.matchIDm(command, 2) ) {
+            return null;
+        }
+        switch ( command[1] ) {
+        case COMMAND_REQUEST_SERVICE:
+            return this.requestService(command);
+        case COMMAND_REQUEST_RESPONSE:
+            return this.response(RESPONSE_REQUEST_RESPONSE, new byte[]{ 0x00 }); // モード0
+        case COMMAND_READ_WO_ENCRYPTION:
+            return this.readWithoutEncryption(command);
+        case COMMAND_WRITE_WO_ENCRYPTION:
+            return this.writeWithoutEncryption(command);
+        case COMMAND_SEARCH_SERVICECODE:
+            return this.searchServiceCode(command);
+        case COMMAND_REQUEST_SYSTEMCODE:
+            return this.requestSystemCode();
+        default:
+            return null; // 認証系コマンドは未対応 (応答無し)
+        }
+    }
+    /**
+     * Pollingを処理します
+     * @param command コマンドフレームをセット
+     * @return byte[] 応答フレームが戻ります (システムコードが一致しない場合はnull)
+     */
+    protected byte[] polling(byte[] command) {
+        if ( command.length < 6 ) return null;
+        int hi = command[2] & 0xff;
+        int lo = command[3] & 0xff;
+        for ( int systemCode : this.systemCodes ) {
+            //0xffはワイルドカード
+            if ( (hi == 0xff || hi == (systemCode >> 8 & 0xff))
+                    && (lo == 0xff || lo == (systemCode & 0xff)) ) {
+                byte[] payload = new byte[command[4] == 0x01 ? 10 : 8];
+                System.arraycopy(this.pmm, 0, payload, 0, 8);
+                if ( command[4] == 0x01 ) { // システムコードリクエスト
+                    payload[8] = (byte) (systemCode >> 8);
+                    payload[9] = (byte) (systemCode & 0xff);
+                }
+                return this.response(RESPONSE_POLLING, payload);
+            }
+        }
+        return null;
+    }
+    /**
+     * Request Serviceを処理します
+     * @param command コマンドフレームをセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    protected byte[] requestService(byte[] command) {
+        int n = command.length > 10 ? command[10] & 0xff : 0;
+        if ( n < 1 || n > 32 || command.length < 11 + n * 2 ) return null;
+        byte[] payload = new byte[1 + n * 2];
+        payload[0] = (byte) n;
+        for ( int i = 0; i < n; i++ ) {
+            int code = (command[11 + i * 2] & 0xff) | (command[12 + i * 2] & 0xff) << 8;
+            boolean exists = (code == 0x0000) || this.services.containsKey(code);
+            //存在しないノードの鍵バージョンは0xffff
+            payload[1 + i * 2] = exists ? 0x00 : (byte) 0xff;
+            payload[2 + i * 2] = exists ? 0x00 : (byte) 0xff;
+        }
+        return this.response(RESPONSE_REQUEST_SERVICE, payload);
+    }
+    /**
+     * Search Service Codeを処理します
+     * @param command コマンドフレームをセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    protected byte[] searchServiceCode(byte[] command) {
+        if ( command.length < 12 ) return null;
+        int index = (command[10] & 0xff) | (command[11] & 0xff) << 8;
+        if ( index == 0 ) {
+            //ルートエリア 0000h～FFFEh
+            return this.response(RESPONSE_SEARCH_SERVICECODE
+                    , new byte[]{ 0x00, 0x00, (byte) 0xfe, (byte) 0xff });
+        }
+        List<Integer> codes = new ArrayList<Integer>(this.services.keySet());
+        if ( index > codes.size() ) {
+            return this.response(RESPONSE_SEARCH_SERVICECODE
+                    , new byte[]{ (byte) 0xff, (byte) 0xff }); // 終端
+        }
+        int code = codes.get(index - 1);
+        return this.response(RESPONSE_SEARCH_SERVICECODE
+                , new byte[]{ (byte) (code & 0xff), (byte) (code >> 8) });
+    }
+    /**
+     * Request System Codeを処理します
+     * @return byte[] 応答フレームが戻ります
+     */
+    protected byte[] requestSystemCode() {
+        byte[] payload = new byte[1 + this.systemCodes.length * 2];
+        payload[0] = (byte) this.systemCodes.length;
+        for ( int i = 0; i < this.systemCodes.length; i++ ) {
+            payload[1 + i * 2] = (byte) (this.systemCodes[i] >> 8);
+            payload[2 + i * 2] = (byte) (this.systemCodes[i] & 0xff);
+        }
+        return this.response(RESPONSE_REQUEST_SYSTEMCODE, payload);
+    }
+    /**
+     * Read Without Encryptionを処理します
+     * @param command コマンドフレームをセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    protected byte[] readWithoutEncryption(byte[] command) {
+        BlockList list = new BlockList();
+        int error = list.parse(command, this.maxReadBlocks);
+        if ( error != STATUSFLAG2_NORMAL ) {
+            return this.status(RESPONSE_READ_WO_ENCRYPTION, list.errorIndex, error);
+        }
+        byte[] payload = new byte[3 + list.count * BLOCK_SIZE];
+        payload[2] = (byte) list.count;
+        for ( int i = 0; i < list.count; i++ ) {
+            int status = this.readBlock(list.serviceCodes[list.orders[i]]
+                    , list.blockNumbers[i], payload, 3 + i * BLOCK_SIZE);
+            if ( status != STATUSFLAG2_NORMAL ) {
+                return this.status(RESPONSE_READ_WO_ENCRYPTION, i + 1, status);
+            }
+        }
+        return this.response(RESPONSE_READ_WO_ENCRYPTION, payload);
+    }
+    /**
+     * Write Without Encryptionを処理します
+     * <pre>
+     *  全てのブロックが書き込み可能な場合にのみ書き込みます
+     * </pre>
+     * @param command コマンドフレームをセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    protected byte[] writeWithoutEncryption(byte[] command) {
+        BlockList list = new BlockList();
+        int error = list.parse(command, this.maxWriteBlocks);
+        if ( error != STATUSFLAG2_NORMAL ) {
+            return this.status(RESPONSE_WRITE_WO_ENCRYPTION, list.errorIndex, error);
+        }
+        if ( command.length != list.next + list.count * BLOCK_SIZE ) {
+            return this.status(RESPONSE_WRITE_WO_ENCRYPTION, STATUSFLAG1_ERROR, STATUSFLAG2_ERROR_LENGTH);
+        }
+        for ( int i = 0; i < list.count; i++ ) {
+            int status = this.checkWrite(list.serviceCodes[list.orders[i]], list.blockNumbers[i]);
+            if ( status != STATUSFLAG2_NORMAL ) {
+                return this.status(RESPONSE_WRITE_WO_ENCRYPTION, i + 1, status);
+            }
+        }
+        for ( int i = 0; i < list.count; i++ ) {
+            this.storeBlock(list.serviceCodes[list.orders[i]], list.blockNumbers[i]
+                    , command, list.next + i * BLOCK_SIZE);
+        }
+        return this.status(RESPONSE_WRITE_WO_ENCRYPTION, STATUSFLAG1_NORMAL, STATUSFLAG2_NORMAL);
+    }
+    /**
+     * ブロックを読み込みます
+     *
+     * @param serviceCode サービスコードをセット
+     * @param blockNumber ブロック番号をセット
+     * @param dest 読み込んだデータの格納先をセット
+     * @param offset 格納先のオフセットをセット
+     * @return int ステータスフラグ2が戻ります
+     */
+    protected int readBlock(int serviceCode, int blockNumber, byte[] dest, int offset) {
+        byte[][] blocks = this.services.get(serviceCode);
+        if ( blocks == null ) return STATUSFLAG2_ERROR_SERVICE_CODE;
+        if ( (serviceCode & 0x01) == 0 ) return STATUSFLAG2_ERROR_ACCESS_DENIED; // 認証が必要
+        if ( blockNumber >= blocks.length ) return STATUSFLAG2_ERROR_BLOCK_NUMBER;
+        System.arraycopy(blocks[blockNumber], 0, dest, offset, BLOCK_SIZE);
+        return STATUSFLAG2_NORMAL;
+    }
+    /**
+     * ブロックが書き込み可能か否かを検査します
+     *
+     * @param serviceCode サービスコードをセット
+     * @param blockNumber ブロック番号をセット
+     * @return int ステータスフラグ2が戻ります
+     */
+    protected int checkWrite(int serviceCode, int blockNumber) {
+        byte[][] blocks = this.services.get(serviceCode);
+        if ( blocks == null ) return STATUSFLAG2_ERROR_SERVICE_CODE;
+        int accessInfo = serviceCode & 0x3f; // 下位6bitがアクセス情報
+        if ( (accessInfo & 0x01) == 0 ) return STATUSFLAG2_ERROR_ACCESS_DENIED; // 認証が必要
+        if ( (accessInfo & 0x02) != 0 && accessInfo != 0x13 ) return STATUSFLAG2_ERROR_ACCESS_DENIED; // リードオンリー
+        if ( blockNumber >= blocks.length ) return STATUSFLAG2_ERROR_BLOCK_NUMBER;
+        return STATUSFLAG2_NORMAL;
+    }
+    /**
+     * ブロックにデータを格納します (checkWriteで検査済みであること)
+     *
+     * @param serviceCode サービスコードをセット
+     * @param blockNumber ブロック番号をセット
+     * @param src 書き込むデータを含むバイト列をセット
+     * @param offset データの開始位置をセット
+     */
+    protected void storeBlock(int serviceCode, int blockNumber, byte[] src, int offset) {
+        System.arraycopy(src, offset, this.services.get(serviceCode)[blockNumber], 0, BLOCK_SIZE);
+    }
+    /**
+     * 宛先のIDmが自身のIDmと一致するか検査します
+     * @param command コマンドフレームをセット
+     * @param offset IDmの開始位置をセット
+     * @return boolean 一致する場合trueが戻ります
+     */
+    protected boolean matchIDm(byte[] command, int offset) {
+        return Arrays.equals(this.idm, Arrays.copyOfRange(command, offset, offset + 8));
+    }
+    /**
+     * 応答フレーム (長さ + レスポンスコード + IDm + データ) を生成します
+     * @param responseCode レスポンスコードをセット
+     * @param payload データをセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    protected byte[] response(byte responseCode, byte[] payload) {
+        byte[] frame = new byte[10 + payload.length];
+        frame[0] = (byte) frame.length;
+        frame[1] = responseCode;
+        System.arraycopy(this.idm, 0, frame, 2, 8);
+        System.arraycopy(payload, 0, frame, 10, payload.length);
+        return frame;
+    }
+    /**
+     * ステータスフラグのみの応答フレームを生成します
+     * @param responseCode レスポンスコードをセット
+     * @param statusFlag1 ステータスフラグ1をセット
+     * @param statusFlag2 ステータスフラグ2をセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    protected byte[] status(byte responseCode, int statusFlag1, int statusFlag2) {
+        return this.response(responseCode, new byte[]{ (byte) statusFlag1, (byte) statusFlag2 });
+    }
+
+    /**
+     * サービスコードリストとブロックリストを解析するクラスを提供します
+     */
+    protected static class BlockList {
+        int[] serviceCodes;
+        int count;
+        int[] orders;
+        int[] blockNumbers;
+        int next;        // ブロックリストの次の位置 (書き込みデータの開始位置)
+        int errorIndex = STATUSFLAG1_ERROR;
+
+        /**
+         * Read/Write Without Encryptionのコマンドフレームを解析します
+         *
+         * @param command コマンドフレームをセット
+         * @param maxBlocks 同時にアクセス可能な最大ブロック数をセット
+         * @return int ステータスフラグ2が戻ります
+         */
+        int parse(byte[] command, int maxBlocks) {
+            int p = 10;
+            if ( command.length <= p ) return STATUSFLAG2_ERROR_LENGTH;
+            int n = command[p++] & 0xff;
+            if ( n < 1 || n > MAX_SERVICES ) return STATUSFLAG2_ERROR_SERVICE_COUNT;
+            if ( command.length < p + n * 2 + 1 ) return STATUSFLAG2_ERROR_LENGTH;
+            this.serviceCodes = new int[n];
+            for ( int i = 0; i < n; i++, p += 2 ) {
+                this.serviceCodes[i] = (command[p] & 0xff) | (command[p + 1] & 0xff) << 8;
+            }
+            this.count = command[p++] & 0xff;
+            if ( this.count < 1 || this.count > maxBlocks ) return STATUSFLAG2_ERROR_BLOCK_COUNT;
+            this.orders = new int[this.count];
+            this.blockNumbers = new int[this.count];
+            for ( int i = 0; i < this.count; i++ ) {
+                if ( p >= command.length ) return STATUSFLAG2_ERROR_LENGTH;
+                int head = command[p++] & 0xff;
+                if ( (head & 0x80) != 0 ) {
+                    //2バイトブロックリストエレメント
+                    if ( p >= command.length ) return STATUSFLAG2_ERROR_LENGTH;
+                    this.blockNumbers[i] = command[p++] & 0xff;
+                } else {
+                    //3バイトブロックリストエレメント (ブロック番号はlittle endian)
+                    if ( p + 1 >= command.length ) return STATUSFLAG2_ERROR_LENGTH;
+                    this.blockNumbers[i] = (command[p] & 0xff) | (command[p + 1] & 0xff) << 8;
+                    p += 2;
+                }
+                this.orders[i] = head & 0x0f;
+                if ( this.orders[i] >= n ) {
+                    this.errorIndex = i + 1;
+                    return STATUSFLAG2_ERROR_SERVICE_ORDER;
+                }
+            }
+            this.next = p;
+            return STATUSFLAG2_NORMAL;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.simulator;
+
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_ACCESS_DENIED;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_BLOCK_NUMBER;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_SERVICE_CODE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_NORMAL;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.SYSTEMCODE_FELICA_LITE;
+
+/**
+ * FeliCa Liteの模擬カードを提供します
+ *
+ * <pre>
+ * FeliCa Liteのブロック構成
+ *   0x00～0x0d : S_PAD (ユーザーブロック)
+ *   0x0e       : REG
+ *   0x80～0x88 : RC, MAC, ID, D_ID, SER_C, SYS_C, CKV, CK, MC
+ *
+ * 読み込みは同時4ブロック、書き込みは1ブロックまでです。
+ * S_PAD/REGへの書き込みはMCブロックの書き込み許可ビット(MC[0],MC[1])に従います。
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public class SimulatedFeliCaLiteCard extends SimulatedFeliCaCard {
+    /** リードオンリーサービス (FeliCaLib.SERVICE_FELICA_LITE_READONLY のフレーム上の値) */
+    public static final int SERVICE_READONLY = 0x000b;
+    /** リード/ライトサービス (FeliCaLib.SERVICE_FELICA_LITE_READWRITE のフレーム上の値) */
+    public static final int SERVICE_READWRITE = 0x0009;
+
+    public static final int BLOCK_REG = 0x0e;
+    public static final int BLOCK_RC = 0x80;
+    public static final int BLOCK_MAC = 0x81;
+    public static final int BLOCK_ID = 0x82;
+    public static final int BLOCK_D_ID = 0x83;
+    public static final int BLOCK_SER_C = 0x84;
+    public static final int BLOCK_SYS_C = 0x85;
+    public static final int BLOCK_CKV = 0x86;
+    public static final int BLOCK_CK = 0x87;
+    public static final int BLOCK_MC = 0x88;
+
+    private final byte[][] liteBlocks = new byte[BLOCK_MC + 1][];
+
+    /**
+     * コンストラクタ
+     *
+     * @param idm カードのIDm(8バイト)をセット
+     * @param pmm カードのPMm(8バイト)をセット
+     */
+    public SimulatedFeliCaLiteCard(byte[] idm, byte[] pmm) {
+        super(idm, pmm, SYSTEMCODE_FELICA_LITE);
+        this.maxReadBlocks = 4;
+        this.maxWriteBlocks = 1;
+        //サービス一覧 (Search Service Code/Request Service用)
+        this.services.put(SERVICE_READWRITE, new byte[0][]);
+        this.services.put(SERVICE_READONLY, new byte[0][]);
+
+        for ( int i = 0; i < this.liteBlocks.length; i++ ) {
+            if ( isValidBlock(i) ) this.liteBlocks[i] = new byte[BLOCK_SIZE];
+        }
+        System.arraycopy(this.idm, 0, this.liteBlocks[BLOCK_ID], 0, 8);
+        System.arraycopy(this.idm, 0, this.liteBlocks[BLOCK_D_ID], 0, 8);
+        System.arraycopy(this.pmm, 0, this.liteBlocks[BLOCK_D_ID], 8, 8);
+        this.liteBlocks[BLOCK_SYS_C][0] = (byte) (SYSTEMCODE_FELICA_LITE >> 8);
+        this.liteBlocks[BLOCK_SYS_C][1] = (byte) (SYSTEMCODE_FELICA_LITE & 0xff);
+        //全てのS_PADとREGを書き込み可能にしておく
+        this.liteBlocks[BLOCK_MC][0] = (byte) 0xff;
+        this.liteBlocks[BLOCK_MC][1] = (byte) 0x7f;
+    }
+    /**
+     * FeliCa Liteに存在するブロック番号か否かを検査します
+     * @param blockNumber ブロック番号をセット
+     * @return boolean 存在する場合trueが戻ります
+     */
+    public static boolean isValidBlock(int blockNumber) {
+        return (blockNumber >= 0 && blockNumber <= BLOCK_REG)
+            || (blockNumber >= BLOCK_RC && blockNumber <= BLOCK_MC);
+    }
+    /**
+     * ブロックのデータをセットします
+     *
+     * @param blockNumber ブロック番号をセット
+     * @param data データ(16バイト)をセット
+     */
+    public synchronized void setBlock(int blockNumber, byte[] data) {
+        if ( !isValidBlock(blockNumber) ) {
+            throw new IllegalArgumentException("invalid block : " + Integer.toHexString(blockNumber));
+        }
+        System.arraycopy(data, 0, this.liteBlocks[blockNumber], 0, Math.min(data.length, BLOCK_SIZE));
+    }
+    /**
+     * ブロックのデータを取得します
+     *
+     * @param blockNumber ブロック番号をセット
+     * @return byte[] データ(16バイト)の複製が戻ります
+     */
+    public synchronized byte[] getBlock(int blockNumber) {
+        if ( !isValidBlock(blockNumber) ) {
+            throw new IllegalArgumentException("invalid block : " + Integer.toHexString(blockNumber));
+        }
+        return this.liteBlocks[blockNumber].clone();
+    }
+    /* (non-Javadoc)
+     * @see nfclib.com.example.kenfujiyoshi.myapp01.simulator.SimulatedFeliCaCard#readBlock(int, int, byte[], int)
+     */
+    @Override
+    protected int readBlock(int serviceCode, int blockNumber, byte[] dest, int offset) {
+        if ( serviceCode != SERVICE_READONLY && serviceCode != SERVICE_READWRITE ) {
+            return STATUSFLAG2_ERROR_SERVICE_CODE;
+        }
+        if ( !isValidBlock(blockNumber) ) return STATUSFLAG2_ERROR_BLOCK_NUMBER;
+        if ( blockNumber == BLOCK_CK || blockNumber == BLOCK_MAC ) {
+            //カード鍵とMACは読み出せない (MACはセッション鍵が無いため0埋め)
+            for ( int i = 0; i < BLOCK_SIZE; i++ ) dest[offset + i] = 0;
+            return STATUSFLAG2_NORMAL;
+        }
+        System.arraycopy(this.liteBlocks[blockNumber], 0, dest, offset, BLOCK_SIZE);
+        return STATUSFLAG2_NORMAL;
+    }
+    /* (non-Javadoc)
+     * @see nfclib.com.example.kenfujiyoshi.myapp01.simulator.SimulatedFeliCaCard#checkWrite(int, int)
+     */
+    @Override
+    protected int checkWrite(int serviceCode, int blockNumber) {
+        if ( serviceCode == SERVICE_READONLY ) return STATUSFLAG2_ERROR_ACCESS_DENIED;
+        if ( serviceCode != SERVICE_READWRITE ) return STATUSFLAG2_ERROR_SERVICE_CODE;
+        if ( !isValidBlock(blockNumber) ) return STATUSFLAG2_ERROR_BLOCK_NUMBER;
+        if ( blockNumber <= BLOCK_REG ) {
+            byte[] mc = this.liteBlocks[BLOCK_MC];
+            int bits = (mc[0] & 0xff) | (mc[1] & 0xff) << 8;
+            return ( (bits & (1 << blockNumber)) != 0 )
+                ? STATUSFLAG2_NORMAL : STATUSFLAG2_ERROR_ACCESS_DENIED;
+        }
+        switch ( blockNumber ) {
+        case BLOCK_RC:
+        case BLOCK_CKV:
+        case BLOCK_CK:
+        case BLOCK_MC:
+            return STATUSFLAG2_NORMAL;
+        default:
+            return STATUSFLAG2_ERROR_ACCESS_DENIED; // ID, D_ID等はリードオンリー
+        }
+    }
+    /* (non-Javadoc)
+     * @see nfclib.com.example.kenfujiyoshi.myapp01.simulator.SimulatedFeliCaCard#storeBlock(int, int, byte[], int)
+     */
+    @Override
+    protected void storeBlock(int serviceCode, int blockNumber, byte[] src, int offset) {
+        System.arraycopy(src, offset, this.liteBlocks[blockNumber], 0, BLOCK_SIZE);
+    }
+}
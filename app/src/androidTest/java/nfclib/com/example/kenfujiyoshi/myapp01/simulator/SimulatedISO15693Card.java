@@ -0,0 +1,368 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_GET_MULTIPLE_BLOCKS_SECURITY_STATUS;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_GET_SYSTEM_INFORMATION;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_INVENTORY;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_LOCK_AFI;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_LOCK_BLOCK;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_LOCK_DSFID;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_READ_MULTIPLE_BLOCKS;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_READ_SINGLE_BLOCK;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_RESET_TO_READY;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_SELECT;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_STAY_QUIET;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_WRITE_AFI;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_WRITE_DSFID;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_WRITE_MULTIPLE_BLOCKS;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.COMMAND_WRITE_SINGLE_BLOCK;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.ErrorCode.BLOCK_ALREADY_LOCKED;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.ErrorCode.BLOCK_CONTENT_LOCKED;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.ErrorCode.BLOCK_NOT_AVAILABLE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.ErrorCode.COMMAND_NOT_SUPPORTED;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.ErrorCode.UNKNOWN_ERROR;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.Flags.ADDRESSED_MODE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.Flags.AFI_PRESENT;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.Flags.AFI_SUPPORTED;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.Flags.DSFID_SUPPORTED;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.Flags.IC_REFERENCE_SUPPORTED;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.Flags.INVENTORY_FLAG_ON;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.Flags.OPTION_COMMAND_ON;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.Flags.SELECT_ONLY_ADDRESS;
+import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.Flags.VICC_MEMORYSIZE_SUPPORTED;
+
+/**
+ * ISO15693(NFC-V)の模擬カードを提供します
+ *
+ * <pre>
+ * ISO15693Lib.commandMapの必須/オプションコマンド (Inventory～Get Multiple Block Security Status)
+ * を処理します。UIDはフレーム上のバイト順 (Tag#getIdと同じLSBファースト) で指定します。
+ *
+ * ICODE SLIのようにWrite Multiple Blocksをサポートしないタグを模擬する場合は
+ * setWriteMultipleBlocksSupported(false) として下さい (エラーコード0x01を応答します)。
+ * setMaxReadBlocksで1回のRead Multiple Blocksで読めるブロック数を制限できます
+ * (超えた場合はエラーコード0x0Fを応答します)。
+ *
+ *   SimulatedISO15693Card card = new SimulatedISO15693Card(uid, 28, 4);
+ *   ISO15693Tag tag = new ISO15693Tag(card, new UID(uid), (byte)0);
+ *   tag.getSystemInformation();
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public class SimulatedISO15693Card extends SimulatedCard {
+    /** NfcV#getMaxTransceiveLength相当 */
+    public static final int MAX_TRANSCEIVE_LENGTH = 253;
+
+    private static final int STATE_READY = 0;
+    private static final int STATE_QUIET = 1;
+    private static final int STATE_SELECTED = 2;
+
+    private final byte[] uid;
+    private final int blockSize;
+    private final byte[][] blocks;
+    private final boolean[] locked;
+    private byte dsfId;
+    private byte afi;
+    private byte icReference;
+    private boolean dsfIdLocked;
+    private boolean afiLocked;
+    private boolean writeMultipleBlocksSupported = true;
+    private int maxReadBlocks = 256;
+    private int state = STATE_READY;
+
+    /**
+     * コンストラクタ
+     *
+     * @param uid タグのUID(8バイト)をセット
+     * @param numberOfBlocks ブロック数(1～256)をセット
+     * @param blockSize ブロックサイズ(1～32バイト)をセット
+     */
+    public SimulatedISO15693Card(byte[] uid, int numberOfBlocks, int blockSize) {
+        super(MAX_TRANSCEIVE_LENGTH);
+        if ( uid == null || uid.length != 8 ) {
+            throw new IllegalArgumentException("UID must be 8 bytes");
+        }
+        if ( numberOfBlocks < 1 || numberOfBlocks > 256 || blockSize < 1 || blockSize > 32 ) {
+            throw new IllegalArgumentException("invalid memory size : "
+                    + numberOfBlocks + " blocks x " + blockSize + " bytes");
+        }
+        this.uid = uid.clone();
+        this.blockSize = blockSize;
+        this.blocks = new byte[numberOfBlocks][blockSize];
+        this.locked = new boolean[numberOfBlocks];
+    }
+    /**
+     * ブロックのデータをセットします
+     * @param blockNumber ブロック番号をセット
+     * @param data データをセット
+     */
+    public synchronized void setBlock(int blockNumber, byte[] data) {
+        System.arraycopy(data, 0, this.blocks[blockNumber], 0, Math.min(data.length, this.blockSize));
+    }
+    /**
+     * ブロックのデータを取得します
+     * @param blockNumber ブロック番号をセット
+     * @return byte[] データの複製が戻ります
+     */
+    public synchronized byte[] getBlock(int blockNumber) {
+        return this.blocks[blockNumber].clone();
+    }
+    /**
+     * DSFIDをセットします
+     * @param dsfId DSFIDをセット
+     */
+    public synchronized void setDsfId(byte dsfId) {
+        this.dsfId = dsfId;
+    }
+    /**
+     * IC Referenceをセットします
+     * @param icReference IC Referenceをセット
+     */
+    public synchronized void setIcReference(byte icReference) {
+        this.icReference = icReference;
+    }
+    /**
+     * Write Multiple Blocksをサポートするか否かをセットします
+     * @param supported サポートする場合はtrueをセット
+     */
+    public synchronized void setWriteMultipleBlocksSupported(boolean supported) {
+        this.writeMultipleBlocksSupported = supported;
+    }
+    /**
+     * 1回のRead Multiple Blocksで読み込めるブロック数をセットします
+     * @param maxReadBlocks ブロック数(1～256)をセット
+     */
+    public synchronized void setMaxReadBlocks(int maxReadBlocks) {
+        this.maxReadBlocks = maxReadBlocks;
+    }
+    /**
+     * UIDを取得します
+     * @return byte[] UIDの複製が戻ります
+     */
+    public byte[] getUID() {
+        return this.uid.clone();
+    }
+
+    /* (non-Javadoc)
+     * @see nfclib.com.example.kenfujiyoshi.myapp01.simulator.SimulatedCard#process(byte[])
+     */
+    @Override
+    protected synchronized byte[] process(byte[] command) {
+        if ( command.length < 2 ) return null;
+        byte flags = command[0];
+        byte code = command[1];
+        if ( code == COMMAND_INVENTORY ) {
+            return this.inventory(command);
+        }
+        if ( (flags & INVENTORY_FLAG_ON) != 0 ) return null;
+
+        int p = 2;
+        if ( (flags & ADDRESSED_MODE) != 0 ) {
+            //アドレス指定モード : UIDが一致しない場合は応答しない
+            if ( command.length < 10 ) return null;
+            if ( !Arrays.equals(this.uid, Arrays.copyOfRange(command, 2, 10)) ) return null;
+            p = 10;
+        } else if ( (flags & SELECT_ONLY_ADDRESS) != 0 ) {
+            if ( this.state != STATE_SELECTED ) return null;
+        } else if ( this.state == STATE_QUIET ) {
+            return null; // Quiet状態ではアドレス指定無しのコマンドに応答しない
+        }
+        boolean option = (flags & OPTION_COMMAND_ON) != 0;
+
+        switch ( code ) {
+        case COMMAND_STAY_QUIET:
+            if ( p == 2 ) return null; // アドレス指定が必須
+            this.state = STATE_QUIET;
+            return null; // Stay Quietは応答しない
+        case COMMAND_READ_SINGLE_BLOCK:
+            if ( command.length < p + 1 ) return error(UNKNOWN_ERROR);
+            return this.readBlocks(command[p] & 0xff, 1, option);
+        case COMMAND_WRITE_SINGLE_BLOCK:
+            if ( command.length < p + 1 + this.blockSize ) return error(UNKNOWN_ERROR);
+            return this.writeBlocks(command[p] & 0xff, 1, command, p + 1);
+        case COMMAND_LOCK_BLOCK:
+            if ( command.length < p + 1 ) return error(UNKNOWN_ERROR);
+            return this.lockBlock(command[p] & 0xff);
+        case COMMAND_READ_MULTIPLE_BLOCKS:
+            if ( command.length < p + 2 ) return error(UNKNOWN_ERROR);
+            if ( (command[p + 1] & 0xff) + 1 > this.maxReadBlocks ) return error(UNKNOWN_ERROR);
+            return this.readBlocks(command[p] & 0xff, (command[p + 1] & 0xff) + 1, option);
+        case COMMAND_WRITE_MULTIPLE_BLOCKS:
+            if ( !this.writeMultipleBlocksSupported ) return error(COMMAND_NOT_SUPPORTED);
+            if ( command.length < p + 2 ) return error(UNKNOWN_ERROR);
+            int count = (command[p + 1] & 0xff) + 1;
+            if ( command.length < p + 2 + count * this.blockSize ) return error(UNKNOWN_ERROR);
+            return this.writeBlocks(command[p] & 0xff, count, command, p + 2);
+        case COMMAND_SELECT:
+            if ( p == 2 ) return null;
+            this.state = STATE_SELECTED;
+            return ok(new byte[0]);
+        case COMMAND_RESET_TO_READY:
+            this.state = STATE_READY;
+            return ok(new byte[0]);
+        case COMMAND_WRITE_AFI:
+            if ( command.length < p + 1 ) return error(UNKNOWN_ERROR);
+            if ( this.afiLocked ) return error(BLOCK_CONTENT_LOCKED);
+            this.afi = command[p];
+            return ok(new byte[0]);
+        case COMMAND_LOCK_AFI:
+            if ( this.afiLocked ) return error(BLOCK_ALREADY_LOCKED);
+            this.afiLocked = true;
+            return ok(new byte[0]);
+        case COMMAND_WRITE_DSFID:
+            if ( command.length < p + 1 ) return error(UNKNOWN_ERROR);
+            if ( this.dsfIdLocked ) return error(BLOCK_CONTENT_LOCKED);
+            this.dsfId = command[p];
+            return ok(new byte[0]);
+        case COMMAND_LOCK_DSFID:
+            if ( this.dsfIdLocked ) return error(BLOCK_ALREADY_LOCKED);
+            this.dsfIdLocked = true;
+            return ok(new byte[0]);
+        case COMMAND_GET_SYSTEM_INFORMATION:
+            return this.systemInformation();
+        case COMMAND_GET_MULTIPLE_BLOCKS_SECURITY_STATUS:
+            if ( command.length < p + 2 ) return error(UNKNOWN_ERROR);
+            return this.securityStatus(command[p] & 0xff, (command[p + 1] & 0xff) + 1);
+        default:
+            return error(COMMAND_NOT_SUPPORTED);
+        }
+    }
+    /**
+     * Inventoryを処理します
+     * @param command コマンドフレームをセット
+     * @return byte[] 応答フレームが戻ります (条件に一致しない場合はnull)
+     */
+    private byte[] inventory(byte[] command) {
+        if ( this.state == STATE_QUIET ) return null;
+        byte flags = command[0];
+        int p = 2;
+        if ( (flags & AFI_PRESENT) != 0 ) {
+            if ( command.length < p + 1 ) return null;
+            byte reqAfi = command[p++];
+            if ( reqAfi != 0 && reqAfi != this.afi ) return null;
+        }
+        if ( command.length < p + 1 ) return null;
+        int maskLength = command[p++] & 0xff;
+        //マスク値はUIDの下位ビットから比較する
+        for ( int bit = 0; bit < maskLength && bit < 64; bit++ ) {
+            int index = p + bit / 8;
+            if ( index >= command.length ) return null;
+            int m = (command[index] >> (bit % 8)) & 0x01;
+            int u = (this.uid[bit / 8] >> (bit % 8)) & 0x01;
+            if ( m != u ) return null;
+        }
+        byte[] data = new byte[9];
+        data[0] = this.dsfId;
+        System.arraycopy(this.uid, 0, data, 1, 8);
+        return ok(data);
+    }
+    /**
+     * ブロックを読み込みます
+     * @param first 開始ブロック番号をセット
+     * @param count ブロック数をセット
+     * @param withSecurityStatus ブロックセキュリティステータスを付加する場合はtrueをセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    private byte[] readBlocks(int first, int count, boolean withSecurityStatus) {
+        if ( first + count > this.blocks.length ) return error(BLOCK_NOT_AVAILABLE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for ( int i = first; i < first + count; i++ ) {
+            if ( withSecurityStatus ) out.write(this.locked[i] ? 0x01 : 0x00);
+            out.write(this.blocks[i], 0, this.blockSize);
+        }
+        return ok(out.toByteArray());
+    }
+    /**
+     * ブロックに書き込みます (ロックされたブロックを含む場合は一切書き込みません)
+     * @param first 開始ブロック番号をセット
+     * @param count ブロック数をセット
+     * @param src 書き込むデータを含むバイト列をセット
+     * @param offset データの開始位置をセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    private byte[] writeBlocks(int first, int count, byte[] src, int offset) {
+        if ( first + count > this.blocks.length ) return error(BLOCK_NOT_AVAILABLE);
+        for ( int i = first; i < first + count; i++ ) {
+            if ( this.locked[i] ) return error(BLOCK_CONTENT_LOCKED);
+        }
+        for ( int i = 0; i < count; i++ ) {
+            System.arraycopy(src, offset + i * this.blockSize, this.blocks[first + i], 0, this.blockSize);
+        }
+        return ok(new byte[0]);
+    }
+    /**
+     * ブロックをロックします
+     * @param blockNumber ブロック番号をセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    private byte[] lockBlock(int blockNumber) {
+        if ( blockNumber >= this.blocks.length ) return error(BLOCK_NOT_AVAILABLE);
+        if ( this.locked[blockNumber] ) return error(BLOCK_ALREADY_LOCKED);
+        this.locked[blockNumber] = true;
+        return ok(new byte[0]);
+    }
+    /**
+     * システム情報を生成します
+     * @return byte[] 応答フレームが戻ります
+     */
+    private byte[] systemInformation() {
+        byte[] data = new byte[14];
+        data[0] = (byte) (DSFID_SUPPORTED | AFI_SUPPORTED
+                | VICC_MEMORYSIZE_SUPPORTED | IC_REFERENCE_SUPPORTED);
+        System.arraycopy(this.uid, 0, data, 1, 8);
+        data[9] = this.dsfId;
+        data[10] = this.afi;
+        data[11] = (byte) (this.blocks.length - 1);      // ブロック数 - 1
+        data[12] = (byte) ((this.blockSize - 1) & 0x1f); // ブロックサイズ - 1
+        data[13] = this.icReference;
+        return ok(data);
+    }
+    /**
+     * ブロックセキュリティステータスを生成します
+     * @param first 開始ブロック番号をセット
+     * @param count ブロック数をセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    private byte[] securityStatus(int first, int count) {
+        if ( first + count > this.blocks.length ) return error(BLOCK_NOT_AVAILABLE);
+        byte[] data = new byte[count];
+        for ( int i = 0; i < count; i++ ) {
+            data[i] = (byte) (this.locked[first + i] ? 0x01 : 0x00);
+        }
+        return ok(data);
+    }
+    /**
+     * 正常応答フレーム (フラグ0x00 + データ) を生成します
+     * @param data データをセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    private static byte[] ok(byte[] data) {
+        byte[] frame = new byte[1 + data.length];
+        System.arraycopy(data, 0, frame, 1, data.length);
+        return frame;
+    }
+    /**
+     * エラー応答フレーム (フラグ0x01 + エラーコード) を生成します
+     * @param errorCode エラーコードをセット
+     * @return byte[] 応答フレームが戻ります
+     */
+    private static byte[] error(byte errorCode) {
+        return new byte[]{ 0x01, errorCode };
+    }
+}
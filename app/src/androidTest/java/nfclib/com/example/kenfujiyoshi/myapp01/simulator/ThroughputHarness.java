@@ -0,0 +1,244 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.simulator;
+
+import java.util.Arrays;
+
+/**
+ * 模擬カードに対する読み書きのスループットとレイテンシを計測する仕組みを提供します
+ *
+ * <pre>
+ * 計測する操作(Operation)を指定した回数実行し、操作毎の遅延(LatencyModelで計算した
+ * 累積遅延)、フレーム数、送受信バイト数を集計します。
+ * 遅延モデルを変えることで、フレーム毎の固定遅延や通信速度の異なる環境を再現できます。
+ * setRealTime(true)とすると計算した遅延の分だけ実際に待機し、経過時間も計測します。
+ *
+ *   ThroughputHarness harness = new ThroughputHarness(card, LatencyModel.FELICA_212K);
+ *   ThroughputHarness.Result r = harness.measure("read", 10, new ThroughputHarness.Operation() {
+ *       public int run() throws Exception {
+ *           return tag.readBlocks(service, 0, 20).length * 16;
+ *       }
+ *   });
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public class ThroughputHarness {
+    /**
+     * 計測する操作を提供します
+     */
+    public interface Operation {
+        /**
+         * 操作を1回実行します
+         * @return int 読み書きしたデータのバイト数を戻します
+         * @throws Exception
+         */
+        int run() throws Exception;
+    }
+
+    private final SimulatedCard card;
+    private final LatencyModel latencyModel;
+    private boolean realTime;
+
+    /**
+     * コンストラクタ
+     * @param card 計測する模擬カードをセット
+     * @param latencyModel 遅延モデルをセット
+     */
+    public ThroughputHarness(SimulatedCard card, LatencyModel latencyModel) {
+        this.card = card;
+        this.latencyModel = latencyModel;
+    }
+    /**
+     * 計算した遅延の分だけ実際に待機するか否かをセットします
+     * @param realTime 待機する場合はtrueをセット
+     */
+    public void setRealTime(boolean realTime) {
+        this.realTime = realTime;
+    }
+    /**
+     * 操作を指定した回数実行して計測します
+     * <pre>
+     *  計測が終わると模擬カードの遅延モデルと待機の設定は元に戻します
+     * </pre>
+     * @param name 計測の名前をセット
+     * @param iterations 実行する回数をセット
+     * @param operation 計測する操作をセット
+     * @return Result 計測結果が戻ります
+     * @throws Exception 操作が失敗した場合
+     */
+    public Result measure(String name, int iterations, Operation operation) throws Exception {
+        if ( iterations < 1 ) {
+            throw new IllegalArgumentException("iterations must be positive : " + iterations);
+        }
+        LatencyModel saved = this.card.getLatencyModel();
+        this.card.setLatencyModel(this.latencyModel);
+        this.card.setRealTime(this.realTime);
+        try {
+            long[] latencies = new long[iterations];
+            long frames = 0;
+            long transferred = 0;
+            long payload = 0;
+            long start = System.nanoTime();
+            for ( int i = 0; i < iterations; i++ ) {
+                this.card.resetStatistics();
+                payload += operation.run();
+                latencies[i] = this.card.getSimulatedNanos();
+                frames += this.card.getFrameCount();
+                transferred += this.card.getBytesSent() + this.card.getBytesReceived();
+            }
+            long elapsed = System.nanoTime() - start;
+            return new Result(name, latencies, frames, transferred, payload, elapsed);
+        } finally {
+            this.card.setRealTime(false);
+            this.card.setLatencyModel(saved);
+        }
+    }
+
+    /**
+     * 計測結果を提供します
+     */
+    public static class Result {
+        private final String name;
+        private final long[] latencies;
+        private final long frames;
+        private final long transferredBytes;
+        private final long payloadBytes;
+        private final long elapsedNanos;
+
+        /**
+         * コンストラクタ
+         * @param name 計測の名前をセット
+         * @param latencies 操作毎の遅延(ナノ秒)をセット
+         * @param frames 総フレーム数をセット
+         * @param transferredBytes 送受信した総バイト数をセット
+         * @param payloadBytes 読み書きしたデータの総バイト数をセット
+         * @param elapsedNanos 実際の経過時間(ナノ秒)をセット
+         */
+        Result(String name, long[] latencies, long frames
+                , long transferredBytes, long payloadBytes, long elapsedNanos) {
+            this.name = name;
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+            this.frames = frames;
+            this.transferredBytes = transferredBytes;
+            this.payloadBytes = payloadBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+        /**
+         * 計測の名前を取得します
+         * @return String 名前が戻ります
+         */
+        public String getName() {
+            return this.name;
+        }
+        /**
+         * 操作の実行回数を取得します
+         * @return int 実行回数が戻ります
+         */
+        public int getIterations() {
+            return this.latencies.length;
+        }
+        /**
+         * 全ての操作の遅延の合計を取得します
+         * @return long 遅延の合計(ナノ秒)が戻ります
+         */
+        public long getTotalNanos() {
+            long total = 0;
+            for ( long l : this.latencies ) {
+                total += l;
+            }
+            return total;
+        }
+        /**
+         * 操作1回あたりの平均遅延を取得します
+         * @return long 平均遅延(ナノ秒)が戻ります
+         */
+        public long getMeanNanos() {
+            return this.getTotalNanos() / this.latencies.length;
+        }
+        /**
+         * 操作の遅延のパーセンタイル値を取得します
+         * @param percentile パーセンタイル(0～100)をセット
+         * @return long 遅延(ナノ秒)が戻ります
+         */
+        public long getPercentileNanos(int percentile) {
+            if ( percentile < 0 || percentile > 100 ) {
+                throw new IllegalArgumentException("percentile out of range : " + percentile);
+            }
+            int index = (int) Math.ceil(percentile / 100.0 * this.latencies.length) - 1;
+            return this.latencies[Math.max(0, index)];
+        }
+        /**
+         * 操作の最大遅延を取得します
+         * @return long 最大遅延(ナノ秒)が戻ります
+         */
+        public long getMaxNanos() {
+            return this.latencies[this.latencies.length - 1];
+        }
+        /**
+         * 総フレーム数を取得します
+         * @return long フレーム数が戻ります
+         */
+        public long getFrames() {
+            return this.frames;
+        }
+        /**
+         * 操作1回あたりのフレーム数を取得します
+         * @return double フレーム数が戻ります
+         */
+        public double getFramesPerOperation() {
+            return (double) this.frames / this.latencies.length;
+        }
+        /**
+         * 送受信した総バイト数を取得します
+         * @return long バイト数が戻ります
+         */
+        public long getTransferredBytes() {
+            return this.transferredBytes;
+        }
+        /**
+         * 読み書きしたデータの総バイト数を取得します
+         * @return long バイト数が戻ります
+         */
+        public long getPayloadBytes() {
+            return this.payloadBytes;
+        }
+        /**
+         * 遅延モデル上のスループットを取得します
+         * @return double 1秒あたりに読み書きできるデータのバイト数が戻ります (遅延が無い場合は0)
+         */
+        public double getThroughput() {
+            long total = this.getTotalNanos();
+            return total > 0 ? this.payloadBytes * 1000000000.0 / total : 0;
+        }
+        /**
+         * 実際の経過時間を取得します
+         * @return long 経過時間(ナノ秒)が戻ります
+         */
+        public long getElapsedNanos() {
+            return this.elapsedNanos;
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return String.format("%s : %d回, %.1fフレーム/回, 平均 %.2fms, p95 %.2fms, 最大 %.2fms, %.0f byte/s (経過 %.2fms)"
+                    , this.name, this.latencies.length, this.getFramesPerOperation()
+                    , this.getMeanNanos() / 1e6, this.getPercentileNanos(95) / 1e6, this.getMaxNanos() / 1e6
+                    , this.getThroughput(), this.elapsedNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.simulator;
+
+import junit.framework.TestCase;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaLiteTag;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaTag;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.ServiceCode;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.ISO15693Tag;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.UID;
+
+/**
+ * 読み書きの経路全体のスループットとレイテンシを遅延モデル付きの模擬カードで計測するテストを提供します
+ * <pre>
+ * 計測結果は標準出力に出力します。遅延はLatencyModelで計算した値のため、実行する環境に
+ * 依存せずに比較できます (testRealTimeのみ実際に待機します)。
+ * </pre>
+ */
+public class ThroughputHarnessTest extends TestCase {
+    private static final byte[] IDM = {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08};
+    private static final byte[] PMM = {0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07};
+    private static final byte[] UID_BYTES = {(byte) 0xe0, 0x04, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06};
+    private static final int HISTORY_BLOCKS = 20;
+    private static final int ITERATIONS = 10;
+
+    public void testFeliCaReadPath() throws Exception {
+        SimulatedFeliCaCard card = newFeliCaCard();
+        final FeliCaTag tag = newFeliCaTag(card);
+        ThroughputHarness harness = new ThroughputHarness(card, LatencyModel.FELICA_212K);
+
+        tag.setMaxReadBlocks(1);
+        ThroughputHarness.Result single = harness.measure("FeliCa read x1", ITERATIONS, readHistory(tag));
+        tag.setMaxReadBlocks(FeliCaTag.DEFAULT_MAX_READ_BLOCKS);
+        ThroughputHarness.Result batch = harness.measure("FeliCa read x15", ITERATIONS, readHistory(tag));
+        report(single, batch);
+
+        assertEquals(HISTORY_BLOCKS, single.getFramesPerOperation(), 0);
+        assertEquals(2, batch.getFramesPerOperation(), 0);
+        assertEquals(HISTORY_BLOCKS * 16 * ITERATIONS, batch.getPayloadBytes());
+        assertModelled(LatencyModel.FELICA_212K, single);
+        assertModelled(LatencyModel.FELICA_212K, batch);
+        assertTrue(batch.getMeanNanos() < single.getMeanNanos());
+        assertTrue(batch.getThroughput() > single.getThroughput());
+    }
+
+    public void testFeliCaLiteWritePath() throws Exception {
+        SimulatedFeliCaLiteCard card = new SimulatedFeliCaLiteCard(IDM, new byte[8]);
+        card.setMaxWriteBlocks(FeliCaLiteTag.MAX_WRITE_BLOCKS);
+        final FeliCaLiteTag tag = new FeliCaLiteTag(card);
+        tag.polling();
+        ThroughputHarness harness = new ThroughputHarness(card, LatencyModel.FELICA_212K);
+
+        ThroughputHarness.Result single = harness.measure("FeliCa Lite write x1", ITERATIONS, writeScratchPad(tag));
+        tag.setMaxWriteBlocks(FeliCaLiteTag.MAX_WRITE_BLOCKS);
+        ThroughputHarness.Result batch = harness.measure("FeliCa Lite write x13", ITERATIONS, writeScratchPad(tag));
+        report(single, batch);
+
+        // MCブロックの読み込み + 書き込み
+        assertEquals(1 + FeliCaLiteTag.SCRATCH_PAD_BLOCKS, single.getFramesPerOperation(), 0);
+        assertEquals(1 + 2, batch.getFramesPerOperation(), 0);
+        assertModelled(LatencyModel.FELICA_212K, batch);
+        assertTrue(batch.getMeanNanos() < single.getMeanNanos());
+    }
+
+    public void testISO15693ReadPath() throws Exception {
+        SimulatedISO15693Card card = new SimulatedISO15693Card(UID_BYTES, 256, 8);
+        final ISO15693Tag tag = newISO15693Tag(card);
+        ThroughputHarness harness = new ThroughputHarness(card, LatencyModel.ISO15693_26K);
+
+        ThroughputHarness.Result single = harness.measure("ISO15693 read single", ITERATIONS
+                , new ThroughputHarness.Operation() {
+            @Override
+            public int run() throws Exception {
+                for ( int i = 0; i < 256; i++ ) {
+                    tag.readSingleBlock((byte) i);
+                }
+                return 256 * 8;
+            }
+        });
+        ThroughputHarness.Result multiple = harness.measure("ISO15693 read multiple", ITERATIONS
+                , new ThroughputHarness.Operation() {
+            @Override
+            public int run() throws Exception {
+                return ISO15693Tag.toMemoryImage(tag.readAllBlocks(null)).length;
+            }
+        });
+        report(single, multiple);
+
+        assertEquals(256, single.getFramesPerOperation(), 0);
+        assertEquals((256 + 27) / 28, multiple.getFramesPerOperation(), 0);
+        assertModelled(LatencyModel.ISO15693_26K, multiple);
+        assertTrue(multiple.getThroughput() > single.getThroughput());
+    }
+
+    public void testISO15693WritePath() throws Exception {
+        SimulatedISO15693Card card = new SimulatedISO15693Card(UID_BYTES, 28, 4);
+        final ISO15693Tag tag = newISO15693Tag(card);
+        ThroughputHarness harness = new ThroughputHarness(card, LatencyModel.ISO15693_26K);
+        ThroughputHarness.Operation write = new ThroughputHarness.Operation() {
+            @Override
+            public int run() throws Exception {
+                tag.writeMultipleBlocks((byte) 0, (byte) 28, new byte[28 * 4]);
+                return 28 * 4;
+            }
+        };
+        ThroughputHarness.Result multiple = harness.measure("ISO15693 write multiple", ITERATIONS, write);
+
+        //WriteMultipleBlocksをサポートしないタグ (最初の1回のみ拒否される)
+        SimulatedISO15693Card sli = new SimulatedISO15693Card(UID_BYTES, 28, 4);
+        sli.setWriteMultipleBlocksSupported(false);
+        final ISO15693Tag sliTag = newISO15693Tag(sli);
+        sliTag.writeMultipleBlocks((byte) 0, (byte) 28, new byte[28 * 4]);
+        ThroughputHarness.Result single = new ThroughputHarness(sli, LatencyModel.ISO15693_26K)
+                .measure("ISO15693 write single", ITERATIONS, new ThroughputHarness.Operation() {
+            @Override
+            public int run() throws Exception {
+                sliTag.writeMultipleBlocks((byte) 0, (byte) 28, new byte[28 * 4]);
+                return 28 * 4;
+            }
+        });
+        report(single, multiple);
+
+        assertEquals(1, multiple.getFramesPerOperation(), 0);
+        assertEquals(28, single.getFramesPerOperation(), 0);
+        assertModelled(LatencyModel.ISO15693_26K, single);
+        assertTrue(multiple.getMeanNanos() < single.getMeanNanos());
+    }
+
+    public void testFrameDelayIsConfigurable() throws Exception {
+        SimulatedFeliCaCard card = newFeliCaCard();
+        FeliCaTag tag = newFeliCaTag(card);
+        LatencyModel fast = new LatencyModel(1000000L, 38000L);
+        LatencyModel slow = new LatencyModel(3000000L, 38000L);
+        ThroughputHarness.Result a = new ThroughputHarness(card, fast).measure("1ms/frame", ITERATIONS, readHistory(tag));
+        ThroughputHarness.Result b = new ThroughputHarness(card, slow).measure("3ms/frame", ITERATIONS, readHistory(tag));
+        report(a, b);
+
+        //フレーム毎の遅延の差だけ遅くなる
+        assertEquals(a.getFrames(), b.getFrames());
+        assertEquals(a.getFrames() * 2000000L, b.getTotalNanos() - a.getTotalNanos());
+        //計測後は元の遅延モデルに戻る
+        assertSame(LatencyModel.NONE, card.getLatencyModel());
+    }
+
+    public void testRealTime() throws Exception {
+        SimulatedFeliCaCard card = newFeliCaCard();
+        FeliCaTag tag = newFeliCaTag(card);
+        ThroughputHarness harness = new ThroughputHarness(card, new LatencyModel(500000L, 0));
+        harness.setRealTime(true);
+        ThroughputHarness.Result r = harness.measure("FeliCa read real time", 5, readHistory(tag));
+        report(r);
+
+        //計算した遅延の分だけ実際に待機する
+        assertEquals(5 * 2 * 500000L, r.getTotalNanos());
+        assertTrue(r.getElapsedNanos() >= r.getTotalNanos());
+    }
+
+    public void testPercentiles() throws Exception {
+        SimulatedFeliCaCard card = newFeliCaCard();
+        final FeliCaTag tag = newFeliCaTag(card);
+        final int[] count = {0};
+        //1回目から順に1～10ブロックを読み込む
+        ThroughputHarness.Result r = new ThroughputHarness(card, new LatencyModel(1000000L, 0))
+                .measure("percentile", ITERATIONS, new ThroughputHarness.Operation() {
+            @Override
+            public int run() throws Exception {
+                tag.setMaxReadBlocks(1);
+                count[0]++;
+                return tag.readBlocks(new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY), 0, count[0]).length * 16;
+            }
+        });
+        assertEquals(ITERATIONS, r.getIterations());
+        assertEquals(1000000L, r.getPercentileNanos(0));
+        assertEquals(5000000L, r.getPercentileNanos(50));
+        assertEquals(10000000L, r.getPercentileNanos(95));
+        assertEquals(10000000L, r.getMaxNanos());
+        assertEquals(5500000L, r.getMeanNanos());
+    }
+
+    /**
+     * 累積遅延が遅延モデルの計算式 (フレーム数×固定遅延 + 送受信バイト数×1バイトの遅延) と一致することを検査します
+     */
+    private static void assertModelled(LatencyModel model, ThroughputHarness.Result r) {
+        assertEquals(r.getFrames() * model.getFrameDelayNanos()
+                + r.getTransferredBytes() * model.getByteDelayNanos(), r.getTotalNanos());
+    }
+
+    private static void report(ThroughputHarness.Result... results) {
+        for ( ThroughputHarness.Result r : results ) {
+            System.out.println(r);
+        }
+    }
+
+    private static ThroughputHarness.Operation readHistory(final FeliCaTag tag) {
+        return new ThroughputHarness.Operation() {
+            @Override
+            public int run() throws Exception {
+                return tag.readBlocks(new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY), 0, HISTORY_BLOCKS).length * 16;
+            }
+        };
+    }
+
+    private static ThroughputHarness.Operation writeScratchPad(final FeliCaLiteTag tag) {
+        final byte[] payload = new byte[FeliCaLiteTag.SCRATCH_PAD_BLOCKS * FeliCaLiteTag.BLOCK_SIZE];
+        return new ThroughputHarness.Operation() {
+            @Override
+            public int run() throws Exception {
+                tag.writeBlocks(0, payload);
+                return payload.length;
+            }
+        };
+    }
+
+    private static SimulatedFeliCaCard newFeliCaCard() {
+        SimulatedFeliCaCard card = new SimulatedFeliCaCard(IDM, PMM, FeliCaLib.SYSTEMCODE_SUICA);
+        card.addService(FeliCaLib.SERVICE_SUICA_HISTORY, HISTORY_BLOCKS);
+        for ( int i = 0; i < HISTORY_BLOCKS; i++ ) {
+            card.setBlock(FeliCaLib.SERVICE_SUICA_HISTORY, i, new byte[]{(byte) (i + 1)});
+        }
+        return card;
+    }
+
+    private static FeliCaTag newFeliCaTag(SimulatedFeliCaCard card) throws Exception {
+        FeliCaTag tag = new FeliCaTag(card);
+        tag.setServiceEnumerationCache(null);
+        tag.polling(FeliCaLib.SYSTEMCODE_SUICA);
+        return tag;
+    }
+
+    private static ISO15693Tag newISO15693Tag(SimulatedISO15693Card card) throws Exception {
+        ISO15693Tag tag = new ISO15693Tag(card, new UID(card.getUID()), (byte) 0);
+        tag.setSystemInformationCache(null);
+        tag.getSystemInformation();
+        return tag;
+    }
+}
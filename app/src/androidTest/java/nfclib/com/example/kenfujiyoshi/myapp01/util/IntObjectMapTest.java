@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.util;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * IntObjectMapのテストを提供します
+ * <pre>
+ * 乱数のキーで格納した結果がHashMapと一致することを検査します
+ * </pre>
+ */
+public class IntObjectMapTest extends TestCase {
+    public void testPutAndGet() {
+        IntObjectMap<String> map = new IntObjectMap<String>();
+        assertNull(map.put(1, "a"));
+        assertEquals("a", map.put(1, "b"));
+        assertEquals("b", map.get(1));
+        assertEquals(1, map.size());
+        assertTrue(map.containsKey(1));
+        assertFalse(map.containsKey(2));
+        assertNull(map.get(0));
+    }
+
+    public void testNegativeAndZeroKeys() {
+        IntObjectMap<String> map = new IntObjectMap<String>(2);
+        map.put(0, "zero");
+        map.put(-1, "minus");
+        map.put(Integer.MIN_VALUE, "min");
+        assertEquals("zero", map.get(0));
+        assertEquals("minus", map.get(-1));
+        assertEquals("min", map.get(Integer.MIN_VALUE));
+    }
+
+    public void testNullValueThrows() {
+        try {
+            new IntObjectMap<String>().put(1, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //OK
+        }
+    }
+
+    public void testMatchesHashMapAcrossRehash() {
+        Random random = new Random(20141001L);
+        IntObjectMap<Integer> map = new IntObjectMap<Integer>(1);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for ( int i = 0; i < 5000; i++ ) {
+            //連続したキーと衝突しやすい範囲のキーを混ぜる
+            int key = (i & 1) == 0 ? i : random.nextInt(4096) << 8;
+            Integer value = Integer.valueOf(random.nextInt());
+            assertEquals(expected.put(key, value), map.put(key, value));
+        }
+        assertEquals(expected.size(), map.size());
+        for ( Map.Entry<Integer, Integer> e : expected.entrySet() ) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        assertNull(map.get(-1));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.util;
+
+import junit.framework.TestCase;
+
+/**
+ * LruMapのテストを提供します
+ */
+public class LruMapTest extends TestCase {
+    public void testEvictsLeastRecentlyUsed() {
+        LruMap<Integer, String> map = new LruMap<Integer, String>(2);
+        map.put(1, "a");
+        map.put(2, "b");
+        //1を参照すると2が最も古くなる
+        assertEquals("a", map.get(1));
+        map.put(3, "c");
+        assertEquals(2, map.size());
+        assertTrue(map.containsKey(1));
+        assertFalse(map.containsKey(2));
+        assertTrue(map.containsKey(3));
+    }
+
+    public void testReplaceDoesNotEvict() {
+        LruMap<Integer, String> map = new LruMap<Integer, String>(2);
+        map.put(1, "a");
+        map.put(2, "b");
+        map.put(2, "c");
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(2));
+    }
+
+    public void testRejectsNonPositiveSize() {
+        try {
+            new LruMap<Integer, String>(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //OK
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Utilのテストを提供します
+ * <pre>
+ * 16進数、2進数の文字列化は、変換表を使う前の実装(String.formatで1バイトずつ変換し、範囲は
+ * Arrays.copyOfRangeで切り出す)をテスト内に残し、乱数の入力に対して結果が一致することを検査します
+ * </pre>
+ */
+public class UtilTest extends TestCase {
+    private static final int ITERATIONS = 500;
+
+    private final Random random = new Random(20141001L);
+
+    public void testHexStringMatchesFormatImplementation() {
+        for ( int n = 0; n < ITERATIONS; n++ ) {
+            byte[] b = randomBytes();
+            assertEquals(formatHex(b), Util.getHexString(b));
+            assertEquals(formatHex(b, 3), Util.getHexString(b, 3));
+            int[] split = randomSplit(b);
+            assertEquals(formatHex(b, split), Util.getHexString(b, split));
+        }
+    }
+
+    public void testBinStringMatchesFormatImplementation() {
+        for ( int n = 0; n < ITERATIONS; n++ ) {
+            byte[] b = randomBytes();
+            assertEquals(formatBin(b), Util.getBinString(b));
+            assertEquals(formatBin(b, 3), Util.getBinString(b, 3));
+            int[] split = randomSplit(b);
+            assertEquals(formatBin(b, split), Util.getBinString(b, split));
+        }
+    }
+
+    public void testSingleByte() {
+        for ( int i = 0; i < 256; i++ ) {
+            assertEquals(formatHex(new byte[]{(byte) i}), Util.getHexString((byte) i));
+            assertEquals(formatBin(new byte[]{(byte) i}), Util.getBinString((byte) i));
+        }
+    }
+
+    public void testSplitBeyondEndIsZeroPadded() {
+        byte[] b = {0x12, 0x34};
+        assertEquals("340000", Util.getHexString(b, 1, 3));
+        assertEquals("", Util.getHexString(b, 2, 0));
+        assertEquals("0011010000000000", Util.getBinString(b, 1, 2));
+    }
+
+    public void testSplitOutOfRangeThrows() {
+        byte[] b = {0x12, 0x34};
+        try {
+            Util.getHexString(b, 3, 1);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            //OK (copyOfRangeと同じ)
+        }
+        try {
+            Util.getBinString(b, 0, -1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            //OK (copyOfRangeと同じ)
+        }
+    }
+
+    public void testAppendHex() throws Exception {
+        byte[] b = randomBytes();
+        StringBuilder sb = new StringBuilder("x");
+        Util.appendHex(sb, b, 0, b.length);
+        assertEquals("x" + formatHex(b), sb.toString());
+
+        StringBuilder out = new StringBuilder();
+        Util.appendHex((Appendable) out, b, 1, b.length - 1);
+        assertEquals(formatHex(b, 1, b.length - 1), out.toString());
+    }
+
+    public void testParseHex() {
+        for ( int n = 0; n < ITERATIONS; n++ ) {
+            byte[] b = randomBytes();
+            assertTrue(Arrays.equals(b, Util.parseHex(Util.getHexString(b))));
+        }
+        assertTrue(Arrays.equals(new byte[]{(byte) 0xab, 0x0f}, Util.parseHex("aB0F")));
+        try {
+            Util.parseHex("abc");
+            fail();
+        } catch (IllegalArgumentException e) {
+            //OK
+        }
+        try {
+            Util.parseHex("0g");
+            fail();
+        } catch (IllegalArgumentException e) {
+            //OK
+        }
+    }
+
+    public void testToIntAndToBytes() {
+        assertEquals(0x12, Util.toInt((byte) 0x12));
+        assertEquals(0x1234, Util.toInt((byte) 0x12, (byte) 0x34));
+        assertEquals(0xfedcba, Util.toInt((byte) 0xfe, (byte) 0xdc, (byte) 0xba));
+        assertEquals(0x89abcdef, Util.toInt(Util.toBytes(0x89abcdef)));
+    }
+
+    public void testToLongAndPutLong() {
+        byte[] b = new byte[10];
+        Util.putLong(0x0123456789abcdefL, b, 1);
+        assertEquals(0x0123456789abcdefL, Util.toLong(b, 1));
+        assertEquals(0x01, b[1]);
+        assertEquals((byte) 0xef, b[8]);
+    }
+
+    private byte[] randomBytes() {
+        byte[] b = new byte[1 + random.nextInt(32)];
+        random.nextBytes(b);
+        return b;
+    }
+
+    /**
+     * 配列の範囲内の開始位置と、終端を超えることもあるバイト数を作成します
+     */
+    private int[] randomSplit(byte[] b) {
+        int from = random.nextInt(b.length + 1);
+        return new int[]{ from, random.nextInt(b.length - from + 4) };
+    }
+
+    //以下は変換表を使う前のUtilの実装
+
+    private static String formatHex(byte[] byteArray, int... split) {
+        StringBuilder builder = new StringBuilder();
+        byte[] target = null;
+        if ( split.length <= 1 ) {
+            target = byteArray;
+        } else {
+            target = Arrays.copyOfRange(byteArray, split[0], split[0] + split[1]);
+        }
+        for (byte b : target) {
+            builder.append(String.format("%02x", b).toUpperCase());
+        }
+        return builder.toString();
+    }
+
+    private static String formatBin(byte[] byteArray, int... split) {
+        StringBuilder builder = new StringBuilder();
+        byte[] target = null;
+        if ( split.length <= 1 ) {
+            target = byteArray;
+        } else {
+            target = Arrays.copyOfRange(byteArray, split[0], split[0] + split[1]);
+        }
+        for (byte b : target) {
+            builder.append(String.format("%8s"
+                    , Integer.toBinaryString(b & 0xFF)).replaceAll(" ", "0"));
+        }
+        return builder.toString();
+    }
+}
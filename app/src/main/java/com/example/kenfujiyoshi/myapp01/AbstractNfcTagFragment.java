@@ -14,10 +14,13 @@ import android.support.v4.app.FragmentTransaction;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
+import com.example.kenfujiyoshi.myapp01.task.TagPrefetchCache;
+
 import nfclib.com.example.kenfujiyoshi.myapp01.nfc.NfcTag;
-import nfclib.com.example.kenfujiyoshi.myapp01.util.ArrayUtil;
 
 /**
  * Created by Ken Fujiyoshi on 2014/09/01.
@@ -25,8 +28,15 @@ import nfclib.com.example.kenfujiyoshi.myapp01.util.ArrayUtil;
 public abstract class AbstractNfcTagFragment extends Fragment {
     public static final String TAG = "AbstractNfcFeliCaTagFragment";
     public static CopyOnWriteArrayList<String[]> sTechList; //
+    /** テクノロジ名毎に割り当てたビット (登録時に割り当て、以降は変更しない) */
+    private static final Map<String, Long> sTechBits = new HashMap<String, Long>();
+    /** sTechListに登録済みのテクノロジのビットの和 */
+    private static long sTechListMask;
 
     protected String[][] mTechList;
+    /** mTechListのテクノロジのビットの和 (mTechListが変更された場合は作り直す) */
+    private long mTechMask;
+    private String[][] mTechMaskSource;
     protected Tag mNfcTag;
     protected ArrayList<INfcTagListener> mListnerList = new ArrayList<INfcTagListener>();
     /**
@@ -50,25 +60,59 @@ public abstract class AbstractNfcTagFragment extends Fragment {
     private static synchronized String[][] registerTechList(String[]... techList) {
         if ( sTechList == null ) {
             sTechList = new CopyOnWriteArrayList<String[]>();
+            sTechListMask = 0;
         }
 
         for (String[] filterTech : techList) {
-            boolean containTechList = false;
-            if ( sTechList.size() > 0 ) {
-                for ( String[] source : sTechList) {
-                    if ( ArrayUtil.containArray(source, filterTech) ) {
-                        containTechList = true;
-                        break;
-                    }
-                }
-            }
-            if ( !containTechList ) {
+            //登録済みのいずれかのTechListとテクノロジを共有していれば追加しない
+            long filterMask = assignTechMask(filterTech);
+            if ( (sTechListMask & filterMask) == 0 ) {
                 sTechList.add(filterTech);
+                sTechListMask |= filterMask;
             }
         }
 
         return sTechList.toArray(new String[sTechList.size()][]);
     }
+    /**
+     * テクノロジ名の一覧にビットを割り当て、ビットの和を戻します
+     * <pre>
+     *  未知のテクノロジ名には新たなビットを割り当てます (登録時のみ呼び出します)
+     * </pre>
+     * @param techs テクノロジ名の一覧をセット
+     * @return long ビットの和が戻ります
+     */
+    private static synchronized long assignTechMask(String[] techs) {
+        long mask = 0;
+        for ( String tech : techs ) {
+            Long bit = sTechBits.get(tech);
+            if ( bit == null ) {
+                if ( sTechBits.size() >= Long.SIZE ) {
+                    throw new IllegalStateException("too many technologies : " + tech);
+                }
+                bit = 1L << sTechBits.size();
+                sTechBits.put(tech, bit);
+            }
+            mask |= bit;
+        }
+        return mask;
+    }
+    /**
+     * テクノロジ名の一覧のビットの和を取得します
+     * <pre>
+     *  ビットが割り当てられていない(いずれのTechListにも含まれない)テクノロジは無視します
+     * </pre>
+     * @param techs テクノロジ名の一覧をセット (Tag#getTechList)
+     * @return long ビットの和が戻ります
+     */
+    private static synchronized long getTechMask(String[] techs) {
+        long mask = 0;
+        for ( String tech : techs ) {
+            Long bit = sTechBits.get(tech);
+            if ( bit != null ) mask |= bit;
+        }
+        return mask;
+    }
 
     /**
      * デフォルトコンストラクタ
@@ -122,7 +166,9 @@ public abstract class AbstractNfcTagFragment extends Fragment {
             NfcAdapter adapter =
                     NfcAdapter.getDefaultAdapter(this.getActivity());
             adapter.disableForegroundDispatch(this.getActivity());
-            sTechList = null;
+            synchronized (AbstractNfcTagFragment.class) {
+                sTechList = null;
+            }
         }
         super.onPause();
     }
@@ -171,14 +217,16 @@ public abstract class AbstractNfcTagFragment extends Fragment {
                 || NfcAdapter.ACTION_TAG_DISCOVERED.equals(action) ) {
             mNfcTag = intent.getParcelableExtra(NfcAdapter.EXTRA_TAG);
             if ( mNfcTag != null )  {
-                String[] tagTechs = mNfcTag.getTechList();
-                for (String[] filterTechs : mTechList) {
-                    if (ArrayUtil.containArray(tagTechs, filterTechs)) {
-                        Log.d(TAG, "** nfcTag = " + mNfcTag.toString() );
-                        for ( INfcTagListener listener : mListnerList ) {
-                            //リスナに通知
-                            listener.onTagDiscovered(intent, mNfcTag, this);
-                        }
+                //いずれかのTechListとテクノロジを共有していれば通知する (TechListの数によらずビット演算1回)
+                //(ビットはTechList側で割り当てるため、先にTechListのビットを取得する)
+                long filterMask = this.getTechListMask();
+                if ( (getTechMask(mNfcTag.getTechList()) & filterMask) != 0 ) {
+                    Log.d(TAG, "** nfcTag = " + mNfcTag.toString() );
+                    //タッチ毎に分類やポーリングの結果を保持し直す (以前のタッチの結果は使わない)
+                    TagPrefetchCache.getInstance().begin(mNfcTag);
+                    for ( INfcTagListener listener : mListnerList ) {
+                        //リスナに通知
+                        listener.onTagDiscovered(intent, mNfcTag, this);
                     }
                 }
             }
@@ -238,12 +286,54 @@ public abstract class AbstractNfcTagFragment extends Fragment {
     public void setTechList(String[]... techList) {
         mTechList = techList;
     }
+    /**
+     * techListのテクノロジのビットの和を取得します
+     * <pre>
+     *  サブクラスがmTechListを直接差し替えた場合もここで作り直します
+     * </pre>
+     * @return long ビットの和が戻ります (techListが無い場合は0)
+     */
+    protected long getTechListMask() {
+        if ( mTechMaskSource != mTechList ) {
+            long mask = 0;
+            if ( mTechList != null ) {
+                for ( String[] filterTechs : mTechList ) {
+                    mask |= assignTechMask(filterTechs);
+                }
+            }
+            mTechMask = mask;
+            mTechMaskSource = mTechList;
+        }
+        return mTechMask;
+    }
+    /**
+     * タグから読み込んだデータを提供します
+     * <pre>
+     *  表示する文字列への変換(format)はタグと通信しないため、タグI/Oスレッド以外で実行できます
+     * </pre>
+     */
+    public interface TagData {
+        /**
+         * 読み込んだデータを表示する文字列にします
+         * @return String 読み込んだデータのダンプ結果が戻ります
+         */
+        String format();
+    }
+    /**
+     * タグのデータを読み込みます (タグとの通信を行います)
+     * <pre>
+     *  読み込みに失敗した場合は、それまでに読み込んだ分だけを保持したデータが戻ります
+     * </pre>
+     * @return TagData 読み込んだデータが戻ります
+     */
+    public abstract TagData readTagData();
     /**
      * FeliCa/FeliCaLiteタグデータをダンプします
      * @return String 読み込んだデータのダンプ結果が文字列で戻ります
-     * @throws Exception
      */
-    public abstract String dumpTagData();
+    public String dumpTagData() {
+        return this.readTagData().format();
+    }
 
     /**
      * 適切なNfcTagを生成します
@@ -4,7 +4,6 @@ import android.app.ProgressDialog;
 import android.content.Intent;
 import android.net.Uri;
 import android.nfc.NfcAdapter;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.support.v4.app.FragmentActivity;
@@ -15,7 +14,14 @@ import android.widget.Button;
 import android.widget.TextView;
 
 import com.example.kenfujiyoshi.myapp01.felica.NfcFeliCaTagFragment;
+import com.example.kenfujiyoshi.myapp01.felica.ServiceEnumerationStore;
+import com.example.kenfujiyoshi.myapp01.felica.suica.StationResolver;
+import com.example.kenfujiyoshi.myapp01.felica.suica.Suica;
 import com.example.kenfujiyoshi.myapp01.iso15693.ISO15693TagFragment;
+import com.example.kenfujiyoshi.myapp01.task.TagPipeline;
+import com.example.kenfujiyoshi.myapp01.task.TagPrefetcher;
+
+import java.util.List;
 
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaException;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
@@ -31,6 +37,10 @@ public class NFCTagReader extends FragmentActivity implements View.OnClickListen
     private AbstractNfcTagFragment mLastFragment;
     private NfcFeliCaTagFragment mFeliCafragment;
     private ISO15693TagFragment mISO15693Fragment;
+    /** タグの読み込みを実行するパイプライン (新しいタグを検出すると以前の読み込みは取り消される) */
+    private final TagPipeline mPipeline = new TagPipeline();
+    /** FeliCaのシステムコード、サービスコードの一覧の保存先 */
+    private ServiceEnumerationStore mServiceStore;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -42,6 +52,12 @@ public class NFCTagReader extends FragmentActivity implements View.OnClickListen
 
         setContentView(R.layout.main);
 
+        //駅コード表を別スレッドで読み込んでおく (履歴表示でSQLiteを参照しないため)
+        StationResolver.getInstance(this).preload();
+        //以前に読み込んだカードのサービスコードの一覧を読み込んでおく (同じカードは検索しない)
+        mServiceStore = new ServiceEnumerationStore(this);
+        mServiceStore.load();
+
         //使用するタグフラグメントを登録
 
         //FeliCa, FeliCaLite
@@ -57,91 +73,157 @@ public class NFCTagReader extends FragmentActivity implements View.OnClickListen
         this.onNewIntent(intent);
     }
 
+    /* (non-Javadoc)
+     * @see android.support.v4.app.FragmentActivity#onDestroy()
+     */
+    @Override
+    protected void onDestroy() {
+        mPipeline.shutdown();
+        mServiceStore.close();
+        super.onDestroy();
+    }
+
     public void onClick(final View v) {
         try {
-            final int id = v.getId();
-
-            final ProgressDialog dialog = new ProgressDialog(this);
-            dialog.setProgressStyle(ProgressDialog.STYLE_SPINNER);
-            dialog.setIndeterminate(true);
-
-            AsyncTask<Void, Void, String> task = new AsyncTask<Void, Void, String>() {
-                @Override
-                protected void onPreExecute() {
-                    switch (id) {
-                        case R.id.btn_read:
-                            dialog.setMessage("読み込み処理を実行中です...");
-                            break;
-                        case R.id.btn_write:
-                            dialog.setMessage("書き込み画面に移動中です...");
-                            break;
-                        case R.id.btn_hitory:
-                            dialog.setMessage("使用履歴を読み込み中です...");
-                            break;
+            switch (v.getId()) {
+                case R.id.btn_read:
+                    this.submitRead();
+                    break;
+                case R.id.btn_write:
+                    //タグとの通信は行わないためUIスレッドで画面を移動する
+                    mPipeline.cancel();
+                    Intent intent = new Intent(NFCTagReader.this, NFCTagWriter.class);
+                    intent.putExtra("nfcTag", mLastFragment.getNfcTag());
+                    startActivity(intent);
+                    break;
+                case R.id.btn_hitory:
+                    if ( mLastFragment instanceof NfcFeliCaTagFragment ) {
+                        this.submitHistory((NfcFeliCaTagFragment)mLastFragment);
                     }
-                    dialog.show();
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+    /**
+     * 最後に検出したタグの読み込みをパイプラインに投入します
+     */
+    private void submitRead() {
+        final AbstractNfcTagFragment fragment = mLastFragment;
+        if ( fragment == null ) return;
+        mPipeline.submit(new ProgressJob<AbstractNfcTagFragment.TagData>("読み込み処理を実行中です...") {
+            private volatile boolean mFeliCaLite;
+            @Override
+            protected AbstractNfcTagFragment.TagData read() throws Exception {
+                if ( fragment instanceof NfcFeliCaTagFragment ) {
+                    mFeliCaLite = ((NfcFeliCaTagFragment)fragment).isFeliCaLite();
                 }
-
-                @Override
-                protected String doInBackground(Void... arg0) {
-                    switch (id) {
-                        case R.id.btn_read:
-                            try {
-                                return mLastFragment.dumpTagData();
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                            break;
-                        case R.id.btn_write:
-                            try {
-                                Intent intent =
-                                        new Intent(NFCTagReader.this, NFCTagWriter.class);
-                                intent.putExtra("nfcTag", mLastFragment.getNfcTag());
-                                startActivity(intent);
-                                return "";
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                            break;
-                        case R.id.btn_hitory:
-                            try {
-                                if ( mLastFragment != null && mLastFragment instanceof NfcFeliCaTagFragment) {
-                                    NfcFeliCaTagFragment nfcf = (NfcFeliCaTagFragment)mLastFragment;
-                                    return nfcf.dumpFeliCaHistoryData();
-                                }
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-                            break;
-                        default:
-                            break;
-                    }
-                    return "";
+                return fragment.readTagData();
+            }
+            @Override
+            protected String decode(AbstractNfcTagFragment.TagData raw) {
+                //ダンプの作成はタグI/Oのスレッドを空けてから行う
+                return raw.format();
+            }
+            @Override
+            protected void render(String result) {
+                this.updateButtons();
+                super.render(result);
+            }
+            @Override
+            protected void onError(Exception e) {
+                //読み込みに失敗してもボタンの状態は反映する
+                this.updateButtons();
+                super.onError(e);
+            }
+            /**
+             * FeliCa Liteか否かで履歴、書き込みのボタンを有効にします
+             */
+            private void updateButtons() {
+                if ( fragment instanceof NfcFeliCaTagFragment ) {
+                    findViewById(R.id.btn_hitory).setEnabled(!mFeliCaLite);
+                    findViewById(R.id.btn_write).setEnabled(mFeliCaLite);
                 }
+            }
+        });
+    }
+    /**
+     * FeliCaの使用履歴の読み込みをパイプラインに投入します
+     * @param fragment FeliCaのフラグメントをセット
+     */
+    private void submitHistory(final NfcFeliCaTagFragment fragment) {
+        mPipeline.submit(new ProgressJob<List<Suica.History>>("使用履歴を読み込み中です...") {
+            @Override
+            protected List<Suica.History> read() throws Exception {
+                return fragment.readFeliCaHistoryData();
+            }
+            @Override
+            protected String decode(List<Suica.History> raw) {
+                return fragment.formatFeliCaHistoryData(raw);
+            }
+        });
+    }
+    /**
+     * 処理中のダイアログを表示し、結果を画面に反映するジョブを提供します
+     *
+     * @param <T> 読み込んだデータの型
+     */
+    private abstract class ProgressJob<T> extends TagPipeline.Job<T> {
+        private final ProgressDialog mDialog;
 
-                /* (non-Javadoc)
-                 * @see android.os.AsyncTask#onPostExecute(java.lang.Object)
-                 */
-                @Override
-                protected void onPostExecute(String result) {
-                    dialog.dismiss();
-                    if (result != null && result.length() > 0) {
-                        if (result.matches(MATCH_URL)) {
-                            Uri uri = Uri.parse(result);
-                            Intent i = new Intent(Intent.ACTION_VIEW, uri);
-                            startActivity(i);
-                        } else {
-                            TextView tv_tag = (TextView) findViewById(R.id.result_tv);
-                            tv_tag.setText("NEEDS INITIALIZATION");
-                            Log.v("result data content", result);
-                        }
-                    }
+        /**
+         * コンストラクタ
+         * @param message ダイアログに表示するメッセージをセット
+         */
+        ProgressJob(String message) {
+            mDialog = new ProgressDialog(NFCTagReader.this);
+            mDialog.setProgressStyle(ProgressDialog.STYLE_SPINNER);
+            mDialog.setIndeterminate(true);
+            mDialog.setMessage(message);
+        }
+        /* (non-Javadoc)
+         * @see com.example.kenfujiyoshi.myapp01.task.TagPipeline.Job#onStart()
+         */
+        @Override
+        protected void onStart() {
+            mDialog.show();
+        }
+        /* (non-Javadoc)
+         * @see com.example.kenfujiyoshi.myapp01.task.TagPipeline.Job#render(java.lang.String)
+         */
+        @Override
+        protected void render(String result) {
+            mDialog.dismiss();
+            if (result != null && result.length() > 0) {
+                if (result.matches(MATCH_URL)) {
+                    Uri uri = Uri.parse(result);
+                    Intent i = new Intent(Intent.ACTION_VIEW, uri);
+                    startActivity(i);
+                } else {
+                    TextView tv_tag = (TextView) findViewById(R.id.result_tv);
+                    tv_tag.setText("NEEDS INITIALIZATION");
+                    Log.v("result data content", result);
                 }
-            };
-
-            task.execute();
-        } catch (Exception e) {
+            }
+        }
+        /* (non-Javadoc)
+         * @see com.example.kenfujiyoshi.myapp01.task.TagPipeline.Job#onError(java.lang.Exception)
+         */
+        @Override
+        protected void onError(Exception e) {
+            mDialog.dismiss();
             e.printStackTrace();
+            super.onError(e);
+        }
+        /* (non-Javadoc)
+         * @see com.example.kenfujiyoshi.myapp01.task.TagPipeline.Job#onCancelled()
+         */
+        @Override
+        protected void onCancelled() {
+            mDialog.dismiss();
         }
     }
     /* (non-Javadoc)
@@ -185,32 +267,22 @@ public class NFCTagReader extends FragmentActivity implements View.OnClickListen
 
             //フラグメントの判定
             if ( mLastFragment instanceof NfcFeliCaTagFragment ) {
-                NfcFeliCaTagFragment nff = (NfcFeliCaTagFragment)mLastFragment;
-                boolean isFeliCatLite = nff.isFeliCaLite();
-                try {
-                    FeliCaLib.IDm idm =
-                            new IDm(intent.getByteArrayExtra(NfcAdapter.EXTRA_ID));
-
-                    if ( idm == null ) {
-                        throw new FeliCaException("Felica IDm を取得できませんでした");
-                    }
-
-                    btnHistory.setEnabled(!isFeliCatLite);
-                    btnWrite.setEnabled(isFeliCatLite);
-
-                    btnRead.performClick();
+                //FeliCa Liteか否かはポーリングが必要なため、読み込みと共にタグI/Oスレッドで判定する
+                //(ボタンの状態は読み込みの完了時に反映する)
+                FeliCaLib.IDm idm =
+                        new IDm(intent.getByteArrayExtra(NfcAdapter.EXTRA_ID));
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    Log.e(TAG, e.toString());
+                if ( idm == null ) {
+                    throw new FeliCaException("Felica IDm を取得できませんでした");
                 }
-                btnHistory.setEnabled(!isFeliCatLite);
-                btnWrite.setEnabled(isFeliCatLite);
             } else {
-                btnRead.performClick();
                 btnHistory.setEnabled(false);
                 btnWrite.setEnabled(true);
             }
+            //新しいタグを検出したので、以前のタグの読み込みは取り消される
+            //(先読みを先に投入し、読み込みはその結果を使ってタグI/Oスレッドで後に続く)
+            mPipeline.prefetch(new TagPrefetcher(fragment.getNfcTag()));
+            this.submitRead();
 
         } catch ( Exception e ) {
             e.printStackTrace();
@@ -32,15 +32,16 @@ import com.example.kenfujiyoshi.myapp01.felica.NfcFeliCaTagFragment;
 import com.example.kenfujiyoshi.myapp01.iso15693.ISO15693TagFragment;
 import com.example.kenfujiyoshi.myapp01.task.FeliCaLiteWriteTask;
 import com.example.kenfujiyoshi.myapp01.task.ISO15693WriteTask;
+import com.example.kenfujiyoshi.myapp01.task.TagPrefetchCache;
 
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaException;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaLiteTag;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.ReadResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.MemoryConfigurationBlock;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.ISO15693Exception;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.ISO15693Tag;
-import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadMultipleBlocksResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadMultipleBlocksResponse.BlockData;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.SystemInformationResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.MemorySizeInfo;
@@ -152,10 +153,18 @@ public class NFCTagWriter extends FragmentActivity implements View.OnClickListen
                                  final ListView listMemBlock) {
         final CheckBox chkUseNDEF = (CheckBox)  findViewById(R.id.chk_useNDEF);
 
-        //データ読み込み
+        //データ読み込み (タグの検出時に先読みしていれば通信しない)
+        TagPrefetchCache.Entry prefetched = TagPrefetchCache.getInstance().get(this.mNfcTag);
+        boolean isPrefetched = prefetched != null
+                && prefetched.getSystemInformation() != null && prefetched.getBlocks() != null;
         ISO15693Tag ft = new ISO15693Tag(this.mNfcTag);
         try {
-            SystemInformationResponse sysInfo = ft.getSystemInformation();
+            //システム情報とメモリブロックの読み込みは一つの接続で行う
+            if ( !isPrefetched ) {
+                ft.openSession();
+            }
+            SystemInformationResponse sysInfo = isPrefetched
+                    ? prefetched.getSystemInformation() : ft.getSystemInformation();
             if ( sysInfo == null || sysInfo.hasError()) {
                 throw new ISO15693Exception(
                         "ISO15693 デバイスからシステム情報を取得できませんでした : "
@@ -163,7 +172,7 @@ public class NFCTagWriter extends FragmentActivity implements View.OnClickListen
             }
 
             final MemorySizeInfo memInfo = sysInfo.getMemoryInfo();
-            if ( memInfo == null || memInfo.getNumberOfBlocks() == 0) {
+            if ( memInfo == null ) {
                 throw new ISO15693Exception("ISO15693 メモリサイズ情報を取得できませんでした");
             }
 
@@ -177,7 +186,7 @@ public class NFCTagWriter extends FragmentActivity implements View.OnClickListen
                         btnWrite.setEnabled(true);
                         editWrite.setEnabled(true);
                         //NDEFの場合、ヘッダに10byte消費する
-                        editWrite.setHint((memInfo.getBlockSize() *  memInfo.getNumberOfBlocks()) -10
+                        editWrite.setHint(memInfo.getMemorySize() -10
                                 + "バイト以内で入力");
                     } else {
                         if ( editWrite.getText().length() > 0 ) {
@@ -192,18 +201,12 @@ public class NFCTagWriter extends FragmentActivity implements View.OnClickListen
                 }
             });
 
-            ReadMultipleBlocksResponse rbResp = ft.readMultipleBlocks((byte)0
-                    , memInfo.getBlockSize(), memInfo.getNumberOfBlocks());
-            if ( rbResp == null || rbResp.hasError()) {
-                throw new ISO15693Exception(
-                        "ISO15693 ReadMultipleBlockコマンドが失敗しました"
-                                + sysInfo.getErrorCode());
-            }
-
-            //メモリブロックを全て読み込んで配列に保存
-            ViewHolder[] holders = new ViewHolder[memInfo.getNumberOfBlocks()];
-            for ( byte i = 0; i <  memInfo.getNumberOfBlocks(); i++) {
-                BlockData bd = rbResp.getBlockDatas()[i];
+            //メモリブロックを全て読み込んで配列に保存 (最大送信長毎に分割して読み込む)
+            BlockData[] blockDatas = isPrefetched
+                    ? prefetched.getBlocks() : ft.readAllBlocks(null);
+            ViewHolder[] holders = new ViewHolder[blockDatas.length];
+            for ( int i = 0; i < blockDatas.length; i++) {
+                BlockData bd = blockDatas[i];
 
                 ViewHolder holder = new ViewHolder();
                 holder.blockName = "block " + i;
@@ -330,6 +333,8 @@ public class NFCTagWriter extends FragmentActivity implements View.OnClickListen
         } catch (ISO15693Exception e) {
             e.printStackTrace();
             Log.e(TAG, e.toString());
+        } finally {
+            ft.closeSession();
         }
     }
 
@@ -344,9 +349,16 @@ public class NFCTagWriter extends FragmentActivity implements View.OnClickListen
             , final EditText editWrite, final ListView listMemBlock) {
         //データ読み込み
         ViewHolder[] holders = new ViewHolder[14];
-        FeliCaLiteTag ft = new FeliCaLiteTag(this.mNfcTag);
+        //タグの検出時にポーリング済みであればIDm、PMmを引き継ぐ
+        TagPrefetchCache.Entry prefetched = TagPrefetchCache.getInstance().get(this.mNfcTag);
+        IDm prefetchedIDm = prefetched != null
+                ? prefetched.getIDm(FeliCaLib.SYSTEMCODE_FELICA_LITE) : null;
+        FeliCaLiteTag ft = prefetchedIDm != null
+                ? new FeliCaLiteTag(this.mNfcTag, prefetchedIDm
+                        , prefetched.getPMm(FeliCaLib.SYSTEMCODE_FELICA_LITE))
+                : new FeliCaLiteTag(this.mNfcTag);
         try {
-            IDm idm = ft.pollingAndGetIDm();
+            IDm idm = ft.getIDm() != null ? ft.getIDm() : ft.pollingAndGetIDm();
             if ( idm == null ) {
                 throw new FeliCaException("FeliCa Lite デバイスからIDmを取得できませんでした");
             }
@@ -4,9 +4,15 @@ import android.nfc.tech.NfcF;
 import android.support.v4.app.FragmentActivity;
 import android.util.Log;
 
+import java.util.List;
+
 import com.example.kenfujiyoshi.myapp01.AbstractNfcTagFragment;
 import com.example.kenfujiyoshi.myapp01.R;
+import com.example.kenfujiyoshi.myapp01.felica.suica.HistoryStore;
+import com.example.kenfujiyoshi.myapp01.felica.suica.HistorySync;
+import com.example.kenfujiyoshi.myapp01.felica.suica.StationResolver;
 import com.example.kenfujiyoshi.myapp01.felica.suica.Suica;
+import com.example.kenfujiyoshi.myapp01.task.TagPrefetchCache;
 
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaException;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaLiteTag;
@@ -37,17 +43,30 @@ public class NfcFeliCaTagFragment extends AbstractNfcTagFragment {
     }
     /**
      * FeliCa Liteデバイスか否かを検査します
+     * <pre>
+     *  判定の結果は同じタッチの間保持し、2回目以降はポーリングしません
+     * </pre>
      * @return boolean 読み込み対象がFeliCa Liteの場合trueが戻ります
      * @throws FeliCaException
      */
     public boolean isFeliCaLite()  {
+        TagPrefetchCache.Entry entry = this.getTagEntry();
+        if ( entry != null && entry.isFeliCaLite() != null ) {
+            return entry.isFeliCaLite();
+        }
         FeliCaTag f = new FeliCaTag(mNfcTag);
         //polling は IDm、PMmを取得するのに必要
         IDm idm;
         try {
             idm = f.pollingAndGetIDm(FeliCaLib.SYSTEMCODE_FELICA_LITE);
+            if ( entry != null && idm != null ) {
+                entry.setPolling(FeliCaLib.SYSTEMCODE_FELICA_LITE, idm, f.getPMm());
+            }
         } catch (FeliCaException e) {
-            return false;
+            idm = null;
+        }
+        if ( entry != null ) {
+            entry.setFeliCaLite(idm != null);
         }
         return idm != null;
     }
@@ -56,14 +75,79 @@ public class NfcFeliCaTagFragment extends AbstractNfcTagFragment {
      * @return FeliCaTag 生成したFeliCaTagクラスのインスタンスが戻ります
      */
     public FeliCaTag createFeliCaTag() {
-        return new FeliCaTag(mNfcTag);
+        return this.createFeliCaTag(FeliCaLib.SYSTEMCODE_ANY);
+    }
+    /**
+     * FeliCatTagクラスのインスタンスを生成します
+     * <pre>
+     *  同じタッチで指定したシステムコードのポーリングが済んでいれば、そのIDm、PMmを引き継ぎます
+     * </pre>
+     * @param systemCode 読み込みに使用するシステムコードをセット
+     * @return FeliCaTag 生成したFeliCaTagクラスのインスタンスが戻ります
+     */
+    public FeliCaTag createFeliCaTag(int systemCode) {
+        TagPrefetchCache.Entry entry = this.getTagEntry();
+        IDm idm = entry != null ? entry.getIDm(systemCode) : null;
+        return idm != null
+                ? new FeliCaTag(mNfcTag, idm, entry.getPMm(systemCode))
+                : new FeliCaTag(mNfcTag);
     }
     /**
      * FeliCaLiteTagクラスのインスタンスを生成します
+     * <pre>
+     *  同じタッチでポーリングが済んでいれば、そのIDm、PMmを引き継ぎます
+     * </pre>
      * @return FeliCaLiteTag 生成したFeliCaLiteTagクラスのインスタンスが戻ります
      */
     public FeliCaLiteTag createFeliCaLiteTag() {
-        return new FeliCaLiteTag(mNfcTag);
+        TagPrefetchCache.Entry entry = this.getTagEntry();
+        IDm idm = entry != null ? entry.getIDm(FeliCaLib.SYSTEMCODE_FELICA_LITE) : null;
+        return idm != null
+                ? new FeliCaLiteTag(mNfcTag, idm, entry.getPMm(FeliCaLib.SYSTEMCODE_FELICA_LITE))
+                : new FeliCaLiteTag(mNfcTag);
+    }
+    /**
+     * 指定したシステムコードでポーリングします (同じタッチでポーリング済みであれば通信しません)
+     * @param f createFeliCaTagで生成したFeliCaTagをセット
+     * @param systemCode システムコードをセット
+     * @return IDm IDmが戻ります
+     * @throws FeliCaException
+     */
+    private IDm pollingOnce(FeliCaTag f, int systemCode) throws FeliCaException {
+        TagPrefetchCache.Entry entry = this.getTagEntry();
+        IDm idm = entry != null ? entry.getIDm(systemCode) : null;
+        if ( idm != null && idm.equals(f.getIDm()) ) {
+            return idm;
+        }
+        idm = f.pollingAndGetIDm(systemCode);
+        if ( entry != null && idm != null ) {
+            entry.setPolling(systemCode, idm, f.getPMm());
+        }
+        return idm;
+    }
+    /**
+     * FeliCa Liteをポーリングします (同じタッチでポーリング済みであれば通信しません)
+     * @param ft createFeliCaLiteTagで生成したFeliCaLiteTagをセット
+     * @return IDm IDmが戻ります
+     * @throws FeliCaException
+     */
+    private IDm pollingOnce(FeliCaLiteTag ft) throws FeliCaException {
+        if ( ft.getIDm() != null ) {
+            return ft.getIDm();
+        }
+        IDm idm = ft.pollingAndGetIDm();
+        TagPrefetchCache.Entry entry = this.getTagEntry();
+        if ( entry != null && idm != null ) {
+            entry.setPolling(FeliCaLib.SYSTEMCODE_FELICA_LITE, idm, ft.getPMm());
+        }
+        return idm;
+    }
+    /**
+     * タッチ中のタグの分類、ポーリングの結果、先読みした内容を保持するエントリを取得します
+     * @return TagPrefetchCache.Entry エントリが戻ります (保持できないタグの場合はnull)
+     */
+    private TagPrefetchCache.Entry getTagEntry() {
+        return TagPrefetchCache.getInstance().obtain(mNfcTag);
     }
     /* (non-Javadoc)
      * @see net.kazzz.AbstractNfcTagFragment#createNfcTag()
@@ -75,119 +159,220 @@ public class NfcFeliCaTagFragment extends AbstractNfcTagFragment {
                 : this.createFeliCaTag();
     }
     /* (non-Javadoc)
-     * @see net.kazzz.NfcTagFragment#dumpTagData()
+     * @see net.kazzz.NfcTagFragment#readTagData()
      */
     @Override
-    public String dumpTagData() {
-        StringBuilder sb = new StringBuilder();
+    public TagData readTagData() {
         try {
             if ( this.isFeliCaLite() ) {
-                sb.append("\n");
-                sb.append(getString(R.string.device_type, "FeliCa Lite"));
-                sb.append("\n------------------------\n\n");
-
                 // FeliCa Lite 読み込み
-                FeliCaLiteTag ft =  this.createFeliCaLiteTag();
-                ft.polling();
-                sb.append("  " + ft.toString());
-                sb.append("\n------------------------\n\n");
+                FeliCaLiteData data = new FeliCaLiteData();
+                try {
+                    FeliCaLiteTag ft =  this.createFeliCaLiteTag();
+                    this.pollingOnce(ft);
+                    data.tag = ft;
 
-                //0ブロック目読み込み
-                ReadResponse rr = ft.readWithoutEncryption((byte)0);
-                sb.append("  " + rr.toString());
-                sb.append("\n------------------------\n\n");
-
-                //MemoryConfig 読み込み
-                MemoryConfigurationBlock mb = ft.getMemoryConfigBlock();
-                sb.append("  " + mb.toString());
-                sb.append("\n------------------------\n\n");
+                    //0ブロック目読み込み
+                    data.block0 = ft.readWithoutEncryption((byte)0);
 
-                String result = sb.toString();
-                Log.d(TAG, result);
-                return result;
+                    //MemoryConfig 読み込み
+                    data.memoryConfig = ft.getMemoryConfigBlock();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                return data;
             }
 
             // FeliCa
+            FeliCaData data = new FeliCaData();
             FeliCaTag ft = this.createFeliCaTag();
-            IDm idm = ft.pollingAndGetIDm(FeliCaLib.SYSTEMCODE_ANY);
-            if ( idm != null ) {
+            //サービスコードの検索は件数分通信するので接続を保持する
+            ft.openSession();
+            try {
+                this.readFeliCa(ft, data);
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                ft.closeSession();
+            }
+            return data;
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new FeliCaData();
+        }
+    }
+    /**
+     * FeliCaタグの内容(IDm、PMm、システムコード、サービスコード)を読み込みます
+     * @param ft 対象のFeliCaTagをセット
+     * @param data 結果をセットするデータをセット
+     * @throws FeliCaException
+     */
+    private void readFeliCa(FeliCaTag ft, FeliCaData data) throws FeliCaException {
+        IDm idm = this.pollingOnce(ft, FeliCaLib.SYSTEMCODE_ANY);
+        data.polled = true;
+        if ( idm == null ) return;
+        data.tag = ft;
+
+        // enum systemCode
+        TagPrefetchCache.Entry entry = this.getTagEntry();
+        SystemCode[] scs = entry != null ? entry.getSystemCodes() : null;
+        if ( scs == null ) {
+            scs = ft.getSystemCodeList();
+            if ( entry != null ) entry.setSystemCodes(scs);
+        }
+        data.systemCodes = scs;
+
+        // enum serviceCode
+        data.serviceCodes = ft.getServiceCodeList();
+    }
+    /**
+     * 読み込んだFeliCa Liteのデータを保持します (読み込めなかった値はnull)
+     */
+    private class FeliCaLiteData implements TagData {
+        FeliCaLiteTag tag;
+        ReadResponse block0;
+        MemoryConfigurationBlock memoryConfig;
+
+        /* (non-Javadoc)
+         * @see com.example.kenfujiyoshi.myapp01.AbstractNfcTagFragment.TagData#format()
+         */
+        @Override
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("\n");
+            sb.append(getString(R.string.device_type, "FeliCa Lite"));
+            sb.append("\n------------------------\n\n");
+            if ( this.tag != null ) {
+                sb.append("  " + this.tag.toString());
+                sb.append("\n------------------------\n\n");
+            }
+            if ( this.block0 != null ) {
+                sb.append("  " + this.block0.toString());
+                sb.append("\n------------------------\n\n");
+            }
+            if ( this.memoryConfig != null ) {
+                sb.append("  " + this.memoryConfig.toString());
+                sb.append("\n------------------------\n\n");
+            }
+            String result = sb.toString();
+            Log.d(TAG, result);
+            return result;
+        }
+    }
+    /**
+     * 読み込んだFeliCaのデータを保持します (読み込めなかった値はnull)
+     */
+    private class FeliCaData implements TagData {
+        /** ポーリングを完了したか否か */
+        boolean polled;
+        /** ポーリング済みのタグ (IDmを取得できなかった場合はnull) */
+        FeliCaTag tag;
+        SystemCode[] systemCodes;
+        ServiceCode[] serviceCodes;
+
+        /* (non-Javadoc)
+         * @see com.example.kenfujiyoshi.myapp01.AbstractNfcTagFragment.TagData#format()
+         */
+        @Override
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            if ( this.polled && this.tag == null ) {
+                sb.append(R.string.device_read_failed);
+            } else if ( this.tag != null ) {
                 sb.append("\n");
                 sb.append(getString(R.string.device_type, "FeliCa"));
                 sb.append("\n------------------------\n\n");
-                sb.append(ft.toString());
+                sb.append(this.tag.toString());
 
-                // enum systemCode
                 sb.append("\n");
                 sb.append("  " + getString(R.string.system_code_list));
                 sb.append("\n------------------------\n\n");
-                SystemCode[] scs = ft.getSystemCodeList();
-                for ( SystemCode sc : scs ) {
-                    sb.append("  ").append(sc.toString()).append("\n");
-                }
+                if ( this.systemCodes != null ) {
+                    for ( SystemCode sc : this.systemCodes ) {
+                        sb.append("  ").append(sc.toString()).append("\n");
+                    }
 
-                // enum serviceCode
-                sb.append("\n");
-                sb.append("  " + getString(R.string.service_code_list));
-                sb.append("\n------------------------\n\n");
-                ServiceCode[] svs = ft.getServiceCodeList();
-                for ( ServiceCode sc : svs ) {
-                    sb.append("  ").append(sc.toString()).append("\n");
+                    sb.append("\n");
+                    sb.append("  " + getString(R.string.service_code_list));
+                    sb.append("\n------------------------\n\n");
+                    if ( this.serviceCodes != null ) {
+                        for ( ServiceCode sc : this.serviceCodes ) {
+                            sb.append("  ").append(sc.toString()).append("\n");
+                        }
+                    }
                 }
-            } else {
-                sb.append(R.string.device_read_failed);
             }
-
-        } catch (Exception e) {
             String result = sb.toString();
             Log.d(TAG, result);
-            e.printStackTrace();
             return result;
         }
-        String result = sb.toString();
-        Log.d(TAG, result);
-        return result;
     }
     /**
      * FeliCa 使用履歴をダンプします
      * @return
      */
     public String dumpFeliCaHistoryData() throws Exception {
+        return this.formatFeliCaHistoryData(this.readFeliCaHistoryData());
+    }
+    /**
+     * FeliCa 使用履歴を読み込みます (タグとの通信を行います)
+     * <pre>
+     *  前回までに端末内に蓄積した履歴より新しいものだけをカードから読み込んで追加し(HistorySync)、
+     *  蓄積した全ての履歴を返します
+     * </pre>
+     * @return List&lt;Suica.History&gt; 履歴が新しい順に戻ります
+     */
+    public List<Suica.History> readFeliCaHistoryData() throws Exception {
         try {
             if ( this.isFeliCaLite() ) {
                 throw new FeliCaException("Tag is not FeliCa (maybe FeliCaLite)");
             }
-            FeliCaTag f = this.createFeliCaTag();
-
-            //polling は IDm、PMmを取得するのに必要
-            f.polling(FeliCaLib.SYSTEMCODE_PASMO);
-
-            //read
-            ServiceCode sc = new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY);
-            byte addr = 0;
-            ReadResponse result = f.readWithoutEncryption(sc, addr);
+            FeliCaTag f = this.createFeliCaTag(FeliCaLib.SYSTEMCODE_PASMO);
+            //履歴は連続して読み込むので接続を保持する
+            f.openSession();
+            try {
+                //polling は IDm (カード毎の蓄積に使用)、PMmを取得するのに必要 (同じタッチで済んでいれば省略)
+                IDm idm = this.pollingOnce(f, FeliCaLib.SYSTEMCODE_PASMO);
 
-            StringBuilder sb = new StringBuilder();
-            while ( result != null && result.getStatusFlag1() == 0  ) {
-                sb.append("履歴 No.  " + (addr + 1) + "\n");
-                sb.append("---------\n");
-                sb.append("\n");
-                Suica.History s = new Suica.History(result.getBlockData(), this.getActivity());
-                sb.append(s.toString());
-                sb.append("\n------------------------\n\n");
+                //read (蓄積済みの最新の履歴に達するまで読み込む)
+                HistoryStore store = HistoryStore.getInstance(this.getActivity());
+                List<Suica.History> delta = new HistorySync(this.getActivity())
+                        .sync(f, store.getLastSequenceNumber(idm));
 
-                addr++;
-                //Log.d(TAG, "addr = " + addr);
-                result = f.readWithoutEncryption(sc, addr);
+                //端末内に蓄積する (既に保持している履歴は無視される)
+                store.append(idm, delta);
+                return store.queryAll(idm);
+            } finally {
+                f.closeSession();
             }
-
-            String str = sb.toString();
-            Log.d(TAG, str);
-            return str;
         } catch (FeliCaException e) {
             e.printStackTrace();
             Log.e(TAG, "readHistoryData", e);
             throw e;
         }
     }
+    /**
+     * 読み込んだ使用履歴を表示する文字列にします (タグとの通信は行いません)
+     * @param histories 履歴をセット
+     * @return String 履歴のダンプが戻ります
+     */
+    public String formatFeliCaHistoryData(List<Suica.History> histories) {
+        //全ての履歴の駅名をまとめて解決しておく (1件毎に問い合わせない)
+        StationResolver.getInstance(this.getActivity()).prefetch(histories);
+
+        StringBuilder sb = new StringBuilder();
+        for ( int addr = 0; addr < histories.size(); addr++ ) {
+            sb.append("履歴 No.  " + (addr + 1) + "\n");
+            sb.append("---------\n");
+            sb.append("\n");
+            sb.append(histories.get(addr).toString());
+            sb.append("\n------------------------\n\n");
+        }
+
+        String str = sb.toString();
+        Log.d(TAG, str);
+        return str;
+    }
 
 }
@@ -0,0 +1,154 @@
+package com.example.kenfujiyoshi.myapp01.felica;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.ServiceEnumerationCache;
+
+/**
+ * FeliCaのシステムコード、サービスコードの一覧(ServiceEnumerationCache)を端末内のファイルに保存します
+ * <pre>
+ * 起動時にloadで読み込んでおくと、以前に読み込んだカードはサービスコードを検索しません。
+ * キャッシュの一覧が変更される度に保存するため、プロセスが終了されても取得した一覧は失われません
+ * (保存待ちの間の変更は1回の保存にまとめます)。
+ * 読み込みと保存は1本の別スレッドで順に行います。
+ *
+ *   ServiceEnumerationStore store = new ServiceEnumerationStore(context);
+ *   store.load();   // onCreate
+ *   store.close();  // onDestroy (保存してスレッドを終了する)
+ * </pre>
+ */
+public class ServiceEnumerationStore implements ServiceEnumerationCache.OnUpdateListener {
+    static final String TAG = ServiceEnumerationStore.class.getSimpleName();
+    /** 保存するファイル名 */
+    public static final String FILE_NAME = "felica_services.bin";
+
+    private final Context context;
+    private final ServiceEnumerationCache cache;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    /** 保存を投入済みで、まだ開始していないか否か */
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    private final Runnable saveTask = new Runnable() {
+        @Override
+        public void run() {
+            savePending.set(false);
+            save();
+        }
+    };
+
+    /**
+     * コンストラクタ
+     * @param context コンテキストをセット
+     */
+    public ServiceEnumerationStore(Context context) {
+        this(context, ServiceEnumerationCache.getInstance());
+    }
+    /**
+     * コンストラクタ
+     * @param context コンテキストをセット
+     * @param cache 保存するキャッシュをセット
+     */
+    public ServiceEnumerationStore(Context context, ServiceEnumerationCache cache) {
+        this.context = context.getApplicationContext();
+        this.cache = cache;
+        cache.setOnUpdateListener(this);
+    }
+    /**
+     * 保存した一覧をキャッシュに読み込みます (別スレッド)
+     * @return Future&lt;?&gt; 読み込みの完了を待つFutureが戻ります
+     */
+    public Future<?> load() {
+        return this.executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in;
+                try {
+                    in = context.openFileInput(FILE_NAME);
+                } catch (FileNotFoundException e) {
+                    return; //未保存
+                }
+                try {
+                    cache.load(new BufferedInputStream(in));
+                } catch (IOException e) {
+                    Log.w(TAG, "load failed : " + e.toString());
+                } finally {
+                    closeQuietly(in);
+                }
+            }
+        });
+    }
+    /* (non-Javadoc)
+     * @see nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.ServiceEnumerationCache.OnUpdateListener#onUpdate(nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.ServiceEnumerationCache)
+     */
+    @Override
+    public void onUpdate(ServiceEnumerationCache cache) {
+        //保存待ちがあればそれに含まれる
+        if ( !this.savePending.compareAndSet(false, true) ) return;
+        try {
+            this.executor.execute(this.saveTask);
+        } catch (RejectedExecutionException e) {
+            //close後の変更は保存しない
+        }
+    }
+    /**
+     * キャッシュの一覧を保存し、スレッドを終了します (以降は使用できません)
+     * @return Future&lt;?&gt; 保存の完了を待つFutureが戻ります
+     */
+    public Future<?> close() {
+        this.cache.removeOnUpdateListener(this);
+        Future<?> future = this.executor.submit(this.saveTask);
+        this.executor.shutdown();
+        return future;
+    }
+    /**
+     * キャッシュの一覧をファイルに保存します (保存用のスレッドで実行します)
+     * <pre>
+     *  書き込み中に終了しても以前のファイルが残るよう、一時ファイルに書き込んでから置き換えます
+     * </pre>
+     */
+    private void save() {
+        String tempName = FILE_NAME + ".tmp";
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(
+                    this.context.openFileOutput(tempName, Context.MODE_PRIVATE));
+            this.cache.save(out);
+            out.close();
+            out = null;
+            File temp = this.context.getFileStreamPath(tempName);
+            if ( !temp.renameTo(this.context.getFileStreamPath(FILE_NAME)) ) {
+                Log.w(TAG, "save failed : could not rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "save failed : " + e.toString());
+        } finally {
+            closeQuietly(out);
+        }
+    }
+    /**
+     * ストリームを閉じます (失敗は無視します)
+     * @param stream ストリームをセット
+     */
+    private static void closeQuietly(Closeable stream) {
+        if ( stream == null ) return;
+        try {
+            stream.close();
+        } catch (IOException e) {
+            //無視
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+/**
+ * 使用履歴(16バイト)をバッファから直接読み出すデコーダを提供します
+ * <pre>
+ * バッファ上に連続して並んだ履歴を、カーソルのように移動しながら読み出します。
+ * バッファは複製せず、各値はオフセットを指定して読み出すため、ヒープを確保しません。
+ * (ReadResponseのバイト列も getBlockOffset(0) を開始位置としてそのまま扱えます)
+ *
+ *   HistoryRecord r = new HistoryRecord();
+ *   r.wrap(buffer, offset, count);
+ *   while ( r.moveToNext() ) {
+ *       int date = r.getDate();       // 20140922 形式
+ *       int balance = r.getBalance();
+ *   }
+ *
+ * 1つのインスタンスを使い回すことができます。スレッドセーフではありません。
+ * </pre>
+ */
+public final class HistoryRecord {
+    /** 履歴1件のバイト数 */
+    public static final int RECORD_SIZE = 16;
+
+    private byte[] buffer;
+    private int base;
+    private int count;
+    private int position = -1;
+    private int offset;
+
+    /**
+     * 読み出すバッファをセットします
+     * <pre>
+     *  位置は先頭の履歴の手前になります (moveToNextで先頭の履歴に移動します)
+     * </pre>
+     * @param buffer 履歴が並んだバッファをセット
+     * @param offset 先頭の履歴の位置をセット
+     * @param count 履歴の件数をセット
+     * @return HistoryRecord このインスタンスが戻ります
+     */
+    public HistoryRecord wrap(byte[] buffer, int offset, int count) {
+        if ( offset < 0 || count < 0 || offset + count * RECORD_SIZE > buffer.length ) {
+            throw new IllegalArgumentException("out of range : offset=" + offset + " count=" + count);
+        }
+        this.buffer = buffer;
+        this.base = offset;
+        this.count = count;
+        this.position = -1;
+        this.offset = offset - RECORD_SIZE;
+        return this;
+    }
+    /**
+     * 1件の履歴(16バイト)を読み出すようにセットします
+     * @param data 履歴のバイト列をセット
+     * @return HistoryRecord このインスタンスが戻ります (既に先頭の履歴に移動しています)
+     */
+    public HistoryRecord wrap(byte[] data) {
+        this.wrap(data, 0, 1);
+        this.moveToNext();
+        return this;
+    }
+    /**
+     * 次の履歴に移動します
+     * @return boolean 移動できた場合はtrueが戻ります
+     */
+    public boolean moveToNext() {
+        return this.moveToPosition(this.position + 1);
+    }
+    /**
+     * 指定した履歴に移動します
+     * @param position 履歴の位置 (0オリジン)をセット
+     * @return boolean 移動できた場合はtrueが戻ります
+     */
+    public boolean moveToPosition(int position) {
+        if ( position < 0 || position >= this.count ) {
+            this.position = Math.max(-1, Math.min(position, this.count));
+            return false;
+        }
+        this.position = position;
+        this.offset = this.base + position * RECORD_SIZE;
+        return true;
+    }
+    /**
+     * 現在の位置を取得します
+     * @return int 位置が戻ります
+     */
+    public int getPosition() {
+        return this.position;
+    }
+    /**
+     * 履歴の件数を取得します
+     * @return int 件数が戻ります
+     */
+    public int getCount() {
+        return this.count;
+    }
+    /**
+     * 現在の履歴の指定した位置のバイトを取得します
+     * @param index 履歴内の位置 (0～15)をセット
+     * @return int 値 (0～255)が戻ります
+     */
+    public int getByte(int index) {
+        return this.buffer[this.offset + index] & 0xff;
+    }
+    /**
+     * 現在の履歴を呼び出し側のバッファに複製します
+     * @param dest 複製先をセット
+     * @param destOffset 複製先の開始位置をセット
+     */
+    public void copyTo(byte[] dest, int destOffset) {
+        System.arraycopy(this.buffer, this.offset, dest, destOffset, RECORD_SIZE);
+    }
+    /**
+     * 機器種別を取得します (Suica#getConsoleTypeで文字列になります)
+     * @return int 機器種別が戻ります
+     */
+    public int getConsoleType() {
+        return this.getByte(0);
+    }
+    /**
+     * 処理種別を取得します (Suica#getProcessTypeで文字列になります)
+     * @return int 処理種別が戻ります
+     */
+    public int getProcessType() {
+        return this.getByte(1);
+    }
+    /**
+     * 処理日付をカード上の形式のまま取得します
+     * @return int 年(下位7ビット)&lt;&lt;9 | 月&lt;&lt;5 | 日 が戻ります
+     */
+    public int getPackedDate() {
+        return this.getByte(4) << 8 | this.getByte(5);
+    }
+    /**
+     * 処理日付の年を取得します
+     * @return int 年 (西暦)が戻ります
+     */
+    public int getYear() {
+        return 2000 + (this.getPackedDate() >> 9);
+    }
+    /**
+     * 処理日付の月を取得します
+     * @return int 月 (1～12)が戻ります
+     */
+    public int getMonth() {
+        return (this.getPackedDate() >> 5) & 0xf;
+    }
+    /**
+     * 処理日付の日を取得します
+     * @return int 日 (1～31)が戻ります
+     */
+    public int getDay() {
+        return this.getPackedDate() & 0x1f;
+    }
+    /**
+     * 処理日付を10進数のyyyyMMdd形式で取得します (大小比較で日付の前後を判定できます)
+     * @return int 日付 (例 20140922)が戻ります
+     */
+    public int getDate() {
+        return this.getYear() * 10000 + this.getMonth() * 100 + this.getDay();
+    }
+    /**
+     * 処理時刻の時を取得します (物販の場合のみ有効)
+     * @return int 時 (0～23)が戻ります
+     */
+    public int getHour() {
+        return (this.getByte(6) << 8 | this.getByte(7)) >> 11;
+    }
+    /**
+     * 処理時刻の分を取得します (物販の場合のみ有効)
+     * @return int 分 (0～59)が戻ります
+     */
+    public int getMinute() {
+        return ((this.getByte(6) << 8 | this.getByte(7)) >> 5) & 0x3f;
+    }
+    /**
+     * 残高を取得します
+     * @return int 残高 (円)が戻ります
+     */
+    public int getBalance() {
+        return this.getByte(11) << 8 | this.getByte(10);
+    }
+    /**
+     * 履歴の連番を取得します
+     * @return int 連番 (3バイト)が戻ります
+     */
+    public int getSequenceNumber() {
+        return this.getByte(12) << 16 | this.getByte(13) << 8 | this.getByte(14);
+    }
+    /**
+     * 地域コードを取得します
+     * @return int 地域コードが戻ります
+     */
+    public int getRegionCode() {
+        return this.getByte(15);
+    }
+    /**
+     * 入場駅のキー (StationIndex#stationKey)を取得します
+     * @return int キーが戻ります
+     */
+    public int getEntranceStationKey() {
+        return StationIndex.stationKey(this.getRegionCode(), this.getByte(6), this.getByte(7));
+    }
+    /**
+     * 出場駅のキー (StationIndex#stationKey)を取得します
+     * @return int キーが戻ります
+     */
+    public int getExitStationKey() {
+        return StationIndex.stationKey(this.getRegionCode(), this.getByte(8), this.getByte(9));
+    }
+    /**
+     * バス停留所のキー (StationIndex#busStopKey)を取得します
+     * @return int キーが戻ります
+     */
+    public int getBusStopKey() {
+        return StationIndex.busStopKey(this.getByte(6) << 8 | this.getByte(7)
+                , this.getByte(8) << 8 | this.getByte(9));
+    }
+    /**
+     * 処理種別がバス利用か否かを検査します
+     * @return boolean バス利用の場合trueが戻ります
+     */
+    public boolean isByBus() {
+        return this.getConsoleType() == 0x05;
+    }
+    /**
+     *　端末種別が「物販」か否かを判定します
+     * @return boolean 物販だった場合はtrueが戻ります
+     */
+    public boolean isProductSales() {
+        int type = this.getConsoleType();
+        return type == 0xc7 || type == 0xc8;
+    }
+    /**
+     *　処理種別が「チャージ」か否かを判定します
+     * @return boolean チャージだった場合はtrueが戻ります
+     */
+    public boolean isCharge() {
+        return this.getProcessType() == 0x02;
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
+
+/**
+ * 読み込んだ使用履歴を端末内に蓄積するクラスを提供します
+ * <pre>
+ * 履歴はカード(IDm)と連番で一意となり、同じ履歴を何度追加しても1件だけ保持します (追記のみ)。
+ * カードに残るのは最新の20件だけですが、蓄積した履歴はそれより古いものも取得できます。
+ * カード毎の日付(yyyyMMdd)と、駅(StationIndex#stationKey)、バス停留所(StationIndex#busStopKey)に
+ * 索引があるため、カードを読み直さずに期間や駅で絞り込んだ履歴を取得できます。
+ *
+ *   HistoryStore store = HistoryStore.getInstance(context);
+ *   store.append(idm, histories);
+ *   List&lt;Suica.History&gt; march = store.queryByMonth(idm, 2014, 3);
+ * </pre>
+ */
+public class HistoryStore extends SQLiteOpenHelper {
+    public static final String DB_NAME = "HistoryStore.db";
+    public static final int DB_VERSION = 1;
+
+    public static final String TABLE_HISTORY = "History";
+    public static final String COLUMN_IDM = "IDm";
+    public static final String COLUMN_SEQ = "Seq";
+    public static final String COLUMN_DATE = "Date";
+    public static final String COLUMN_ENTRANCE = "EntranceStation";
+    public static final String COLUMN_EXIT = "ExitStation";
+    public static final String COLUMN_BUS_STOP = "BusStop";
+    public static final String COLUMN_BALANCE = "Balance";
+    public static final String COLUMN_RAW = "Raw";
+
+    private static final String ORDER_NEWEST_FIRST = COLUMN_DATE + " DESC, " + COLUMN_SEQ + " DESC";
+
+    private static HistoryStore sInstance;
+
+    private final Context context;
+    private SQLiteStatement insertStatement;
+
+    /**
+     * プロセス内で共有するインスタンスを取得します
+     * @param context コンテキストをセット
+     * @return HistoryStore 共有インスタンスが戻ります
+     */
+    public static synchronized HistoryStore getInstance(Context context) {
+        if ( sInstance == null ) {
+            sInstance = new HistoryStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+    /**
+     * コンストラクタ
+     * @param context コンテキストをセット
+     */
+    HistoryStore(Context context) {
+        this(context, DB_NAME);
+    }
+    /**
+     * コンストラクタ
+     * @param context コンテキストをセット
+     * @param name データベースのファイル名をセット (nullの場合はメモリ上に作成します)
+     */
+    HistoryStore(Context context, String name) {
+        super(context, name, null, DB_VERSION);
+        this.context = context;
+    }
+    /* (non-Javadoc)
+     * @see android.database.sqlite.SQLiteOpenHelper#onCreate(android.database.sqlite.SQLiteDatabase)
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_HISTORY + " ("
+                + DBUtil.COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_IDM + " INTEGER NOT NULL, "
+                + COLUMN_SEQ + " INTEGER NOT NULL, "
+                + COLUMN_DATE + " INTEGER NOT NULL, "
+                + COLUMN_ENTRANCE + " INTEGER, "
+                + COLUMN_EXIT + " INTEGER, "
+                + COLUMN_BUS_STOP + " INTEGER, "
+                + COLUMN_BALANCE + " INTEGER NOT NULL, "
+                + COLUMN_RAW + " BLOB NOT NULL, "
+                + "UNIQUE (" + COLUMN_IDM + ", " + COLUMN_SEQ + "))");
+        //日付の索引は連番も含め、期間の絞り込みと新しい順の並べ替えを兼ねる
+        db.execSQL("CREATE INDEX History_Date ON " + TABLE_HISTORY
+                + " (" + COLUMN_IDM + ", " + COLUMN_DATE + ", " + COLUMN_SEQ + ")");
+        db.execSQL("CREATE INDEX History_Entrance ON " + TABLE_HISTORY
+                + " (" + COLUMN_IDM + ", " + COLUMN_ENTRANCE + ")");
+        db.execSQL("CREATE INDEX History_Exit ON " + TABLE_HISTORY
+                + " (" + COLUMN_IDM + ", " + COLUMN_EXIT + ")");
+        db.execSQL("CREATE INDEX History_BusStop ON " + TABLE_HISTORY
+                + " (" + COLUMN_IDM + ", " + COLUMN_BUS_STOP + ")");
+    }
+    /* (non-Javadoc)
+     * @see android.database.sqlite.SQLiteOpenHelper#onUpgrade(android.database.sqlite.SQLiteDatabase, int, int)
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        //NOOP
+    }
+    /**
+     * 履歴を追加します
+     * <pre>
+     *  既に保持している履歴 (同じIDmと連番)は無視します。追加は1つのトランザクションで行います
+     * </pre>
+     * @param idm カードのIDmをセット
+     * @param histories 履歴をセット
+     * @return int 新たに追加した件数が戻ります
+     */
+    public synchronized int append(IDm idm, Collection<Suica.History> histories) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        if ( this.insertStatement == null ) {
+            this.insertStatement = db.compileStatement("INSERT OR IGNORE INTO " + TABLE_HISTORY
+                    + " (" + COLUMN_IDM + ", " + COLUMN_SEQ + ", " + COLUMN_DATE + ", "
+                    + COLUMN_ENTRANCE + ", " + COLUMN_EXIT + ", " + COLUMN_BUS_STOP + ", "
+                    + COLUMN_BALANCE + ", " + COLUMN_RAW + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        SQLiteStatement st = this.insertStatement;
+        long idmValue = toLong(idm);
+        int inserted = 0;
+        db.beginTransaction();
+        try {
+            for ( Suica.History h : histories ) {
+                HistoryRecord r = h.getRecord();
+                st.clearBindings();
+                st.bindLong(1, idmValue);
+                st.bindLong(2, r.getSequenceNumber());
+                st.bindLong(3, r.getDate());
+                if ( !r.isProductSales() ) {
+                    if ( r.isByBus() ) {
+                        st.bindLong(6, r.getBusStopKey());
+                    } else {
+                        st.bindLong(4, r.getEntranceStationKey());
+                        st.bindLong(5, r.getExitStationKey());
+                    }
+                }
+                st.bindLong(7, r.getBalance());
+                st.bindBlob(8, h.data);
+                if ( st.executeInsert() != -1 ) inserted++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return inserted;
+    }
+    /**
+     * 期間を指定して履歴を取得します
+     * @param idm カードのIDmをセット
+     * @param fromDate 開始日 (yyyyMMdd、この日を含む)をセット
+     * @param toDate 終了日 (yyyyMMdd、この日を含む)をセット
+     * @return List&lt;Suica.History&gt; 履歴が新しい順に戻ります
+     */
+    public List<Suica.History> query(IDm idm, int fromDate, int toDate) {
+        return this.query(COLUMN_IDM + " = ? AND " + COLUMN_DATE + " BETWEEN ? AND ?"
+                , new String[]{ String.valueOf(toLong(idm))
+                        , String.valueOf(fromDate), String.valueOf(toDate) });
+    }
+    /**
+     * 月を指定して履歴を取得します
+     * @param idm カードのIDmをセット
+     * @param year 年 (西暦)をセット
+     * @param month 月 (1～12)をセット
+     * @return List&lt;Suica.History&gt; 履歴が新しい順に戻ります
+     */
+    public List<Suica.History> queryByMonth(IDm idm, int year, int month) {
+        int base = year * 10000 + month * 100;
+        return this.query(idm, base + 1, base + 31);
+    }
+    /**
+     * 駅を指定して履歴 (入場または出場)を取得します
+     * <pre>
+     *  入場駅と出場駅をそれぞれの索引で検索して結合します (ORで結ぶと日付の索引で全件を走査します)
+     * </pre>
+     * @param idm カードのIDmをセット
+     * @param stationKey 駅のキー (StationIndex#stationKey)をセット
+     * @return List&lt;Suica.History&gt; 履歴が新しい順に戻ります
+     */
+    public List<Suica.History> queryByStation(IDm idm, int stationKey) {
+        String idmValue = String.valueOf(toLong(idm));
+        String key = String.valueOf(stationKey);
+        String select = "SELECT " + COLUMN_RAW + ", " + COLUMN_DATE + ", " + COLUMN_SEQ
+                + " FROM " + TABLE_HISTORY + " WHERE " + COLUMN_IDM + " = ? AND ";
+        return this.read(this.getReadableDatabase().rawQuery(select + COLUMN_ENTRANCE + " = ?"
+                + " UNION " + select + COLUMN_EXIT + " = ?"
+                + " ORDER BY " + ORDER_NEWEST_FIRST, new String[]{ idmValue, key, idmValue, key }));
+    }
+    /**
+     * バス停留所を指定して履歴を取得します
+     * @param idm カードのIDmをセット
+     * @param busStopKey 停留所のキー (StationIndex#busStopKey)をセット
+     * @return List&lt;Suica.History&gt; 履歴が新しい順に戻ります
+     */
+    public List<Suica.History> queryByBusStop(IDm idm, int busStopKey) {
+        return this.query(COLUMN_IDM + " = ? AND " + COLUMN_BUS_STOP + " = ?"
+                , new String[]{ String.valueOf(toLong(idm)), String.valueOf(busStopKey) });
+    }
+    /**
+     * カードの全ての履歴を取得します
+     * @param idm カードのIDmをセット
+     * @return List&lt;Suica.History&gt; 履歴が新しい順に戻ります
+     */
+    public List<Suica.History> queryAll(IDm idm) {
+        return this.query(COLUMN_IDM + " = ?", new String[]{ String.valueOf(toLong(idm)) });
+    }
+    /**
+     * カードの最新の履歴の連番を取得します
+     * <pre>
+     *  HistorySync#syncで前回までに蓄積した履歴を読み飛ばすために使用します
+     * </pre>
+     * @param idm カードのIDmをセット
+     * @return int 連番が戻ります (履歴を保持していない場合はHistorySync.NO_SEQUENCE)
+     */
+    public int getLastSequenceNumber(IDm idm) {
+        Cursor c = this.getReadableDatabase().rawQuery("SELECT " + COLUMN_SEQ + " FROM " + TABLE_HISTORY
+                + " WHERE " + COLUMN_IDM + " = ? ORDER BY " + ORDER_NEWEST_FIRST + " LIMIT 1"
+                , new String[]{ String.valueOf(toLong(idm)) });
+        try {
+            return c.moveToNext() ? c.getInt(0) : HistorySync.NO_SEQUENCE;
+        } finally {
+            c.close();
+        }
+    }
+    /**
+     * 条件を指定して履歴を取得します
+     * @param selection 条件をセット
+     * @param args 条件の値をセット
+     * @return List&lt;Suica.History&gt; 履歴が新しい順に戻ります
+     */
+    private List<Suica.History> query(String selection, String[] args) {
+        return this.read(this.getReadableDatabase().query(TABLE_HISTORY, new String[]{ COLUMN_RAW }
+                , selection, args, null, null, ORDER_NEWEST_FIRST));
+    }
+    /**
+     * 先頭の列の履歴(16バイト)を全て読み出し、カーソルを閉じます
+     * @param c カーソルをセット
+     * @return List&lt;Suica.History&gt; 履歴がカーソルの順に戻ります
+     */
+    private List<Suica.History> read(Cursor c) {
+        try {
+            List<Suica.History> result = new ArrayList<Suica.History>(c.getCount());
+            while ( c.moveToNext() ) {
+                result.add(new Suica.History(c.getBlob(0), this.context));
+            }
+            return result;
+        } finally {
+            c.close();
+        }
+    }
+    /* (non-Javadoc)
+     * @see android.database.sqlite.SQLiteOpenHelper#close()
+     */
+    @Override
+    public synchronized void close() {
+        if ( this.insertStatement != null ) {
+            this.insertStatement.close();
+            this.insertStatement = null;
+        }
+        super.close();
+    }
+    /**
+     * IDmを64ビットの値にします (保存するキー)
+     * @param idm IDmをセット
+     * @return long IDm(ビッグエンディアン)が戻ります
+     */
+    private static long toLong(IDm idm) {
+        return idm.longValue();
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaException;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaTag;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.Block;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.ServiceCode;
+
+/**
+ * 使用履歴を差分だけ読み込む同期処理を提供します
+ * <pre>
+ * 前回までに読み込んだ最新の履歴の連番(HistoryStore#getLastSequenceNumber)を受け取り、
+ * 新しい方から読み込んで既知の連番に達した時点で読み込みを終了します。
+ * 最初は少ないブロック数で読み込み、既知の履歴に達しなければ同時読み込みブロック数まで
+ * 増やしながら読み進めるため、1～3件の新しい履歴であれば1回のコマンドで済みます。
+ * 連番は3バイトで一周するため、既知か否かは連番の差で判定します。
+ * </pre>
+ */
+public class HistorySync {
+    /** 交通系ICカードに保持される利用履歴の最大件数 */
+    public static final int MAX_HISTORY_BLOCKS = 20;
+    /** 最初に読み込むブロック数 */
+    public static final int INITIAL_READ_BLOCKS = 4;
+
+    /** 既知の履歴が無いことを示す連番 */
+    public static final int NO_SEQUENCE = -1;
+
+    private static final int SEQUENCE_MASK = 0xffffff;
+
+    private final Context context;
+
+    /**
+     * コンストラクタ
+     * @param context コンテキストをセット
+     */
+    public HistorySync(Context context) {
+        this.context = context;
+    }
+    /**
+     * 前回以降に追加された履歴を読み込みます
+     * <pre>
+     *  タグはポーリング済み(IDmを取得済み)である必要があります。
+     *  連番を保持していない(NO_SEQUENCE)場合は全ての履歴を読み込みます
+     * </pre>
+     * @param tag FeliCaタグをセット
+     * @param last 既知の最新の連番をセット (無い場合はNO_SEQUENCE)
+     * @return List&lt;Suica.History&gt; 新しい履歴が新しい順に戻ります (無い場合は空のリスト)
+     * @throws FeliCaException
+     */
+    public List<Suica.History> sync(FeliCaTag tag, int last) throws FeliCaException {
+        if ( tag.getIDm() == null ) {
+            throw new FeliCaException("IDm is null (polling required)");
+        }
+        boolean hasLast = last != NO_SEQUENCE;
+
+        ServiceCode sc = new ServiceCode(FeliCaLib.SERVICE_SUICA_HISTORY);
+        HistoryRecord record = new HistoryRecord();
+        List<Suica.History> delta = new ArrayList<Suica.History>();
+        int blockNo = 0;
+        int count = Math.min(INITIAL_READ_BLOCKS, tag.getMaxReadBlocks());
+        read:
+        while ( blockNo < MAX_HISTORY_BLOCKS ) {
+            count = Math.min(count, MAX_HISTORY_BLOCKS - blockNo);
+            Block[] blocks = tag.readBlocks(sc, blockNo, count);
+            for ( Block block : blocks ) {
+                record.wrap(block.getBytes());
+                if ( hasLast && isKnown(record.getSequenceNumber(), last) ) break read;
+                delta.add(new Suica.History(block.getBytes(), this.context));
+            }
+            if ( blocks.length < count ) break; // 未使用ブロックに達した
+            blockNo += count;
+            count = Math.min(count * 2, tag.getMaxReadBlocks());
+        }
+        return delta;
+    }
+    /**
+     * 連番が既知の連番以前のものか否かを検査します
+     * @param sequence 検査する連番をセット
+     * @param last 既知の最新の連番をセット
+     * @return boolean 既知の連番と同じか古い場合trueが戻ります
+     */
+    static boolean isKnown(int sequence, int last) {
+        return ((last - sequence) & SEQUENCE_MASK) < (SEQUENCE_MASK + 1) / 2;
+    }
+}
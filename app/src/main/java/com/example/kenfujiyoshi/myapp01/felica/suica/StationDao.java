@@ -0,0 +1,243 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Arrays;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.util.IntObjectMap;
+
+import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.COLUMNS_IRUCA_STATIONCODE;
+import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.COLUMNS_STATIONCODE;
+import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.COLUMN_ID;
+import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.TABLE_IRUCA_STATIONCODE;
+import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.TABLE_STATIONCODE;
+
+/**
+ * StationCode.dbへの問い合わせを提供します
+ * <pre>
+ * 1件ずつの問い合わせはコンパイル済みのSQLiteStatementに値をバインドして実行するため、
+ * SQLの解析は初回のみです。
+ * 履歴全体のように複数のキーを解決する場合はresolveStations/resolveBusStopsで
+ * まとめて問い合わせてください (IN句による1回の問い合わせになります)。
+ * IN句は地区コード等の列毎に並べるため、列の索引で絞り込むことができます。
+ * 複数のスレッドから同時に使用できます。
+ * </pre>
+ */
+public class StationDao {
+    /** IN句に含めるキーの上限 (SQLiteの変数の上限 999 より十分小さくする) */
+    public static final int MAX_KEYS_PER_QUERY = 200;
+
+    private static final String SEPARATOR = "\t";
+
+    private final SQLiteDatabase db;
+    private SQLiteStatement stationStatement;
+    private SQLiteStatement busStopStatement;
+
+    /**
+     * コンストラクタ
+     * @param db StationCode.dbをセット
+     */
+    public StationDao(SQLiteDatabase db) {
+        this.db = db;
+    }
+    /**
+     *  地区コード、線区コード、駅順コードから駅名を取得します
+     * @param areaCode 地区コードをセット
+     * @param lineCode 線区コードをセット
+     * @param stationCode 駅順コードをセット
+     * @return String[] 序数0に会社名、1に路線名、2に駅名が戻ります (無い場合はnull)
+     */
+    public synchronized String[] getStation(int areaCode, int lineCode, int stationCode) {
+        if ( this.stationStatement == null ) {
+            this.stationStatement = this.db.compileStatement(
+                    "SELECT " + concat(COLUMNS_STATIONCODE[3], COLUMNS_STATIONCODE[4], COLUMNS_STATIONCODE[5])
+                    + " FROM " + TABLE_STATIONCODE
+                    + " WHERE " + COLUMNS_STATIONCODE[0] + " = ? AND "
+                    + COLUMNS_STATIONCODE[1] + " = ? AND "
+                    + COLUMNS_STATIONCODE[2] + " = ?"
+                    + " ORDER BY " + COLUMN_ID + " LIMIT 1");
+        }
+        SQLiteStatement st = this.stationStatement;
+        st.bindLong(1, areaCode & 0xff);
+        st.bindLong(2, lineCode & 0xff);
+        st.bindLong(3, stationCode & 0xff);
+        return queryForNames(st);
+    }
+    /**
+     * バス停留所を取得します
+     * @param lineCode 線区コードをセット
+     * @param stationCode 停留所コードをセット
+     * @return String[] 序数0に会社名、1に停留所名が戻ります (無い場合はnull)
+     */
+    public synchronized String[] getBusStop(int lineCode, int stationCode) {
+        if ( this.busStopStatement == null ) {
+            this.busStopStatement = this.db.compileStatement(
+                    "SELECT " + concat(COLUMNS_IRUCA_STATIONCODE[2], COLUMNS_IRUCA_STATIONCODE[4])
+                    + " FROM " + TABLE_IRUCA_STATIONCODE
+                    + " WHERE " + COLUMNS_IRUCA_STATIONCODE[0] + " = ? AND "
+                    + COLUMNS_IRUCA_STATIONCODE[1] + " = ?"
+                    + " ORDER BY " + COLUMN_ID + " LIMIT 1");
+        }
+        SQLiteStatement st = this.busStopStatement;
+        st.bindLong(1, lineCode);
+        st.bindLong(2, stationCode);
+        return queryForNames(st);
+    }
+    /**
+     * 複数の駅をまとめて取得します
+     * <pre>
+     *  キーはStationIndex#stationKeyで作成した値です。
+     *  キーを計算する式では索引を使えないため、地区コード、線区コード、駅順コードの列毎に
+     *  IN句で絞り込み、要求されたキーの行だけを残します。
+     *  SQLiteのバインド変数は文字列として比較されるため、値(整数)はSQLに直接埋め込みます
+     * </pre>
+     * @param keys 駅のキーをセット
+     * @return IntObjectMap&lt;String[]&gt; 見つかった駅名がキー毎に戻ります
+     */
+    public IntObjectMap<String[]> resolveStations(int[] keys) {
+        IntObjectMap<String[]> result = new IntObjectMap<String[]>(keys.length);
+        for ( int from = 0; from < keys.length; from += MAX_KEYS_PER_QUERY ) {
+            int[] chunk = sortedChunk(keys, from);
+            Cursor c = this.db.query(TABLE_STATIONCODE, COLUMNS_STATIONCODE
+                    , stationSelection(chunk), null, null, null, COLUMN_ID);
+            try {
+                while ( c.moveToNext() ) {
+                    int key = StationIndex.stationKey(c.getInt(0), c.getInt(1), c.getInt(2));
+                    if ( Arrays.binarySearch(chunk, key) >= 0 && !result.containsKey(key) ) {
+                        result.put(key, new String[]{c.getString(3), c.getString(4), c.getString(5)});
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return result;
+    }
+    /**
+     * 複数のバス停留所をまとめて取得します
+     * <pre>
+     *  キーはStationIndex#busStopKeyで作成した値です。
+     *  resolveStationsと同様に、線区コード、停留所コードの列毎に絞り込みます
+     * </pre>
+     * @param keys 停留所のキーをセット
+     * @return IntObjectMap&lt;String[]&gt; 見つかった停留所名がキー毎に戻ります
+     */
+    public IntObjectMap<String[]> resolveBusStops(int[] keys) {
+        IntObjectMap<String[]> result = new IntObjectMap<String[]>(keys.length);
+        for ( int from = 0; from < keys.length; from += MAX_KEYS_PER_QUERY ) {
+            int[] chunk = sortedChunk(keys, from);
+            Cursor c = this.db.query(TABLE_IRUCA_STATIONCODE, COLUMNS_IRUCA_STATIONCODE
+                    , busStopSelection(chunk), null, null, null, COLUMN_ID);
+            try {
+                while ( c.moveToNext() ) {
+                    int key = StationIndex.busStopKey(c.getInt(0), c.getInt(1));
+                    if ( Arrays.binarySearch(chunk, key) >= 0 && !result.containsKey(key) ) {
+                        result.put(key, new String[]{c.getString(2), c.getString(4)});
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+        return result;
+    }
+    /**
+     * コンパイル済みのステートメントを解放します
+     */
+    public synchronized void close() {
+        if ( this.stationStatement != null ) {
+            this.stationStatement.close();
+            this.stationStatement = null;
+        }
+        if ( this.busStopStatement != null ) {
+            this.busStopStatement.close();
+            this.busStopStatement = null;
+        }
+    }
+    /**
+     * 1件の名称を問い合わせます
+     * @param st 値をバインドしたステートメントをセット
+     * @return String[] 名称が戻ります (無い場合はnull)
+     */
+    private static String[] queryForNames(SQLiteStatement st) {
+        try {
+            String names = st.simpleQueryForString();
+            return names != null ? names.split(SEPARATOR, -1) : null;
+        } catch (SQLiteDoneException e) {
+            return null; //該当なし
+        } finally {
+            st.clearBindings();
+        }
+    }
+    /**
+     * 複数の列を区切り文字で連結する式を作成します (SQLiteStatementは1列しか戻せないため)
+     * @param columns 列名をセット
+     * @return String 式が戻ります
+     */
+    private static String concat(String... columns) {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < columns.length; i++ ) {
+            if ( i > 0 ) sb.append(" || '").append(SEPARATOR).append("' || ");
+            sb.append("IFNULL(").append(columns[i]).append(", '')");
+        }
+        return sb.toString();
+    }
+    /**
+     * 1回の問い合わせで解決するキーを昇順に並べて取得します
+     * @param keys キーをセット
+     * @param from 開始位置をセット
+     * @return int[] 昇順のキーが戻ります
+     */
+    private static int[] sortedChunk(int[] keys, int from) {
+        int[] chunk = Arrays.copyOfRange(keys, from, Math.min(keys.length, from + MAX_KEYS_PER_QUERY));
+        Arrays.sort(chunk);
+        return chunk;
+    }
+    /**
+     * 駅のキーを地区コード、線区コード、駅順コードの列毎のIN句にした条件式を作成します
+     * <pre>
+     *  条件式は要求されていない組み合わせにも一致するため、結果はキーで絞り込んでください
+     * </pre>
+     * @param keys 駅のキーをセット
+     * @return String 条件式が戻ります
+     */
+    static String stationSelection(int[] keys) {
+        return in(COLUMNS_STATIONCODE[0], keys, 16, 0xff)
+                + " AND " + in(COLUMNS_STATIONCODE[1], keys, 8, 0xff)
+                + " AND " + in(COLUMNS_STATIONCODE[2], keys, 0, 0xff);
+    }
+    /**
+     * 停留所のキーを線区コード、停留所コードの列毎のIN句にした条件式を作成します
+     * @param keys 停留所のキーをセット
+     * @return String 条件式が戻ります
+     */
+    static String busStopSelection(int[] keys) {
+        return in(COLUMNS_IRUCA_STATIONCODE[0], keys, 16, 0xffff)
+                + " AND " + in(COLUMNS_IRUCA_STATIONCODE[1], keys, 0, 0xffff);
+    }
+    /**
+     * キーから取り出した1列分の値を並べたIN句を作成します (重複した値は1つにまとめます)
+     * @param column 列名をセット
+     * @param keys キーをセット
+     * @param shift キー内の値の位置 (右シフトするビット数)をセット
+     * @param mask 値のマスクをセット
+     * @return String 条件式が戻ります
+     */
+    private static String in(String column, int[] keys, int shift, int mask) {
+        int[] values = new int[keys.length];
+        for ( int i = 0; i < keys.length; i++ ) {
+            values[i] = (keys[i] >>> shift) & mask;
+        }
+        Arrays.sort(values);
+        StringBuilder sb = new StringBuilder(column).append(" IN (");
+        for ( int i = 0; i < values.length; i++ ) {
+            if ( i > 0 && values[i] == values[i - 1] ) continue;
+            if ( i > 0 ) sb.append(',');
+            sb.append(values[i]);
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.util.IntObjectMap;
+
+import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.COLUMNS_IRUCA_STATIONCODE;
+import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.COLUMNS_STATIONCODE;
+import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.COLUMN_ID;
+import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.TABLE_IRUCA_STATIONCODE;
+import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.TABLE_STATIONCODE;
+
+/**
+ * 駅コード表・停留所コード表の全件をメモリ上に保持する索引を提供します
+ * <pre>
+ * StationCodeは (地区コード &lt;&lt; 16 | 線区コード &lt;&lt; 8 | 駅順コード)、
+ * IruCaStationCodeは (線区コード &lt;&lt; 16 | 停留所コード) をキーとする
+ * IntObjectMapに格納するため、検索はO(1)でヒープを確保しません。
+ * 構築後は読み出し専用のため、複数のスレッドから同時に使用できます。
+ * </pre>
+ */
+public final class StationIndex {
+    private final IntObjectMap<String[]> stations;
+    private final IntObjectMap<String[]> busStops;
+
+    /**
+     * コンストラクタ
+     * @param stations 駅名の表をセット
+     * @param busStops 停留所名の表をセット
+     */
+    private StationIndex(IntObjectMap<String[]> stations, IntObjectMap<String[]> busStops) {
+        this.stations = stations;
+        this.busStops = busStops;
+    }
+    /**
+     * データベースから全件を読み込んで索引を作成します
+     * @param db StationCode.dbをセット
+     * @return StationIndex 作成した索引が戻ります
+     */
+    public static StationIndex load(SQLiteDatabase db) {
+        IntObjectMap<String[]> stations = new IntObjectMap<String[]>(4096);
+        Cursor c = db.query(TABLE_STATIONCODE, COLUMNS_STATIONCODE
+                , null, null, null, null, COLUMN_ID);
+        try {
+            while ( c.moveToNext() ) {
+                int key = stationKey(c.getInt(0), c.getInt(1), c.getInt(2));
+                //同じコードが複数ある場合は_idの若いものを優先 (従来の問い合わせと同じ)
+                if ( !stations.containsKey(key) ) {
+                    stations.put(key, new String[]{c.getString(3), c.getString(4), c.getString(5)});
+                }
+            }
+        } finally {
+            c.close();
+        }
+        IntObjectMap<String[]> busStops = new IntObjectMap<String[]>(1024);
+        c = db.query(TABLE_IRUCA_STATIONCODE, COLUMNS_IRUCA_STATIONCODE
+                , null, null, null, null, COLUMN_ID);
+        try {
+            while ( c.moveToNext() ) {
+                int key = busStopKey(c.getInt(0), c.getInt(1));
+                if ( !busStops.containsKey(key) ) {
+                    busStops.put(key, new String[]{c.getString(2), c.getString(4)});
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return new StationIndex(stations, busStops);
+    }
+    /**
+     * 駅コード表(stations.bin)から全件を読み込んで索引を作成します
+     * @param table 駅コード表をセット
+     * @return StationIndex 作成した索引が戻ります
+     */
+    public static StationIndex load(StationTable table) {
+        IntObjectMap<String[]> stations = new IntObjectMap<String[]>(table.getStationCount());
+        for ( int i = 0; i < table.getStationCount(); i++ ) {
+            stations.put(table.getStationKey(i), table.getStationAt(i));
+        }
+        IntObjectMap<String[]> busStops = new IntObjectMap<String[]>(table.getBusStopCount());
+        for ( int i = 0; i < table.getBusStopCount(); i++ ) {
+            busStops.put(table.getBusStopKey(i), table.getBusStopAt(i));
+        }
+        return new StationIndex(stations, busStops);
+    }
+    /**
+     * 駅のキーを作成します
+     * @param areaCode 地区コードをセット
+     * @param lineCode 線区コードをセット
+     * @param stationCode 駅順コードをセット
+     * @return int キーが戻ります
+     */
+    public static int stationKey(int areaCode, int lineCode, int stationCode) {
+        return ((areaCode & 0xff) << 16) | ((lineCode & 0xff) << 8) | (stationCode & 0xff);
+    }
+    /**
+     * 停留所のキーを作成します
+     * @param lineCode 線区コードをセット
+     * @param stationCode 停留所コードをセット
+     * @return int キーが戻ります
+     */
+    public static int busStopKey(int lineCode, int stationCode) {
+        return ((lineCode & 0xffff) << 16) | (stationCode & 0xffff);
+    }
+    /**
+     * 駅名を取得します
+     * @param areaCode 地区コードをセット
+     * @param lineCode 線区コードをセット
+     * @param stationCode 駅順コードをセット
+     * @return String[] 序数0に会社名、1に路線名、2に駅名が戻ります (無い場合はnull)
+     */
+    public String[] getStation(int areaCode, int lineCode, int stationCode) {
+        return this.stations.get(stationKey(areaCode, lineCode, stationCode));
+    }
+    /**
+     * 停留所名を取得します
+     * @param lineCode 線区コードをセット
+     * @param stationCode 停留所コードをセット
+     * @return String[] 序数0に会社名、1に停留所名が戻ります (無い場合はnull)
+     */
+    public String[] getBusStop(int lineCode, int stationCode) {
+        return this.busStops.get(busStopKey(lineCode, stationCode));
+    }
+    /**
+     * 保持している駅の件数を取得します
+     * @return int 件数が戻ります
+     */
+    public int getStationCount() {
+        return this.stations.size();
+    }
+    /**
+     * 保持している停留所の件数を取得します
+     * @return int 件数が戻ります
+     */
+    public int getBusStopCount() {
+        return this.busStops.size();
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.util.IntObjectMap;
+
+/**
+ * 駅コード・停留所コードから名称を解決するクラスを提供します
+ * <pre>
+ * assetsにビルド時に生成した駅コード表(StationTable)がある場合はそれを使用し、
+ * 無い場合はStationCode.dbをプロセス内で一度だけオープンし、StationDaoで問い合わせます。
+ * 履歴全体を表示する場合は、先にprefetchで全ての駅をまとめて解決してください。
+ * 解決した名称は件数に上限のあるキャッシュ(LRU)に保持し、全てのHistoryで共有します。
+ * preloadで全件を読み込んだ後は、データベースを参照せずにStationIndexから解決します。
+ * 複数のスレッドから同時に使用できます。
+ * 戻り値の配列は保持している名称の複製のため、呼び出し側で変更しても構いません。
+ * </pre>
+ */
+public class StationResolver {
+    /** 既定の最大保持件数 */
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+
+    private static final String[] UNKNOWN_STATION = {"???", "???", "???"};
+    private static final String[] UNKNOWN_BUS_STOP = {"???", "???"};
+
+    private static StationResolver sInstance;
+
+    private final Context context;
+    private final DBUtil util;
+    private final LruCache<Integer, String[]> stations;
+    private final LruCache<Integer, String[]> busStops;
+    private SQLiteDatabase dataBase;
+    private StationDao dao;
+    private StationTable table;
+    private boolean tableOpened;
+    private volatile StationIndex index;
+    private Future<StationIndex> indexFuture;
+
+    /**
+     * プロセス内で共有するインスタンスを取得します
+     * @param context コンテキストをセット
+     * @return StationResolver 共有インスタンスが戻ります
+     */
+    public static synchronized StationResolver getInstance(Context context) {
+        if ( sInstance == null ) {
+            sInstance = new StationResolver(context.getApplicationContext(), DEFAULT_MAX_ENTRIES);
+        }
+        return sInstance;
+    }
+    /**
+     * コンストラクタ
+     * @param context コンテキストをセット
+     * @param maxEntries 駅、停留所それぞれの最大保持件数をセット
+     */
+    StationResolver(Context context, int maxEntries) {
+        this.context = context;
+        this.util = new DBUtil(context);
+        this.stations = new LruCache<Integer, String[]>(maxEntries);
+        this.busStops = new LruCache<Integer, String[]>(maxEntries);
+    }
+    /**
+     * データベースを取得します (初回のみオープンします)
+     * @return SQLiteDatabase データベースが戻ります
+     * @throws IOException
+     */
+    private synchronized SQLiteDatabase getDataBase() throws IOException {
+        if ( this.dataBase == null || !this.dataBase.isOpen() ) {
+            this.dataBase = this.util.openDataBase();
+        }
+        return this.dataBase;
+    }
+    /**
+     * データベースへの問い合わせを取得します (初回のみ作成します)
+     * @return StationDao 問い合わせが戻ります
+     * @throws IOException
+     */
+    private synchronized StationDao getDao() throws IOException {
+        if ( this.dao == null ) {
+            this.dao = new StationDao(this.getDataBase());
+        }
+        return this.dao;
+    }
+    /**
+     * assetsの駅コード表を取得します (初回のみオープンします)
+     * @return StationTable 駅コード表が戻ります (無い場合はnull)
+     */
+    private synchronized StationTable getTable() {
+        if ( !this.tableOpened ) {
+            this.tableOpened = true;
+            try {
+                this.table = StationTable.open(this.context);
+            } catch (IOException e) {
+                //生成されていない場合はデータベースを使用する
+                this.table = null;
+            }
+        }
+        return this.table;
+    }
+    /**
+     * 駅コード表・停留所コード表の全件を別スレッドで読み込みます
+     * <pre>
+     *  読み込みが完了するまではデータベースへの問い合わせで解決します
+     *  (既に読み込みを開始している場合は何もしません)
+     *  読み込みに失敗した場合は、次回の呼び出しで読み込みをやり直します
+     * </pre>
+     * @return Future&lt;StationIndex&gt; 読み込み完了を待つためのFutureが戻ります
+     */
+    public synchronized Future<StationIndex> preload() {
+        if ( this.indexFuture == null ) {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            this.indexFuture = executor.submit(new Callable<StationIndex>() {
+                @Override
+                public StationIndex call() throws Exception {
+                    StationIndex loaded;
+                    try {
+                        StationTable t = getTable();
+                        loaded = ( t != null )
+                                ? StationIndex.load(t) : StationIndex.load(getDataBase());
+                    } catch (Exception e) {
+                        //失敗したFutureを保持し続けないよう破棄する
+                        synchronized (StationResolver.this) {
+                            indexFuture = null;
+                        }
+                        throw e;
+                    }
+                    index = loaded;
+                    stations.evictAll();
+                    busStops.evictAll();
+                    return loaded;
+                }
+            });
+            executor.shutdown();
+        }
+        return this.indexFuture;
+    }
+    /**
+     * 全件の読み込みが完了しているか否かを検査します
+     * @return boolean 読み込み済みの場合trueが戻ります
+     */
+    public boolean isReady() {
+        return this.index != null;
+    }
+    /**
+     *  地区コード、線区コード、駅順コードから駅名を取得します
+     * @param areaCode 地区コードをセット
+     * @param lineCode 線区コードをセット
+     * @param stationCode 駅順コードをセット
+     * @return 取得できた場合、序数0に会社名、1に路線名、2に駅名が戻ります
+     */
+    public String[] getStation(int areaCode, int lineCode, int stationCode) {
+        StationIndex idx = this.index;
+        if ( idx != null ) {
+            String[] station = idx.getStation(areaCode, lineCode, stationCode);
+            return ( station != null ? station : UNKNOWN_STATION ).clone();
+        }
+        Integer key = StationIndex.stationKey(areaCode, lineCode, stationCode);
+        String[] station = this.stations.get(key);
+        if ( station == null ) {
+            try {
+                station = this.queryStation(areaCode & 0xff, lineCode & 0xff, stationCode & 0xff);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return new String[]{"error", "error", "error"};
+            }
+            this.stations.put(key, station);
+        }
+        return station.clone();
+    }
+    /**
+     * バス停留所を取得します
+     * @param lineCode 線区コードをセット
+     * @param stationCode 駅順コードをセット
+     * @return 取得できた場合、序数0に会社名、1停留所名が戻ります
+     */
+    public String[] getBusStop(int lineCode, int stationCode) {
+        StationIndex idx = this.index;
+        if ( idx != null ) {
+            String[] busStop = idx.getBusStop(lineCode, stationCode);
+            return ( busStop != null ? busStop : UNKNOWN_BUS_STOP ).clone();
+        }
+        Integer key = StationIndex.busStopKey(lineCode, stationCode);
+        String[] busStop = this.busStops.get(key);
+        if ( busStop == null ) {
+            try {
+                busStop = this.queryBusStop(lineCode, stationCode);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return new String[]{"error", "error"};
+            }
+            this.busStops.put(key, busStop);
+        }
+        return busStop.clone();
+    }
+    /**
+     * 履歴に含まれる駅・停留所をまとめて解決し、キャッシュに保持します
+     * <pre>
+     *  データベースを使用する場合、未解決の駅と停留所をそれぞれ1回の問い合わせで解決します。
+     *  全件読み込み済み、または駅コード表がある場合は何もしません
+     * </pre>
+     * @param histories 履歴をセット
+     */
+    public void prefetch(Collection<Suica.History> histories) {
+        if ( this.index != null || this.getTable() != null ) return;
+        int[] stationKeys = new int[histories.size() * 2];
+        int[] busStopKeys = new int[histories.size()];
+        int stationCount = 0;
+        int busStopCount = 0;
+        for ( Suica.History h : histories ) {
+            if ( h.isProductSales() ) continue;
+            if ( h.isByBus() ) {
+                int key = h.getBusStopKey();
+                if ( this.busStops.get(key) == null ) busStopKeys[busStopCount++] = key;
+            } else {
+                int key = h.getEntranceStationKey();
+                if ( this.stations.get(key) == null ) stationKeys[stationCount++] = key;
+                key = h.getExitStationKey();
+                if ( this.stations.get(key) == null ) stationKeys[stationCount++] = key;
+            }
+        }
+        try {
+            if ( stationCount > 0 ) {
+                int[] keys = Arrays.copyOf(stationKeys, stationCount);
+                IntObjectMap<String[]> found = this.getDao().resolveStations(keys);
+                for ( int key : keys ) {
+                    String[] station = found.get(key);
+                    this.stations.put(key, station != null ? station : UNKNOWN_STATION);
+                }
+            }
+            if ( busStopCount > 0 ) {
+                int[] keys = Arrays.copyOf(busStopKeys, busStopCount);
+                IntObjectMap<String[]> found = this.getDao().resolveBusStops(keys);
+                for ( int key : keys ) {
+                    String[] busStop = found.get(key);
+                    this.busStops.put(key, busStop != null ? busStop : UNKNOWN_BUS_STOP);
+                }
+            }
+        } catch (Exception e) {
+            //解決できなかったものは個別に問い合わせる
+            e.printStackTrace();
+        }
+    }
+    /**
+     * 保持している名称を全て破棄します
+     */
+    public void clear() {
+        this.stations.evictAll();
+        this.busStops.evictAll();
+    }
+    /**
+     * データベースをクローズします (次回の問い合わせで再度オープンします)
+     */
+    public synchronized void close() {
+        if ( this.dao != null ) {
+            this.dao.close();
+            this.dao = null;
+        }
+        this.util.close();
+        this.dataBase = null;
+    }
+    /**
+     * 駅名を駅コード表またはデータベースから取得します
+     */
+    private String[] queryStation(int areaCode, int lineCode, int stationCode) throws IOException {
+        StationTable t = this.getTable();
+        if ( t != null ) {
+            String[] station = t.getStation(areaCode, lineCode, stationCode);
+            return station != null ? station : UNKNOWN_STATION;
+        }
+        String[] station = this.getDao().getStation(areaCode, lineCode, stationCode);
+        return station != null ? station : UNKNOWN_STATION;
+    }
+    /**
+     * バス停留所を駅コード表またはデータベースから取得します
+     */
+    private String[] queryBusStop(int lineCode, int stationCode) throws IOException {
+        StationTable t = this.getTable();
+        if ( t != null ) {
+            String[] busStop = t.getBusStop(lineCode, stationCode);
+            return busStop != null ? busStop : UNKNOWN_BUS_STOP;
+        }
+        String[] busStop = this.getDao().getBusStop(lineCode, stationCode);
+        return busStop != null ? busStop : UNKNOWN_BUS_STOP;
+    }
+}
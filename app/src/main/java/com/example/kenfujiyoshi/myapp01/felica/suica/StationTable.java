@@ -0,0 +1,195 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * ビルド時に生成した駅コード表(assets/stations.bin)をメモリマップで読み込むクラスを提供します
+ * <pre>
+ * ファイルの形式 (ビッグエンディアン、app/build.gradleのgenerateStationTableタスクが
+ * StationTableWriterで生成)
+ *   ヘッダ    : マジック("STN1"), 駅数, 停留所数, 文字列プールの位置 (各int)
+ *   駅        : キー, 会社名, 路線名, 駅名 (各int、キーの昇順)
+ *   停留所    : キー, 会社名, 停留所名 (各int、キーの昇順)
+ *   文字列プール: 長さ(unsigned short) + UTF-8のバイト列 (名称は文字列プール内の位置で参照)
+ * キーはStationIndex#stationKey, StationIndex#busStopKeyと同じです。
+ *
+ * StationCode.dbをデータベース領域にコピーする必要が無く、ページキャッシュは
+ * プロセス間で共有されます。検索は二分探索で、名称の文字列のみヒープを確保します。
+ * 読み出し専用のため、複数のスレッドから同時に使用できます。
+ * </pre>
+ */
+public final class StationTable {
+    /** assets内のファイル名 (圧縮せずに格納する必要があります) */
+    public static final String ASSET_NAME = "stations.bin";
+    /** ファイルの先頭のマジック ("STN1") */
+    public static final int MAGIC = StationTableWriter.MAGIC;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int STATION_SIZE = 16;
+    private static final int BUS_STOP_SIZE = 12;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int stationCount;
+    private final int busStopCount;
+    private final int busStopBase;
+    private final int poolBase;
+
+    /**
+     * assetsの駅コード表をメモリマップで開きます
+     * @param context コンテキストをセット
+     * @return StationTable 駅コード表が戻ります
+     * @throws IOException 駅コード表が無い(または圧縮されている)場合にスローされます
+     */
+    public static StationTable open(Context context) throws IOException {
+        AssetFileDescriptor afd = context.getAssets().openFd(ASSET_NAME);
+        try {
+            FileInputStream in = afd.createInputStream();
+            try {
+                FileChannel channel = in.getChannel();
+                //マップはチャネルを閉じた後も有効
+                return new StationTable(channel.map(FileChannel.MapMode.READ_ONLY
+                        , afd.getStartOffset(), afd.getLength()));
+            } finally {
+                in.close();
+            }
+        } finally {
+            afd.close();
+        }
+    }
+    /**
+     * コンストラクタ
+     * @param buffer 駅コード表の内容をセット
+     * @throws IOException 形式が不正な場合にスローされます
+     */
+    public StationTable(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if ( buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC ) {
+            throw new IOException("invalid station table");
+        }
+        this.stationCount = buffer.getInt(4);
+        this.busStopCount = buffer.getInt(8);
+        this.busStopBase = HEADER_SIZE + this.stationCount * STATION_SIZE;
+        this.poolBase = buffer.getInt(12);
+        if ( this.poolBase != this.busStopBase + this.busStopCount * BUS_STOP_SIZE
+                || this.poolBase > buffer.capacity() ) {
+            throw new IOException("invalid station table");
+        }
+    }
+    /**
+     * 駅名を取得します
+     * @param areaCode 地区コードをセット
+     * @param lineCode 線区コードをセット
+     * @param stationCode 駅順コードをセット
+     * @return String[] 序数0に会社名、1に路線名、2に駅名が戻ります (無い場合はnull)
+     */
+    public String[] getStation(int areaCode, int lineCode, int stationCode) {
+        int i = this.search(HEADER_SIZE, STATION_SIZE, this.stationCount
+                , StationIndex.stationKey(areaCode, lineCode, stationCode));
+        return i >= 0 ? this.getStationAt(i) : null;
+    }
+    /**
+     * 停留所名を取得します
+     * @param lineCode 線区コードをセット
+     * @param stationCode 停留所コードをセット
+     * @return String[] 序数0に会社名、1に停留所名が戻ります (無い場合はnull)
+     */
+    public String[] getBusStop(int lineCode, int stationCode) {
+        int i = this.search(this.busStopBase, BUS_STOP_SIZE, this.busStopCount
+                , StationIndex.busStopKey(lineCode, stationCode));
+        return i >= 0 ? this.getBusStopAt(i) : null;
+    }
+    /**
+     * 駅の件数を取得します
+     * @return int 件数が戻ります
+     */
+    public int getStationCount() {
+        return this.stationCount;
+    }
+    /**
+     * 指定した位置の駅のキーを取得します
+     * @param index 位置をセット
+     * @return int キーが戻ります
+     */
+    public int getStationKey(int index) {
+        return this.buffer.getInt(HEADER_SIZE + index * STATION_SIZE);
+    }
+    /**
+     * 指定した位置の駅名を取得します
+     * @param index 位置をセット
+     * @return String[] 序数0に会社名、1に路線名、2に駅名が戻ります
+     */
+    public String[] getStationAt(int index) {
+        int at = HEADER_SIZE + index * STATION_SIZE;
+        return new String[]{ this.getString(at + 4), this.getString(at + 8), this.getString(at + 12) };
+    }
+    /**
+     * 停留所の件数を取得します
+     * @return int 件数が戻ります
+     */
+    public int getBusStopCount() {
+        return this.busStopCount;
+    }
+    /**
+     * 指定した位置の停留所のキーを取得します
+     * @param index 位置をセット
+     * @return int キーが戻ります
+     */
+    public int getBusStopKey(int index) {
+        return this.buffer.getInt(this.busStopBase + index * BUS_STOP_SIZE);
+    }
+    /**
+     * 指定した位置の停留所名を取得します
+     * @param index 位置をセット
+     * @return String[] 序数0に会社名、1に停留所名が戻ります
+     */
+    public String[] getBusStopAt(int index) {
+        int at = this.busStopBase + index * BUS_STOP_SIZE;
+        return new String[]{ this.getString(at + 4), this.getString(at + 8) };
+    }
+    /**
+     * キーの昇順に並んだレコードを二分探索します
+     * @param base 先頭レコードの位置をセット
+     * @param size レコード長をセット
+     * @param count レコード数をセット
+     * @param key キーをセット
+     * @return int 見つかったレコードの序数が戻ります (無い場合は負数)
+     */
+    private int search(int base, int size, int count, int key) {
+        int low = 0;
+        int high = count - 1;
+        while ( low <= high ) {
+            int mid = (low + high) >>> 1;
+            int k = this.buffer.getInt(base + mid * size);
+            if ( k < key ) {
+                low = mid + 1;
+            } else if ( k > key ) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    /**
+     * 文字列プール内の文字列を取得します
+     * @param at 文字列の位置が格納されている位置をセット
+     * @return String 文字列が戻ります
+     */
+    private String getString(int at) {
+        int offset = this.poolBase + this.buffer.getInt(at);
+        int length = this.buffer.getShort(offset) & 0xffff;
+        byte[] bytes = new byte[length];
+        for ( int i = 0; i < length; i++ ) {
+            bytes[i] = this.buffer.get(offset + 2 + i);
+        }
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.kenfujiyoshi.myapp01.felica.suica;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 駅コード表(StationTable)の形式でファイルを作成するクラスを提供します
+ * <pre>
+ * app/build.gradleのgenerateStationTableタスクがStationCode.dbの行を_idの順に追加して使用します。
+ * ビルド時(buildSrc)にも使用するため、androidのクラスには依存しません。
+ * 同じキーの行は最初に追加したものを優先し、名称は文字列プールで共有します。
+ *
+ *   StationTableWriter writer = new StationTableWriter();
+ *   writer.addStation(areaCode, lineCode, stationCode, company, line, name);
+ *   writer.writeTo(out);
+ * </pre>
+ */
+public final class StationTableWriter {
+    /** ファイルの先頭のマジック ("STN1"、StationTable#MAGICと同じ) */
+    public static final int MAGIC = 0x53544e31;
+
+    private final TreeMap<Integer, int[]> stations = new TreeMap<Integer, int[]>();
+    private final TreeMap<Integer, int[]> busStops = new TreeMap<Integer, int[]>();
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final Map<String, Integer> poolIndex = new HashMap<String, Integer>();
+
+    /**
+     * 駅を追加します
+     * @param areaCode 地区コードをセット
+     * @param lineCode 線区コードをセット
+     * @param stationCode 駅順コードをセット
+     * @param company 会社名をセット (nullは空文字列)
+     * @param line 路線名をセット (nullは空文字列)
+     * @param name 駅名をセット (nullは空文字列)
+     * @return boolean 追加した場合はtrue、同じキーの駅が既にある場合はfalseが戻ります
+     * @throws IOException
+     */
+    public boolean addStation(int areaCode, int lineCode, int stationCode
+            , String company, String line, String name) throws IOException {
+        //キーはStationIndex#stationKeyと同じ
+        int key = ((areaCode & 0xff) << 16) | ((lineCode & 0xff) << 8) | (stationCode & 0xff);
+        if ( this.stations.containsKey(key) ) return false;
+        this.stations.put(key, new int[]{ this.intern(company), this.intern(line), this.intern(name) });
+        return true;
+    }
+    /**
+     * バス停留所を追加します
+     * @param lineCode 線区コードをセット
+     * @param stationCode 停留所コードをセット
+     * @param company 会社名をセット (nullは空文字列)
+     * @param name 停留所名をセット (nullは空文字列)
+     * @return boolean 追加した場合はtrue、同じキーの停留所が既にある場合はfalseが戻ります
+     * @throws IOException
+     */
+    public boolean addBusStop(int lineCode, int stationCode, String company, String name)
+            throws IOException {
+        //キーはStationIndex#busStopKeyと同じ
+        int key = ((lineCode & 0xffff) << 16) | (stationCode & 0xffff);
+        if ( this.busStops.containsKey(key) ) return false;
+        this.busStops.put(key, new int[]{ this.intern(company), this.intern(name) });
+        return true;
+    }
+    /**
+     * 追加した駅の数を取得します
+     * @return int 駅数が戻ります
+     */
+    public int getStationCount() {
+        return this.stations.size();
+    }
+    /**
+     * 追加したバス停留所の数を取得します
+     * @return int 停留所数が戻ります
+     */
+    public int getBusStopCount() {
+        return this.busStops.size();
+    }
+    /**
+     * 駅コード表を書き出します (ストリームは閉じません)
+     * @param os 出力先をセット
+     * @throws IOException
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(this.stations.size());
+        out.writeInt(this.busStops.size());
+        out.writeInt(16 + this.stations.size() * 16 + this.busStops.size() * 12);
+        for ( Map.Entry<Integer, int[]> e : this.stations.entrySet() ) {
+            out.writeInt(e.getKey());
+            for ( int offset : e.getValue() ) out.writeInt(offset);
+        }
+        for ( Map.Entry<Integer, int[]> e : this.busStops.entrySet() ) {
+            out.writeInt(e.getKey());
+            for ( int offset : e.getValue() ) out.writeInt(offset);
+        }
+        this.pool.writeTo(out);
+        out.flush();
+    }
+    /**
+     * 駅コード表をバイト列で取得します
+     * @return byte[] 駅コード表が戻ります
+     * @throws IOException
+     */
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.writeTo(out);
+        return out.toByteArray();
+    }
+    /**
+     * 名称を文字列プールに追加します
+     * @param s 名称をセット
+     * @return int 文字列プール内の位置が戻ります
+     * @throws IOException
+     */
+    private int intern(String s) throws IOException {
+        if ( s == null ) s = "";
+        Integer offset = this.poolIndex.get(s);
+        if ( offset == null ) {
+            offset = this.pool.size();
+            byte[] bytes = s.getBytes("UTF-8");
+            if ( bytes.length > 0xffff ) {
+                throw new IOException("name too long : " + s);
+            }
+            this.pool.write(bytes.length >> 8);
+            this.pool.write(bytes.length & 0xff);
+            this.pool.write(bytes);
+            this.poolIndex.put(s, offset);
+        }
+        return offset;
+    }
+}
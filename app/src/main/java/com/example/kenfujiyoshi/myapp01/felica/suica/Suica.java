@@ -1,22 +1,12 @@
 package com.example.kenfujiyoshi.myapp01.felica.suica;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 
-import nfclib.com.example.kenfujiyoshi.myapp01.util.Util;
-
-import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.COLUMNS_IRUCA_STATIONCODE;
-import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.COLUMNS_STATIONCODE;
-import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.COLUMN_ID;
-import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.TABLE_IRUCA_STATIONCODE;
-import static com.example.kenfujiyoshi.myapp01.felica.suica.DBUtil.TABLE_STATIONCODE;
-
 /**
  * Created by Ken Fujiyoshi on 2014/09/01.
  */
@@ -31,6 +21,7 @@ public class Suica {
      */
     public static class History {
         final byte[] data;
+        final HistoryRecord record;
         Context context;
         /**
          * コンストラクタ
@@ -39,50 +30,58 @@ public class Suica {
          */
         public History(byte[] data, Context context) {
             this.data = data;
+            this.record = new HistoryRecord().wrap(data);
             this.context = context;
         }
+        /**
+         * 履歴のデコーダを取得します
+         * @return HistoryRecord この履歴を指すデコーダが戻ります
+         */
+        public HistoryRecord getRecord() {
+            return this.record;
+        }
+        /**
+         * 履歴の連番を取得します
+         * @return int 連番が戻ります
+         */
+        public int getSequenceNumber() {
+            return this.record.getSequenceNumber();
+        }
         /**
          * 機器種別を取得します
          * @return String 機器種別が戻ります
          */
         public String getConsoleType() {
-            return Suica.getConsoleType(this.data[0]);
+            return Suica.getConsoleType(this.record.getConsoleType());
         }
         /**
          * 処理種別を取得します
          * @return String 処理種別
          */
         public String getProcessType() {
-            return Suica.getProcessType(this.data[1]);
+            return Suica.getProcessType(this.record.getProcessType());
         }
         /**
          * 残高を取得します
          * @return BigDecimal 残高が戻ります
          */
         public long getBalance() {
-            return new Long(Util.toInt(new byte[]{this.data[11], this.data[10]}));
+            return this.record.getBalance();
         }
         /**
          * 処理日付(出場日付)を取得します
          * @return byte[]
          */
         public Date getProccessDate() {
-            int date = Util.toInt(new byte[]{this.data[4], this.data[5]});
-            int yy = date >> 9;
-            int mm = (date >> 5) & 0xf;
-            int dd = date & 0x1f;
             Calendar c = Calendar.getInstance();
-            c.set(Calendar.YEAR, 2000 + yy);
-            c.set(Calendar.MONTH, mm-1);
-            c.set(Calendar.DAY_OF_MONTH, dd);
+            c.set(Calendar.YEAR, this.record.getYear());
+            c.set(Calendar.MONTH, this.record.getMonth() - 1);
+            c.set(Calendar.DAY_OF_MONTH, this.record.getDay());
 
             //物販だったら時間もセット
             if ( this.isProductSales() ) {
-                int time = Util.toInt(new byte[]{this.data[6], this.data[7]});
-                int hh = time >> 11;
-                int min = (time >> 5) & 0x3f;
-                c.set(Calendar.HOUR_OF_DAY, hh);
-                c.set(Calendar.MINUTE, min);
+                c.set(Calendar.HOUR_OF_DAY, this.record.getHour());
+                c.set(Calendar.MINUTE, this.record.getMinute());
             } else {
                 c.set(Calendar.HOUR_OF_DAY, 0);
                 c.set(Calendar.MINUTE, 0);
@@ -98,11 +97,12 @@ public class Suica {
             if (!this.isProductSales()) {
                 if ( this.isByBus() ) {
                     //バス利用の場合
-                    return getBusStop(Util.toInt(new byte[]{this.data[6], this.data[7]})
-                            , Util.toInt(new byte[]{this.data[8], this.data[9]}));
+                    return getBusStop(this.record.getByte(6) << 8 | this.record.getByte(7)
+                            , this.record.getByte(8) << 8 | this.record.getByte(9));
                 } else {
                     //鉄道利用の場合
-                    return getStation(this.data[15], this.data[6], this.data[7]);
+                    return getStation(this.record.getRegionCode()
+                            , this.record.getByte(6), this.record.getByte(7));
                 }
             } else {
                 return new String[]{"", "", ""};
@@ -117,16 +117,38 @@ public class Suica {
             if (!this.isProductSales()) {
                 if ( this.isByBus() ) {
                     //バス利用の場合
-                    return getBusStop(Util.toInt(new byte[]{this.data[6], this.data[7]})
-                            , Util.toInt(new byte[]{this.data[8], this.data[9]}));
+                    return getBusStop(this.record.getByte(6) << 8 | this.record.getByte(7)
+                            , this.record.getByte(8) << 8 | this.record.getByte(9));
                 } else {
                     //鉄道利用の場合
-                    return getStation(this.data[15], this.data[8], this.data[9]);
+                    return getStation(this.record.getRegionCode()
+                            , this.record.getByte(8), this.record.getByte(9));
                 }
             } else {
                 return new String[]{"", "", ""};
             }
         }
+        /**
+         * 入場駅のキー (StationIndex#stationKey)を取得します
+         * @return int キーが戻ります
+         */
+        int getEntranceStationKey() {
+            return this.record.getEntranceStationKey();
+        }
+        /**
+         * 出場駅のキー (StationIndex#stationKey)を取得します
+         * @return int キーが戻ります
+         */
+        int getExitStationKey() {
+            return this.record.getExitStationKey();
+        }
+        /**
+         * バス停留所のキー (StationIndex#busStopKey)を取得します
+         * @return int キーが戻ります
+         */
+        int getBusStopKey() {
+            return this.record.getBusStopKey();
+        }
         /**
          *  地区コード、線区コード、駅順コードから駅名を取得します
          * <pre>http://sourceforge.jp/projects/felicalib/wiki/suicaを参考にしています</pre>
@@ -136,27 +158,8 @@ public class Suica {
          * @return 取得できた場合、序数0に会社名、1に路線名、2に駅名が戻ります
          */
         private String[] getStation(int regionCode, int lineCode, int statioCode) {
-
-            int areaCode = regionCode & 0xff;
-            DBUtil util = new DBUtil(this.context);
-            try {
-                SQLiteDatabase db = util.openDataBase();
-                Cursor c = db.query(TABLE_STATIONCODE
-                        , COLUMNS_STATIONCODE
-                        ,   COLUMNS_STATIONCODE[0] + " = '" + areaCode + "' and "
-                        + COLUMNS_STATIONCODE[1] + " = '" + (lineCode & 0xff) + "' and "
-                        + COLUMNS_STATIONCODE[2] + " = '" + (statioCode & 0xff) + "'"
-                        , null, null, null, COLUMN_ID);
-
-                return ( c.moveToFirst() )
-                        ?  new String[]{ c.getString(3), c.getString(4), c.getString(5)}
-                        :  new String[]{"???", "???", "???"};
-            } catch (Exception e) {
-                e.printStackTrace();
-                return new String[]{"error", "error", "error"};
-            } finally {
-                util.close();
-            }
+            return StationResolver.getInstance(this.context)
+                    .getStation(regionCode, lineCode, statioCode);
         }
         /**
          * パス停留所を取得します
@@ -166,23 +169,7 @@ public class Suica {
          * @return 取得できた場合、序数0に会社名、1停留所名が戻ります
          */
         private String[] getBusStop(int lineCode, int statioCode) {
-            DBUtil util = new DBUtil(this.context);
-            try {
-                SQLiteDatabase db = util.openDataBase();
-                Cursor c = db.query(TABLE_IRUCA_STATIONCODE
-                        , COLUMNS_IRUCA_STATIONCODE
-                        ,   COLUMNS_IRUCA_STATIONCODE[0] + " = '" + lineCode + "' and "
-                        + COLUMNS_IRUCA_STATIONCODE[1] + " = '" + statioCode + "'"
-                        , null, null, null, COLUMN_ID);
-                return ( c.moveToFirst()  )
-                        ?  new String[]{c.getString(2), c.getString(4)}
-                        :  new String[]{"???", "???"};
-            } catch (Exception e) {
-                e.printStackTrace();
-                return new String[]{"error", "error"};
-            } finally {
-                util.close();
-            }
+            return StationResolver.getInstance(this.context).getBusStop(lineCode, statioCode);
         }
 
         /**
@@ -192,7 +179,7 @@ public class Suica {
          */
         public boolean isByBus() {
             //data[0]端末種別が 車載の場合
-            return (this.data[0] & 0xff) == 0x05;
+            return this.record.isByBus();
         }
         /**
          *　端末種別が「物販」か否かを判定します
@@ -201,8 +188,7 @@ public class Suica {
          */
         public boolean isProductSales() {
             //data[0]端末種別が物販又は自販機
-            return (this.data[0] & 0xff) == 0xc7
-                    || (this.data[0] & 0xff) == 0xc8;
+            return this.record.isProductSales();
         }
         /**
          *　処理種別が「チャージ」か否かを判定します (店舗名を取得できるか否かを判定します)
@@ -210,7 +196,7 @@ public class Suica {
          * @return boolean チャージだった場合はtrueが戻ります
          */
         public boolean isCharge() {
-            return ( this.data[1] & 0xff) == 0x02;
+            return this.record.isCharge();
         }
 
         /* (non-Javadoc)
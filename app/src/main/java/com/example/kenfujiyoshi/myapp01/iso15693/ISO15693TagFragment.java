@@ -7,10 +7,11 @@ import android.util.Log;
 
 import com.example.kenfujiyoshi.myapp01.AbstractNfcTagFragment;
 import com.example.kenfujiyoshi.myapp01.R;
+import com.example.kenfujiyoshi.myapp01.task.TagPrefetchCache;
 
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.ISO15693Exception;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.ISO15693Tag;
-import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadMultipleBlocksResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadMultipleBlocksResponse.BlockData;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.SystemInformationResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.MemorySizeInfo;
 import nfclib.com.example.kenfujiyoshi.myapp01.nfc.NfcTag;
@@ -46,15 +47,27 @@ public class ISO15693TagFragment extends AbstractNfcTagFragment {
         return this.createTag();
     }
     /* (non-Javadoc)
-     * @see net.kazzz.NfcTagFragment#dumpTagData()
+     * @see net.kazzz.NfcTagFragment#readTagData()
      */
     @Override
-    public String dumpTagData() {
-        StringBuilder sb = new StringBuilder();
+    public TagData readTagData() {
+        ISO15693Data data = new ISO15693Data();
         try {
+            //タグの検出時に全てのブロックを先読みしていれば通信しない
+            TagPrefetchCache.Entry prefetched = TagPrefetchCache.getInstance().get(mNfcTag);
+            if ( prefetched != null && prefetched.getSystemInformation() != null
+                    && prefetched.getBlocks() != null ) {
+                data.sysInfo = prefetched.getSystemInformation();
+                data.blocks = prefetched.getBlocks();
+                return data;
+            }
+
             // ISO15693Tag
             ISO15693Tag tag = this.createTag();
             if ( tag != null ) {
+                //システム情報の取得から全ブロックの読み込みまで一つの接続で行う
+                tag.openSession();
+                try {
 //                REVISED
 
 // ======BEFORE======
@@ -66,43 +79,81 @@ public class ISO15693TagFragment extends AbstractNfcTagFragment {
 //                sb.append("\n");
 // ============
 
-                //全てのブロックを読む
-                SystemInformationResponse sysInfo = tag.getSystemInformation();
-                if ( sysInfo == null || sysInfo.hasError()) {
-                    throw new ISO15693Exception(
-                            getString(R.string.get_system_info_failed, "ISO15693")
-                                    + sysInfo.getErrorCode());
-                }
+                    //全てのブロックを読む
+                    SystemInformationResponse sysInfo = tag.getSystemInformation();
+                    if ( sysInfo == null || sysInfo.hasError()) {
+                        throw new ISO15693Exception(
+                                getString(R.string.get_system_info_failed, "ISO15693")
+                                        + sysInfo.getErrorCode());
+                    }
 
-                final MemorySizeInfo memInfo = sysInfo.getMemoryInfo();
-                if ( memInfo == null || memInfo.getNumberOfBlocks() == 0) {
-                    throw new ISO15693Exception(getString(R.string.get_memory_size_failed, "ISO15693"));
+                    final MemorySizeInfo memInfo = sysInfo.getMemoryInfo();
+                    if ( memInfo == null ) {
+                        throw new ISO15693Exception(getString(R.string.get_memory_size_failed, "ISO15693"));
+                    }
+                    //最大送信長に収まるブロック数毎に分割して読み込む
+                    //(ダンプの作成はformatで行い、タグI/Oのスレッドでは行わない)
+                    data.blocks = tag.readAllBlocks(null);
+                    data.sysInfo = sysInfo;
+                } finally {
+                    tag.closeSession();
                 }
-                ReadMultipleBlocksResponse resp =
-                        tag.readMultipleBlocks((byte)0, memInfo.getBlockSize(), memInfo.getNumberOfBlocks());
+            } else {
+                data.failed = true;
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return data;
+    }
+    /**
+     * 読み込んだISO15693のデータを保持します (読み込めなかった値はnull)
+     */
+    private class ISO15693Data implements TagData {
+        /** タグを生成できなかったか否か */
+        boolean failed;
+        SystemInformationResponse sysInfo;
+        BlockData[] blocks;
+
+        /* (non-Javadoc)
+         * @see com.example.kenfujiyoshi.myapp01.AbstractNfcTagFragment.TagData#format()
+         */
+        @Override
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            if ( this.failed ) {
+                sb.append(R.string.device_read_failed);
+            } else if ( this.blocks != null ) {
 //                REVISED
 // =======BEFORE=======
 //                sb.append("  " + resp.toString());
 //                sb.append("\n------------------------\n\n");
 // =======AFTER=======
-                sb.append(resp.toString());
-                sb.append("?uid=");
-                sb.append(tag.getSystemInformation().getUID().toId());
+                appendBlocks(sb, this.sysInfo, this.blocks);
 // ==============
                 Log.v("TAG_ID", sb.toString());
-
-            } else {
-                sb.append(R.string.device_read_failed);
             }
-
-        } catch (Exception e) {
             String result = sb.toString();
             Log.d(TAG, result);
-            e.printStackTrace();
             return result;
         }
-        String result = sb.toString();
-        Log.d(TAG, result);
-        return result;
+    }
+    /**
+     * 読み込んだブロックをダンプします
+     * <pre>
+     *  ReadMultipleBlocksResponse#toStringと同じ形式 (最終ブロックは含めない)にUIDを付加します
+     * </pre>
+     * @param sb 結果を追記するStringBuilderをセット
+     * @param sysInfo システム情報をセット
+     * @param blocks 全てのブロックをセット
+     */
+    private static void appendBlocks(StringBuilder sb
+            , SystemInformationResponse sysInfo, BlockData[] blocks) {
+        for ( int i = 0; i < blocks.length - 1; i++ ) {
+            sb.append(blocks[i].toString());
+        }
+        sb.append("?uid=");
+        sb.append(sysInfo.getUID().toId());
     }
 }
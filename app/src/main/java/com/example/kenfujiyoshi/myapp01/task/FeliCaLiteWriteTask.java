@@ -11,10 +11,17 @@ import android.widget.Toast;
 
 import com.example.kenfujiyoshi.myapp01.R;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Arrays;
 
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaException;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaLiteTag;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.WriteResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
 
 /**
  * Created by Ken Fujiyoshi on 2014/09/01.
@@ -24,6 +31,7 @@ public class FeliCaLiteWriteTask extends AsyncTask<Void, Void, String> {
     private Activity mActivity;
     private Tag mNfcTag;
     private ProgressDialog mDialog;
+    private String mErrorMessage;
 
     /**
      * コンストラクタ
@@ -50,29 +58,56 @@ public class FeliCaLiteWriteTask extends AsyncTask<Void, Void, String> {
      */
     @Override
     protected String doInBackground(Void... params) {
+        //タグの検出時にポーリング済みであればIDm、PMmを引き継ぐ
+        TagPrefetchCache.Entry prefetched = TagPrefetchCache.getInstance().get(mNfcTag);
+        IDm prefetchedIDm = prefetched != null
+                ? prefetched.getIDm(FeliCaLib.SYSTEMCODE_FELICA_LITE) : null;
+        //書き込むとタグの内容が変わるため、先読みした内容を破棄しておく
+        TagPrefetchCache.getInstance().invalidate(mNfcTag);
         try {
             // FeliCaLite データ書き出し
             final EditText editWrite = (EditText) mActivity.findViewById(R.id.edit_write);
             final CharSequence cData = editWrite.getText();
-            byte addr = (byte) (((Integer)editWrite.getTag()) & 0xff);
-            FeliCaLiteTag f = new FeliCaLiteTag(mNfcTag);
+            int addr = ((Integer)editWrite.getTag()) & 0xff;
+            if ( addr >= FeliCaLiteTag.SCRATCH_PAD_BLOCKS ) {
+                throw new FeliCaException("スクラッチパッド以外のブロックには書き込めません : " + addr);
+            }
 
-            //データはUTF-8でエンコード
-            Charset utfEncoding = Charset.forName("UTF-8");
-            String result = cData.toString();
-            byte[] textBytes = cData.toString().getBytes(utfEncoding);
+            //選択したブロックから連続するスクラッチパッドへまとめて書き込む
+            //データはUTF-8でエンコードし、収まらない分は文字の区切りで切り捨てる
+            int capacity = (FeliCaLiteTag.SCRATCH_PAD_BLOCKS - addr) * FeliCaLiteTag.BLOCK_SIZE;
+            CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder();
+            CharBuffer in = CharBuffer.wrap(cData);
+            ByteBuffer out = ByteBuffer.allocate(capacity);
+            encoder.encode(in, out, true);
+            String result = cData.subSequence(0, in.position()).toString();
+            byte[] textBytes = Arrays.copyOf(out.array(), out.position());
 
-            if ( f.writeWithoutEncryption(addr, textBytes).getStatusFlag1() == 0 ) {
+            FeliCaLiteTag f = prefetchedIDm != null
+                    ? new FeliCaLiteTag(mNfcTag, prefetchedIDm
+                            , prefetched.getPMm(FeliCaLib.SYSTEMCODE_FELICA_LITE))
+                    : new FeliCaLiteTag(mNfcTag);
+            f.openSession();
+            try {
+                IDm idm = f.getIDm() != null ? f.getIDm() : f.pollingAndGetIDm();
+                if ( idm == null ) {
+                    throw new FeliCaException("FeliCa Lite デバイスからIDmを取得できませんでした");
+                }
+                WriteResponse[] responses = f.writeBlocks(addr, textBytes);
+                for ( WriteResponse r : responses ) {
+                    if ( r == null || r.getStatusFlag1() != 0 ) {
+                        return null;
+                    }
+                }
                 return result;
-            } else {
-                return null;
+            } finally {
+                f.closeSession();
             }
 
         } catch (FeliCaException e) {
             e.printStackTrace();
             Log.e(TAG, "writeData", e);
-            Toast.makeText(mActivity
-                    , "書きこみ失敗 : " + e.getMessage(), Toast.LENGTH_LONG).show();
+            mErrorMessage = e.getMessage();
             return null;
         }
     }
@@ -83,6 +118,10 @@ public class FeliCaLiteWriteTask extends AsyncTask<Void, Void, String> {
     @Override
     protected void onPostExecute(String result) {
         if ( mDialog != null ) mDialog.dismiss();
+        if ( mErrorMessage != null ) {
+            Toast.makeText(mActivity
+                    , "書きこみ失敗 : " + mErrorMessage, Toast.LENGTH_LONG).show();
+        }
         if ( result != null && result.length() > 0) {
             //tv_tag.setText(readData());
             Toast.makeText(mActivity
@@ -61,6 +61,8 @@ public class ISO15693WriteTask extends AsyncTask<Void, Void, String> {
      */
     @Override
     protected String doInBackground(Void... params) {
+        //書き込むとタグの内容が変わるため、先読みした内容を破棄しておく
+        TagPrefetchCache.getInstance().invalidate(mNfcTag);
         if ( mUseNDEF ) {
             return writeNDEF();
         } else {
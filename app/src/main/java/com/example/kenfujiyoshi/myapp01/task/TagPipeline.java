@@ -0,0 +1,243 @@
+package com.example.kenfujiyoshi.myapp01.task;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * タグの読み込みを段階に分けて実行するパイプラインを提供します
+ * <pre>
+ * 検出 → ポーリング/読み込み → デコード → 描画 の各段階を次のスレッドで実行します。
+ *   検出                : 呼び出し元 (UIスレッド、submitの呼び出し)
+ *   ポーリング/読み込み : タグI/O専用のスレッド (Job#read)
+ *   デコード            : デコード用のスレッド (Job#decode)
+ *   描画                : UIスレッド (Job#render)
+ * タグI/Oは1本のスレッドで直列に実行し、各段階の待ち行列は1件だけ保持します。
+ * 新しいジョブを投入すると実行中のジョブは取り消され(割り込み)、以降の段階は実行されません。
+ * 連続してタッチした場合でも、古い読み込みの後ろに並ぶことはありません。
+ * タグの検出直後にprefetchで先読みを投入しておくと、続けて投入したジョブは
+ * 先読みの完了後に同じタグI/Oスレッドで実行されます (タグI/Oの待ち行列は先読みの分を含め2件)。
+ *
+ *   TagPipeline pipeline = new TagPipeline();
+ *   pipeline.submit(new TagPipeline.Job&lt;Block[]&gt;() {
+ *       protected Block[] read() throws Exception { ... }             // タグI/Oスレッド
+ *       protected String decode(Block[] raw) throws Exception { ... } // デコードスレッド
+ *       protected void render(String result) { ... }                  // UIスレッド
+ *   });
+ *
+ * prefetch、submit、cancel、shutdownはUIスレッドから呼び出してください。
+ * </pre>
+ */
+public class TagPipeline {
+    static final String TAG = TagPipeline.class.getSimpleName();
+
+    /**
+     * パイプラインで実行するジョブを提供します
+     *
+     * @param <T> 読み込んだデータの型
+     */
+    public abstract static class Job<T> {
+        /**
+         * 実行を開始する直前に呼び出されます (UIスレッド)
+         */
+        protected void onStart() {
+        }
+        /**
+         * タグをポーリングしてデータを読み込みます (タグI/Oスレッド)
+         * @return T 読み込んだデータが戻ります
+         * @throws Exception
+         */
+        protected abstract T read() throws Exception;
+        /**
+         * 読み込んだデータを表示する文字列にします (デコードスレッド)
+         * @param raw 読み込んだデータをセット
+         * @return String 表示する文字列が戻ります
+         * @throws Exception
+         */
+        protected abstract String decode(T raw) throws Exception;
+        /**
+         * 結果を表示します (UIスレッド)
+         * @param result デコードした文字列がセットされます
+         */
+        protected abstract void render(String result);
+        /**
+         * 読み込みまたはデコードに失敗した場合に呼び出されます (UIスレッド)
+         * @param e 発生した例外がセットされます
+         */
+        protected void onError(Exception e) {
+            Log.e(TAG, e.toString());
+        }
+        /**
+         * 新しいジョブの投入等で取り消された場合に呼び出されます (UIスレッド)
+         */
+        protected void onCancelled() {
+        }
+    }
+
+    private final ThreadPoolExecutor mIoExecutor;
+    private final ThreadPoolExecutor mDecodeExecutor;
+    private final Handler mHandler;
+    /** 投入したジョブの世代 (古い世代の段階は実行しない) */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    private Job<?> mCurrentJob;
+    private Future<?> mCurrentFuture;
+    private Future<?> mPrefetchFuture;
+
+    /**
+     * デフォルトコンストラクタ
+     */
+    public TagPipeline() {
+        mIoExecutor = newStageExecutor("TagIO", 2);
+        mDecodeExecutor = newStageExecutor("TagDecode", 1);
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+    /**
+     * タグの先読みを投入します
+     * <pre>
+     *  実行中(または待機中)のジョブ及び以前の先読みは取り消されます。
+     *  先読みはタグI/Oスレッドで実行され、続けて投入したジョブはその完了後に実行されます
+     * </pre>
+     * @param prefetcher 先読みの処理をセット
+     */
+    public void prefetch(Runnable prefetcher) {
+        this.cancel();
+        if ( mPrefetchFuture != null ) {
+            mPrefetchFuture.cancel(true);
+        }
+        mPrefetchFuture = mIoExecutor.submit(prefetcher);
+    }
+    /**
+     * ジョブを投入します
+     * <pre>
+     *  実行中(または待機中)のジョブは取り消されます
+     * </pre>
+     * @param job ジョブをセット
+     */
+    public <T> void submit(final Job<T> job) {
+        this.cancel();
+        final int generation = mGeneration.incrementAndGet();
+        mCurrentJob = job;
+        job.onStart();
+        mCurrentFuture = mIoExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if ( !isCurrent(generation) ) return;
+                final T raw;
+                try {
+                    raw = job.read();
+                } catch (Exception e) {
+                    postError(job, generation, e);
+                    return;
+                }
+                if ( !isCurrent(generation) ) return;
+                //デコードは別スレッドで行い、タグI/Oスレッドは次のタグのために空けておく
+                mDecodeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if ( !isCurrent(generation) ) return;
+                        final String result;
+                        try {
+                            result = job.decode(raw);
+                        } catch (Exception e) {
+                            postError(job, generation, e);
+                            return;
+                        }
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if ( !isCurrent(generation) ) return;
+                                mCurrentJob = null;
+                                mCurrentFuture = null;
+                                job.render(result);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+    /**
+     * 実行中(または待機中)のジョブを取り消します
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+        if ( mCurrentFuture != null ) {
+            mCurrentFuture.cancel(true);
+            mCurrentFuture = null;
+        }
+        //取り消したジョブは待ち行列に残さない (先読みの後ろを空けておく)
+        mIoExecutor.purge();
+        if ( mCurrentJob != null ) {
+            Job<?> job = mCurrentJob;
+            mCurrentJob = null;
+            job.onCancelled();
+        }
+    }
+    /**
+     * ジョブを取り消し、スレッドを終了します (以降はジョブを投入できません)
+     */
+    public void shutdown() {
+        this.cancel();
+        if ( mPrefetchFuture != null ) {
+            mPrefetchFuture.cancel(true);
+            mPrefetchFuture = null;
+        }
+        mIoExecutor.shutdownNow();
+        mDecodeExecutor.shutdownNow();
+    }
+    /**
+     * 世代が最新か否かを検査します
+     * @param generation 世代をセット
+     * @return boolean 最新の場合trueが戻ります
+     */
+    private boolean isCurrent(int generation) {
+        return mGeneration.get() == generation && !Thread.currentThread().isInterrupted();
+    }
+    /**
+     * 失敗をUIスレッドに通知します (取り消されたジョブには通知しません)
+     * @param job ジョブをセット
+     * @param generation ジョブの世代をセット
+     * @param e 発生した例外をセット
+     */
+    private void postError(final Job<?> job, final int generation, final Exception e) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if ( !isCurrent(generation) ) return;
+                mCurrentJob = null;
+                mCurrentFuture = null;
+                job.onError(e);
+            }
+        });
+    }
+    /**
+     * 段階を実行するエグゼキュータを作成します
+     * <pre>
+     *  1本のスレッドで、待ち行列が溢れた場合は古いものを破棄します
+     * </pre>
+     * @param name スレッド名をセット
+     * @param capacity 待ち行列の件数をセット
+     * @return ThreadPoolExecutor エグゼキュータが戻ります
+     */
+    private static ThreadPoolExecutor newStageExecutor(final String name, int capacity) {
+        return new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS
+                , new ArrayBlockingQueue<Runnable>(capacity)
+                , new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, name);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }
+                , new ThreadPoolExecutor.DiscardOldestPolicy());
+    }
+}
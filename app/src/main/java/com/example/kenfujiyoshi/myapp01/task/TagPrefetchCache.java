@@ -0,0 +1,225 @@
+package com.example.kenfujiyoshi.myapp01.task;
+
+import android.nfc.Tag;
+import android.util.LruCache;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.PMm;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.SystemCode;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadMultipleBlocksResponse.BlockData;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.SystemInformationResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.util.IntObjectMap;
+import nfclib.com.example.kenfujiyoshi.myapp01.util.Util;
+
+/**
+ * タグの検出時に先読み(TagPrefetcher)した結果を保持するキャッシュを提供します
+ * <pre>
+ * タグのID(Tag#getId、8バイト)毎に1件のエントリを保持します。
+ * エントリはタグを検出する度に作り直すため、保持しているのは最後にタッチした時点の内容です。
+ * FeliCaのポーリング結果(IDm、PMm)はシステムコード毎に保持し、1回のタッチで同じシステムコードの
+ * ポーリングを繰り返さないようにします。
+ * 読み込み(readTagData等)や書き込み画面は、エントリに値があればタグへ問い合わせずにそれを使用します。
+ * タグに書き込んだ場合はinvalidateでそのタグのエントリを破棄してください。
+ * 複数のスレッドから同時に使用できます。
+ *
+ *   TagPrefetchCache.Entry e = TagPrefetchCache.getInstance().get(tag);
+ *   if ( e != null &amp;&amp; e.getSystemCodes() != null ) { ... }
+ * </pre>
+ */
+public final class TagPrefetchCache {
+    /** 既定の最大保持件数 */
+    public static final int DEFAULT_MAX_ENTRIES = 8;
+
+    private static final TagPrefetchCache sInstance = new TagPrefetchCache(DEFAULT_MAX_ENTRIES);
+
+    /**
+     * 1枚のタグについて先読みした結果を提供します
+     * <pre>
+     *  値は先読みが済んだものから順にセットされます (未取得の値はnull)
+     * </pre>
+     */
+    public static final class Entry {
+        /** ポーリングの結果 */
+        private static final class Polling {
+            final IDm idm;
+            final PMm pmm;
+            Polling(IDm idm, PMm pmm) {
+                this.idm = idm;
+                this.pmm = pmm;
+            }
+        }
+
+        private volatile Boolean mFeliCaLite;
+        /** システムコード毎のポーリングの結果 (Entryのロックで保護) */
+        private final IntObjectMap<Polling> mPollings = new IntObjectMap<Polling>(4);
+        private volatile SystemCode[] mSystemCodes;
+        private volatile SystemInformationResponse mSystemInformation;
+        private volatile BlockData[] mBlocks;
+
+        /**
+         * FeliCa Liteか否かを取得します
+         * @return Boolean FeliCa Liteの場合TRUEが戻ります (判定していない場合はnull)
+         */
+        public Boolean isFeliCaLite() {
+            return mFeliCaLite;
+        }
+        /**
+         * FeliCa Liteか否かをセットします
+         * @param feliCaLite FeliCa Liteの場合trueをセット
+         */
+        public void setFeliCaLite(boolean feliCaLite) {
+            mFeliCaLite = feliCaLite;
+        }
+        /**
+         * ポーリングで取得したIDmを取得します
+         * @param systemCode ポーリングしたシステムコードをセット
+         * @return IDm IDmが戻ります (ポーリングしていない場合はnull)
+         */
+        public synchronized IDm getIDm(int systemCode) {
+            Polling p = mPollings.get(systemCode);
+            return p != null ? p.idm : null;
+        }
+        /**
+         * ポーリングで取得したPMmを取得します
+         * @param systemCode ポーリングしたシステムコードをセット
+         * @return PMm PMmが戻ります (ポーリングしていない場合はnull)
+         */
+        public synchronized PMm getPMm(int systemCode) {
+            Polling p = mPollings.get(systemCode);
+            return p != null ? p.pmm : null;
+        }
+        /**
+         * ポーリングで取得したIDm、PMmをセットします
+         * @param systemCode ポーリングしたシステムコードをセット
+         * @param idm IDmをセット
+         * @param pmm PMmをセット
+         */
+        public synchronized void setPolling(int systemCode, IDm idm, PMm pmm) {
+            mPollings.put(systemCode, new Polling(idm, pmm));
+        }
+        /**
+         * FeliCaのシステムコードの一覧を取得します
+         * @return SystemCode[] システムコードの一覧が戻ります (取得していない場合はnull)
+         */
+        public SystemCode[] getSystemCodes() {
+            return mSystemCodes;
+        }
+        /**
+         * FeliCaのシステムコードの一覧をセットします
+         * @param systemCodes システムコードの一覧をセット
+         */
+        public void setSystemCodes(SystemCode[] systemCodes) {
+            mSystemCodes = systemCodes;
+        }
+        /**
+         * ISO15693のシステム情報を取得します
+         * @return SystemInformationResponse システム情報が戻ります (取得していない場合はnull)
+         */
+        public SystemInformationResponse getSystemInformation() {
+            return mSystemInformation;
+        }
+        /**
+         * ISO15693のシステム情報をセットします
+         * @param sysInfo システム情報をセット
+         */
+        public void setSystemInformation(SystemInformationResponse sysInfo) {
+            mSystemInformation = sysInfo;
+        }
+        /**
+         * ISO15693の全てのブロックを取得します
+         * @return BlockData[] ブロックが戻ります (取得していない場合はnull)
+         */
+        public BlockData[] getBlocks() {
+            return mBlocks;
+        }
+        /**
+         * ISO15693の全てのブロックをセットします
+         * @param blocks ブロックをセット
+         */
+        public void setBlocks(BlockData[] blocks) {
+            mBlocks = blocks;
+        }
+    }
+
+    private final LruCache<Long, Entry> mCache;
+
+    /**
+     * プロセス内で共有するキャッシュを取得します
+     * @return TagPrefetchCache 共有キャッシュが戻ります
+     */
+    public static TagPrefetchCache getInstance() {
+        return sInstance;
+    }
+    /**
+     * コンストラクタ
+     * @param maxEntries 最大保持件数をセット
+     */
+    public TagPrefetchCache(int maxEntries) {
+        if ( maxEntries <= 0 ) {
+            throw new IllegalArgumentException("maxEntries <= 0");
+        }
+        mCache = new LruCache<Long, Entry>(maxEntries);
+    }
+    /**
+     * タグの新しいエントリを作成します (以前のエントリは破棄します)
+     * @param tag 検出したタグをセット
+     * @return Entry 空のエントリが戻ります (IDが8バイトでないタグは保持せずnull)
+     */
+    public synchronized Entry begin(Tag tag) {
+        Long key = getKey(tag);
+        if ( key == null ) return null;
+        Entry entry = new Entry();
+        mCache.put(key, entry);
+        return entry;
+    }
+    /**
+     * タグのエントリを取得します (無い場合は空のエントリを作成します)
+     * <pre>
+     *  先読みせずにタグを読み込む場合も、分類やポーリングの結果をタッチの間で共有するために使用します
+     * </pre>
+     * @param tag タグをセット
+     * @return Entry エントリが戻ります (IDが8バイトでないタグは保持せずnull)
+     */
+    public synchronized Entry obtain(Tag tag) {
+        Long key = getKey(tag);
+        if ( key == null ) return null;
+        Entry entry = mCache.get(key);
+        if ( entry == null ) {
+            entry = new Entry();
+            mCache.put(key, entry);
+        }
+        return entry;
+    }
+    /**
+     * タグのエントリを取得します
+     * @param tag タグをセット
+     * @return Entry エントリが戻ります (無い場合はnull)
+     */
+    public Entry get(Tag tag) {
+        Long key = getKey(tag);
+        return key != null ? mCache.get(key) : null;
+    }
+    /**
+     * タグのエントリを破棄します (タグに書き込んだ場合に呼び出します)
+     * @param tag タグをセット
+     */
+    public void invalidate(Tag tag) {
+        Long key = getKey(tag);
+        if ( key != null ) mCache.remove(key);
+    }
+    /**
+     * 全てのエントリを破棄します
+     */
+    public void clear() {
+        mCache.evictAll();
+    }
+    /**
+     * タグのキーを取得します
+     * @param tag タグをセット
+     * @return Long IDを64ビットの値にしたキーが戻ります (IDが8バイトでない場合はnull)
+     */
+    private static Long getKey(Tag tag) {
+        byte[] id = tag != null ? tag.getId() : null;
+        return id != null && id.length == 8 ? Util.toLong(id, 0) : null;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.kenfujiyoshi.myapp01.task;
+
+import android.nfc.Tag;
+import android.nfc.tech.NfcF;
+import android.nfc.tech.NfcV;
+import android.util.Log;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaException;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaTag;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.ISO15693Exception;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.ISO15693Tag;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.SystemInformationResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.util.ArrayUtil;
+
+/**
+ * タグの検出直後に、次に必要になる可能性の高い読み込みを先に実行する処理を提供します
+ * <pre>
+ * FeliCa   : FeliCa Liteか否かの判定、ポーリング(IDm, PMm)、システムコードの一覧
+ * ISO15693 : システム情報、全てのブロック
+ * 結果はTagPrefetchCacheのエントリに取得できたものから順にセットします。
+ * タグI/Oのスレッド(TagPipeline#prefetch)で実行し、読み込みのジョブより先に完了します。
+ * 割り込まれた(新しいタグを検出した)場合は残りの読み込みを行いません。
+ * </pre>
+ */
+public class TagPrefetcher implements Runnable {
+    static final String TAG = TagPrefetcher.class.getSimpleName();
+
+    private final Tag mNfcTag;
+    private final TagPrefetchCache.Entry mEntry;
+
+    /**
+     * コンストラクタ
+     * <pre>
+     *  結果はタグの検出時(AbstractNfcTagFragment#onNewIntent)に作り直したエントリにセットします
+     * </pre>
+     * @param nfcTag 検出したタグをセット
+     */
+    public TagPrefetcher(Tag nfcTag) {
+        mNfcTag = nfcTag;
+        mEntry = TagPrefetchCache.getInstance().obtain(nfcTag);
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        if ( mEntry == null ) return;
+        String[] techs = mNfcTag.getTechList();
+        try {
+            if ( ArrayUtil.contains(techs, NfcF.class.getName()) ) {
+                this.prefetchFeliCa();
+            } else if ( ArrayUtil.contains(techs, NfcV.class.getName()) ) {
+                this.prefetchISO15693();
+            }
+        } catch (Exception e) {
+            //先読みの失敗は読み込み時に改めて検出されるため、ここでは記録のみ
+            Log.d(TAG, "prefetch failed : " + e.toString());
+        }
+    }
+    /**
+     * FeliCaを先読みします
+     * @throws FeliCaException
+     */
+    private void prefetchFeliCa() throws FeliCaException {
+        FeliCaTag ft = new FeliCaTag(mNfcTag);
+        ft.openSession();
+        try {
+            IDm liteIDm;
+            try {
+                liteIDm = ft.pollingAndGetIDm(FeliCaLib.SYSTEMCODE_FELICA_LITE);
+            } catch (FeliCaException e) {
+                liteIDm = null;
+            }
+            mEntry.setFeliCaLite(liteIDm != null);
+            if ( liteIDm != null ) {
+                mEntry.setPolling(FeliCaLib.SYSTEMCODE_FELICA_LITE, liteIDm, ft.getPMm());
+                return;
+            }
+            if ( Thread.currentThread().isInterrupted() ) return;
+
+            IDm idm = ft.pollingAndGetIDm(FeliCaLib.SYSTEMCODE_ANY);
+            if ( idm == null ) return;
+            mEntry.setPolling(FeliCaLib.SYSTEMCODE_ANY, idm, ft.getPMm());
+            if ( Thread.currentThread().isInterrupted() ) return;
+
+            mEntry.setSystemCodes(ft.getSystemCodeList());
+        } finally {
+            ft.closeSession();
+        }
+    }
+    /**
+     * ISO15693を先読みします
+     * @throws ISO15693Exception
+     */
+    private void prefetchISO15693() throws ISO15693Exception {
+        ISO15693Tag tag = new ISO15693Tag(mNfcTag);
+        tag.openSession();
+        try {
+            SystemInformationResponse sysInfo = tag.getSystemInformation();
+            if ( sysInfo == null || sysInfo.hasError() || sysInfo.getMemoryInfo() == null ) return;
+            mEntry.setSystemInformation(sysInfo);
+            if ( Thread.currentThread().isInterrupted() ) return;
+
+            mEntry.setBlocks(tag.readAllBlocks(null));
+        } finally {
+            tag.closeSession();
+        }
+    }
+}
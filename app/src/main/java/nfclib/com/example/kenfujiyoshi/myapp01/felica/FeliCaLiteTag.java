@@ -16,22 +16,29 @@ import android.os.Parcel;
 import android.os.Parcelable;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.PollingResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.ReadResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.WriteResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.BlockListElement;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.CommandPacket;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.CommandResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaSession;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.MemoryConfigurationBlock;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.PMm;
 import nfclib.com.example.kenfujiyoshi.myapp01.nfc.NfcTag;
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver;
 
 import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_POLLING;
 import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_READ_WO_ENCRYPTION;
 import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_WRITE_WO_ENCRYPTION;
 import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.SERVICE_FELICA_LITE_READONLY;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_BLOCK_COUNT;
 import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.SERVICE_FELICA_LITE_READWRITE;
 import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.SYSTEMCODE_FELICA_LITE;
 
@@ -60,6 +67,18 @@ public class FeliCaLiteTag extends NfcTag {
     protected Tag nfcTag;
     protected IDm idm;
     protected PMm pmm;
+    /** スクラッチパッド(S_PAD0～S_PAD13)のブロック数 */
+    public static final int SCRATCH_PAD_BLOCKS = 14;
+    /** 1ブロックのバイト数 */
+    public static final int BLOCK_SIZE = 16;
+    /** 一度のWrite Without Encryptionで書き込むブロック数の既定値 (FeliCa Liteの仕様では1ブロック) */
+    public static final int DEFAULT_MAX_WRITE_BLOCKS = 1;
+    /** 一度のWrite Without Encryptionで書き込めるブロック数の上限 (コマンドが255バイトに収まる最大数) */
+    public static final int MAX_WRITE_BLOCKS = 13;
+
+    protected FeliCaSession session;
+    protected Transceiver transceiver;
+    protected int maxWriteBlocks = DEFAULT_MAX_WRITE_BLOCKS;
     /**
      * コンストラクタ
      * @param in 入力するパーセル化オブジェクトをセット
@@ -87,6 +106,16 @@ public class FeliCaLiteTag extends NfcTag {
         this.idm = idm;
         this.pmm = pmm;
     }
+    /**
+     * コンストラクタ
+     * <pre>
+     *  android.nfc.Tagを使わず、指定したTransceiverでコマンドを送受信します (模擬カード等)
+     * </pre>
+     * @param transceiver コマンドを送受信するTransceiverをセット
+     */
+    public FeliCaLiteTag(Transceiver transceiver) {
+        this.transceiver = transceiver;
+    }
 
 
     /* (non-Javadoc)
@@ -115,7 +144,7 @@ public class FeliCaLiteTag extends NfcTag {
      * @throws FeliCaException
      */
     public byte[] polling() throws FeliCaException {
-        if ( this.nfcTag == null ) {
+        if ( this.nfcTag == null && this.transceiver == null ) {
             throw new FeliCaException("tagService is null. no polling execution");
         }
         CommandPacket polling =
@@ -124,7 +153,7 @@ public class FeliCaLiteTag extends NfcTag {
                     , (byte) (SYSTEMCODE_FELICA_LITE & 0xff)
                     , (byte) 0x01                           //　システムコードリクエスト
                     , (byte) 0x00});                        // タイムスロット};
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, polling);
+        CommandResponse r = this.execute(polling);
         PollingResponse pr = new PollingResponse(r);
         this.idm = pr.getIDm();
         this.pmm = pr.getPMm();
@@ -176,7 +205,7 @@ public class FeliCaLiteTag extends NfcTag {
      * @throws FeliCaException
      */
     public ReadResponse readWithoutEncryption(byte addr) throws FeliCaException {
-        if ( this.nfcTag == null ) {
+        if ( this.nfcTag == null && this.transceiver == null ) {
             throw new FeliCaException("tagService is null. no read execution");
         }
         // read without encryption
@@ -187,7 +216,7 @@ public class FeliCaLiteTag extends NfcTag {
                     , (byte) (SERVICE_FELICA_LITE_READONLY & 0xff)
                     , (byte) 0x01                 // 同時読み込みブロック数
                     , (byte) 0x80, addr });       // ブロックリスト
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, readWoEncrypt);
+        CommandResponse r = this.execute(readWoEncrypt);
         return (r.getBytes() != null ? new ReadResponse(r) : null);
     }
     /**
@@ -199,7 +228,7 @@ public class FeliCaLiteTag extends NfcTag {
      * @throws FeliCaException
      */
     public WriteResponse writeWithoutEncryption(byte addr, byte[] buff) throws FeliCaException {
-        if ( this.nfcTag == null ) {
+        if ( this.nfcTag == null && this.transceiver == null ) {
             throw new FeliCaException("tagService is null. no write execution");
         }
         // write without encryption
@@ -215,9 +244,194 @@ public class FeliCaLiteTag extends NfcTag {
 
         CommandPacket writeWoEncrypt =
             new CommandPacket(COMMAND_WRITE_WO_ENCRYPTION, idm, b.array());
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, writeWoEncrypt);
+        CommandResponse r = this.execute(writeWoEncrypt);
+        return (r.getBytes() != null ? new WriteResponse(r) : null);
+    }
+    /**
+     * 認証不要領域の複数ブロックを一度のコマンドで書き込みます
+     *
+     * @param addrs データをセットするブロックのアドレス(0オリジン)をセット
+     * @param blocks 書きこむデータをセット (ブロック毎に16バイト、不足分は0で埋めます)
+     * @return WriteResponse 書き込んだ結果のレスポンスオブジェクトが戻ります
+     * @throws FeliCaException
+     */
+    public WriteResponse writeWithoutEncryption(int[] addrs, byte[][] blocks) throws FeliCaException {
+        if ( this.nfcTag == null && this.transceiver == null ) {
+            throw new FeliCaException("tagService is null. no write execution");
+        }
+        if ( addrs.length < 1 || addrs.length > MAX_WRITE_BLOCKS
+                || addrs.length != blocks.length ) {
+            throw new FeliCaException("illegal number of blocks : " + addrs.length);
+        }
+        // write without encryption
+        ByteBuffer b =  ByteBuffer.allocate(4 + addrs.length * (2 + BLOCK_SIZE));
+        b.put(new byte[]{
+                  (byte) 0x01                                  // Number of Service
+                , (byte) (SERVICE_FELICA_LITE_READWRITE >> 8)  //サービスコード: リード/ライト
+                , (byte) (SERVICE_FELICA_LITE_READWRITE & 0xff)
+                , (byte) addrs.length                          // 同時書き込みブロック数
+                });
+        for ( int addr : addrs ) {
+            b.put(new BlockListElement(0, addr).getBytes()); // ブロックリスト
+        }
+        for ( byte[] data : blocks ) {
+            b.put(data, 0, Math.min(data.length, BLOCK_SIZE)); //書き出すデータ (1ブロック16バイト)
+            for ( int i = data.length; i < BLOCK_SIZE; i++ ) b.put((byte) 0);
+        }
+        CommandPacket writeWoEncrypt =
+            new CommandPacket(COMMAND_WRITE_WO_ENCRYPTION, idm
+                , Arrays.copyOfRange(b.array(), 0, b.position()));
+        CommandResponse r = this.execute(writeWoEncrypt);
         return (r.getBytes() != null ? new WriteResponse(r) : null);
     }
+    /**
+     * データを連続したスクラッチパッドのブロックに分割して書き込みます
+     * <pre>
+     *  MCブロックを読み込み、書き込み可能なブロックだけをgetMaxWriteBlocksのブロック数毎に
+     *  まとめて書き込みます。
+     *  同時書き込みブロック数の既定値はFeliCa Liteの仕様どおり1ブロックです。
+     *  setMaxWriteBlocksで増やした場合にブロック数異常(0xA2)が応答されると、
+     *  このインスタンスの同時書き込みブロック数を1にして再試行します。
+     *  その他のエラーの場合は該当範囲を1ブロックずつ書き込み、ブロック毎の結果を返します
+     * </pre>
+     * @param firstBlock 書き込む先頭ブロックのアドレス (0～13)をセット
+     * @param payload 書き込むデータをセット (16バイト毎に分割し、最後のブロックは0で埋めます)
+     * @return WriteResponse[] ブロック毎の書き込み結果が戻ります
+     *          (書き込み不可のブロックや、タグを見失って書き込めなかったブロックはnull)
+     * @throws FeliCaException
+     */
+    public WriteResponse[] writeBlocks(int firstBlock, byte[] payload) throws FeliCaException {
+        int count = (payload.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if ( count == 0 ) count = 1;
+        if ( firstBlock < 0 || firstBlock + count > SCRATCH_PAD_BLOCKS ) {
+            throw new FeliCaException("payload exceeds scratch pad : block "
+                    + firstBlock + " + " + count);
+        }
+        MemoryConfigurationBlock mc = this.getMemoryConfigBlock();
+        if ( mc == null ) {
+            throw new FeliCaException("can't read MemoryConfigurationBlock");
+        }
+        WriteResponse[] result = new WriteResponse[count];
+        List<Integer> writable = new ArrayList<Integer>(count);
+        for ( int i = 0; i < count; i++ ) {
+            if ( mc.isWritable(firstBlock + i) ) writable.add(i);
+        }
+        int pos = 0;
+        while ( pos < writable.size() ) {
+            int n = Math.min(writable.size() - pos, this.maxWriteBlocks);
+            int[] addrs = new int[n];
+            byte[][] blocks = new byte[n][];
+            for ( int k = 0; k < n; k++ ) {
+                int i = writable.get(pos + k);
+                addrs[k] = firstBlock + i;
+                blocks[k] = Arrays.copyOfRange(payload
+                        , Math.min(i * BLOCK_SIZE, payload.length)
+                        , Math.min((i + 1) * BLOCK_SIZE, payload.length));
+            }
+            WriteResponse r = this.writeWithoutEncryption(addrs, blocks);
+            if ( r == null ) break; // Tag Lost
+            if ( r.getStatusFlag1() == 0 ) {
+                for ( int k = 0; k < n; k++ ) result[writable.get(pos + k)] = r;
+            } else if ( n > 1
+                    && (r.getStatusFlag2() & 0xff) == STATUSFLAG2_ERROR_BLOCK_COUNT ) {
+                this.maxWriteBlocks = 1;
+                continue;
+            } else if ( n > 1 ) {
+                // 1ブロックずつ書き込んでブロック毎の結果を得る
+                for ( int k = 0; k < n; k++ ) {
+                    WriteResponse r1 = this.writeWithoutEncryption(
+                            new int[]{ addrs[k] }, new byte[][]{ blocks[k] });
+                    if ( r1 == null ) return result; // Tag Lost
+                    result[writable.get(pos + k)] = r1;
+                }
+            } else {
+                result[writable.get(pos)] = r;
+            }
+            pos += n;
+        }
+        return result;
+    }
+    /**
+     * 一度のコマンドで書き込むブロック数の上限を取得します
+     * @return int 同時書き込みブロック数が戻ります
+     */
+    public int getMaxWriteBlocks() {
+        return this.maxWriteBlocks;
+    }
+    /**
+     * 一度のコマンドで書き込むブロック数の上限をセットします
+     * <pre>
+     *  複数ブロックの同時書き込みを受け付ける互換カードを使用する場合に増やします。
+     *  ブロック数異常を検出すると1に戻ります
+     * </pre>
+     * @param maxWriteBlocks 同時書き込みブロック数 (1～13)をセット
+     */
+    public void setMaxWriteBlocks(int maxWriteBlocks) {
+        checkMaxWriteBlocks(maxWriteBlocks);
+        this.maxWriteBlocks = maxWriteBlocks;
+    }
+    /**
+     * 同時書き込みブロック数の範囲を検査します
+     * @param maxWriteBlocks 同時書き込みブロック数をセット
+     */
+    private static void checkMaxWriteBlocks(int maxWriteBlocks) {
+        if ( maxWriteBlocks < 1 || maxWriteBlocks > MAX_WRITE_BLOCKS ) {
+            throw new IllegalArgumentException("maxWriteBlocks out of range : " + maxWriteBlocks);
+        }
+    }
+    /**
+     * NFC-Fへの接続を確立し、以降のコマンドをこの接続上で実行します
+     * <pre>
+     *  closeSessionを呼び出すまで接続は保持されます。
+     *  既にセッションが開かれている場合は何もしません
+     * </pre>
+     * @return FeliCaSession 開始したセッションが戻ります (Transceiverを直接使用している場合はnull)
+     * @throws FeliCaException
+     */
+    public FeliCaSession openSession() throws FeliCaException {
+        if ( this.transceiver != null ) {
+            return null; // Transceiverを直接使用している場合はセッション不要
+        }
+        if ( this.nfcTag == null ) {
+            throw new FeliCaException("tagService is null. no session opened");
+        }
+        if ( this.session == null ) {
+            this.session = FeliCaSession.open(this.nfcTag);
+        }
+        return this.session;
+    }
+    /**
+     * 外部で開始したセッションをセットします
+     * @param session セッションをセット (nullをセットするとコマンド毎に接続します)
+     */
+    public void setSession(FeliCaSession session) {
+        this.session = session;
+    }
+    /**
+     * openSessionで開始したセッションを閉じます
+     */
+    public void closeSession() {
+        if ( this.session != null ) {
+            this.session.close();
+            this.session = null;
+        }
+    }
+    /**
+     * コマンドを実行します (セッションまたはTransceiverがある場合はそれを使用します)
+     *
+     * @param commandPacket 実行するコマンドパケットをセット
+     * @return CommandResponse コマンドの実行結果が戻ります
+     * @throws FeliCaException
+     */
+    protected CommandResponse execute(CommandPacket commandPacket) throws FeliCaException {
+        if ( this.session != null ) {
+            return this.session.execute(commandPacket);
+        }
+        if ( this.transceiver != null ) {
+            return FeliCaLib.execute(this.transceiver, commandPacket);
+        }
+        return FeliCaLib.execute(this.nfcTag, commandPacket);
+    }
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
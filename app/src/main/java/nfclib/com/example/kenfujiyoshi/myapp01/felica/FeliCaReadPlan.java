@@ -0,0 +1,240 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.felica;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.BlockListElement;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.Service;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.ServiceCode;
+
+/**
+ * 複数サービス・複数ブロックの読み込み計画を提供します
+ *
+ * <pre>
+ * 読み込みたい (サービスコード, ブロック番号) を登録すると、それらを最小のフレーム数の
+ * Read Without Encryptionコマンドに割り当てます。
+ * 1フレームに含めるブロック数は同時読み込みブロック数以下、サービス数は16以下です。
+ * ブロックはサービス毎にまとめて割り当てるため、フレーム内のサービス数は最小になります。
+ *
+ *   FeliCaReadPlan plan = new FeliCaReadPlan();
+ *   plan.addRange(FeliCaLib.SERVICE_SUICA_HISTORY, 0, 20);
+ *   plan.addRange(FeliCaLib.SERVICE_SUICA_INOUT, 0, 3);
+ *   Map&lt;Integer, Block[]&gt; result = felicaTag.readBlocks(plan);
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public class FeliCaReadPlan {
+    /** 1フレームに含めることができるサービス数の上限 */
+    public static final int MAX_SERVICES_PER_FRAME = 16;
+
+    private final Map<Integer, List<Integer>> blocks = new LinkedHashMap<Integer, List<Integer>>();
+
+    /**
+     * 読み込むブロックを登録します
+     *
+     * @param serviceCode サービスコード (FeliCaLib.SERVICE_xxx)をセット
+     * @param blockNumbers ブロック番号 (0～65535)をセット
+     */
+    public void add(int serviceCode, int... blockNumbers) {
+        List<Integer> list = this.getList(serviceCode);
+        for ( int b : blockNumbers ) {
+            if ( b < 0 || b > 0xffff ) {
+                throw new IllegalArgumentException("block number out of range : " + b);
+            }
+            list.add(b);
+        }
+    }
+    /**
+     * 連続したブロックを登録します
+     *
+     * @param serviceCode サービスコード (FeliCaLib.SERVICE_xxx)をセット
+     * @param firstBlock 先頭ブロックの番号 (0オリジン)をセット
+     * @param numberOfBlocks ブロック数をセット
+     */
+    public void addRange(int serviceCode, int firstBlock, int numberOfBlocks) {
+        if ( firstBlock < 0 || numberOfBlocks < 0 || firstBlock + numberOfBlocks > 0x10000 ) {
+            throw new IllegalArgumentException("block range out of range : "
+                    + firstBlock + "+" + numberOfBlocks);
+        }
+        List<Integer> list = this.getList(serviceCode);
+        for ( int i = 0; i < numberOfBlocks; i++ ) {
+            list.add(firstBlock + i);
+        }
+    }
+    /**
+     * 登録されたサービスコードを登録順で取得します
+     * @return Set&lt;Integer&gt; サービスコードの集合が戻ります
+     */
+    public Set<Integer> getServiceCodes() {
+        return Collections.unmodifiableSet(this.blocks.keySet());
+    }
+    /**
+     * 登録されたブロックの総数を取得します
+     * @return int ブロック数が戻ります
+     */
+    public int size() {
+        int size = 0;
+        for ( List<Integer> list : this.blocks.values() ) {
+            size += list.size();
+        }
+        return size;
+    }
+    /**
+     * 登録されたブロックをフレームに割り当てます
+     *
+     * @param maxBlocks 1フレームで読み込むブロック数の上限をセット
+     * @return List&lt;Frame&gt; 送信するフレームのリストが戻ります
+     */
+    public List<Frame> getFrames(int maxBlocks) {
+        return this.getFrames(maxBlocks, 0, Collections.<Integer>emptySet());
+    }
+    /**
+     * 登録されたブロックのうち、指定した位置以降をフレームに割り当てます
+     *
+     * @param maxBlocks 1フレームで読み込むブロック数の上限をセット
+     * @param fromIndex 割り当てを開始する位置 (登録したブロック全体での通し番号)をセット
+     * @param excludes 割り当てから除外するサービスコードをセット
+     * @return List&lt;Frame&gt; 送信するフレームのリストが戻ります
+     */
+    List<Frame> getFrames(int maxBlocks, int fromIndex, Set<Integer> excludes) {
+        if ( maxBlocks < 1 ) {
+            throw new IllegalArgumentException("maxBlocks must be positive : " + maxBlocks);
+        }
+        List<Frame> frames = new ArrayList<Frame>();
+        Frame current = null;
+        int index = 0;
+        for ( Map.Entry<Integer, List<Integer>> e : this.blocks.entrySet() ) {
+            int serviceCode = e.getKey();
+            for ( int blockNumber : e.getValue() ) {
+                if ( index++ < fromIndex || excludes.contains(serviceCode) ) continue;
+                if ( current == null || current.size() >= maxBlocks
+                        || (!current.serviceCodes.contains(serviceCode)
+                                && current.serviceCodes.size() >= MAX_SERVICES_PER_FRAME) ) {
+                    current = new Frame(index - 1);
+                    frames.add(current);
+                }
+                current.add(serviceCode, blockNumber);
+            }
+        }
+        return frames;
+    }
+    /**
+     * サービスコードに対応するブロック番号のリストを取得します (無い場合は作成します)
+     * @param serviceCode サービスコードをセット
+     * @return List&lt;Integer&gt; ブロック番号のリストが戻ります
+     */
+    private List<Integer> getList(int serviceCode) {
+        List<Integer> list = this.blocks.get(serviceCode);
+        if ( list == null ) {
+            list = new ArrayList<Integer>();
+            this.blocks.put(serviceCode, list);
+        }
+        return list;
+    }
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("FeliCaReadPlan \n");
+        for ( Map.Entry<Integer, List<Integer>> e : this.blocks.entrySet() ) {
+            sb.append("  サービスコード: ").append(Integer.toHexString(e.getKey()))
+              .append(" ブロック: ").append(e.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 1回のRead Without Encryptionコマンドで読み込むブロックの組を提供します
+     *
+     * @since Android API Level 10
+     */
+    public static class Frame {
+        final int firstIndex;
+        final List<Integer> serviceCodes = new ArrayList<Integer>();
+        final List<int[]> elements = new ArrayList<int[]>(); // {serviceCode, blockNumber}
+        /**
+         * コンストラクタ
+         * @param firstIndex 先頭ブロックの通し番号をセット
+         */
+        Frame(int firstIndex) {
+            this.firstIndex = firstIndex;
+        }
+        /**
+         * ブロックを追加します
+         * @param serviceCode サービスコードをセット
+         * @param blockNumber ブロック番号をセット
+         */
+        void add(int serviceCode, int blockNumber) {
+            if ( !this.serviceCodes.contains(serviceCode) ) {
+                this.serviceCodes.add(serviceCode);
+            }
+            this.elements.add(new int[]{ serviceCode, blockNumber });
+        }
+        /**
+         * 先頭ブロックの通し番号を取得します
+         * @return int 通し番号が戻ります
+         */
+        public int getFirstIndex() {
+            return this.firstIndex;
+        }
+        /**
+         * フレームに含まれるブロック数を取得します
+         * @return int ブロック数が戻ります
+         */
+        public int size() {
+            return this.elements.size();
+        }
+        /**
+         * 指定した位置のブロックのサービスコードを取得します
+         * @param index フレーム内の位置をセット
+         * @return int サービスコードが戻ります
+         */
+        public int getServiceCode(int index) {
+            return this.elements.get(index)[0];
+        }
+        /**
+         * 指定した位置のブロックのブロック番号を取得します
+         * @param index フレーム内の位置をセット
+         * @return int ブロック番号が戻ります
+         */
+        public int getBlockNumber(int index) {
+            return this.elements.get(index)[1];
+        }
+        /**
+         * フレームをサービス(サービスコードリストとブロックリスト)として取得します
+         * @return Service サービスが戻ります
+         */
+        public Service getService() {
+            ServiceCode[] codes = new ServiceCode[this.serviceCodes.size()];
+            for ( int i = 0; i < codes.length; i++ ) {
+                codes[i] = new ServiceCode(this.serviceCodes.get(i));
+            }
+            BlockListElement[] list = new BlockListElement[this.elements.size()];
+            for ( int i = 0; i < list.length; i++ ) {
+                int[] e = this.elements.get(i);
+                list[i] = new BlockListElement(this.serviceCodes.indexOf(e[0]), e[1]);
+            }
+            return new Service(codes, list);
+        }
+    }
+}
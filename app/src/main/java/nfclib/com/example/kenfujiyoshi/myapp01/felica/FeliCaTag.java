@@ -18,25 +18,36 @@ import android.os.Parcelable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.PollingResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.ReadResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.WriteResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.Block;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.CommandPacket;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.CommandResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaFrameEncoder;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaSession;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.PMm;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.ServiceCode;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.SystemCode;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.ServiceEnumerationCache;
 import nfclib.com.example.kenfujiyoshi.myapp01.nfc.NfcTag;
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver;
 
-import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_POLLING;
 import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_READ_WO_ENCRYPTION;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_REQUEST_SERVICE;
 import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_REQUEST_SYSTEMCODE;
 import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_SEARCH_SERVICECODE;
 import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_WRITE_WO_ENCRYPTION;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.RESPONSE_REQUEST_SERVICE;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.STATUSFLAG2_ERROR_BLOCK_COUNT;
 
 /**
  * FeliCa仕様に準拠した FeliCaタグクラスを提供します
@@ -63,6 +74,18 @@ public class FeliCaTag extends NfcTag {
     protected Tag nfcTag;
     protected IDm idm;
     protected PMm pmm;
+    /** 一度のRead Without Encryptionで読み込むブロック数の既定値 (応答が255バイトに収まる最大数) */
+    public static final int DEFAULT_MAX_READ_BLOCKS = 15;
+    /** 一度のRequest Serviceで問い合わせるノードの最大数 */
+    public static final int MAX_REQUEST_SERVICE_NODES = 32;
+
+    protected FeliCaSession session;
+    protected Transceiver transceiver;
+    protected int maxReadBlocks = DEFAULT_MAX_READ_BLOCKS;
+    protected FeliCaFrameEncoder encoder;
+    /** 一覧のキャッシュ (getServiceEnumerationCacheで参照します) */
+    protected ServiceEnumerationCache serviceCache;
+    private boolean serviceCacheSet;
     /**
      * コンストラクタ
      * @param in 入力するパーセル化オブジェクトをセット
@@ -90,6 +113,16 @@ public class FeliCaTag extends NfcTag {
         this.idm = idm;
         this.pmm = pmm;
     }
+    /**
+     * コンストラクタ
+     * <pre>
+     *  android.nfc.Tagを使わず、指定したTransceiverでコマンドを送受信します (模擬カード等)
+     * </pre>
+     * @param transceiver コマンドを送受信するTransceiverをセット
+     */
+    public FeliCaTag(Transceiver transceiver) {
+        this.transceiver = transceiver;
+    }
 
 
     /* (non-Javadoc)
@@ -119,17 +152,13 @@ public class FeliCaTag extends NfcTag {
      * @throws FeliCaException
      */
     public byte[] polling(int systemCode) throws FeliCaException {
-        if ( this.nfcTag == null ) {
+        if ( this.nfcTag == null && this.transceiver == null ) {
             throw new FeliCaException("tagService is null. no polling execution");
         }
-        CommandPacket polling =
-            new CommandPacket(COMMAND_POLLING
-                    , new byte[] {
-                      (byte) (systemCode >> 8)  // システムコード
-                    , (byte) (systemCode & 0xff)
-                    , (byte) 0x01              //　システムコードリクエスト
-                    , (byte) 0x00});           // タイムスロット};
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, polling);
+        byte[] polling = this.getEncoder().encodePolling(systemCode
+                    , 0x01    //　システムコードリクエスト
+                    , 0x00);  // タイムスロット
+        CommandResponse r = this.execute(polling);
         PollingResponse pr = new PollingResponse(r);
         this.idm = pr.getIDm();
         this.pmm = pr.getPMm();
@@ -164,14 +193,24 @@ public class FeliCaTag extends NfcTag {
     }
     /**
      * SystemCodeの一覧を取得します。
+     * <pre>
+     *  一覧のキャッシュにこのカード(IDm)の一覧がある場合はカードへ問い合わせずにそれを戻します
+     * </pre>
      *
      * @return SystemCode[] 検出された SystemCodeの一覧を返します。
      * @throws FeliCaException
      */
     public final SystemCode[] getSystemCodeList() throws FeliCaException {
+        ServiceEnumerationCache cache = this.getServiceEnumerationCache();
+        if ( cache != null ) {
+            SystemCode[] cached = cache.getSystemCodes(this.idm);
+            if ( cached != null ) {
+                return cached;
+            }
+        }
         //request systemCode
         CommandPacket reqSystemCode = new CommandPacket(COMMAND_REQUEST_SYSTEMCODE, idm);
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, reqSystemCode);
+        CommandResponse r = this.execute(reqSystemCode);
         byte[] retBytes = r.getBytes();
         if(retBytes == null){
             throw new FeliCaException("Tag Lost");
@@ -182,15 +221,105 @@ public class FeliCaTag extends NfcTag {
         for (int i=0; i < num; i++) {
             retCodeList[i] = new SystemCode(Arrays.copyOfRange(retBytes, 11+i*2, 13+i*2));
         }
+        if ( cache != null ) {
+            cache.putSystemCodes(this.idm, retCodeList);
+        }
         return retCodeList;
     }
     /**
      * Polling済みシステム領域のサービスの一覧を取得します。
+     * <pre>
+     *  一覧のキャッシュにこのカード(IDm)の一覧がある場合は、サービスコードを検索せずにそれを戻します。
+     *  キャッシュが同じ型のカードの一覧を再利用する(ServiceEnumerationCache#setModelReuse)場合は、
+     *  同じ型のカードの一覧のサービスが全て存在することをRequest Serviceで確かめてから戻します
+     *  (一覧に無いサービスがカードにあっても検出しません)
+     * </pre>
      *
      * @return ServiceCode[] 検出された ServiceCodeの配列
      * @throws FeliCaException
      */
     public ServiceCode[] getServiceCodeList() throws FeliCaException {
+        ServiceEnumerationCache cache = this.getServiceEnumerationCache();
+        if ( cache == null ) {
+            return this.searchServiceCodeList();
+        }
+        ServiceCode[] cached = cache.getServiceCodes(this.idm);
+        if ( cached != null ) {
+            return cached;
+        }
+        SystemCode[] systemCodes = null;
+        if ( cache.isModelReuse() && this.pmm != null ) {
+            //システムコードの一覧は1回の通信で取得できるので、同じ型のカードの検索に使う
+            systemCodes = this.getSystemCodeList();
+            cached = cache.getServiceCodes(this.idm, this.pmm, systemCodes);
+            if ( cached != null && this.existsServices(cached) ) {
+                cache.putServiceCodes(this.idm, null, null, cached);
+                return cached;
+            }
+        }
+        ServiceCode[] serviceCodes = this.searchServiceCodeList();
+        cache.putServiceCodes(this.idm, this.pmm, systemCodes, serviceCodes);
+        return serviceCodes;
+    }
+    /**
+     * キャッシュを使わずにPolling済みシステム領域のサービスの一覧を検索し、キャッシュを更新します
+     *
+     * @return ServiceCode[] 検出された ServiceCodeの配列
+     * @throws FeliCaException
+     */
+    public ServiceCode[] refreshServiceCodeList() throws FeliCaException {
+        ServiceCode[] serviceCodes = this.searchServiceCodeList();
+        ServiceEnumerationCache cache = this.getServiceEnumerationCache();
+        if ( cache != null ) {
+            SystemCode[] systemCodes = cache.isModelReuse() && this.pmm != null
+                    ? this.getSystemCodeList() : null;
+            cache.putServiceCodes(this.idm, this.pmm, systemCodes, serviceCodes);
+        }
+        return serviceCodes;
+    }
+    /**
+     * サービスが全てカードに存在するか否かをRequest Serviceで検査します
+     * <pre>
+     *  一度のコマンドでMAX_REQUEST_SERVICE_NODES件まで問い合わせます。
+     *  存在しないサービスの鍵バージョンは0xFFFFが戻ります
+     * </pre>
+     * @param serviceCodes サービスコードの一覧をセット
+     * @return boolean 全て存在する場合はtrueが戻ります
+     * @throws FeliCaException
+     */
+    private boolean existsServices(ServiceCode[] serviceCodes) throws FeliCaException {
+        for ( int from = 0; from < serviceCodes.length; from += MAX_REQUEST_SERVICE_NODES ) {
+            int n = Math.min(MAX_REQUEST_SERVICE_NODES, serviceCodes.length - from);
+            byte[] data = new byte[1 + n * 2];
+            data[0] = (byte) n;
+            for ( int i = 0; i < n; i++ ) {
+                byte[] code = serviceCodes[from + i].getBytes();
+                data[1 + i * 2] = code[0];
+                data[2 + i * 2] = code[1];
+            }
+            CommandResponse r = this.execute(new CommandPacket(COMMAND_REQUEST_SERVICE, idm, data));
+            byte[] bytes = r.getBytes();
+            if ( bytes == null ) {
+                throw new FeliCaException("Tag Lost");
+            }
+            if ( bytes.length < 11 + n * 2 || bytes[1] != RESPONSE_REQUEST_SERVICE ) {
+                return false;
+            }
+            for ( int i = 0; i < n; i++ ) {
+                if ( bytes[11 + i * 2] == (byte) 0xff && bytes[12 + i * 2] == (byte) 0xff ) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+    /**
+     * サービスコードを1件ずつ検索して一覧を取得します (件数分通信します)
+     *
+     * @return ServiceCode[] 検出された ServiceCodeの配列
+     * @throws FeliCaException
+     */
+    private ServiceCode[] searchServiceCodeList() throws FeliCaException {
         int index = 1; // 0番目は root areaなので1オリジンで開始する
         List<ServiceCode> serviceCodeList = new ArrayList<ServiceCode>();
         while (true) {
@@ -215,7 +344,7 @@ public class FeliCaTag extends NfcTag {
         CommandPacket reqServiceCode =
             new CommandPacket(COMMAND_SEARCH_SERVICECODE, idm
                     , new byte[]{(byte)(index & 0xff), (byte)(index >> 8)});
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, reqServiceCode);
+        CommandResponse r = this.execute(reqServiceCode);
         byte[] bytes = r.getBytes();
         if (bytes == null || bytes.length <= 0 || bytes[1] != (byte)0x0b) { // 正常応答かどうか
             throw new FeliCaException("ResponseCode is not 0x0b");
@@ -232,21 +361,185 @@ public class FeliCaTag extends NfcTag {
      */
     public ReadResponse readWithoutEncryption(ServiceCode serviceCode,
             byte addr) throws FeliCaException {
-        if ( this.nfcTag == null ) {
+        if ( this.nfcTag == null && this.transceiver == null ) {
             throw new FeliCaException("tagService is null. no read execution");
         }
         // read without encryption
-        byte[] bytes = serviceCode.getBytes();
-        CommandPacket readWoEncrypt =
-            new CommandPacket(COMMAND_READ_WO_ENCRYPTION, idm
-                ,  new byte[]{(byte) 0x01         // サービス数
-                    , (byte) bytes[0]             // サービスコード (little endian)
-                    , (byte) bytes[1]
-                    , (byte) 0x01                 // 同時読み込みブロック数
-                    , (byte) 0x80, addr });       // ブロックリスト
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, readWoEncrypt);
+        byte[] readWoEncrypt = this.getEncoder()
+                .encodeReadWithoutEncryption(idm, serviceCode, addr & 0xff, 1);
+        CommandResponse r = this.execute(readWoEncrypt);
         return (r.getBytes()!=null ? new ReadResponse(r) : null);
     }
+    /**
+     * 認証不要領域の連続したブロックを一度のコマンドで読み込みます
+     * <pre>
+     *  ブロックリストにはブロック番号が255以下の場合は2バイト、それ以上の場合は
+     *  3バイトのエレメントを使用します。
+     *  カードが同時に読み込めるブロック数を超えた場合、ステータスフラグ2に
+     *  STATUSFLAG2_ERROR_BLOCK_COUNT(0xA2)がセットされた応答が戻ります
+     * </pre>
+     * @param serviceCode サービスコードをセット
+     * @param firstBlock 読み込む先頭ブロックの番号 (0オリジン)をセット
+     * @param numberOfBlocks 読み込むブロック数 (1～15)をセット
+     * @return ReadResponse 読み込んだ結果が戻ります
+     * @throws FeliCaException
+     */
+    public ReadResponse readWithoutEncryption(ServiceCode serviceCode,
+            int firstBlock, int numberOfBlocks) throws FeliCaException {
+        if ( this.nfcTag == null && this.transceiver == null ) {
+            throw new FeliCaException("tagService is null. no read execution");
+        }
+        if ( numberOfBlocks < 1 || numberOfBlocks > DEFAULT_MAX_READ_BLOCKS ) {
+            throw new FeliCaException("numberOfBlocks out of range : " + numberOfBlocks);
+        }
+        if ( firstBlock < 0 || firstBlock + numberOfBlocks > 0x10000 ) {
+            throw new FeliCaException("block number out of range : " + firstBlock);
+        }
+        // read without encryption (フレームはエンコーダのバッファを再利用する)
+        byte[] readWoEncrypt = this.getEncoder()
+                .encodeReadWithoutEncryption(idm, serviceCode, firstBlock, numberOfBlocks);
+        CommandResponse r = this.execute(readWoEncrypt);
+        return (r.getBytes()!=null ? new ReadResponse(r) : null);
+    }
+    /**
+     * 認証不要領域の連続したブロックを、可能な限りまとめて読み込みます
+     * <pre>
+     *  getMaxReadBlocksのブロック数毎に一度のコマンドで読み込みます。
+     *  カードがブロック数異常(0xA2)を応答した場合は同時読み込みブロック数を半分にして
+     *  再試行し、以降もその値を使用します。
+     *  その他のエラーの場合は該当範囲を1ブロックずつ読み込み、読み込めないブロックが
+     *  現れた時点で終了します (履歴のように未使用ブロックがエラーとなる場合に対応)
+     * </pre>
+     * @param serviceCode サービスコードをセット
+     * @param firstBlock 読み込む先頭ブロックの番号 (0オリジン)をセット
+     * @param numberOfBlocks 読み込むブロック数をセット
+     * @return Block[] 読み込めたブロックの配列が戻ります (先頭から連続して読み込めた分のみ)
+     * @throws FeliCaException
+     */
+    public Block[] readBlocks(ServiceCode serviceCode,
+            int firstBlock, int numberOfBlocks) throws FeliCaException {
+        List<Block> result = new ArrayList<Block>(numberOfBlocks);
+        int blockNo = firstBlock;
+        int remain = numberOfBlocks;
+        while ( remain > 0 ) {
+            int count = Math.min(remain, this.maxReadBlocks);
+            ReadResponse r = this.readWithoutEncryption(serviceCode, blockNo, count);
+            if ( r == null ) break; // Tag Lost
+            if ( r.getStatusFlag1() != 0 ) {
+                if ( count > 1
+                        && (r.getStatusFlag2() & 0xff) == STATUSFLAG2_ERROR_BLOCK_COUNT ) {
+                    this.maxReadBlocks = Math.max(1, count / 2);
+                    continue;
+                }
+                // 1ブロックずつ読み込み、読めなくなった時点で終了
+                for ( int i = 0; i < count; i++ ) {
+                    ReadResponse r1 = (count > 1)
+                        ? this.readWithoutEncryption(serviceCode, blockNo + i, 1) : r;
+                    if ( r1 == null || r1.getStatusFlag1() != 0 ) {
+                        return result.toArray(new Block[result.size()]);
+                    }
+                    result.addAll(Arrays.asList(r1.getBlocks()));
+                }
+            } else {
+                Block[] blocks = r.getBlocks();
+                result.addAll(Arrays.asList(blocks));
+                if ( blocks.length < count ) break;
+            }
+            blockNo += count;
+            remain -= count;
+        }
+        return result.toArray(new Block[result.size()]);
+    }
+    /**
+     * 読み込み計画に従い、複数サービスのブロックをまとめて読み込みます
+     * <pre>
+     *  計画は同時読み込みブロック数毎のフレームに割り当てられ、フレーム毎に一度の
+     *  Read Without Encryptionコマンドを実行します。
+     *  ブロック数異常(0xA2)の場合は同時読み込みブロック数を半分にして残りを再計画します。
+     *  その他のエラーの場合はそのフレームのブロックを1ブロックずつ読み込み、
+     *  読み込めなかったサービスは以降の読み込みから除外します
+     * </pre>
+     * @param plan 読み込み計画をセット
+     * @return Map&lt;Integer, Block[]&gt; サービスコード毎に、先頭から連続して読み込めたブロックが戻ります
+     * @throws FeliCaException
+     */
+    public Map<Integer, Block[]> readBlocks(FeliCaReadPlan plan) throws FeliCaException {
+        if ( this.nfcTag == null && this.transceiver == null ) {
+            throw new FeliCaException("tagService is null. no read execution");
+        }
+        Map<Integer, List<Block>> read = new LinkedHashMap<Integer, List<Block>>();
+        for ( Integer serviceCode : plan.getServiceCodes() ) {
+            read.put(serviceCode, new ArrayList<Block>());
+        }
+        Set<Integer> ended = new HashSet<Integer>();
+        List<FeliCaReadPlan.Frame> frames = plan.getFrames(this.maxReadBlocks);
+        int i = 0;
+        frameLoop:
+        while ( i < frames.size() ) {
+            FeliCaReadPlan.Frame frame = frames.get(i);
+            CommandPacket readWoEncrypt =
+                new CommandPacket(COMMAND_READ_WO_ENCRYPTION, idm
+                    , frame.getService().getCommandParameter());
+            CommandResponse cr = this.execute(readWoEncrypt);
+            if ( cr.getBytes() == null ) break; // Tag Lost
+            ReadResponse r = new ReadResponse(cr);
+            if ( r.getStatusFlag1() == 0 ) {
+                Block[] blocks = r.getBlocks();
+                for ( int k = 0; k < frame.size() && k < blocks.length; k++ ) {
+                    read.get(frame.getServiceCode(k)).add(blocks[k]);
+                }
+                i++;
+            } else if ( frame.size() > 1
+                    && (r.getStatusFlag2() & 0xff) == STATUSFLAG2_ERROR_BLOCK_COUNT ) {
+                this.maxReadBlocks = Math.max(1, frame.size() / 2);
+                frames = plan.getFrames(this.maxReadBlocks, frame.getFirstIndex(), ended);
+                i = 0;
+            } else {
+                // 1ブロックずつ読み込み、読めなかったサービスは以降除外する
+                for ( int k = 0; k < frame.size(); k++ ) {
+                    int serviceCode = frame.getServiceCode(k);
+                    if ( ended.contains(serviceCode) ) continue;
+                    ReadResponse r1 = this.readWithoutEncryption(
+                            new ServiceCode(serviceCode), frame.getBlockNumber(k), 1);
+                    if ( r1 == null ) break frameLoop; // Tag Lost
+                    if ( r1.getStatusFlag1() != 0 ) {
+                        ended.add(serviceCode);
+                    } else {
+                        read.get(serviceCode).addAll(Arrays.asList(r1.getBlocks()));
+                    }
+                }
+                frames = plan.getFrames(this.maxReadBlocks
+                        , frame.getFirstIndex() + frame.size(), ended);
+                i = 0;
+            }
+        }
+        Map<Integer, Block[]> result = new LinkedHashMap<Integer, Block[]>();
+        for ( Map.Entry<Integer, List<Block>> e : read.entrySet() ) {
+            result.put(e.getKey(), e.getValue().toArray(new Block[e.getValue().size()]));
+        }
+        return result;
+    }
+    /**
+     * 一度のコマンドで読み込むブロック数の上限を取得します
+     * @return int 同時読み込みブロック数が戻ります
+     */
+    public int getMaxReadBlocks() {
+        return this.maxReadBlocks;
+    }
+    /**
+     * 一度のコマンドで読み込むブロック数の上限をセットします
+     * <pre>
+     *  PMmからは同時読み込み可能なブロック数が判別できないため、既定値は応答長の上限から
+     *  求めた15です。カードの仕様が判っている場合 (FeliCa Liteは4等) はこの値をセットします
+     * </pre>
+     * @param maxReadBlocks 同時読み込みブロック数 (1～15)をセット
+     */
+    public void setMaxReadBlocks(int maxReadBlocks) {
+        if ( maxReadBlocks < 1 || maxReadBlocks > DEFAULT_MAX_READ_BLOCKS ) {
+            throw new IllegalArgumentException("maxReadBlocks out of range : " + maxReadBlocks);
+        }
+        this.maxReadBlocks = maxReadBlocks;
+    }
     /**
      * 認証不要領域のデータを書き込みます
      *
@@ -258,7 +551,7 @@ public class FeliCaTag extends NfcTag {
      */
     public WriteResponse writeWithoutEncryption(ServiceCode serviceCode,
             byte addr, byte[] buff) throws FeliCaException {
-        if ( this.nfcTag == null ) {
+        if ( this.nfcTag == null && this.transceiver == null ) {
             throw new FeliCaException("tagService is null. no write execution");
         }
         // write without encryption
@@ -273,9 +566,118 @@ public class FeliCaTag extends NfcTag {
         b.put(buff, 0, buff.length > 16 ? 16 : buff.length); //書き出すデータ  (一度につき16バイト)
         CommandPacket writeWoEncrypt =
             new CommandPacket(COMMAND_WRITE_WO_ENCRYPTION, idm, b.array());
-        CommandResponse r = FeliCaLib.execute(this.nfcTag, writeWoEncrypt);
+        CommandResponse r = this.execute(writeWoEncrypt);
         return (r.getBytes() != null ? new WriteResponse(r) : null);
     }
+    /**
+     * NFC-Fへの接続を確立し、以降のコマンドをこの接続上で実行します
+     * <pre>
+     *  closeSessionを呼び出すまで接続は保持されます。
+     *  既にセッションが開かれている場合は何もしません
+     * </pre>
+     * @return FeliCaSession 開始したセッションが戻ります (Transceiverを直接使用している場合はnull)
+     * @throws FeliCaException
+     */
+    public FeliCaSession openSession() throws FeliCaException {
+        if ( this.transceiver != null ) {
+            return null; // Transceiverを直接使用している場合はセッション不要
+        }
+        if ( this.nfcTag == null ) {
+            throw new FeliCaException("tagService is null. no session opened");
+        }
+        if ( this.session == null ) {
+            this.session = FeliCaSession.open(this.nfcTag);
+        }
+        return this.session;
+    }
+    /**
+     * 外部で開始したセッションをセットします
+     * @param session セッションをセット (nullをセットするとコマンド毎に接続します)
+     */
+    public void setSession(FeliCaSession session) {
+        this.session = session;
+    }
+    /**
+     * openSessionで開始したセッションを閉じます
+     */
+    public void closeSession() {
+        if ( this.session != null ) {
+            this.session.close();
+            this.session = null;
+        }
+    }
+    /**
+     * システムコード、サービスコードの一覧のキャッシュをセットします
+     * @param cache キャッシュをセット (nullの場合はキャッシュを使用しない)
+     */
+    public void setServiceEnumerationCache(ServiceEnumerationCache cache) {
+        this.serviceCache = cache;
+        this.serviceCacheSet = true;
+    }
+    /**
+     * システムコード、サービスコードの一覧のキャッシュを取得します
+     * <pre>
+     *  setServiceEnumerationCacheでセットしていない場合は、最初の呼び出しで共有キャッシュ
+     *  (ServiceEnumerationCache#getInstance)を参照します
+     * </pre>
+     * @return ServiceEnumerationCache キャッシュが戻ります (キャッシュを使用しない場合はnull)
+     */
+    public ServiceEnumerationCache getServiceEnumerationCache() {
+        if ( !this.serviceCacheSet ) {
+            this.serviceCache = ServiceEnumerationCache.getInstance();
+            this.serviceCacheSet = true;
+        }
+        return this.serviceCache;
+    }
+    /**
+     * コマンドを実行します (セッションまたはTransceiverがある場合はそれを使用します)
+     *
+     * @param commandPacket 実行するコマンドパケットをセット
+     * @return CommandResponse コマンドの実行結果が戻ります
+     * @throws FeliCaException
+     */
+    protected CommandResponse execute(CommandPacket commandPacket) throws FeliCaException {
+        if ( this.session != null ) {
+            return this.session.execute(commandPacket);
+        }
+        if ( this.transceiver != null ) {
+            return FeliCaLib.execute(this.transceiver, commandPacket);
+        }
+        return FeliCaLib.execute(this.nfcTag, commandPacket);
+    }
+    /**
+     * Rawデータのコマンドフレームを実行します (セッションまたはTransceiverがある場合はそれを使用します)
+     *
+     * @param frame 実行するコマンドフレームをセット
+     * @return CommandResponse コマンドの実行結果が戻ります
+     * @throws FeliCaException
+     */
+    protected CommandResponse execute(byte[] frame) throws FeliCaException {
+        if ( this.session != null ) {
+            return new CommandResponse(this.session.executeRaw(frame));
+        }
+        if ( this.transceiver != null ) {
+            return new CommandResponse(FeliCaLib.executeRaw(this.transceiver, frame));
+        }
+        return new CommandResponse(FeliCaLib.executeRaw(this.nfcTag, frame));
+    }
+    /**
+     * コマンドフレームのエンコーダを取得します
+     * <pre>
+     *  セッションが開かれている場合はセッションのエンコーダを、それ以外はこのタグの
+     *  エンコーダを使用します
+     * </pre>
+     * @return FeliCaFrameEncoder エンコーダが戻ります
+     */
+    protected FeliCaFrameEncoder getEncoder() {
+        if ( this.session != null ) {
+            return this.session.getEncoder();
+        }
+        if ( this.encoder == null ) {
+            this.encoder = new FeliCaFrameEncoder();
+        }
+        return this.encoder;
+    }
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -11,8 +11,6 @@
  */
 package nfclib.com.example.kenfujiyoshi.myapp01.felica.command;
 
-import java.util.Arrays;
-
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.CommandResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.PMm;
@@ -28,8 +26,10 @@ import nfclib.com.example.kenfujiyoshi.myapp01.util.Util;
  */
 
 public class PollingResponse extends CommandResponse {
-    final PMm pmm; 
-    final byte[] requestData; 
+    /** レスポンス中のPMmの位置 */
+    public static final int PMM_OFFSET = DATA_OFFSET;
+
+    PMm pmm; 
     /**
      * コンストラクタ
      * 
@@ -37,13 +37,6 @@ public class PollingResponse extends CommandResponse {
      */
     public PollingResponse(CommandResponse response) {
         super(response);
-        if ( this.data != null && this.data.length >= 8 ) {
-            this.pmm = new PMm(Arrays.copyOfRange(this.data, 0, 8));
-            this.requestData = Arrays.copyOfRange(this.data, 8, data.length);
-        } else {
-            this.pmm = null;
-            this.requestData = null;
-        }
     }
     /**
      * PMmを取得します
@@ -51,8 +44,27 @@ public class PollingResponse extends CommandResponse {
      * @return PMm pmmが戻ります
      */
     public PMm getPMm() {
+        if ( this.pmm == null && this.getDataLength() >= 8 ) {
+            this.pmm = new PMm(this.rawData, PMM_OFFSET);
+        }
         return this.pmm;
     }
+    /**
+     * PMmを64ビットの値として取得します (オブジェクトを作成しません)
+     * 
+     * @return long PMm(ビッグエンディアン)が戻ります
+     */
+    public long getPMmAsLong() {
+        return FeliCaLib.getLong(this.rawData, PMM_OFFSET);
+    }
+    /**
+     * リクエストデータ (システムコード等)の長さを取得します
+     * 
+     * @return int リクエストデータのバイト数が戻ります
+     */
+    public int getRequestDataLength() {
+        return Math.max(0, this.getDataLength() - 8);
+    }
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -63,11 +75,11 @@ public class PollingResponse extends CommandResponse {
         sb.append(" コマンド名 : " + FeliCaLib.commandMap.get(this.responseCode)  +  "\n");
         sb.append(" データ長 : " + this.length + "\n");
         sb.append(" コマンドコード : " + Util.getHexString(this.responseCode) +  "\n");
-        if ( this.idm != null )
-            sb.append(" " + this.idm.toString() + "\n");
-        if ( this.pmm != null )
-            sb.append(" " + this.pmm.toString() + "\n");
-        sb.append(" データ: " + Util.getHexString(this.data) + "\n");
+        if ( this.getIDm() != null )
+            sb.append(" " + this.getIDm().toString() + "\n");
+        if ( this.getPMm() != null )
+            sb.append(" " + this.getPMm().toString() + "\n");
+        sb.append(" データ: " + Util.getHexString(this.getData()) + "\n");
         return sb.toString();
     }
 }
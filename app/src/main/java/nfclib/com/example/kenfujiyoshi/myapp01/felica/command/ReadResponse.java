@@ -14,6 +14,7 @@ package nfclib.com.example.kenfujiyoshi.myapp01.felica.command;
 import java.util.Arrays;
 
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.Block;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.CommandResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.util.Util;
 
@@ -27,25 +28,31 @@ import nfclib.com.example.kenfujiyoshi.myapp01.util.Util;
  */
 
 public class ReadResponse extends CommandResponse {
+    /** ブロック長 */
+    public static final int BLOCK_SIZE = 16;
+    /** レスポンス中のブロックデータの位置 */
+    public static final int BLOCK_DATA_OFFSET = DATA_OFFSET + 3;
+
     final int statusFlag1; 
     final int statusFlag2;
     final int blockCount;
-    final byte[] blockData; 
+    byte[] blockData; 
     /**
      * コンストラクタ
-     * 
+     * <pre>
+     *  レスポンスのバイト列は複製せずに参照します。ブロックデータはgetBlockOffset等で
+     *  直接読み出すことができます
+     * </pre>
      * @param response コマンド実行結果で戻ったバイト列をセット
      */
     public ReadResponse(CommandResponse response) {
         super(response);
-        this.statusFlag1 = this.data[0];
-        this.statusFlag2 = this.data[1];
+        this.statusFlag1 = this.getDataByte(0);
+        this.statusFlag2 = this.getDataByte(1);
         if ( this.getStatusFlag1() == 0 ) {
-            this.blockCount  = this.data[2];
-            this.blockData = Arrays.copyOfRange(this.data, 3, data.length);
+            this.blockCount  = this.getDataByte(2);
         } else {
             this.blockCount  = 0;
-            this.blockData = null;
         }
     }
     
@@ -67,12 +74,76 @@ public class ReadResponse extends CommandResponse {
 
     /**
      * blockDataを取得します
+     * <pre>
+     *  初回の呼び出しでブロックデータを複製します
+     * </pre>
      * @return byte[] blockDataが戻ります
      */
     public byte[] getBlockData() {
+        if ( this.blockData == null && this.getStatusFlag1() == 0 ) {
+            this.blockData = Arrays.copyOfRange(this.rawData, BLOCK_DATA_OFFSET, this.rawData.length);
+        }
         return this.blockData;
     }
 
+    /**
+     * 応答に含まれるブロックの数を取得します
+     * <pre>
+     *  ブロック数とブロックデータの長さのうち、少ない方です
+     * </pre>
+     * @return int 読み出せるブロックの数が戻ります (エラー応答の場合は0)
+     */
+    public int getAvailableBlockCount() {
+        if ( this.getStatusFlag1() != 0 ) return 0;
+        int available = Math.max(0, this.rawData.length - BLOCK_DATA_OFFSET) / BLOCK_SIZE;
+        return Math.min(this.blockCount & 0xff, available);
+    }
+    /**
+     * 指定したブロックのレスポンス中の位置を取得します
+     * <pre>
+     *  getBytes()で得られるバイト列のこの位置から16バイトがブロックのデータです
+     * </pre>
+     * @param index ブロックの位置 (0オリジン)をセット
+     * @return int レスポンス中の位置が戻ります
+     */
+    public int getBlockOffset(int index) {
+        if ( index < 0 || index >= this.getAvailableBlockCount() ) {
+            throw new IndexOutOfBoundsException("block index : " + index);
+        }
+        return BLOCK_DATA_OFFSET + index * BLOCK_SIZE;
+    }
+    /**
+     * 指定したブロックの1バイトを取得します
+     * @param index ブロックの位置 (0オリジン)をセット
+     * @param position ブロック中の位置 (0～15)をセット
+     * @return byte 値が戻ります
+     */
+    public byte getBlockByte(int index, int position) {
+        return this.rawData[this.getBlockOffset(index) + position];
+    }
+    /**
+     * 指定したブロックのデータを呼び出し側のバッファに複製します
+     * @param index ブロックの位置 (0オリジン)をセット
+     * @param dest 複製先のバッファをセット
+     * @param offset 複製先の開始位置をセット
+     */
+    public void copyBlock(int index, byte[] dest, int offset) {
+        System.arraycopy(this.rawData, this.getBlockOffset(index), dest, offset, BLOCK_SIZE);
+    }
+    /**
+     * blockDataを16バイト毎のブロックに分割して取得します
+     * @return Block[] 読み込んだブロックの配列が戻ります (エラー応答の場合は空の配列)
+     */
+    public Block[] getBlocks() {
+        int count = this.getAvailableBlockCount();
+        Block[] blocks = new Block[count];
+        for ( int i = 0; i < count; i++ ) {
+            byte[] data = new byte[BLOCK_SIZE];
+            this.copyBlock(i, data, 0);
+            blocks[i] = new Block(data);
+        }
+        return blocks;
+    }
     /**
      * blockCountを取得します
      * @return int blockCountが戻ります
@@ -91,12 +162,12 @@ public class ReadResponse extends CommandResponse {
         sb.append(" コマンド名 : " + FeliCaLib.commandMap.get(this.responseCode)  +  "\n");
         sb.append(" データ長 : " + this.length + "\n");
         sb.append(" コマンドコード : " + Util.getHexString(this.responseCode) +  "\n");
-        if ( this.idm != null )
-            sb.append(" " + this.idm.toString() + "\n");
+        if ( this.getIDm() != null )
+            sb.append(" " + this.getIDm().toString() + "\n");
         sb.append(" ステータスフラグ1 : " + Util.getHexString((byte)(this.statusFlag1 & 0xff)) +  "\n");
         sb.append(" ステータスフラグ2 : " + Util.getHexString((byte)(this.statusFlag2 & 0xff)) +  "\n");
-        if ( this.blockData != null )
-            sb.append(" ブロックデータ:  " + Util.getHexString(this.blockData) + "\n");
+        if ( this.getBlockData() != null )
+            sb.append(" ブロックデータ:  " + Util.getHexString(this.getBlockData()) + "\n");
         return sb.toString();
     }
 }
@@ -34,8 +34,8 @@ public class WriteResponse extends CommandResponse {
      */
     public WriteResponse(CommandResponse response) {
         super(response);
-        this.statusFlag1 = this.data[0];
-        this.statusFlag2 = this.data[1];
+        this.statusFlag1 = this.getDataByte(0);
+        this.statusFlag2 = this.getDataByte(1);
     }
     
     /**
@@ -63,8 +63,8 @@ public class WriteResponse extends CommandResponse {
         sb.append(" コマンド名 : " + FeliCaLib.commandMap.get(this.responseCode)  +  "\n");
         sb.append(" データ長 : " + this.length + "\n");
         sb.append(" コマンドコード : " + Util.getHexString(this.responseCode) +  "\n");
-        if ( this.idm != null )
-            sb.append(" " + this.idm.toString() + "\n");
+        if ( this.getIDm() != null )
+            sb.append(" " + this.getIDm().toString() + "\n");
         sb.append(" ステータスフラグ1 : " + Util.getHexString((byte)(this.statusFlag1 & 0xff)) +  "\n");
         sb.append(" ステータスフラグ2 : " + Util.getHexString((byte)(this.statusFlag2 & 0xff)) +  "\n");
         return sb.toString();
@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.felica.lib;
+
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_POLLING;
+import static nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.COMMAND_READ_WO_ENCRYPTION;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaException;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.ServiceCode;
+
+/**
+ * FeliCaのコマンドフレームを再利用するバッファに直接書き込むエンコーダを提供します
+ *
+ * <pre>
+ * CommandPacketはコマンド毎にIDmやデータの配列を複製し、getBytesでも新たな配列を確保します。
+ * このクラスはフレーム長毎に一つの配列を保持して使い回すため、一度使用した長さのフレームは
+ * 以降ヒープを確保せずに作成できます。
+ * (NfcF#transceiveは配列全体を送信するため、フレーム長と同じ長さの配列が必要です)
+ *
+ * 戻り値の配列は、同じ長さのフレームを次にエンコードするまでの間だけ有効です。
+ * スレッドセーフではありません。セッション(FeliCaSession)毎に一つを使用してください。
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public final class FeliCaFrameEncoder {
+    /** フレームの最大長 */
+    public static final int MAX_FRAME_LENGTH = 255;
+
+    private final byte[][] frames = new byte[MAX_FRAME_LENGTH + 1][];
+
+    /**
+     * 指定した長さのフレーム用の配列を取得します
+     * @param length フレーム長をセット
+     * @return byte[] 再利用する配列が戻ります (内容は不定です)
+     * @throws FeliCaException フレーム長が255バイトを超える場合にスローされます
+     */
+    public byte[] obtain(int length) throws FeliCaException {
+        if ( length < 2 || length > MAX_FRAME_LENGTH ) {
+            throw new FeliCaException("command data too long (less than 255byte) : " + length);
+        }
+        byte[] frame = this.frames[length];
+        if ( frame == null ) {
+            frame = new byte[length];
+            this.frames[length] = frame;
+        }
+        frame[0] = (byte) length;
+        return frame;
+    }
+    /**
+     * 任意のコマンドフレームをエンコードします
+     *
+     * @param commandCode コマンドコードをセット
+     * @param idm IDmをセット (IDmを含まないコマンドの場合はnull)
+     * @param data コマンドデータをセット
+     * @param offset コマンドデータの開始位置をセット
+     * @param length コマンドデータの長さをセット
+     * @return byte[] エンコードしたフレームが戻ります
+     * @throws FeliCaException
+     */
+    public byte[] encode(byte commandCode, IDm idm, byte[] data, int offset, int length)
+            throws FeliCaException {
+        int pos = 2;
+        byte[] frame = this.obtain(2 + (idm != null ? 8 : 0) + length);
+        frame[1] = commandCode;
+        if ( idm != null ) {
+            idm.copyTo(frame, pos);
+            pos += 8;
+        }
+        System.arraycopy(data, offset, frame, pos, length);
+        return frame;
+    }
+    /**
+     * Pollingコマンドのフレームをエンコードします
+     *
+     * @param systemCode 対象のシステムコードをセット
+     * @param requestCode リクエストコードをセット (0x01:システムコードを要求)
+     * @param timeSlot タイムスロットをセット
+     * @return byte[] エンコードしたフレームが戻ります
+     * @throws FeliCaException
+     */
+    public byte[] encodePolling(int systemCode, int requestCode, int timeSlot)
+            throws FeliCaException {
+        byte[] frame = this.obtain(6);
+        frame[1] = COMMAND_POLLING;
+        frame[2] = (byte) (systemCode >> 8);    // システムコード
+        frame[3] = (byte) (systemCode & 0xff);
+        frame[4] = (byte) requestCode;
+        frame[5] = (byte) timeSlot;
+        return frame;
+    }
+    /**
+     * 連続したブロックを読み込むRead Without Encryptionコマンドのフレームをエンコードします
+     * <pre>
+     *  ブロックリストはブロック番号が255以下の場合は2バイト、それ以外は3バイトのエレメントです
+     * </pre>
+     * @param idm IDmをセット
+     * @param serviceCode サービスコードをセット
+     * @param firstBlock 先頭ブロックの番号をセット
+     * @param numberOfBlocks ブロック数をセット
+     * @return byte[] エンコードしたフレームが戻ります
+     * @throws FeliCaException
+     */
+    public byte[] encodeReadWithoutEncryption(IDm idm, ServiceCode serviceCode
+            , int firstBlock, int numberOfBlocks) throws FeliCaException {
+        int listLength = 0;
+        for ( int i = 0; i < numberOfBlocks; i++ ) {
+            listLength += (firstBlock + i <= 0xff) ? 2 : 3;
+        }
+        byte[] sc = serviceCode.getBytes();
+        byte[] frame = this.obtain(2 + 8 + 1 + sc.length + 1 + listLength);
+        frame[1] = COMMAND_READ_WO_ENCRYPTION;
+        idm.copyTo(frame, 2);
+        int pos = 10;
+        frame[pos++] = 0x01;                    // サービス数
+        for ( byte b : sc ) frame[pos++] = b;   // サービスコード (little endian)
+        frame[pos++] = (byte) numberOfBlocks;   // 同時読み込みブロック数
+        for ( int i = 0; i < numberOfBlocks; i++ ) {
+            int block = firstBlock + i;
+            if ( block <= 0xff ) {
+                frame[pos++] = (byte) 0x80;     // 2バイトエレメント, サービスコードリスト順番 0
+                frame[pos++] = (byte) block;
+            } else {
+                frame[pos++] = 0x00;            // 3バイトエレメント (ブロック番号はlittle endian)
+                frame[pos++] = (byte) (block & 0xff);
+                frame[pos++] = (byte) (block >> 8);
+            }
+        }
+        return frame;
+    }
+}
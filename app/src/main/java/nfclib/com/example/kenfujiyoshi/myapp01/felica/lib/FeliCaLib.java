@@ -27,6 +27,7 @@ import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaException;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.IFeliCaByteData;
 import nfclib.com.example.kenfujiyoshi.myapp01.felica.command.IFeliCaCommand;
 import nfclib.com.example.kenfujiyoshi.myapp01.nfc.NfcException;
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver;
 import nfclib.com.example.kenfujiyoshi.myapp01.util.Util;
 
 /**
@@ -139,6 +140,15 @@ public final class FeliCaLib {
     public static final int STATUSFLAG2_ERROR_FLOWN     = 0x02; 
     public static final int STATUSFLAG2_ERROR_MEMORY    = 0x70; 
     public static final int STATUSFLAG2_ERROR_WRITELIMIT= 0x71; 
+    public static final int STATUSFLAG2_ERROR_SERVICE_COUNT = 0xa1; // サービス数異常
+    public static final int STATUSFLAG2_ERROR_BLOCK_COUNT   = 0xa2; // ブロック数異常 (同時アクセス可能数超過)
+    public static final int STATUSFLAG2_ERROR_SERVICE_ORDER = 0xa3; // ブロックリストのサービスコードリスト順番異常
+    public static final int STATUSFLAG2_ERROR_SERVICE_TYPE  = 0xa4; // サービス種別異常
+    public static final int STATUSFLAG2_ERROR_ACCESS_DENIED = 0xa5; // アクセス権限異常
+    public static final int STATUSFLAG2_ERROR_SERVICE_CODE  = 0xa6; // サービスコードリスト異常
+    public static final int STATUSFLAG2_ERROR_ACCESS_MODE   = 0xa7; // ブロックリストアクセスモード異常
+    public static final int STATUSFLAG2_ERROR_BLOCK_NUMBER  = 0xa8; // ブロック番号異常
+    public static final int STATUSFLAG2_ERROR_WRITE_FAILED  = 0xa9; // データ書込み失敗
    
     public static final Map<Byte, String> commandMap = new HashMap<Byte, String>();
     
@@ -208,7 +218,7 @@ public final class FeliCaLib {
                 throw new FeliCaException("commandCode : " + commandCode + " not supported.");
             this.commandCode = commandCode;
             if ( data.length >= 8 ) {
-                this.idm = new IDm(Arrays.copyOfRange(data, 0, 8));
+                this.idm = new IDm(data, 0);
                 this.data = Arrays.copyOfRange(data, 8, data.length);
             } else {
                 this.idm = null;
@@ -301,14 +311,22 @@ public final class FeliCaLib {
      * @since Android API Level 9
      */
     public static class CommandResponse implements IFeliCaCommand {
+        /** レスポンス中のIDmの位置 */
+        public static final int IDM_OFFSET = 2;
+        /** レスポンス中のコマンドデータの位置 */
+        public static final int DATA_OFFSET = 10;
+
         protected final byte[] rawData;
         protected final int length;      //全体のデータ長 (FeliCaには無い)
         protected final byte responseCode;//コマンドレスポンスコード)
-        protected final IDm idm;          //FeliCa IDm
-        protected final byte[] data;      //コマンドデータ
+        protected IDm idm;                //FeliCa IDm (getIDmで初めて作成します)
+        protected byte[] data;            //コマンドデータ (getDataで初めて作成します)
         
         /**
          * コンストラクタ
+         * <pre>
+         *  他のレスポンスと同じバイト列を参照します (複製はしません)
+         * </pre>
          * @param response 他のレスポンスをセット
          */
         public CommandResponse(CommandResponse response) {
@@ -316,7 +334,9 @@ public final class FeliCaLib {
         }
         /**
          * コンストラクタ
-         * 
+         * <pre>
+         *  バイト列は複製せずにそのまま保持し、各値は位置を指定して読み出します
+         * </pre>
          * @param data コマンド実行結果で戻ったバイト列をセット
          */
         public CommandResponse(byte[] data) {
@@ -324,14 +344,10 @@ public final class FeliCaLib {
                 this.rawData = data;
                 this.length = data[0] & 0xff; 
                 this.responseCode = data[1];
-                this.idm = new IDm(Arrays.copyOfRange(data, 2, 10));
-                this.data = Arrays.copyOfRange(data, 10, data.length);
             } else {
                 this.rawData = null;
                 this.length = 0; 
                 this.responseCode = 0;
-                this.idm = null;
-                this.data = null;
             }
         }
         /* (non-Javadoc)
@@ -339,8 +355,55 @@ public final class FeliCaLib {
          */
         @Override
         public IDm getIDm() {
+            if ( this.idm == null && this.rawData != null
+                    && this.rawData.length >= DATA_OFFSET ) {
+                this.idm = new IDm(this.rawData, IDM_OFFSET);
+            }
             return this.idm;
         }
+        /**
+         * IDmを64ビットの値として取得します (オブジェクトを作成しません)
+         * @return long IDm(ビッグエンディアン)が戻ります
+         */
+        public long getIDmAsLong() {
+            return getLong(this.rawData, IDM_OFFSET);
+        }
+        /**
+         * レスポンスコードを取得します
+         * @return byte レスポンスコードが戻ります
+         */
+        public byte getResponseCode() {
+            return this.responseCode;
+        }
+        /**
+         * コマンドデータを取得します
+         * <pre>
+         *  初回の呼び出しでバイト列を複製します。各値を読むだけであればgetDataByte等を使用してください
+         * </pre>
+         * @return byte[] コマンドデータが戻ります
+         */
+        public byte[] getData() {
+            if ( this.data == null && this.rawData != null ) {
+                this.data = Arrays.copyOfRange(this.rawData
+                        , Math.min(DATA_OFFSET, this.rawData.length), this.rawData.length);
+            }
+            return this.data;
+        }
+        /**
+         * コマンドデータの長さを取得します
+         * @return int コマンドデータのバイト数が戻ります
+         */
+        public int getDataLength() {
+            return this.rawData != null ? Math.max(0, this.rawData.length - DATA_OFFSET) : 0;
+        }
+        /**
+         * コマンドデータの指定した位置のバイトを取得します
+         * @param index コマンドデータ中の位置をセット
+         * @return byte 値が戻ります
+         */
+        public byte getDataByte(int index) {
+            return this.rawData[DATA_OFFSET + index];
+        }
         /**
          * バイト列表現を戻します
          * @return byte[] このデータのバイト列表現を戻します
@@ -359,8 +422,8 @@ public final class FeliCaLib {
            sb.append(" コマンド名:" + commandMap.get(this.responseCode)  +  "\n");
            sb.append(" データ長: " + Util.getHexString((byte)(this.length & 0xff)) + "\n");
            sb.append(" レスポンスコード: " + Util.getHexString(this.responseCode) + "\n");
-           sb.append(" "+ this.idm.toString() + "\n");
-           sb.append(" データ: " + Util.getHexString(this.data) + "\n");
+           sb.append(" "+ this.getIDm() + "\n");
+           sb.append(" データ: " + Util.getHexString(this.getData()) + "\n");
            return sb.toString();
         }      
     }
@@ -384,26 +447,43 @@ public final class FeliCaLib {
                     return new IDm[size];
                 }
             };
-        final byte[] manufactureCode;
-        final byte[] cardIdentification;
+        /** IDm(8バイト)をビッグエンディアンで格納した値 (製造者コード2バイト + カード識別番号6バイト) */
+        final long value;
         /**
          * コンストラクタ
          * @param in 入力するパーセル化オブジェクトをセット
          */
         public IDm(Parcel in) {
-            this.manufactureCode = new byte[in.readInt()];
-            in.readByteArray(this.manufactureCode);
-            this.cardIdentification = new byte[in.readInt()];
-            in.readByteArray(this.cardIdentification);
+            this.value = in.readLong();
+        }
+        /**
+         * コンストラクタ
+         * @param value IDm(ビッグエンディアン)をセット (CommandResponse#getIDmAsLong等)
+         */
+        public IDm(long value) {
+            this.value = value;
         }
         /**
          * コンストラクタ 
          * @param bytes IDmの格納されているバイト列をセットします
          */
         public IDm(byte[] bytes) {
-            this.manufactureCode = new byte[]{bytes[0], bytes[1]};
-            this.cardIdentification = 
-                new byte[]{bytes[2], bytes[3], bytes[4], bytes[5], bytes[6], bytes[7]};
+            this(bytes, 0);
+        }
+        /**
+         * コンストラクタ
+         * @param bytes IDmを含むバイト列をセット
+         * @param offset IDm(8バイト)の開始位置をセット
+         */
+        public IDm(byte[] bytes, int offset) {
+            this.value = getLong(bytes, offset);
+        }
+        /**
+         * IDmを64ビットの値で取得します (HashMap等のキーに使用できます)
+         * @return long IDm(ビッグエンディアン)が戻ります
+         */
+        public long longValue() {
+            return this.value;
         }
         /* (non-Javadoc)
          * @see android.os.Parcelable#describeContents()
@@ -417,37 +497,55 @@ public final class FeliCaLib {
          */
         @Override
         public void writeToParcel(Parcel dest, int flags) {
-            //配列長を先に書きだしておく
-            dest.writeInt(this.manufactureCode.length);
-            dest.writeByteArray(this.manufactureCode);
-            
-            //配列長を先に書きだしておく
-            dest.writeInt(this.cardIdentification.length);
-            dest.writeByteArray(this.cardIdentification);
+            dest.writeLong(this.value);
         }
         /* (non-Javadoc)
          * @see net.com.example.kenfujiyoshi.myapp01.felica.IFeliCaByteData#getBytes()
          */
         @Override
         public byte[] getBytes() {
-            ByteBuffer buff = ByteBuffer.allocate(
-                    this.manufactureCode.length + this.cardIdentification.length);
-            buff.put(this.manufactureCode).put(this.cardIdentification);
-            return buff.array();
+            byte[] bytes = new byte[8];
+            this.copyTo(bytes, 0);
+            return bytes;
+        }
+        /**
+         * IDm(8バイト)を指定した配列に複製します (新たな配列は確保しません)
+         * @param dest 複製先の配列をセット
+         * @param offset 複製先の開始位置をセット
+         */
+        public void copyTo(byte[] dest, int offset) {
+            Util.putLong(this.value, dest, offset);
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return (int) (this.value ^ (this.value >>> 32));
         }
-        
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if ( this == obj ) return true;
+            if ( !(obj instanceof IDm) ) return false;
+            return this.value == ((IDm) obj).value;
+        }
+
         /* (non-Javadoc)
          * @see java.lang.Object#toString()
          */
         @Override
         public String toString() {
+            byte[] bytes = this.getBytes();
             StringBuilder sb = new StringBuilder();
-            sb.append("IDm (8byte) : " + Util.getHexString(this.getBytes()) + "\n");
-            sb.append(" 製造者コード: " + Util.getHexString(this.manufactureCode) + "\n");
+            sb.append("IDm (8byte) : " + Util.getHexString(bytes) + "\n");
+            sb.append(" 製造者コード: " + Util.getHexString(bytes, 0, 2) + "\n");
             sb.append(" カード識別番号:\n");
-            sb.append("   製造器:" + Util.getHexString(this.cardIdentification, 0, 2) + "\n");
-            sb.append("   日付:" + Util.getHexString(this.cardIdentification, 2, 2) + "\n");
-            sb.append("   シリアル:" + Util.getHexString(this.cardIdentification, 4, 2) + "\n");
+            sb.append("   製造器:" + Util.getHexString(bytes, 2, 2) + "\n");
+            sb.append("   日付:" + Util.getHexString(bytes, 4, 2) + "\n");
+            sb.append("   シリアル:" + Util.getHexString(bytes, 6, 2) + "\n");
             return sb.toString();
         }
 
@@ -472,27 +570,43 @@ public final class FeliCaLib {
                     return new PMm[size];
                 }
             };
-        final byte[] icCode;              // ROM種別, IC種別
-        final byte[] maximumResponseTime; // 最大応答時間
+        /** PMm(8バイト)をビッグエンディアンで格納した値 (ICコード2バイト + 最大応答時間6バイト) */
+        final long value;
         /**
          * コンストラクタ
          * @param in 入力するパーセル化オブジェクトをセット
          */
         public PMm(Parcel in) {
-            this.icCode = new byte[in.readInt()];
-            in.readByteArray(this.icCode);
-            
-            this.maximumResponseTime = new byte[in.readInt()];
-            in.readByteArray(this.maximumResponseTime);
+            this.value = in.readLong();
+        }
+        /**
+         * コンストラクタ
+         * @param value PMm(ビッグエンディアン)をセット (PollingResponse#getPMmAsLong等)
+         */
+        public PMm(long value) {
+            this.value = value;
         }
        /**
          * コンストラクタ
          * @param bytes バイト列をセット
          */
         public PMm(byte[] bytes) {
-            this.icCode = new byte[]{bytes[0], bytes[1]};
-            this.maximumResponseTime = 
-                new byte[]{bytes[2], bytes[3], bytes[4], bytes[5], bytes[6], bytes[7]};
+            this(bytes, 0);
+        }
+        /**
+         * コンストラクタ
+         * @param bytes PMmを含むバイト列をセット
+         * @param offset PMm(8バイト)の開始位置をセット
+         */
+        public PMm(byte[] bytes, int offset) {
+            this.value = getLong(bytes, offset);
+        }
+        /**
+         * PMmを64ビットの値で取得します
+         * @return long PMm(ビッグエンディアン)が戻ります
+         */
+        public long longValue() {
+            return this.value;
         }
         /* (non-Javadoc)
          * @see android.os.Parcelable#describeContents()
@@ -506,23 +620,32 @@ public final class FeliCaLib {
          */
         @Override
         public void writeToParcel(Parcel dest, int flags) {
-            //配列長を先に書きだす
-            dest.writeInt(this.icCode.length);
-            dest.writeByteArray(this.icCode);
-
-            //配列長を先に書きだす
-            dest.writeInt(this.maximumResponseTime.length);
-            dest.writeByteArray(this.maximumResponseTime);
+            dest.writeLong(this.value);
         }
         /* (non-Javadoc)
          * @see net.com.example.kenfujiyoshi.myapp01.felica.IFeliCaByteData#getBytes()
          */
         @Override
         public byte[] getBytes() {
-            ByteBuffer buff = ByteBuffer.allocate(
-                    this.icCode.length + this.maximumResponseTime.length);
-            buff.put(this.icCode).put(this.maximumResponseTime);
-            return buff.array();
+            byte[] bytes = new byte[8];
+            Util.putLong(this.value, bytes, 0);
+            return bytes;
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return (int) (this.value ^ (this.value >>> 32));
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if ( this == obj ) return true;
+            if ( !(obj instanceof PMm) ) return false;
+            return this.value == ((PMm) obj).value;
         }
 
         /* (non-Javadoc)
@@ -530,19 +653,20 @@ public final class FeliCaLib {
          */
         @Override
         public String toString() {
+            byte[] bytes = this.getBytes();
             StringBuilder sb = new StringBuilder();
             sb.append("PMm(製造パラメータ)\n");
-            sb.append(" ICコード(2byte): " + Util.getHexString(this.icCode) + "\n");
-            sb.append("   ROM種別: " + Util.getHexString(this.icCode, 0, 1) + "\n");
-            sb.append("   IC 種別: " + Util.getHexString(this.icCode, 1, 1) + "\n");
+            sb.append(" ICコード(2byte): " + Util.getHexString(bytes, 0, 2) + "\n");
+            sb.append("   ROM種別: " + Util.getHexString(bytes, 0, 1) + "\n");
+            sb.append("   IC 種別: " + Util.getHexString(bytes, 1, 1) + "\n");
             sb.append("\n");
             sb.append(" 最大応答時間パラメタ(6byte)\n");
-            sb.append("  B3(request service):" + Util.getBinString(this.maximumResponseTime, 0, 1) + "\n");
-            sb.append("  B4(request response):" + Util.getBinString(this.maximumResponseTime, 1, 1) + "\n");
-            sb.append("  B5(authenticate):" + Util.getBinString(this.maximumResponseTime, 2, 1) + "\n");
-            sb.append("  B6(read):" + Util.getBinString(this.maximumResponseTime, 3, 1) + "\n");
-            sb.append("  B7(write):" + Util.getBinString(this.maximumResponseTime, 4, 1) + "\n");
-            sb.append("  B8():" + Util.getBinString(this.maximumResponseTime, 5, 1) + "\n");
+            sb.append("  B3(request service):" + Util.getBinString(bytes, 2, 1) + "\n");
+            sb.append("  B4(request response):" + Util.getBinString(bytes, 3, 1) + "\n");
+            sb.append("  B5(authenticate):" + Util.getBinString(bytes, 4, 1) + "\n");
+            sb.append("  B6(read):" + Util.getBinString(bytes, 5, 1) + "\n");
+            sb.append("  B7(write):" + Util.getBinString(bytes, 6, 1) + "\n");
+            sb.append("  B8():" + Util.getBinString(bytes, 7, 1) + "\n");
             return sb.toString();
         }
     }
@@ -721,6 +845,40 @@ public final class FeliCaLib {
             
             return buff.array();
         }
+        /**
+         * Read/Write Without Encryptionコマンドのパラメタ形式でバイト列を取得します
+         * <pre>
+         *  [サービス数][サービスコードリスト][ブロック数][ブロックリスト]
+         * </pre>
+         * @return byte[] コマンドパラメタのバイト列が戻ります
+         */
+        public byte[] getCommandParameter() {
+            byte[] body = this.getBytes();
+            int codeLength = 0;
+            for (ServiceCode s : this.serviceCodes ) {
+                codeLength += s.getBytes().length;
+            }
+            ByteBuffer buff = ByteBuffer.allocate(body.length + 2);
+            buff.put((byte) this.serviceCodes.length);
+            buff.put(body, 0, codeLength);
+            buff.put((byte) this.blockListElements.length);
+            buff.put(body, codeLength, body.length - codeLength);
+            return buff.array();
+        }
+        /**
+         * サービスコードの数を取得します
+         * @return int サービスコードの数が戻ります
+         */
+        public int getServiceCount() {
+            return this.serviceCodes.length;
+        }
+        /**
+         * ブロックリストエレメントの数を取得します
+         * @return int ブロックリストエレメントの数が戻ります
+         */
+        public int getBlockCount() {
+            return this.blockListElements.length;
+        }
 
         /* (non-Javadoc)
          * @see java.lang.Object#toString()
@@ -802,20 +960,35 @@ public final class FeliCaLib {
          * @param blockNumber 対象のブロック番号を1バイト又は2バイトでセット
          */
         public BlockListElement (byte accessMode, byte serviceCodeListOrder, byte... blockNumber ) {
-            if ( blockNumber.length > 1 ) {
-                this.lengthAndaccessMode =  (byte)(accessMode | LENGTH_2_BYTE & 0xFF);
+            //アクセスモードはbit4～6、ブロック番号が1バイトの場合は2バイトエレメント
+            if ( blockNumber.length == 1 ) {
+                this.lengthAndaccessMode =  (byte)((LENGTH_2_BYTE | (accessMode & 0x07) << 4) & 0xFF);
             } else {
-                this.lengthAndaccessMode =  (byte)(accessMode | LENGTH_3_BYTE & 0xFF);
+                this.lengthAndaccessMode =  (byte)((LENGTH_3_BYTE | (accessMode & 0x07) << 4) & 0xFF);
             }
             this.serviceCodeListOrder = (byte) (serviceCodeListOrder & 0x0F);
             this.blockNumber = blockNumber;
         }
+        /**
+         * コンストラクタ
+         * <pre>
+         *  ブロック番号が255以下の場合は2バイト、それ以外は3バイトのエレメントになります
+         * </pre>
+         * @param serviceCodeListOrder サービスコードリスト順をセット
+         * @param blockNumber 対象のブロック番号(0～65535)をセット
+         */
+        public BlockListElement (int serviceCodeListOrder, int blockNumber) {
+            this(ACCESSMODE_DECREMENT, (byte) serviceCodeListOrder
+                    , blockNumber <= 0xff
+                        ? new byte[]{ (byte) blockNumber }
+                        : new byte[]{ (byte) (blockNumber >> 8), (byte) (blockNumber & 0xff) });
+        }
         /* (non-Javadoc)
          * @see net.com.example.kenfujiyoshi.myapp01.felica.IFeliCaByteData#getBytes()
          */
         @Override
         public byte[] getBytes() {
-            if ( (this.lengthAndaccessMode & LENGTH_2_BYTE) == 1 ) {
+            if ( (this.lengthAndaccessMode & LENGTH_2_BYTE) != 0 ) {
                 ByteBuffer buff = ByteBuffer.allocate(2);
                 buff.put( (byte)
                         ((this.lengthAndaccessMode | this.serviceCodeListOrder) & 0xFF))
@@ -839,7 +1012,7 @@ public final class FeliCaLib {
             StringBuilder sb = new StringBuilder();
             sb.append("ブロックリストエレメント\n");
             sb.append("  データ長 : " + this.getBytes().length + " byte\n");
-            sb.append("  アクセスモード        : " + Util.getBinString((byte)(this.lengthAndaccessMode & 0x8F)) + "\n");
+            sb.append("  アクセスモード        : " + Util.getBinString((byte)(this.lengthAndaccessMode & 0xF0)) + "\n");
             sb.append("  サービスコードリスト順: " + Util.getHexString(this.serviceCodeListOrder) + "\n");
             sb.append("  ブロックナンバー      : " + Util.getHexString(this.blockNumber) + "\n");
             return sb.toString();
@@ -887,7 +1060,7 @@ public final class FeliCaLib {
             
             boolean result = true;
             for ( int a : addrs ) {
-                byte b = (byte) ((a & 0xff) + 1);
+                byte b = (byte) (1 << (a & 0x07)); // 各バイトのbit0～7がブロックに対応
                 if ( a < 8 ) {
                     result &= (this.data[0] & b ) == b;
                     continue;
@@ -944,6 +1117,32 @@ public final class FeliCaLib {
             throw new FeliCaException(e);
         }
     }
+    /**
+     * Transceiverを使ってコマンドを実行します
+     *
+     * @param transceiver コマンドを送受信するTransceiverをセットします
+     * @param commandPacket 実行するコマンドパケットをセットします
+     * @return CommandResponse コマンドの実行結果が戻ります
+     * @throws FeliCaException コマンドの発行に失敗した場合にスローされます
+     */
+    public static final CommandResponse execute(Transceiver transceiver, CommandPacket commandPacket) throws FeliCaException {
+        return new CommandResponse(executeRaw(transceiver, commandPacket.getBytes()));
+    }
+    /**
+     * Transceiverを使い、Rawデータでコマンドを実行します
+     *
+     * @param transceiver コマンドを送受信するTransceiverをセットします
+     * @param data コマンドフレーム全体をセットします
+     * @return byte[] コマンドの実行結果バイト列で戻ります (タグを見失った場合はnull)
+     * @throws FeliCaException コマンドの発行に失敗した場合にスローされます
+     */
+    public static final byte[] executeRaw(Transceiver transceiver, byte[] data) throws FeliCaException {
+        try {
+            return transceiver.transceive(data);
+        } catch (NfcException e) {
+            throw new FeliCaException(e);
+        }
+    }
     /**
      * INfcTag#transceiveを実行します
      * 
@@ -969,5 +1168,15 @@ public final class FeliCaLib {
             throw new NfcException(e);
         }
     }
+    /**
+     * バイト列の指定した位置から8バイトを64ビットの値として取得します
+     * 
+     * @param bytes バイト列をセット
+     * @param offset 開始位置をセット
+     * @return long ビッグエンディアンとして解釈した値が戻ります
+     */
+    public static long getLong(byte[] bytes, int offset) {
+        return Util.toLong(bytes, offset);
+    }
     
 }
@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.felica.lib;
+
+import android.nfc.Tag;
+import android.nfc.TagLostException;
+import android.nfc.tech.NfcF;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.FeliCaException;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.CommandPacket;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.CommandResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.NfcException;
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver;
+
+/**
+ * NFC-F(FeliCa)への接続を保持したまま複数のコマンドを実行するセッションを提供します
+ *
+ * <pre>
+ * FeliCaLib#transceiveはコマンド毎に connect/close を行うため、履歴の読み込みのように
+ * 多数のコマンドを連続して発行する場合はこのクラスで接続を一度だけ確立してください。
+ *
+ *   FeliCaSession session = FeliCaSession.open(tag);
+ *   try {
+ *       session.execute(packet);
+ *       ...
+ *   } finally {
+ *       session.close();
+ *   }
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public class FeliCaSession implements Closeable, Transceiver {
+    private final NfcF nfcF;
+    private final FeliCaFrameEncoder encoder = new FeliCaFrameEncoder();
+    private boolean lost;
+
+    /**
+     * コンストラクタ
+     * @param nfcF 接続対象のNfcFをセット
+     */
+    private FeliCaSession(NfcF nfcF) {
+        this.nfcF = nfcF;
+    }
+    /**
+     * セッションを開始します (NfcF#connectを一度だけ実行します)
+     *
+     * @param tag Tagクラスの参照をセットします
+     * @return FeliCaSession 接続済みのセッションが戻ります
+     * @throws FeliCaException 接続に失敗した場合にスローされます
+     */
+    public static FeliCaSession open(Tag tag) throws FeliCaException {
+        //NfcFはFeliCa
+        NfcF nfcF = NfcF.get(tag);
+        if ( nfcF == null ) throw new FeliCaException("tag is not FeliCa(NFC-F) ");
+        try {
+            nfcF.connect();
+        } catch (IOException e) {
+            throw new FeliCaException(e);
+        }
+        return new FeliCaSession(nfcF);
+    }
+    /**
+     * セッションが有効か否かを検査します
+     * @return boolean 接続中でタグを見失っていない場合trueが戻ります
+     */
+    public boolean isConnected() {
+        return !this.lost && this.nfcF.isConnected();
+    }
+    /**
+     * このセッションで使用するフレームエンコーダを取得します
+     * @return FeliCaFrameEncoder フレームのバッファを再利用するエンコーダが戻ります
+     */
+    public FeliCaFrameEncoder getEncoder() {
+        return this.encoder;
+    }
+    /* (non-Javadoc)
+     * @see nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver#getMaxTransceiveLength()
+     */
+    @Override
+    public int getMaxTransceiveLength() {
+        return this.nfcF.getMaxTransceiveLength();
+    }
+    /**
+     * コマンドを実行します
+     *
+     * @param commandPacket 実行するコマンドパケットをセットします
+     * @return CommandResponse コマンドの実行結果が戻ります
+     * @throws FeliCaException コマンドの発行に失敗した場合にスローされます
+     */
+    public CommandResponse execute(CommandPacket commandPacket) throws FeliCaException {
+        byte[] result = this.executeRaw(commandPacket.getBytes());
+        return new CommandResponse(result);
+    }
+    /**
+     * Rawデータを使ってコマンドを実行します
+     *
+     * @param data コマンドにセットするデータをセットします
+     * @return byte[] コマンドの実行結果バイト列で戻ります
+     * @throws FeliCaException コマンドの発行に失敗した場合にスローされます
+     */
+    public byte[] executeRaw(byte[] data) throws FeliCaException {
+        try {
+            return this.transceive(data);
+        } catch (NfcException e) {
+            throw new FeliCaException(e);
+        }
+    }
+    /**
+     * 接続済みのNfcFでtransceiveを実行します
+     *
+     * @param data 実行するコマンドパケットをセットします
+     * @return byte[] コマンドの実行結果バイト列で戻ります (タグを見失った場合はnullが戻ります)
+     * @throws NfcException コマンドの発行に失敗した場合にスローされます
+     */
+    @Override
+    public byte[] transceive(byte[] data) throws NfcException {
+        if ( this.lost ) return null; //Tag Lost
+        try {
+            return this.nfcF.transceive(data);
+        } catch (TagLostException e) {
+            this.lost = true;
+            return null; //Tag Lost
+        } catch (IOException e) {
+            throw new NfcException(e);
+        }
+    }
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        try {
+            this.nfcF.close();
+        } catch (IOException e) {
+            //NOOP 既に切断済み
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.felica.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.IDm;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.PMm;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.ServiceCode;
+import nfclib.com.example.kenfujiyoshi.myapp01.felica.lib.FeliCaLib.SystemCode;
+import nfclib.com.example.kenfujiyoshi.myapp01.util.LruMap;
+import nfclib.com.example.kenfujiyoshi.myapp01.util.Util;
+
+/**
+ * FeliCaのシステムコード及びサービスコードの一覧を保持するキャッシュを提供します
+ *
+ * <pre>
+ * サービスコードの一覧はSearch Service Codeをサービスの件数分送信して取得するため、
+ * 一度取得した一覧を再利用して検索を省略します。一覧はカードのIDm毎に保持します。
+ *
+ * setModelReuse(true)とした場合に限り、カードの型(PMmのICコード、IDmのシステム番号、
+ * システムコードの一覧)毎にもサービスコードの一覧を保持し、初めて読み込むカードに使用します。
+ * 同じ型でも発行者によってサービス構成が異なる場合があるため、FeliCaTagはこの一覧の
+ * サービスが存在することをRequest Serviceで確かめてから使用します。
+ *
+ * 保持する件数には上限があり、最も長い間参照されていないものから破棄します (LRU)。
+ * saveで保存し、loadで読み込むことでプロセスをまたいで再利用できます。
+ * 一覧が変更されるとsetOnUpdateListenerでセットしたリスナーに通知します (loadを除く)。
+ * 複数のスレッドから同時に使用できます。
+ *
+ * サービスを追加、削除した(発行し直した)カードはinvalidateでそのカードの一覧を破棄してください。
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public final class ServiceEnumerationCache {
+    /** 既定の最大保持件数 */
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+    /** saveで保存する形式のバージョン */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * 一覧が変更された際に呼び出されるリスナーを提供します
+     */
+    public interface OnUpdateListener {
+        /**
+         * 一覧が変更された際に呼び出されます (変更したスレッドで呼び出されます)
+         * @param cache 変更されたキャッシュがセットされます
+         */
+        void onUpdate(ServiceEnumerationCache cache);
+    }
+
+    private static ServiceEnumerationCache sInstance;
+
+    private final LruMap<IDm, SystemCode[]> mSystemCodes;
+    private final LruMap<IDm, ServiceCode[]> mServiceCodes;
+    private final LruMap<String, ServiceCode[]> mModelServiceCodes;
+    private volatile boolean mModelReuse;
+    private volatile OnUpdateListener mListener;
+
+    /**
+     * プロセス内で共有するキャッシュを取得します (最初の呼び出しで作成します)
+     * @return ServiceEnumerationCache 共有キャッシュが戻ります
+     */
+    public static synchronized ServiceEnumerationCache getInstance() {
+        if ( sInstance == null ) {
+            sInstance = new ServiceEnumerationCache(DEFAULT_MAX_ENTRIES);
+        }
+        return sInstance;
+    }
+    /**
+     * コンストラクタ
+     * @param maxEntries 最大保持件数 (キーの種類毎)をセット
+     */
+    public ServiceEnumerationCache(int maxEntries) {
+        mSystemCodes = new LruMap<IDm, SystemCode[]>(maxEntries);
+        mServiceCodes = new LruMap<IDm, ServiceCode[]>(maxEntries);
+        mModelServiceCodes = new LruMap<String, ServiceCode[]>(maxEntries);
+    }
+    /**
+     * 同じ型のカードのサービスコードの一覧を再利用するか否かをセットします
+     * <pre>
+     *  既定では再利用しません (IDm毎の一覧のみ)
+     * </pre>
+     * @param modelReuse 再利用する場合はtrueをセット
+     */
+    public void setModelReuse(boolean modelReuse) {
+        mModelReuse = modelReuse;
+    }
+    /**
+     * 同じ型のカードのサービスコードの一覧を再利用するか否かを取得します
+     * @return boolean 再利用する場合はtrueが戻ります
+     */
+    public boolean isModelReuse() {
+        return mModelReuse;
+    }
+    /**
+     * 一覧が変更された際に呼び出されるリスナーをセットします
+     * @param listener リスナーをセット (nullの場合は通知しない)
+     */
+    public synchronized void setOnUpdateListener(OnUpdateListener listener) {
+        mListener = listener;
+    }
+    /**
+     * リスナーが指定したものである場合に限り、リスナーを解除します
+     * <pre>
+     *  後から別のリスナーがセットされている場合は、そのリスナーを解除しません
+     * </pre>
+     * @param listener 解除するリスナーをセット
+     * @return boolean 解除した場合はtrueが戻ります
+     */
+    public synchronized boolean removeOnUpdateListener(OnUpdateListener listener) {
+        if ( mListener != listener ) return false;
+        mListener = null;
+        return true;
+    }
+    /**
+     * カードのシステムコードの一覧を取得します
+     * @param idm カードのIDmをセット
+     * @return SystemCode[] 保持しているシステムコードの一覧が戻ります (無い場合はnull)
+     */
+    public SystemCode[] getSystemCodes(IDm idm) {
+        if ( idm == null ) return null;
+        SystemCode[] codes;
+        synchronized ( this ) {
+            codes = mSystemCodes.get(idm);
+        }
+        return codes != null ? codes.clone() : null;
+    }
+    /**
+     * カードのシステムコードの一覧を保持します
+     * @param idm カードのIDmをセット
+     * @param systemCodes システムコードの一覧をセット
+     */
+    public void putSystemCodes(IDm idm, SystemCode[] systemCodes) {
+        if ( idm == null || systemCodes == null ) return;
+        synchronized ( this ) {
+            mSystemCodes.put(idm, systemCodes.clone());
+        }
+        this.notifyUpdate();
+    }
+    /**
+     * カードのサービスコードの一覧を取得します
+     * @param idm カード(システム)のIDmをセット
+     * @return ServiceCode[] 保持しているサービスコードの一覧が戻ります (無い場合はnull)
+     */
+    public ServiceCode[] getServiceCodes(IDm idm) {
+        if ( idm == null ) return null;
+        ServiceCode[] codes;
+        synchronized ( this ) {
+            codes = mServiceCodes.get(idm);
+        }
+        return codes != null ? codes.clone() : null;
+    }
+    /**
+     * 同じ型のカードのサービスコードの一覧を取得します
+     * <pre>
+     *  このカードに同じサービスが存在するかは確かめていないため、使用する場合は
+     *  カードへ問い合わせた上でputServiceCodesでこのカードの一覧として保持してください
+     * </pre>
+     * @param idm カード(システム)のIDmをセット
+     * @param pmm カードのPMmをセット
+     * @param systemCodes カードのシステムコードの一覧をセット
+     * @return ServiceCode[] 保持しているサービスコードの一覧が戻ります (無い場合、再利用しない場合はnull)
+     */
+    public ServiceCode[] getServiceCodes(IDm idm, PMm pmm, SystemCode[] systemCodes) {
+        if ( !mModelReuse ) return null;
+        String key = getModelKey(idm, pmm, systemCodes);
+        if ( key == null ) return null;
+        ServiceCode[] codes;
+        synchronized ( this ) {
+            codes = mModelServiceCodes.get(key);
+        }
+        return codes != null ? codes.clone() : null;
+    }
+    /**
+     * カードのサービスコードの一覧を保持します
+     * <pre>
+     *  同じ型のカードの一覧を再利用する場合、PMm、システムコードの一覧をセットすると
+     *  同じ型のカードの一覧としても保持します
+     * </pre>
+     * @param idm カード(システム)のIDmをセット
+     * @param pmm カードのPMmをセット (不明な場合はnull)
+     * @param systemCodes カードのシステムコードの一覧をセット (不明な場合はnull)
+     * @param serviceCodes サービスコードの一覧をセット
+     */
+    public void putServiceCodes(IDm idm, PMm pmm, SystemCode[] systemCodes
+            , ServiceCode[] serviceCodes) {
+        if ( idm == null || serviceCodes == null ) return;
+        ServiceCode[] codes = serviceCodes.clone();
+        String key = mModelReuse ? getModelKey(idm, pmm, systemCodes) : null;
+        synchronized ( this ) {
+            mServiceCodes.put(idm, codes);
+            if ( key != null ) {
+                mModelServiceCodes.put(key, codes);
+            }
+        }
+        this.notifyUpdate();
+    }
+    /**
+     * カードの一覧を破棄します
+     * <pre>
+     *  同じ型のカードの一覧は破棄しません
+     * </pre>
+     * @param idm カードのIDmをセット
+     */
+    public void invalidate(IDm idm) {
+        if ( idm == null ) return;
+        synchronized ( this ) {
+            mSystemCodes.remove(idm);
+            mServiceCodes.remove(idm);
+        }
+        this.notifyUpdate();
+    }
+    /**
+     * 全ての一覧を破棄します
+     */
+    public void clear() {
+        synchronized ( this ) {
+            mSystemCodes.clear();
+            mServiceCodes.clear();
+            mModelServiceCodes.clear();
+        }
+        this.notifyUpdate();
+    }
+    /**
+     * 保持している一覧の件数を取得します
+     * @return int 件数が戻ります
+     */
+    public synchronized int size() {
+        return mSystemCodes.size() + mServiceCodes.size() + mModelServiceCodes.size();
+    }
+    /**
+     * 保持している一覧を書き出します
+     * @param out 出力先のストリームをセット (このメソッドでは閉じません)
+     * @throws IOException
+     */
+    public void save(OutputStream out) throws IOException {
+        //書き出す間は保持しているものの複製を使用する (古いものから順に並ぶ)
+        Map<IDm, SystemCode[]> systems;
+        Map<IDm, ServiceCode[]> services;
+        Map<String, ServiceCode[]> models;
+        synchronized ( this ) {
+            systems = new LinkedHashMap<IDm, SystemCode[]>(mSystemCodes);
+            services = new LinkedHashMap<IDm, ServiceCode[]>(mServiceCodes);
+            models = new LinkedHashMap<String, ServiceCode[]>(mModelServiceCodes);
+        }
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeInt(FORMAT_VERSION);
+
+
+        dos.writeInt(systems.size());
+        for ( Map.Entry<IDm, SystemCode[]> e : systems.entrySet() ) {
+            dos.writeLong(e.getKey().longValue());
+            dos.writeShort(e.getValue().length);
+            for ( SystemCode sc : e.getValue() ) {
+                writeBytes(dos, sc.getBytes());
+            }
+        }
+        dos.writeInt(services.size());
+        for ( Map.Entry<IDm, ServiceCode[]> e : services.entrySet() ) {
+            dos.writeLong(e.getKey().longValue());
+            writeServiceCodes(dos, e.getValue());
+        }
+        dos.writeInt(models.size());
+        for ( Map.Entry<String, ServiceCode[]> e : models.entrySet() ) {
+            dos.writeUTF(e.getKey());
+            writeServiceCodes(dos, e.getValue());
+        }
+        dos.flush();
+    }
+    /**
+     * saveで書き出した一覧を読み込んで保持します
+     * <pre>
+     *  既に保持している一覧(読み込みより後に取得した一覧)は上書きしません。
+     *  形式が異なる場合は何も読み込みません
+     * </pre>
+     * @param in 入力元のストリームをセット (このメソッドでは閉じません)
+     * @throws IOException
+     */
+    public void load(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(in);
+        if ( dis.readInt() != FORMAT_VERSION ) return;
+
+        int systems = dis.readInt();
+        for ( int i = 0; i < systems; i++ ) {
+            IDm idm = new IDm(dis.readLong());
+            SystemCode[] codes = new SystemCode[dis.readUnsignedShort()];
+            for ( int c = 0; c < codes.length; c++ ) {
+                codes[c] = new SystemCode(readBytes(dis));
+            }
+            this.putIfAbsent(mSystemCodes, idm, codes);
+        }
+        int services = dis.readInt();
+        for ( int i = 0; i < services; i++ ) {
+            IDm idm = new IDm(dis.readLong());
+            this.putIfAbsent(mServiceCodes, idm, readServiceCodes(dis));
+        }
+        int models = dis.readInt();
+        for ( int i = 0; i < models; i++ ) {
+            String key = dis.readUTF();
+            this.putIfAbsent(mModelServiceCodes, key, readServiceCodes(dis));
+        }
+    }
+    /**
+     * キーの一覧を保持していない場合にのみ保持します
+     * @param cache 保持先をセット
+     * @param key キーをセット
+     * @param value 一覧をセット
+     */
+    private synchronized <K, V> void putIfAbsent(Map<K, V> cache, K key, V value) {
+        if ( !cache.containsKey(key) ) {
+            cache.put(key, value);
+        }
+    }
+    /**
+     * 一覧の変更をリスナーに通知します
+     */
+    private void notifyUpdate() {
+        OnUpdateListener listener = mListener;
+        if ( listener != null ) {
+            listener.onUpdate(this);
+        }
+    }
+    /**
+     * カードの型を表すキーを取得します
+     * <pre>
+     *  ICコードが同じでも発行者によってサービス構成は異なるため、
+     *  ICコード(PMmの上位2バイト)、システム番号(IDmの上位4ビット)、システムコードの一覧を連結します
+     * </pre>
+     * @param idm カード(システム)のIDmをセット
+     * @param pmm カードのPMmをセット
+     * @param systemCodes カードのシステムコードの一覧をセット
+     * @return String キーが戻ります (いずれかがnullの場合はnull)
+     */
+    private static String getModelKey(IDm idm, PMm pmm, SystemCode[] systemCodes) {
+        if ( idm == null || pmm == null || systemCodes == null ) return null;
+        StringBuilder sb = new StringBuilder(8 + systemCodes.length * 5);
+        sb.append(Integer.toHexString((int) (pmm.longValue() >>> 48)));
+        sb.append('/').append(Integer.toHexString((int) (idm.longValue() >>> 60)));
+        for ( SystemCode sc : systemCodes ) {
+            byte[] bytes = sc.getBytes();
+            sb.append('/');
+            Util.appendHex(sb, bytes, 0, bytes.length);
+        }
+        return sb.toString();
+    }
+    /**
+     * サービスコードの一覧を書き出します
+     * @param dos 出力先をセット
+     * @param codes サービスコードの一覧をセット
+     * @throws IOException
+     */
+    private static void writeServiceCodes(DataOutputStream dos, ServiceCode[] codes)
+            throws IOException {
+        dos.writeShort(codes.length);
+        for ( ServiceCode sc : codes ) {
+            writeBytes(dos, sc.getBytes());
+        }
+    }
+    /**
+     * サービスコードの一覧を読み込みます
+     * @param dis 入力元をセット
+     * @return ServiceCode[] サービスコードの一覧が戻ります
+     * @throws IOException
+     */
+    private static ServiceCode[] readServiceCodes(DataInputStream dis) throws IOException {
+        ServiceCode[] codes = new ServiceCode[dis.readUnsignedShort()];
+        for ( int i = 0; i < codes.length; i++ ) {
+            codes[i] = new ServiceCode(readBytes(dis));
+        }
+        return codes;
+    }
+    /**
+     * 長さ(1バイト)に続けてバイト列を書き出します
+     * @param dos 出力先をセット
+     * @param bytes バイト列をセット
+     * @throws IOException
+     */
+    private static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+        dos.writeByte(bytes.length);
+        dos.write(bytes);
+    }
+    /**
+     * writeBytesで書き出したバイト列を読み込みます
+     * @param dis 入力元をセット
+     * @return byte[] バイト列が戻ります
+     * @throws IOException
+     */
+    private static byte[] readBytes(DataInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readUnsignedByte()];
+        dis.readFully(bytes);
+        return bytes;
+    }
+}
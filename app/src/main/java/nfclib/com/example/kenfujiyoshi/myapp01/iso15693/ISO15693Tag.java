@@ -11,32 +11,35 @@
  */
 package nfclib.com.example.kenfujiyoshi.myapp01.iso15693;
 
-import android.content.res.Resources;
 import android.nfc.Tag;
 import android.nfc.tech.NfcV;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-import com.example.kenfujiyoshi.myapp01.R;
-
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.InventoryRequest;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.InventoryResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadMultipleBlocksRequest;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadMultipleBlocksResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadMultipleBlocksResponse.BlockData;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadSingleBlockRequest;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.ReadSingleBlockResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.SystemInformationRequest;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.SystemInformationResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.WriteMultipleBlocksRequest;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.WriteResponse;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.WriteSingleBlockRequest;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.ErrorCode;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.MemorySizeInfo;
 import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.UID;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Session;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.SystemInformationCache;
 import nfclib.com.example.kenfujiyoshi.myapp01.nfc.NfcException;
 import nfclib.com.example.kenfujiyoshi.myapp01.nfc.NfcTag;
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver;
 import nfclib.com.example.kenfujiyoshi.myapp01.util.Util;
 
 import static nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.Flags.ADDRESSED_MODE;
@@ -67,9 +70,24 @@ public class ISO15693Tag extends NfcTag {
             }
         };
 
+    /** タグへの参照もTransceiverも無い場合のメッセージ (JVM上でも使用するためリソースは参照しない) */
+    private static final String MSG_NULL_SERVICE = "tagService is null. Nothing to read.";
+    /** 応答が無い(タグを見失った)場合のメッセージ */
+    private static final String MSG_TRANSCEIVE_FAILURE = "trancieve fail";
+
     protected Tag mNfcTag;
     protected UID mUID;
     protected byte mDsfId;
+    /** 最大送信長が取得できない場合に使用するフレーム長 (NfcVの既定値) */
+    public static final int DEFAULT_MAX_TRANSCEIVE_LENGTH = 253;
+
+    protected ISO15693Session mSession;
+    protected Transceiver mTransceiver;
+    protected MemorySizeInfo mMemoryInfo;
+    /** システム情報のキャッシュ (getSystemInformationCacheで参照します) */
+    protected SystemInformationCache mSystemInfoCache;
+    private boolean mSystemInfoCacheSet;
+    protected boolean mWriteMultipleUnsupported;
     /**
      * コンストラクタ
      * @param in 入力するパーセル化オブジェクトをセット
@@ -88,6 +106,20 @@ public class ISO15693Tag extends NfcTag {
         mDsfId = nfcV.getDsfId();
         mUID = new UID(mNfcTag.getId());
     }
+    /**
+     * コンストラクタ
+     * <pre>
+     *  android.nfc.Tagを使わず、指定したTransceiverでコマンドを送受信します (模擬カード等)
+     * </pre>
+     * @param transceiver コマンドを送受信するTransceiverをセット
+     * @param uid タグのUIDをセット
+     * @param dsfId タグのDSFIDをセット
+     */
+    public ISO15693Tag(Transceiver transceiver, UID uid, byte dsfId) {
+        mTransceiver = transceiver;
+        mUID = uid;
+        mDsfId = dsfId;
+    }
     /*
      * @see com.example.kenfujiyoshi.myapp01.nfc.NfcTag#writeToParcel(android.os.Parcel, int)
      * @param dest Parcel object
@@ -117,8 +149,8 @@ public class ISO15693Tag extends NfcTag {
      * @throws ISO15693Exception
      */
     public InventoryResponse inventory() throws ISO15693Exception {
-        if ( mNfcTag == null ) {
-            throw new ISO15693Exception(Resources.getSystem().getString(R.string.null_service));
+        if ( mNfcTag == null && mTransceiver == null ) {
+            throw new ISO15693Exception(MSG_NULL_SERVICE);
         }
         // read single block
         InventoryRequest req = 
@@ -129,9 +161,9 @@ public class ISO15693Tag extends NfcTag {
                     , new byte[]{});
         
         try {
-            byte[] result = ISO15693Lib.transceive(mNfcTag, req.getBytes());
+            byte[] result = this.transceive(req.getBytes());
             if ( result == null ) {
-                throw new ISO15693Exception(R.string.trancieve_failure + " : request = " + req.toString());
+                throw new ISO15693Exception(MSG_TRANSCEIVE_FAILURE + " : request = " + req.toString());
             }
             return new InventoryResponse(result);
         } catch (NfcException e) {
@@ -146,8 +178,8 @@ public class ISO15693Tag extends NfcTag {
      * @throws ISO15693Exception
      */
     public ReadSingleBlockResponse readSingleBlock(byte blockNumber) throws ISO15693Exception {
-        if ( mNfcTag == null ) {
-            throw new ISO15693Exception(Resources.getSystem().getString(R.string.null_service));
+        if ( mNfcTag == null && mTransceiver == null ) {
+            throw new ISO15693Exception(MSG_NULL_SERVICE);
         }
         // read single block
         ReadSingleBlockRequest req = 
@@ -157,9 +189,9 @@ public class ISO15693Tag extends NfcTag {
                     , blockNumber);
         
         try {
-            byte[] result = ISO15693Lib.transceive(mNfcTag, req.getBytes());
+            byte[] result = this.transceive(req.getBytes());
             if ( result == null ) {
-                throw new ISO15693Exception(R.string.trancieve_failure + " : request = " + req.toString());
+                throw new ISO15693Exception(MSG_TRANSCEIVE_FAILURE + " : request = " + req.toString());
             }
             return new ReadSingleBlockResponse(result); 
         } catch (NfcException e) {
@@ -177,27 +209,146 @@ public class ISO15693Tag extends NfcTag {
      */
     public ReadMultipleBlocksResponse readMultipleBlocks(byte blockNumber
             , byte blockSize, byte numberOfBlocks) throws ISO15693Exception {
-        if ( mNfcTag == null ) {
-            throw new ISO15693Exception(Resources.getSystem().getString(R.string.null_service));
+        return this.readMultipleBlocks(blockNumber & 0xff, blockSize & 0xff
+                , numberOfBlocks != 0 ? numberOfBlocks & 0xff : 256);
+    }
+    /**
+     * マルチブロックモードでデータを読み込みます
+     * <pre>
+     *  コマンドのブロック数フィールドは0オリジン(ブロック数-1)で送信します
+     * </pre>
+     * @param blockNumber 読み込む開始ブロック番号 (0～255)をセット
+     * @param blockSize 読み込むブロックサイズ(byte) をセット
+     * @param numberOfBlocks まとめて読み込むブロック数 (1～256)をセット
+     * @return ReadMultiBlockResponse デバイスに送信したコマンドのレスポンスが戻ります
+     * @throws ISO15693Exception
+     */
+    public ReadMultipleBlocksResponse readMultipleBlocks(int blockNumber
+            , int blockSize, int numberOfBlocks) throws ISO15693Exception {
+        if ( mNfcTag == null && mTransceiver == null ) {
+            throw new ISO15693Exception(MSG_NULL_SERVICE);
         }
         // read multiple block
         ReadMultipleBlocksRequest req = 
             new ReadMultipleBlocksRequest((byte) 
                      (( DATA_RATE_HIGH | ADDRESSED_MODE | OPTION_COMMAND_ON) & 0xff) 
                     , mUID
-                    , blockNumber
-                    , numberOfBlocks);
+                    , (byte) blockNumber
+                    , (byte) ((numberOfBlocks - 1) & 0xff)); // 0オリジン
         
         try {
-            byte[] result = ISO15693Lib.transceive(mNfcTag, req.getBytes());
+            byte[] result = this.transceive(req.getBytes());
             if ( result == null ) {
-                throw new ISO15693Exception(R.string.trancieve_failure + " : request = " + req.toString());
+                throw new ISO15693Exception(MSG_TRANSCEIVE_FAILURE + " : request = " + req.toString());
             }
             return new ReadMultipleBlocksResponse(result, blockSize, numberOfBlocks); 
         } catch (NfcException e) {
             throw new ISO15693Exception(e);
         }
     }
+    /**
+     * 全てのブロックを、最大送信長に収まるブロック数毎に分割して読み込みます
+     *
+     * @param listener 分割した読み込みが完了する毎に呼び出されるリスナをセット (不要な場合はnull)
+     * @return BlockData[] 全ブロックのデータが戻ります
+     * @throws ISO15693Exception
+     * @see #readBlocks(int, int, OnBlocksReadListener)
+     */
+    public BlockData[] readAllBlocks(OnBlocksReadListener listener) throws ISO15693Exception {
+        boolean ownSession = (mSession == null && mTransceiver == null);
+        if ( ownSession ) {
+            this.openSession();
+        }
+        try {
+            return this.readBlocks(0, this.getMemoryInfo().getBlockCount(), listener);
+        } finally {
+            if ( ownSession ) {
+                this.closeSession();
+            }
+        }
+    }
+    /**
+     * 連続したブロックを、最大送信長に収まるブロック数毎に分割して読み込みます
+     * <pre>
+     *  応答(フラグ1バイト + ブロック毎にセキュリティステータス1バイト+データ)が最大送信長に
+     *  収まるブロック数毎にReadMultipleBlocks(0x23)を発行します。
+     *  フレーム長が原因となり得るエラー(COMMAND_NOT_RECOGNISED、UNKNOWN_ERROR)が応答された
+     *  場合と送受信に失敗した場合は分割するブロック数を半分にして再試行し、1ブロックでも
+     *  失敗した場合は例外をスローします。
+     *  ブロックのエラー(BLOCK_NOT_AVAILABLE等)は分割しても解消しないため、すぐに例外をスローします
+     * </pre>
+     * @param firstBlockNumber 読み込む開始ブロック番号 (0オリジン)をセット
+     * @param numberOfBlocks 読み込むブロック数をセット
+     * @param listener 分割した読み込みが完了する毎に呼び出されるリスナをセット (不要な場合はnull)
+     * @return BlockData[] 読み込んだブロックのデータが戻ります
+     * @throws ISO15693Exception
+     */
+    public BlockData[] readBlocks(int firstBlockNumber, int numberOfBlocks
+            , OnBlocksReadListener listener) throws ISO15693Exception {
+        if ( firstBlockNumber < 0 || numberOfBlocks < 0 || firstBlockNumber + numberOfBlocks > 256 ) {
+            throw new ISO15693Exception("block range out of range : "
+                    + firstBlockNumber + "+" + numberOfBlocks);
+        }
+        int blockSize = this.getMemoryInfo().getBlockSize();
+        int perChunk = (this.getMaxTransceiveLength() - 1) / (blockSize + 1);
+        perChunk = Math.max(1, Math.min(perChunk, 256));
+        
+        BlockData[] result = new BlockData[numberOfBlocks];
+        int done = 0;
+        while ( done < numberOfBlocks ) {
+            int n = Math.min(perChunk, numberOfBlocks - done);
+            ReadMultipleBlocksResponse resp;
+            try {
+                resp = this.readMultipleBlocks(firstBlockNumber + done, blockSize, n);
+            } catch (ISO15693Exception e) {
+                //応答が長過ぎて受信できなかった可能性がある
+                if ( n > 1 ) {
+                    perChunk = n / 2;
+                    continue;
+                }
+                throw e;
+            }
+            if ( resp.hasError() ) {
+                if ( n > 1 && isFrameSizeError(resp.getErrorCode()) ) {
+                    perChunk = n / 2;
+                    continue;
+                }
+                throw new ISO15693Exception( resp.getErrorCode() + ":" 
+                        + ErrorCode.getErrorMessage(resp.getErrorCode()));
+            }
+            BlockData[] chunk = resp.getBlockDatas();
+            System.arraycopy(chunk, 0, result, done, n);
+            if ( listener != null ) {
+                listener.onBlocksRead(firstBlockNumber + done, chunk);
+            }
+            done += n;
+        }
+        return result;
+    }
+    /**
+     * 一度に読み込むブロック数を減らすと解消する可能性のあるエラーか否かを判定します
+     * @param errorCode エラーコードをセット
+     * @return boolean フレーム長が原因となり得るエラーの場合はtrueが戻ります
+     */
+    private static boolean isFrameSizeError(byte errorCode) {
+        return errorCode == ErrorCode.COMMAND_NOT_RECOGNISED || errorCode == ErrorCode.UNKNOWN_ERROR;
+    }
+    /**
+     * 読み込んだブロックのデータを連結してメモリイメージを作成します
+     * @param blocks ブロックのデータをセット
+     * @return byte[] 全ブロックのデータを連結したバイト列が戻ります
+     */
+    public static byte[] toMemoryImage(BlockData[] blocks) {
+        int length = 0;
+        for ( BlockData b : blocks ) {
+            length += b.getData().length;
+        }
+        ByteBuffer buff = ByteBuffer.allocate(length);
+        for ( BlockData b : blocks ) {
+            buff.put(b.getData());
+        }
+        return buff.array();
+    }
     /**
      * シングルブロックモードでデータを書き込みます
      * <pre>
@@ -209,8 +360,8 @@ public class ISO15693Tag extends NfcTag {
      * @throws ISO15693Exception
      */
     public WriteResponse writeSingleBlock(byte blockNumber, byte[] data) throws ISO15693Exception {
-        if ( mNfcTag == null ) {
-            throw new ISO15693Exception(Resources.getSystem().getString(R.string.null_service));
+        if ( mNfcTag == null && mTransceiver == null ) {
+            throw new ISO15693Exception(MSG_NULL_SERVICE);
         }
         // read single block
         WriteSingleBlockRequest req = 
@@ -221,9 +372,9 @@ public class ISO15693Tag extends NfcTag {
                     , data);
         
         try {
-            byte[] result = ISO15693Lib.transceive(mNfcTag, req.getBytes());
+            byte[] result = this.transceive(req.getBytes());
             if ( result == null ) {
-                throw new ISO15693Exception(R.string.trancieve_failure + " : request = " + req.toString());
+                throw new ISO15693Exception(MSG_TRANSCEIVE_FAILURE + " : request = " + req.toString());
             }
            return new WriteResponse(result); 
         } catch (NfcException e) {
@@ -233,11 +384,13 @@ public class ISO15693Tag extends NfcTag {
     /**
      * マルチブロックモードでデータを書き込みます
      * <pre>
-     *  データはブロックサイズ(4byte)で均等に分割されて、ブロックサイズ×書きこむブロック数の
+     *  データはブロックサイズで均等に分割されて、ブロックサイズ×書きこむブロック数の
      *  バイトで書き出されます。はみ出したデータは無視されます
      *  
-     *  ICODE SLIは WriteMultipleBlocksをサポートしていません。
-     *  なので、writeSingleBlockコマンドを複数回実行することで代替えしています
+     *  書き込みは最大送信長に収まるブロック数毎にWriteMultipleBlocks(0x24)で行います。
+     *  タグがCOMMAND_NOT_SUPPORTEDを応答した場合 (ICODE SLI等) はそのブロック範囲を
+     *  WriteSingleBlockで書き込み、以降のWriteMultipleBlocksは送信しません。
+     *  メモリ構成は一度取得したものを使い回します (getMemoryInfo参照)
      * </pre>
      * @param firstBlockNumber 書きこむブロックの開始番号をセット
      * @param numberOfBlocks 一度に書きこむブロックの数をセット
@@ -247,22 +400,34 @@ public class ISO15693Tag extends NfcTag {
      */
     public WriteResponse writeMultipleBlocks(byte firstBlockNumber
             , byte numberOfBlocks, byte[] data) throws ISO15693Exception {
-        if ( mNfcTag == null ) {
-            throw new ISO15693Exception(Resources.getSystem().getString(R.string.null_service));
+        if ( mNfcTag == null && mTransceiver == null ) {
+            throw new ISO15693Exception(MSG_NULL_SERVICE);
         }
-        SystemInformationResponse sysInfo = this.getSystemInformation();
-        if ( sysInfo == null || sysInfo.hasError()) {
-            throw new ISO15693Exception(
-                    Resources.getSystem().getString(R.string.get_system_info_failed, "ISO15693")
-                            + sysInfo.getErrorCode());
+        //システム情報の取得と全ブロックの書き込みを一つの接続で行う
+        boolean ownSession = (mSession == null);
+        if ( ownSession ) {
+            this.openSession();
         }
-        
-        final MemorySizeInfo memInfo = sysInfo.getMemoryInfo();
-        if ( memInfo == null || memInfo.getNumberOfBlocks() == 0) {
-            throw new ISO15693Exception(
-                    Resources.getSystem().getString(R.string.get_memory_size_failed, "ISO15693")
-            );
-        }        
+        try {
+            return this.writeBlocksInSession(firstBlockNumber & 0xff, numberOfBlocks & 0xff, data);
+        } finally {
+            if ( ownSession ) {
+                this.closeSession();
+            }
+        }
+    }
+    /**
+     * 開かれたセッション上で、最大送信長毎に分割したブロックを書き込みます
+     *
+     * @param firstBlockNumber 書きこむブロックの開始番号をセット
+     * @param numberOfBlocks 書きこむブロックの数をセット
+     * @param data 書きこむデータをセット
+     * @return WriteResponse 最後に実行したコマンドのレスポンスが戻ります
+     * @throws ISO15693Exception
+     */
+    private WriteResponse writeBlocksInSession(int firstBlockNumber
+            , int numberOfBlocks, byte[] data) throws ISO15693Exception {
+        final MemorySizeInfo memInfo = this.getMemoryInfo();
         
         //空のバッファを用意
         int blockSize = memInfo.getBlockSize();
@@ -273,46 +438,171 @@ public class ISO15693Tag extends NfcTag {
         } else {
             buff.put(data, 0, length);
         }
-        buff.position(0);
+        byte[] all = buff.array();
+        
+        //フラグ+コマンド+UID+開始ブロック+ブロック数 の12バイトを除いた分がデータ
+        int perFrame = (this.getMaxTransceiveLength() - 12) / blockSize;
+        perFrame = Math.max(1, Math.min(perFrame, 256));
         
-        byte[] b = new byte[blockSize];
         WriteResponse resp = null;
-        for ( int i = firstBlockNumber; i < firstBlockNumber + numberOfBlocks; i++) {
-            buff.get(b, 0, blockSize);
-            resp = this.writeSingleBlock((byte)i, b);
-            if ( resp.hasError() ) {
-                throw new ISO15693Exception( resp.getErrorCode() + ":" 
-                        + ErrorCode.getErrorMessage(resp.getErrorCode()));
+        int done = 0;
+        while ( done < numberOfBlocks ) {
+            int n = Math.min(perFrame, numberOfBlocks - done);
+            int block = firstBlockNumber + done;
+            byte[] chunk = Arrays.copyOfRange(all, done * blockSize, (done + n) * blockSize);
+            if ( n > 1 && !mWriteMultipleUnsupported ) {
+                resp = this.writeMultipleBlocksRequest(block, n, chunk);
+                if ( !resp.hasError() ) {
+                    done += n;
+                    continue;
+                }
+                if ( resp.getErrorCode() != ErrorCode.COMMAND_NOT_SUPPORTED ) {
+                    throw new ISO15693Exception( resp.getErrorCode() + ":" 
+                            + ErrorCode.getErrorMessage(resp.getErrorCode()));
+                }
+                mWriteMultipleUnsupported = true;
+            }
+            //WriteMultipleBlocksをサポートしていない場合はシングルブロックで書き込む
+            byte[] b = new byte[blockSize];
+            for ( int i = 0; i < n; i++ ) {
+                System.arraycopy(chunk, i * blockSize, b, 0, blockSize);
+                resp = this.writeSingleBlock((byte)(block + i), b);
+                if ( resp.hasError() ) {
+                    throw new ISO15693Exception( resp.getErrorCode() + ":" 
+                            + ErrorCode.getErrorMessage(resp.getErrorCode()));
+                }
             }
+            done += n;
         }
         return resp;
-        /*
-        // write multiple blocks
+    }
+    /**
+     * WriteMultipleBlocks(0x24)コマンドを1回発行します
+     *
+     * @param firstBlockNumber 書きこむブロックの開始番号をセット
+     * @param numberOfBlocks 書きこむブロックの数 (1～256)をセット
+     * @param data 書きこむデータ (ブロックサイズ×ブロック数)をセット
+     * @return WriteResponse デバイスに送信したコマンドのレスポンスが戻ります
+     * @throws ISO15693Exception
+     */
+    protected WriteResponse writeMultipleBlocksRequest(int firstBlockNumber
+            , int numberOfBlocks, byte[] data) throws ISO15693Exception {
         WriteMultipleBlocksRequest req = 
             new WriteMultipleBlocksRequest((byte) 
-                     (( DATA_RATE_HIGH | ADDRESSED_MODE | OPTION_COMMAND_ON) & 0xff) 
+                     (( DATA_RATE_HIGH | ADDRESSED_MODE ) & 0xff) 
                     , mUID
-                    , firstBlockNumber
-                    , (byte)((numberOfBlocks - 1) & 0xff) // 0オリジン
+                    , (byte) firstBlockNumber
+                    , (byte) ((numberOfBlocks - 1) & 0xff) // 0オリジン
                     , data);
         
         try {
-            byte[] result = ISO15693Lib.transceive(mNfcTag, req.getBytes());
+            byte[] result = this.transceive(req.getBytes());
+            if ( result == null ) {
+                throw new ISO15693Exception(MSG_TRANSCEIVE_FAILURE + " : request = " + req.toString());
+            }
             return new WriteResponse(result); 
         } catch (NfcException e) {
             throw new ISO15693Exception(e);
         }
-        */
+    }
+    /**
+     * メモリ構成(ブロック数、ブロックサイズ)を取得します
+     * <pre>
+     *  getSystemInformationで取得済み、またはsetMemoryInfoでセット済みの場合は
+     *  タグへ問い合わせずにその値を戻します
+     * </pre>
+     * @return MemorySizeInfo メモリ構成が戻ります
+     * @throws ISO15693Exception メモリ構成を取得できない場合にスローされます
+     */
+    public MemorySizeInfo getMemoryInfo() throws ISO15693Exception {
+        if ( mMemoryInfo != null ) {
+            return mMemoryInfo;
+        }
+        SystemInformationResponse sysInfo = this.getSystemInformation();
+        if ( sysInfo == null || sysInfo.hasError()) {
+            throw new ISO15693Exception("ISO15693 Could not retrieve system information from device : "
+                    + (sysInfo != null ? sysInfo.getErrorCode() : ""));
+        }
+        if ( mMemoryInfo == null ) {
+            throw new ISO15693Exception("ISO15693 Get memory size failed");
+        }
+        return mMemoryInfo;
+    }
+    /**
+     * このタグのシステム情報とメモリ構成の保持を破棄します
+     * <pre>
+     *  AFIやDSFIDを書き換えた場合に呼び出してください。次回のgetSystemInformationで
+     *  タグへ問い合わせます
+     * </pre>
+     */
+    public void invalidateSystemInformation() {
+        mMemoryInfo = null;
+        SystemInformationCache cache = this.getSystemInformationCache();
+        if ( cache != null ) {
+            cache.invalidate(mUID);
+        }
+    }
+    /**
+     * システム情報のキャッシュをセットします
+     * @param cache キャッシュをセット (nullをセットするとキャッシュを使用しません)
+     */
+    public void setSystemInformationCache(SystemInformationCache cache) {
+        mSystemInfoCache = cache;
+        mSystemInfoCacheSet = true;
+    }
+    /**
+     * システム情報のキャッシュを取得します
+     * <pre>
+     *  setSystemInformationCacheでセットしていない場合は、最初の呼び出しで共有キャッシュ
+     *  (SystemInformationCache#getInstance)を参照します
+     * </pre>
+     * @return SystemInformationCache キャッシュが戻ります (キャッシュを使用しない場合はnull)
+     */
+    public SystemInformationCache getSystemInformationCache() {
+        if ( !mSystemInfoCacheSet ) {
+            mSystemInfoCache = SystemInformationCache.getInstance();
+            mSystemInfoCacheSet = true;
+        }
+        return mSystemInfoCache;
+    }
+    /**
+     * 既知のメモリ構成をセットします
+     * @param memoryInfo メモリ構成をセット (nullをセットすると次回タグへ問い合わせます)
+     */
+    public void setMemoryInfo(MemorySizeInfo memoryInfo) {
+        mMemoryInfo = memoryInfo;
     }
     /**
      * システム情報を取得します
-     *  
+     * <pre>
+     *  システム情報のキャッシュにこのタグのUIDの情報がある場合はタグへ問い合わせずに
+     *  それを戻します
+     * </pre>
      * @return GetSystemInformationResponse コマンド実行結果の応答を返します
      * @throws ISO15693Exception
      */
     public SystemInformationResponse getSystemInformation() throws ISO15693Exception  {
-        if ( mNfcTag == null ) {
-            throw new ISO15693Exception(Resources.getSystem().getString(R.string.null_service));
+        SystemInformationCache cache = this.getSystemInformationCache();
+        if ( cache != null ) {
+            SystemInformationResponse cached = cache.get(mUID);
+            if ( cached != null ) {
+                if ( cached.getMemoryInfo() != null ) {
+                    mMemoryInfo = cached.getMemoryInfo();
+                }
+                return cached;
+            }
+        }
+        return this.refreshSystemInformation();
+    }
+    /**
+     * キャッシュを使わずにタグからシステム情報を取得し、キャッシュを更新します
+     *  
+     * @return GetSystemInformationResponse コマンド実行結果の応答を返します
+     * @throws ISO15693Exception
+     */
+    public SystemInformationResponse refreshSystemInformation() throws ISO15693Exception  {
+        if ( mNfcTag == null && mTransceiver == null ) {
+            throw new ISO15693Exception(MSG_NULL_SERVICE);
         }
         // get System Information
         SystemInformationRequest req = 
@@ -321,15 +611,89 @@ public class ISO15693Tag extends NfcTag {
                     , mUID );
         
         try {
-            byte[] result = ISO15693Lib.transceive(mNfcTag, req.getBytes());
+            byte[] result = this.transceive(req.getBytes());
             if ( result == null ) {
-                throw new ISO15693Exception(R.string.trancieve_failure + " : request = " + req.toString());
+                throw new ISO15693Exception(MSG_TRANSCEIVE_FAILURE + " : request = " + req.toString());
+            }
+            SystemInformationResponse resp = new SystemInformationResponse(result);
+            if ( !resp.hasError() && resp.getMemoryInfo() != null ) {
+                mMemoryInfo = resp.getMemoryInfo(); //以降の書き込みで使い回す
             }
-           return new SystemInformationResponse(result); 
+            SystemInformationCache cache = this.getSystemInformationCache();
+            if ( cache != null ) {
+                cache.put(mUID, resp);
+            }
+            return resp;
         } catch (NfcException e) {
             throw new ISO15693Exception(e);
         }
     }
+    /**
+     * NFC-Vへの接続を確立し、以降のコマンドをこの接続上で実行します
+     * <pre>
+     *  closeSessionを呼び出すまで接続は保持されます。
+     *  既にセッションが開かれている場合は何もしません
+     * </pre>
+     * @return ISO15693Session 開始したセッションが戻ります (Transceiverを直接使用している場合はnull)
+     * @throws ISO15693Exception
+     */
+    public ISO15693Session openSession() throws ISO15693Exception {
+        if ( mTransceiver != null ) {
+            return null; // Transceiverを直接使用している場合はセッション不要
+        }
+        if ( mNfcTag == null ) {
+            throw new ISO15693Exception(MSG_NULL_SERVICE);
+        }
+        if ( mSession == null ) {
+            mSession = ISO15693Session.open(mNfcTag);
+        }
+        return mSession;
+    }
+    /**
+     * 外部で開始したセッションをセットします
+     * @param session セッションをセット (nullをセットするとコマンド毎に接続します)
+     */
+    public void setSession(ISO15693Session session) {
+        mSession = session;
+    }
+    /**
+     * openSessionで開始したセッションを閉じます
+     */
+    public void closeSession() {
+        if ( mSession != null ) {
+            mSession.close();
+            mSession = null;
+        }
+    }
+    /**
+     * 一度に送信可能な最大バイト数を取得します
+     * @return int 最大バイト数が戻ります (接続していない場合は既定値)
+     */
+    protected int getMaxTransceiveLength() {
+        int max = 0;
+        if ( mSession != null ) {
+            max = mSession.getMaxTransceiveLength();
+        } else if ( mTransceiver != null ) {
+            max = mTransceiver.getMaxTransceiveLength();
+        }
+        return max > 0 ? max : DEFAULT_MAX_TRANSCEIVE_LENGTH;
+    }
+    /**
+     * コマンドを送信します (セッションまたはTransceiverがある場合はそれを使用します)
+     *
+     * @param data 送信するコマンドパケットをセット
+     * @return byte[] コマンドの実行結果バイト列で戻ります (タグを見失った場合はnullが戻ります)
+     * @throws NfcException
+     */
+    protected byte[] transceive(byte[] data) throws NfcException {
+        if ( mSession != null ) {
+            return mSession.transceive(data);
+        }
+        if ( mTransceiver != null ) {
+            return mTransceiver.transceive(data);
+        }
+        return ISO15693Lib.transceive(mNfcTag, data);
+    }
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -343,4 +707,17 @@ public class ISO15693Tag extends NfcTag {
        sb.append("　DsfId:　").append(Util.getHexString(mDsfId)).append("\n\n");
        return sb.toString();
     }
+    /**
+     * 分割読み込みの進捗を受け取るリスナを提供します
+     *
+     * @since Android API Level 10
+     */
+    public interface OnBlocksReadListener {
+        /**
+         * 分割した読み込みが完了する毎に呼び出されます
+         * @param firstBlockNumber 読み込んだ先頭ブロックの番号がセットされます
+         * @param blocks 読み込んだブロックのデータがセットされます
+         */
+        void onBlocksRead(int firstBlockNumber, BlockData[] blocks);
+    }
 }
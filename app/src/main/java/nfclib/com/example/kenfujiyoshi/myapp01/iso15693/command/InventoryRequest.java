@@ -99,7 +99,8 @@ public class InventoryRequest extends RequestFormat {
         public byte[] getBytes() {
             byte[] superData = super.getBytes();
             ByteBuffer buff = ByteBuffer.allocate(superData.length + 2 + mMaskValue.length);
-            buff.put(mAFI)
+            buff.put(superData)
+                .put(mAFI)
                 .put(mMaskLength)
                 .put(mMaskValue);
             return buff.array();
@@ -95,29 +95,35 @@ public class ISO15693Lib {
                     return new UID[size];
                 }
             };
-        final byte[] mICMManufacturerSerialNumber; //6byte
-        final byte[] mMfgCode;                     //1byte 
-        final byte[] mEOF;                         //1byte
+        /** UID(8バイト)をバイト列の順に格納した値 (製造者シリアル番号6byte + IC製造者コード1byte + 1byte) */
+        final long mValue;
         /**
          * コンストラクタ
          * @param in 入力するパーセル化オブジェクトをセット
          */
         public UID(Parcel in) {
-            mICMManufacturerSerialNumber = new byte[in.readInt()];
-            in.readByteArray(mICMManufacturerSerialNumber);
-            mMfgCode = new byte[in.readInt()];
-            in.readByteArray(mMfgCode);
-            mEOF = new byte[2];
-            in.readByteArray(mEOF); 
+            mValue = in.readLong();
         }
         /**
          * コンストラクタ 
-         * @param bytes IDmの格納されているバイト列をセットします
+         * @param bytes IDmの格納されているバイト列をセットします (8バイトに満たない分は0とします)
          */
         public UID(byte[] bytes) {
-            mICMManufacturerSerialNumber =  Arrays.copyOfRange(bytes, 0, 6);
-            mMfgCode = Arrays.copyOfRange(bytes, 6, 7);
-            mEOF = Arrays.copyOfRange(bytes, 7, 8);
+            mValue = Util.toLong(bytes.length < 8 ? Arrays.copyOf(bytes, 8) : bytes, 0);
+        }
+        /**
+         * コンストラクタ
+         * @param value UID(バイト列の順)をセット
+         */
+        public UID(long value) {
+            mValue = value;
+        }
+        /**
+         * UIDを64ビットの値で取得します (HashMap等のキーに使用できます)
+         * @return long UID(getBytesのバイト列をビッグエンディアンとして解釈した値)が戻ります
+         */
+        public long longValue() {
+            return mValue;
         }
         /* (non-Javadoc)
          * @see android.os.Parcelable#describeContents()
@@ -131,25 +137,16 @@ public class ISO15693Lib {
          */
         @Override
         public void writeToParcel(Parcel dest, int flags) {
-            //配列長を先に書きだしておく
-            dest.writeInt(mICMManufacturerSerialNumber.length);
-            dest.writeByteArray(mICMManufacturerSerialNumber);
-            
-            //配列長を先に書きだしておく
-            dest.writeInt(mMfgCode.length);
-            dest.writeByteArray(mMfgCode);
-            
-            dest.writeByteArray(mEOF);
+            dest.writeLong(mValue);
         }
         /* (non-Javadoc)
          * @see net.com.example.kenfujiyoshi.myapp01.felica.ISO15693ByteData#getBytes()
          */
         @Override
         public byte[] getBytes() {
-            ByteBuffer buff = ByteBuffer.allocate(
-                    mICMManufacturerSerialNumber.length + mMfgCode.length + mEOF.length);
-            buff.put(mICMManufacturerSerialNumber).put(mMfgCode).put(mEOF);
-            return buff.array();
+            byte[] bytes = new byte[8];
+            Util.putLong(mValue, bytes, 0);
+            return bytes;
         }
         
         /* (non-Javadoc)
@@ -157,10 +154,11 @@ public class ISO15693Lib {
          */
         @Override
         public String toString() {
+            byte[] bytes = this.getBytes();
             StringBuilder sb = new StringBuilder();
-            sb.append("UID (8byte):　[" + Util.getHexString(this.getBytes()) + "]\n");
-            sb.append("　製造者シリアル番号:　" + Util.getHexString(mICMManufacturerSerialNumber) + "\n");
-            sb.append("　IC製造者コード:　" + Util.getHexString(mMfgCode) + "\n");
+            sb.append("UID (8byte):　[" + Util.getHexString(bytes) + "]\n");
+            sb.append("　製造者シリアル番号:　" + Util.getHexString(bytes, 0, 6) + "\n");
+            sb.append("　IC製造者コード:　" + Util.getHexString(bytes, 6, 1) + "\n");
             return sb.toString();
         }
 
@@ -169,6 +167,22 @@ public class ISO15693Lib {
             sb.append(Util.getHexString(this.getBytes()));
             return sb.toString();
         }
+        /* (non-Javadoc)
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return (int) (mValue ^ (mValue >>> 32));
+        }
+        /* (non-Javadoc)
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if ( this == obj ) return true;
+            if ( !(obj instanceof UID) ) return false;
+            return mValue == ((UID) obj).mValue;
+        }
 
     }    
     /**
@@ -193,14 +207,14 @@ public class ISO15693Lib {
             };
         final byte mNumberOfBlocks; //8bit
         final byte mBlockSize;         //5bit
+        final int mBlockCount;         //1～256
         /**
          * コンストラクタ
          * (各値は0オリジンで設定されているため、必ず1加算する)
          * @param in 入力するパーセル化オブジェクトをセット
          */
         public MemorySizeInfo(Parcel in) {
-            mNumberOfBlocks = (byte)(in.readByte() + 1);
-            mBlockSize = (byte)(((in.readByte() & 0x1F) & 0xff) + 1);
+            this(new byte[]{ in.readByte(), in.readByte() });
         }
         /**
          * コンストラクタ 
@@ -208,6 +222,7 @@ public class ISO15693Lib {
          * @param bytes IDmの格納されているバイト列をセットします
          */
         public MemorySizeInfo(byte[] bytes) {
+            mBlockCount = (bytes[0] & 0xff) + 1;
             mNumberOfBlocks = (byte)(bytes[0] + 1);
             mBlockSize = (byte)(((bytes[1] & 0x1F) & 0xff) + 1);
         }
@@ -223,9 +238,9 @@ public class ISO15693Lib {
          */
         @Override
         public void writeToParcel(Parcel dest, int flags) {
-            //配列長を先に書きだしておく
-            dest.writeByte(mNumberOfBlocks);
-            dest.writeByte(mBlockSize);
+            //コンストラクタで1加算するため0オリジンの値で書きだしておく
+            dest.writeByte((byte) (mBlockCount - 1));
+            dest.writeByte((byte) (mBlockSize - 1));
         }
         /* (non-Javadoc)
          * @see net.com.example.kenfujiyoshi.myapp01.felica.ISO15693ByteData#getBytes()
@@ -239,11 +254,28 @@ public class ISO15693Lib {
         
         /**
          * numberOfBlocksを取得します
+         * <pre>
+         *  256ブロックのタグでは0に桁あふれします。ブロック数はgetBlockCountで取得してください
+         * </pre>
          * @return byte numberOfBlockSizeが戻ります
          */
         public byte getNumberOfBlocks() {
             return mNumberOfBlocks;
         }
+        /**
+         * ブロック数を取得します
+         * @return int ブロック数 (1～256)が戻ります
+         */
+        public int getBlockCount() {
+            return mBlockCount;
+        }
+        /**
+         * メモリサイズを取得します
+         * @return int ブロック数×ブロックサイズのバイト数が戻ります
+         */
+        public int getMemorySize() {
+            return mBlockCount * mBlockSize;
+        }
         /**
          * blockSizeを取得します
          * @return byte blockSizeが戻ります
@@ -258,7 +290,7 @@ public class ISO15693Lib {
         public String toString() {
             StringBuilder sb = new StringBuilder();
             sb.append("MemorySizeInfo (2byte):　[" + Util.getHexString(this.getBytes()) + "]\n");
-            sb.append("　ブロック数:　" + Util.getHexString(mNumberOfBlocks) + "\n");
+            sb.append("　ブロック数:　" + mBlockCount + "\n");
             sb.append("　ブロックサイズ:　" + Util.getHexString(mBlockSize) + "\n");
             return sb.toString();
         }    
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib;
+
+import android.nfc.Tag;
+import android.nfc.TagLostException;
+import android.nfc.tech.NfcV;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.ISO15693Exception;
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.NfcException;
+import nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver;
+
+/**
+ * NFC-V(ISO15693)への接続を保持したまま複数のコマンドを実行するセッションを提供します
+ *
+ * <pre>
+ * ISO15693Lib#transceiveはコマンド毎に connect/close を行うため、システム情報の取得に続けて
+ * 複数ブロックを読み書きする場合はこのクラスで接続を一度だけ確立してください。
+ *
+ *   ISO15693Session session = ISO15693Session.open(tag);
+ *   try {
+ *       session.transceive(request.getBytes());
+ *       ...
+ *   } finally {
+ *       session.close();
+ *   }
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public class ISO15693Session implements Closeable, Transceiver {
+    private final NfcV nfcV;
+    private boolean lost;
+
+    /**
+     * コンストラクタ
+     * @param nfcV 接続対象のNfcVをセット
+     */
+    private ISO15693Session(NfcV nfcV) {
+        this.nfcV = nfcV;
+    }
+    /**
+     * セッションを開始します (NfcV#connectを一度だけ実行します)
+     *
+     * @param tag Tagクラスの参照をセットします
+     * @return ISO15693Session 接続済みのセッションが戻ります
+     * @throws ISO15693Exception 接続に失敗した場合にスローされます
+     */
+    public static ISO15693Session open(Tag tag) throws ISO15693Exception {
+        //NfcVはISO15693
+        NfcV nfcV = NfcV.get(tag);
+        if ( nfcV == null ) throw new ISO15693Exception("tag is not ISO15693(NFC-V) ");
+        try {
+            nfcV.connect();
+        } catch (IOException e) {
+            throw new ISO15693Exception(e);
+        }
+        return new ISO15693Session(nfcV);
+    }
+    /**
+     * セッションが有効か否かを検査します
+     * @return boolean 接続中でタグを見失っていない場合trueが戻ります
+     */
+    public boolean isConnected() {
+        return !this.lost && this.nfcV.isConnected();
+    }
+    /* (non-Javadoc)
+     * @see nfclib.com.example.kenfujiyoshi.myapp01.nfc.Transceiver#getMaxTransceiveLength()
+     */
+    @Override
+    public int getMaxTransceiveLength() {
+        return this.nfcV.getMaxTransceiveLength();
+    }
+    /**
+     * 接続済みのNfcVでtransceiveを実行します
+     *
+     * @param data 実行するコマンドパケットをセットします
+     * @return byte[] コマンドの実行結果バイト列で戻ります (タグを見失った場合はnullが戻ります)
+     * @throws NfcException コマンドの発行に失敗した場合にスローされます
+     */
+    @Override
+    public byte[] transceive(byte[] data) throws NfcException {
+        if ( this.lost ) return null; //Tag Lost
+        try {
+            return this.nfcV.transceive(data);
+        } catch (TagLostException e) {
+            this.lost = true;
+            return null; //Tag Lost
+        } catch (IOException e) {
+            throw new NfcException(e);
+        }
+    }
+    /* (non-Javadoc)
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        try {
+            this.nfcV.close();
+        } catch (IOException e) {
+            //NOOP 既に切断済み
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib;
+
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.command.SystemInformationResponse;
+import nfclib.com.example.kenfujiyoshi.myapp01.iso15693.lib.ISO15693Lib.UID;
+import nfclib.com.example.kenfujiyoshi.myapp01.util.LruMap;
+
+/**
+ * UIDをキーにしてシステム情報(GetSystemInformationの応答)を保持するキャッシュを提供します
+ *
+ * <pre>
+ * ブロック数やブロックサイズはタグ毎に不変のため、一度取得したシステム情報を再利用して
+ * GetSystemInformationの送信を省略します。
+ * 保持する件数には上限があり、最も長い間参照されていないものから破棄します (LRU)。
+ * 複数のスレッドから同時に使用できます。
+ *
+ * AFIやDSFIDを書き換えた場合はinvalidateでそのタグのシステム情報を破棄してください。
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+
+public final class SystemInformationCache {
+    /** 既定の最大保持件数 */
+    public static final int DEFAULT_MAX_ENTRIES = 32;
+
+    private static SystemInformationCache sInstance;
+
+    private final LruMap<UID, SystemInformationResponse> mCache;
+
+    /**
+     * プロセス内で共有するキャッシュを取得します (最初の呼び出しで作成します)
+     * @return SystemInformationCache 共有キャッシュが戻ります
+     */
+    public static synchronized SystemInformationCache getInstance() {
+        if ( sInstance == null ) {
+            sInstance = new SystemInformationCache(DEFAULT_MAX_ENTRIES);
+        }
+        return sInstance;
+    }
+    /**
+     * コンストラクタ
+     * @param maxEntries 最大保持件数をセット
+     */
+    public SystemInformationCache(int maxEntries) {
+        mCache = new LruMap<UID, SystemInformationResponse>(maxEntries);
+    }
+    /**
+     * システム情報を取得します
+     * @param uid タグのUIDをセット
+     * @return SystemInformationResponse 保持しているシステム情報が戻ります (無い場合はnull)
+     */
+    public synchronized SystemInformationResponse get(UID uid) {
+        return uid != null ? mCache.get(uid) : null;
+    }
+    /**
+     * システム情報を保持します
+     * <pre>
+     *  エラー応答は保持しません
+     * </pre>
+     * @param uid タグのUIDをセット
+     * @param sysInfo システム情報をセット
+     */
+    public synchronized void put(UID uid, SystemInformationResponse sysInfo) {
+        if ( uid == null || sysInfo == null || sysInfo.hasError() ) return;
+        mCache.put(uid, sysInfo);
+    }
+    /**
+     * タグのシステム情報を破棄します
+     * @param uid タグのUIDをセット
+     */
+    public synchronized void invalidate(UID uid) {
+        if ( uid != null ) mCache.remove(uid);
+    }
+    /**
+     * 全てのシステム情報を破棄します
+     */
+    public synchronized void clear() {
+        mCache.clear();
+    }
+    /**
+     * 保持しているシステム情報の件数を取得します
+     * @return int 件数が戻ります
+     */
+    public synchronized int size() {
+        return mCache.size();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.nfc;
+
+/**
+ * コマンドフレームを送信して応答フレームを受け取る通信路を抽象化したインタフェースを提供します
+ *
+ * <pre>
+ * 実機では FeliCaSession / ISO15693Session が、android.nfc.Tagの無いJVM上では
+ * テスト(androidTest)のsimulatorパッケージの模擬カードがこのインタフェースを実装します
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ */
+public interface Transceiver {
+    /**
+     * コマンドフレームを送信し、応答フレームを受信します
+     *
+     * @param data 送信するコマンドフレームをセット
+     * @return byte[] 応答フレームが戻ります (タグを見失った場合はnullが戻ります)
+     * @throws NfcException 通信に失敗した場合にスローされます
+     */
+    byte[] transceive(byte[] data) throws NfcException;
+    /**
+     * 一度に送信可能な最大バイト数を取得します
+     * @return int 最大バイト数が戻ります
+     */
+    int getMaxTransceiveLength();
+}
@@ -188,20 +188,17 @@ public final class ArrayUtil {
     }
     /**
      * 配列にオブジェクトが含まれているかどうかを返します。
+     * (いずれの配列も並べ替えません)
      * 
      * @param source 検査対象の配列をセット
      * @param target 含まれている可能性のある配列をセット
-     * @return 配列にオブジェクトが含まれている場合はtrueが戻ります
+     * @return targetのいずれかの要素がsourceに含まれている場合はtrueが戻ります
      */
     public static <T> boolean containArray(T[] source, T[] target) {
         if (target == null || target.length == 0) return false;
 
-        Arrays.sort(source);
-        Arrays.sort(target);
         for (T tech : target) {
-            if (Arrays.binarySearch(source, tech) < 0) {
-                continue;
-            } else {
+            if (contains(source, tech)) {
                 return true;
             }
         }
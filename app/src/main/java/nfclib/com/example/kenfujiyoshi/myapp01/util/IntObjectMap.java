@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.util;
+
+/**
+ * intをキーとするオープンアドレス法(線形探索)のマップを提供します
+ *
+ * <pre>
+ * キーをボクシングせず、エントリオブジェクトも作成しないため、getはヒープを確保しません。
+ * 値にnullは格納できません (nullは空きスロットを表します)。
+ * 削除はサポートしません。構築後に読み出し専用で使用することを想定しています。
+ * 構築を終えたマップを安全に公開すれば、複数のスレッドから同時にgetできます。
+ * </pre>
+ *
+ * @since Android API Level 10
+ *
+ * @param <V> 値の型
+ */
+public final class IntObjectMap<V> {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * デフォルトコンストラクタ
+     */
+    public IntObjectMap() {
+        this(16);
+    }
+    /**
+     * コンストラクタ
+     * @param expectedSize 格納するエントリ数の見込みをセット
+     */
+    public IntObjectMap(int expectedSize) {
+        int capacity = 2;
+        while ( capacity * LOAD_FACTOR < expectedSize ) {
+            capacity <<= 1;
+        }
+        this.allocate(capacity);
+    }
+    /**
+     * キーに対応する値を取得します
+     * @param key キーをセット
+     * @return V 値が戻ります (存在しない場合はnull)
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = hash(key) & this.mask;
+        Object v;
+        while ( (v = this.values[i]) != null ) {
+            if ( this.keys[i] == key ) return (V) v;
+            i = (i + 1) & this.mask;
+        }
+        return null;
+    }
+    /**
+     * キーが格納されているか否かを検査します
+     * @param key キーをセット
+     * @return boolean 格納されている場合trueが戻ります
+     */
+    public boolean containsKey(int key) {
+        return this.get(key) != null;
+    }
+    /**
+     * 値を格納します
+     * @param key キーをセット
+     * @param value 値をセット (nullは不可)
+     * @return V 以前の値が戻ります (無かった場合はnull)
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if ( value == null ) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        int i = hash(key) & this.mask;
+        Object v;
+        while ( (v = this.values[i]) != null ) {
+            if ( this.keys[i] == key ) {
+                this.values[i] = value;
+                return (V) v;
+            }
+            i = (i + 1) & this.mask;
+        }
+        this.keys[i] = key;
+        this.values[i] = value;
+        if ( ++this.size > this.values.length * LOAD_FACTOR ) {
+            this.rehash(this.values.length << 1);
+        }
+        return null;
+    }
+    /**
+     * 格納しているエントリ数を取得します
+     * @return int エントリ数が戻ります
+     */
+    public int size() {
+        return this.size;
+    }
+    /**
+     * 指定した容量の領域を確保します
+     * @param capacity 容量(2のべき乗)をセット
+     */
+    private void allocate(int capacity) {
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+    /**
+     * 容量を変更して全てのエントリを格納し直します
+     * @param capacity 新しい容量(2のべき乗)をセット
+     */
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity) {
+        int[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        this.allocate(capacity);
+        this.size = 0;
+        for ( int i = 0; i < oldValues.length; i++ ) {
+            if ( oldValues[i] != null ) this.put(oldKeys[i], (V) oldValues[i]);
+        }
+    }
+    /**
+     * キーを拡散します (連続したキーが隣接するスロットに集中しないようにします)
+     * @param key キーをセット
+     * @return int ハッシュ値が戻ります
+     */
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nfclib.com.example.kenfujiyoshi.myapp01.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 保持する件数に上限のあるLRUのマップを提供します
+ *
+ * <pre>
+ * アクセス順のLinkedHashMapで、上限を超えると最も長い間参照されていないエントリを破棄します。
+ * android.util.LruCacheと異なりandroidのクラスに依存しないため、JVM上でも使用できます。
+ * getでも順序が変わるため、複数のスレッドから使用する場合はgetも含めて呼び出し側で同期してください。
+ * </pre>
+ *
+ * @param <K> キーの型
+ * @param <V> 値の型
+ */
+public final class LruMap<K, V> extends LinkedHashMap<K, V> {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxEntries;
+
+    /**
+     * コンストラクタ
+     * @param maxEntries 最大保持件数をセット
+     */
+    public LruMap(int maxEntries) {
+        super(16, 0.75f, true);
+        if ( maxEntries <= 0 ) {
+            throw new IllegalArgumentException("maxEntries <= 0");
+        }
+        this.maxEntries = maxEntries;
+    }
+    /**
+     * 最大保持件数を取得します
+     * @return int 最大保持件数が戻ります
+     */
+    public int getMaxEntries() {
+        return this.maxEntries;
+    }
+    /* (non-Javadoc)
+     * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+     */
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return this.size() > this.maxEntries;
+    }
+}
@@ -11,6 +11,7 @@
  */
 package nfclib.com.example.kenfujiyoshi.myapp01.util;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -71,6 +72,44 @@ public final class Util {
             
         return ByteBuffer.wrap(b).getInt();
     }
+    /**
+     * バイト配列の8バイトをlongにします (ヒープを確保しません)
+     * 
+     * @param b バイト配列をセット
+     * @param offset 開始位置をセット
+     * @return long ビッグエンディアンとして解釈した値が戻ります
+     */
+    public static long toLong(byte[] b, int offset) {
+        long value = 0;
+        for ( int i = 0; i < 8; i++ ) {
+            value = (value << 8) | (b[offset + i] & 0xff);
+        }
+        return value;
+    }
+    /**
+     * longをバイト配列の8バイトに書き込みます (ヒープを確保しません)
+     * 
+     * @param value 値をセット
+     * @param dest 書き込み先の配列をセット
+     * @param offset 書き込み先の開始位置をセット
+     */
+    public static void putLong(long value, byte[] dest, int offset) {
+        for ( int i = 7; i >= 0; i-- ) {
+            dest[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+    /** 16進数の文字 (値から文字への変換表) */
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    /** 16進数の文字から値への変換表 (16進数以外は-1) */
+    private static final byte[] HEX_VALUES = new byte[128];
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for ( int i = 0; i < 16; i++ ) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toLowerCase(HEX_DIGITS[i])] = (byte) i;
+        }
+    }
     /**
      * byte配列を16進数文字列で戻します
      * 
@@ -78,28 +117,81 @@ public final class Util {
      * @return 文字列が戻ります
      */
     public static String getHexString(byte data) {
-        return getHexString(new byte[]{data});
+        return new String(new char[]{ HEX_DIGITS[(data >> 4) & 0x0f], HEX_DIGITS[data & 0x0f] });
     }
     /**
      * byte配列を16進数文字列で戻します
      * 
      * @param byteArray byte配列をセット 
+     * @param split 範囲をセット (開始位置とバイト数。省略時及び1つだけの場合は全体、配列の終端を超えた分は0)
      * @return 文字列が戻ります
      */
     public static String getHexString(byte[] byteArray, int... split) {
-        StringBuilder builder = new StringBuilder();
-        byte[] target = null;
-        if ( split.length <= 1 ) {
-            target = byteArray;
-        } else  if ( split.length < 2 ) {
-            target = Arrays.copyOfRange(byteArray, 0, 0 + split[0]);
-        } else {
-            target = Arrays.copyOfRange(byteArray, split[0], split[0] + split[1]);
+        int offset = getOffset(split);
+        int length = getLength(byteArray, split);
+        char[] chars = new char[length * 2];
+        for ( int i = 0; i < length; i++ ) {
+            int b = byteAt(byteArray, offset + i);
+            chars[i * 2] = HEX_DIGITS[(b >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_DIGITS[b & 0x0f];
+        }
+        return new String(chars);
+    }
+    /**
+     * byte配列の16進数表現をStringBuilderに追加します (中間の文字列を作成しません)
+     * 
+     * @param sb 追加先をセット
+     * @param byteArray byte配列をセット
+     * @param offset 開始位置をセット
+     * @param length バイト数をセット
+     * @return StringBuilder 追加先が戻ります
+     */
+    public static StringBuilder appendHex(StringBuilder sb, byte[] byteArray, int offset, int length) {
+        sb.ensureCapacity(sb.length() + length * 2);
+        for ( int i = offset; i < offset + length; i++ ) {
+            int b = byteArray[i];
+            sb.append(HEX_DIGITS[(b >> 4) & 0x0f]).append(HEX_DIGITS[b & 0x0f]);
+        }
+        return sb;
+    }
+    /**
+     * byte配列の16進数表現をAppendable (Writer等)に追加します
+     * 
+     * @param out 追加先をセット
+     * @param byteArray byte配列をセット
+     * @param offset 開始位置をセット
+     * @param length バイト数をセット
+     * @throws IOException 追加先への書き込みに失敗した場合にスローされます
+     */
+    public static void appendHex(Appendable out, byte[] byteArray, int offset, int length)
+            throws IOException {
+        for ( int i = offset; i < offset + length; i++ ) {
+            int b = byteArray[i];
+            out.append(HEX_DIGITS[(b >> 4) & 0x0f]).append(HEX_DIGITS[b & 0x0f]);
+        }
+    }
+    /**
+     * 16進数文字列をbyte配列にします
+     * 
+     * @param hex 16進数文字列 (大文字小文字は問いません)をセット
+     * @return byte[] byte配列が戻ります
+     * @throws IllegalArgumentException 長さが奇数の場合、16進数以外の文字を含む場合にスローされます
+     */
+    public static byte[] parseHex(CharSequence hex) {
+        int length = hex.length();
+        if ( (length & 1) != 0 ) {
+            throw new IllegalArgumentException("odd length : " + length);
         }
-        for (byte b : target) {
-            builder.append(String.format("%02x", b).toUpperCase());
+        byte[] result = new byte[length / 2];
+        for ( int i = 0; i < result.length; i++ ) {
+            int hi = hexValue(hex.charAt(i * 2));
+            int lo = hexValue(hex.charAt(i * 2 + 1));
+            if ( hi < 0 || lo < 0 ) {
+                throw new IllegalArgumentException("invalid hex : " + hex);
+            }
+            result[i] = (byte) (hi << 4 | lo);
         }
-        return builder.toString();
+        return result;
     }
     /**
      * byte配列を2進数文字列で戻します
@@ -108,29 +200,97 @@ public final class Util {
      * @return 文字列が戻ります
      */
     public static String getBinString(byte data) {
-        return getBinString(new byte[]{data});
+        return appendBin(new StringBuilder(8), new byte[]{data}, 0, 1).toString();
     }   
     /**
      * byte配列を2進数文字列で戻します
      * 
      * @param byteArray byte配列をセット 
+     * @param split 範囲をセット (開始位置とバイト数。省略時及び1つだけの場合は全体、配列の終端を超えた分は0)
      * @return 文字列が戻ります
      */
     public static String getBinString(byte[] byteArray, int... split) {
-        StringBuilder builder = new StringBuilder();
-        byte[] target = null;
-        if ( split.length <= 1 ) {
-            target = byteArray;
-        } else  if ( split.length < 2 ) {
-            target = Arrays.copyOfRange(byteArray, 0, 0 + split[0]);
-        } else {
-            target = Arrays.copyOfRange(byteArray, split[0], split[0] + split[1]);
+        int offset = getOffset(split);
+        int length = getLength(byteArray, split);
+        StringBuilder sb = new StringBuilder(length * 8);
+        for ( int i = 0; i < length; i++ ) {
+            appendBin(sb, byteAt(byteArray, offset + i));
         }
-        
-        for (byte b : target) {
-            builder.append(String.format("%8s"
-                    , Integer.toBinaryString(b & 0xFF)).replaceAll(" ", "0"));
+        return sb.toString();
+    }
+    /**
+     * byte配列の2進数表現(1バイト8桁)をStringBuilderに追加します (中間の文字列を作成しません)
+     * 
+     * @param sb 追加先をセット
+     * @param byteArray byte配列をセット
+     * @param offset 開始位置をセット
+     * @param length バイト数をセット
+     * @return StringBuilder 追加先が戻ります
+     */
+    public static StringBuilder appendBin(StringBuilder sb, byte[] byteArray, int offset, int length) {
+        sb.ensureCapacity(sb.length() + length * 8);
+        for ( int i = offset; i < offset + length; i++ ) {
+            appendBin(sb, byteArray[i]);
+        }
+        return sb;
+    }
+    /**
+     * 1バイトの2進数表現(8桁)をStringBuilderに追加します
+     * @param sb 追加先をセット
+     * @param b 値をセット
+     */
+    private static void appendBin(StringBuilder sb, int b) {
+        for ( int bit = 7; bit >= 0; bit-- ) {
+            sb.append(((b >> bit) & 1) != 0 ? '1' : '0');
+        }
+    }
+    /**
+     * 16進数の文字を値にします
+     * @param c 文字をセット
+     * @return int 値が戻ります (16進数以外は-1)
+     */
+    private static int hexValue(char c) {
+        return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+    }
+    /**
+     * 範囲指定から開始位置を取得します
+     * @param split 範囲をセット
+     * @return int 開始位置が戻ります
+     */
+    private static int getOffset(int[] split) {
+        return split.length >= 2 ? split[0] : 0;
+    }
+    /**
+     * 範囲指定からバイト数を取得します
+     * <pre>
+     *  従来のArrays.copyOfRangeによる切り出しと同じ扱いとします。
+     *  範囲を1つだけ指定した場合は無視して全体とし、開始位置が配列の外の場合、バイト数が負の場合は
+     *  copyOfRangeと同じ例外をスローします (終端を超えた分はbyteAtで0として扱います)
+     * </pre>
+     * @param byteArray byte配列をセット
+     * @param split 範囲をセット
+     * @return int バイト数が戻ります
+     */
+    private static int getLength(byte[] byteArray, int[] split) {
+        if ( split.length < 2 ) {
+            return byteArray.length;
+        }
+        int from = split[0];
+        if ( from < 0 || from > byteArray.length ) {
+            throw new ArrayIndexOutOfBoundsException(from);
+        }
+        if ( split[1] < 0 ) {
+            throw new IllegalArgumentException(from + " > " + (from + split[1]));
         }
-        return builder.toString();
+        return split[1];
+    }
+    /**
+     * byte配列の値を取得します
+     * @param byteArray byte配列をセット
+     * @param index 位置をセット
+     * @return int 値が戻ります (配列の終端を超えた場合は0)
+     */
+    private static int byteAt(byte[] byteArray, int index) {
+        return index < byteArray.length ? byteArray[index] : 0;
     }
 }